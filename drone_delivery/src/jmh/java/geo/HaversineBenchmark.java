@@ -0,0 +1,75 @@
+package geo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pointwise distance kernels. {@code legacyAtan2} is the formula the matcher and the Kinesis
+ * consumer each carried before they shared {@link GeoMath}; it stays here as the baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HaversineBenchmark {
+
+    private static final int POINTS = 1024;
+
+    private final double[] lats = new double[POINTS + 1];
+    private final double[] lons = new double[POINTS + 1];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i <= POINTS; i++) {
+            lats[i] = random.nextDouble() * 170 - 85;
+            lons[i] = random.nextDouble() * 360 - 180;
+        }
+    }
+
+    @Benchmark
+    public double haversineKm() {
+        int i = advance();
+        return GeoMath.haversineKm(lats[i], lons[i], lats[i + 1], lons[i + 1]);
+    }
+
+    @Benchmark
+    public double haversineMeters() {
+        int i = advance();
+        return GeoMath.haversineMeters(lats[i], lons[i], lats[i + 1], lons[i + 1]);
+    }
+
+    @Benchmark
+    public double legacyAtan2() {
+        int i = advance();
+        double latDistance = Math.toRadians(lats[i + 1] - lats[i]);
+        double lonDistance = Math.toRadians(lons[i + 1] - lons[i]);
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+                + Math.cos(Math.toRadians(lats[i])) * Math.cos(Math.toRadians(lats[i + 1]))
+                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+        return 6371 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    @Benchmark
+    public double equirectangularKm() {
+        int i = advance();
+        return GeoMath.equirectangularKm(lats[i], lons[i], lats[i + 1], lons[i + 1]);
+    }
+
+    @Benchmark
+    public boolean isWithinMeters() {
+        int i = advance();
+        return GeoMath.isWithinMeters(lats[i], lons[i], lats[i + 1], lons[i + 1], 5);
+    }
+
+    private int advance() {
+        int i = next;
+        next = i + 1 == POINTS ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,88 @@
+package handler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import geo.LocationAttributes;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The GET response path of both handlers: {@code convertAttributes} on each item followed by
+ * {@code writeValueAsString}, for a single item and for a page of items.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseSerializationBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DroneServiceHandler droneHandler;
+    private OrderServiceHandler orderHandler;
+    private final List<Map<String, AttributeValue>> drones = new ArrayList<>();
+    private final List<Map<String, AttributeValue>> orders = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        // The clients are built but never called
+        droneHandler = new DroneServiceHandler();
+        orderHandler = new OrderServiceHandler();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            Map<String, AttributeValue> drone = new HashMap<>(LocationAttributes.toAttributes(47.6 + i * 1e-3, -122.3 - i * 1e-3));
+            drone.put("UUID", s(UUID.randomUUID().toString()));
+            drone.put("Status", s("ACTIVE"));
+            drones.add(drone);
+
+            Map<String, AttributeValue> order = new HashMap<>();
+            order.put("UUID", s(UUID.randomUUID().toString()));
+            order.put("StoreID", s(UUID.randomUUID().toString()));
+            order.put("UserID", s(UUID.randomUUID().toString()));
+            order.put("CreateAt", s("2024-05-01T12:00:00Z"));
+            order.put("Status", s("created"));
+            order.put("AssignedTo", s(""));
+            order.put("Version", AttributeValue.builder().n("1").build());
+            order.put("StoreLocation", s("47.6062,-122.3321"));
+            orders.add(order);
+        }
+    }
+
+    @Benchmark
+    public String droneById() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(droneHandler.convertAttributes(drones.get(0)));
+    }
+
+    @Benchmark
+    public String dronePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(drones.stream()
+                .map(droneHandler::convertAttributes)
+                .collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public String orderById() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(orderHandler.convertAttributes(orders.get(0)));
+    }
+
+    @Benchmark
+    public String orderPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(orders.stream()
+                .map(orderHandler::convertAttributes)
+                .collect(Collectors.toList()));
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+}
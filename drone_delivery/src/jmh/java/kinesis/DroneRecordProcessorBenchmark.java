@@ -0,0 +1,84 @@
+package kinesis;
+
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DroneRecordProcessor#processRecords} over a batch of location updates for drones with
+ * no assigned order. The lookup completes immediately, so the score is the decode and dispatch
+ * cost per batch rather than DynamoDB latency.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DroneRecordProcessorBenchmark {
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    @Param({"json", "binary"})
+    public String format;
+
+    private DroneRecordProcessor processor;
+    private List<KinesisClientRecord> records;
+    private ProcessRecordsInput input;
+
+    @Setup
+    public void setUp() {
+        processor = new DroneRecordProcessor(new NoOrdersDynamoDb());
+        Random random = new Random(42);
+        records = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            LocationUpdate update = new LocationUpdate("drone-" + i, 25 + random.nextDouble() * 24,
+                    -125 + random.nextDouble() * 58, 0);
+            byte[] data = "binary".equals(format) ? update.toBinary() : update.toJson().getBytes(StandardCharsets.UTF_8);
+            records.add(KinesisClientRecord.builder()
+                    .data(ByteBuffer.wrap(data))
+                    .build());
+        }
+        input = ProcessRecordsInput.builder().records(records).build();
+    }
+
+    @Benchmark
+    public void processRecords() {
+        // Decoding consumes the buffers
+        for (KinesisClientRecord record : records) {
+            record.data().rewind();
+        }
+        processor.processRecords(input);
+    }
+
+    private static class NoOrdersDynamoDb implements DynamoDbAsyncClient {
+        private static final CompletableFuture<QueryResponse> EMPTY =
+                CompletableFuture.completedFuture(QueryResponse.builder().items(List.of()).build());
+
+        @Override
+        public CompletableFuture<QueryResponse> query(QueryRequest queryRequest) {
+            return EMPTY;
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
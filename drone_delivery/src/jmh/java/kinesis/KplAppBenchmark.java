@@ -0,0 +1,58 @@
+package kinesis;
+
+import geo.GeoPoint;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-update producer work: hashing the partition key and serializing the location record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KplAppBenchmark {
+
+    private static final int DRONES = 1024;
+
+    private final String[] droneIds = new String[DRONES];
+    private final GeoPoint[] locations = new GeoPoint[DRONES];
+    @Param({"json", "binary"})
+    public String format;
+
+    private KplApp app;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Serialization touches neither the producer nor DynamoDB
+        app = new KplApp(null, null, null, "binary".equals(format));
+        Random random = new Random(42);
+        for (int i = 0; i < DRONES; i++) {
+            droneIds[i] = UUID.nameUUIDFromBytes(new byte[]{(byte) i, (byte) (i >> 8)}).toString();
+            locations[i] = new GeoPoint(25 + random.nextDouble() * 24, -125 + random.nextDouble() * 58);
+        }
+    }
+
+    @Benchmark
+    public String hashPartitionKey() {
+        return KplApp.hashPartitionKey(droneIds[advance()]);
+    }
+
+    @Benchmark
+    public byte[] encodeLocationUpdate() {
+        int i = advance();
+        return app.encodeLocationUpdate(droneIds[i], locations[i]);
+    }
+
+    private int advance() {
+        int i = next;
+        next = i + 1 == DRONES ? 0 : i + 1;
+        return i;
+    }
+}
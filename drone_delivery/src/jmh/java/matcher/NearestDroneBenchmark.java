@@ -0,0 +1,79 @@
+package matcher;
+
+import geo.GeoMath;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest-drone lookup over fleets of 100 to 1M drones spread across the continental US:
+ * the cell index the matcher queries against a linear scan of the same positions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NearestDroneBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int fleetSize;
+
+    private DroneIndex index;
+    private double[] droneLats;
+    private double[] droneLons;
+    private final double[] queryLats = new double[QUERIES];
+    private final double[] queryLons = new double[QUERIES];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        index = new DroneIndex();
+        droneLats = new double[fleetSize];
+        droneLons = new double[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            droneLats[i] = randomLat(random);
+            droneLons[i] = randomLon(random);
+            index.upsert("drone-" + i, droneLats[i], droneLons[i]);
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            queryLats[i] = randomLat(random);
+            queryLons[i] = randomLon(random);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            int i = next;
+            next = i + 1 == QUERIES ? 0 : i + 1;
+            return i;
+        }
+    }
+
+    @Benchmark
+    public DroneIndex.Candidate indexNearest(Cursor cursor) {
+        int q = cursor.advance();
+        return index.nearest(queryLats[q], queryLons[q]);
+    }
+
+    @Benchmark
+    public int linearScan(Cursor cursor) {
+        int q = cursor.advance();
+        return GeoMath.nearest(queryLats[q], queryLons[q], droneLats, droneLons, fleetSize);
+    }
+
+    private static double randomLat(Random random) {
+        return 25 + random.nextDouble() * 24;
+    }
+
+    private static double randomLon(Random random) {
+        return -125 + random.nextDouble() * 58;
+    }
+}
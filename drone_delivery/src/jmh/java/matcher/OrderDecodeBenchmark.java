@@ -0,0 +1,67 @@
+package matcher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one SQS body into an order: the streaming decoder on both SNS delivery modes, and
+ * the two-pass {@code Map} decode it replaced as the baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderDecodeBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OrderEventDecoder decoder = new OrderEventDecoder();
+    private String envelope;
+    private String raw;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, String> order = new LinkedHashMap<>();
+        order.put("UUID", "8f14e45f-ceea-467f-a0e6-72c1c5a0e3c4");
+        order.put("StoreID", "c9f0f895-fb98-4b91-9d1c-7d4a9a5b0a1e");
+        order.put("UserID", "45c48cce-2e2d-4fbd-8c56-0f1e2d3c4b5a");
+        order.put("StoreLocation", "47.6062,-122.3321");
+        order.put("Status", "created");
+        order.put("AssignedTo", "");
+        order.put("Version", "1");
+        raw = objectMapper.writeValueAsString(order);
+
+        Map<String, Object> sns = new LinkedHashMap<>();
+        sns.put("Type", "Notification");
+        sns.put("MessageId", "0b3a2f8e-6c1d-4e5f-9a7b-8c9d0e1f2a3b");
+        sns.put("TopicArn", "arn:aws:sns:us-east-1:123456789012:OrderTopic");
+        sns.put("Message", raw);
+        sns.put("Timestamp", "2024-05-01T12:00:00.000Z");
+        sns.put("SignatureVersion", "1");
+        sns.put("MessageAttributes", Map.of("Region", Map.of("Type", "String", "Value", "west")));
+        envelope = objectMapper.writeValueAsString(sns);
+    }
+
+    @Benchmark
+    public OrderEvent streamingEnvelope() throws IOException {
+        return decoder.decode(envelope);
+    }
+
+    @Benchmark
+    public OrderEvent streamingRaw() throws IOException {
+        return decoder.decode(raw);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Map<String, String> legacyMapEnvelope() throws IOException {
+        Map<String, Object> sns = objectMapper.readValue(envelope, Map.class);
+        return objectMapper.readValue((String) sns.get("Message"), Map.class);
+    }
+}
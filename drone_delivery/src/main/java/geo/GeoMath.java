@@ -0,0 +1,150 @@
+package geo;
+
+/**
+ * Great-circle distance math shared by the matcher and the Kinesis consumers.
+ * <p>
+ * All distances are on a sphere with the mean Earth radius and come in two explicit units:
+ * {@code *Km} and {@code *Meters}. The exact path is the haversine formula; the batch kernels
+ * skip most of its trigonometry for candidates that cannot win, using two cheap observations:
+ * <ul>
+ *     <li>the great-circle distance is never shorter than the latitude difference alone
+ *     ({@code R * |dLat|}), which costs no trig at all, and</li>
+ *     <li>the haversine term {@code a} grows monotonically with distance, so candidates can be
+ *     compared on {@code a} without the square root and arcsine.</li>
+ * </ul>
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS_KM = 6371;
+    public static final double EARTH_RADIUS_METERS = EARTH_RADIUS_KM * 1000;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Haversine distance in kilometres between two points given in degrees.
+     */
+    public static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        return EARTH_RADIUS_KM * centralAngle(haversineTerm(lat1, lon1, lat2, lon2));
+    }
+
+    /**
+     * Haversine distance in metres between two points given in degrees.
+     */
+    public static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        return EARTH_RADIUS_METERS * centralAngle(haversineTerm(lat1, lon1, lat2, lon2));
+    }
+
+    /**
+     * Equirectangular approximation of the distance in kilometres. Needs one cosine instead of
+     * four trig calls and a square root; within about 0.1% of haversine below a few hundred
+     * kilometres away from the poles, and much worse across long distances or the antimeridian.
+     */
+    public static double equirectangularKm(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(normalizeLonDelta(lon2 - lon1)) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return EARTH_RADIUS_KM * Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * Whether two points are less than the given number of metres apart. Points whose
+     * latitudes alone are that far apart are rejected without any trig.
+     */
+    public static boolean isWithinMeters(double lat1, double lon1, double lat2, double lon2, double meters) {
+        double maxAngle = meters / EARTH_RADIUS_METERS;
+        if (Math.abs(Math.toRadians(lat2 - lat1)) >= maxAngle) {
+            return false;
+        }
+        if (maxAngle > Math.PI) {
+            return true;
+        }
+        double s = Math.sin(maxAngle / 2);
+        return haversineTerm(lat1, lon1, lat2, lon2) < s * s;
+    }
+
+    /**
+     * Returns the index in {@code [0, count)} of the point nearest to {@code (lat, lon)}, or
+     * {@code -1} if {@code count} is zero. Ties go to the lowest index.
+     */
+    public static int nearest(double lat, double lon, double[] lats, double[] lons, int count) {
+        double phi = Math.toRadians(lat);
+        double cosPhi = Math.cos(phi);
+        int best = -1;
+        double bestTerm = Double.POSITIVE_INFINITY;
+        double bestLatBound = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double dPhi = Math.toRadians(lats[i]) - phi;
+            // |dLat| alone already puts it at least as far as the best so far
+            if (Math.abs(dPhi) > bestLatBound) {
+                continue;
+            }
+            double term = haversineTerm(phi, cosPhi, Math.toRadians(lats[i]), dPhi, Math.toRadians(lons[i] - lon));
+            if (term < bestTerm) {
+                bestTerm = term;
+                best = i;
+                bestLatBound = 2 * Math.asin(Math.min(1, Math.sqrt(term)));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fills {@code out[0..count)} with the haversine distance in kilometres from
+     * {@code (lat, lon)} to every point, sharing the query point's trig across the batch.
+     */
+    public static void distancesKm(double lat, double lon, double[] lats, double[] lons, int count, double[] out) {
+        double phi = Math.toRadians(lat);
+        double cosPhi = Math.cos(phi);
+        for (int i = 0; i < count; i++) {
+            double phi2 = Math.toRadians(lats[i]);
+            out[i] = EARTH_RADIUS_KM * centralAngle(haversineTerm(phi, cosPhi, phi2, phi2 - phi, Math.toRadians(lons[i] - lon)));
+        }
+    }
+
+    /**
+     * Degrees of latitude spanned by the given distance; the half-height of a bounding box.
+     */
+    public static double latDegrees(double km) {
+        return Math.toDegrees(km / EARTH_RADIUS_KM);
+    }
+
+    /**
+     * Degrees of longitude spanned by the given distance at a latitude, or 360 near the poles
+     * where every longitude is within reach; the half-width of a bounding box.
+     */
+    public static double lonDegrees(double lat, double km) {
+        double angle = km / EARTH_RADIUS_KM;
+        double phi = Math.toRadians(lat);
+        if (Math.abs(phi) + angle >= Math.PI / 2) {
+            return 360;
+        }
+        // Widest longitude offset a circle of that angular radius reaches
+        return Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(phi)));
+    }
+
+    static double haversineTerm(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        return haversineTerm(phi1, Math.cos(phi1), phi2, phi2 - phi1, Math.toRadians(lon2 - lon1));
+    }
+
+    private static double haversineTerm(double phi1, double cosPhi1, double phi2, double dPhi, double dLambda) {
+        double sinDPhi = Math.sin(dPhi / 2);
+        double sinDLambda = Math.sin(dLambda / 2);
+        return sinDPhi * sinDPhi + cosPhi1 * Math.cos(phi2) * sinDLambda * sinDLambda;
+    }
+
+    private static double centralAngle(double haversineTerm) {
+        return 2 * Math.asin(Math.min(1, Math.sqrt(haversineTerm)));
+    }
+
+    private static double normalizeLonDelta(double degrees) {
+        double delta = degrees % 360;
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta < -180) {
+            delta += 360;
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,66 @@
+package geo;
+
+/**
+ * An immutable latitude/longitude pair in degrees.
+ */
+public final class GeoPoint {
+
+    private final double lat;
+    private final double lon;
+
+    public GeoPoint(double lat, double lon) {
+        if (!(lat >= -90 && lat <= 90) || !(lon >= -180 && lon <= 180)) {
+            throw new IllegalArgumentException("Not a location: " + lat + "," + lon);
+        }
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    /**
+     * Parses the legacy {@code "lat,lon"} form.
+     */
+    public static GeoPoint parse(CharSequence location) {
+        return new GeoPoint(LocationCodec.latitude(location), LocationCodec.longitude(location));
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public double distanceKm(GeoPoint other) {
+        return GeoMath.haversineKm(lat, lon, other.lat, other.lon);
+    }
+
+    public double distanceMeters(GeoPoint other) {
+        return GeoMath.haversineMeters(lat, lon, other.lat, other.lon);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GeoPoint)) {
+            return false;
+        }
+        GeoPoint other = (GeoPoint) o;
+        return Double.compare(lat, other.lat) == 0 && Double.compare(lon, other.lon) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(lat) + Double.hashCode(lon);
+    }
+
+    /**
+     * The legacy {@code "lat,lon"} form, rounded to seven decimals.
+     */
+    @Override
+    public String toString() {
+        return LocationCodec.format(lat, lon);
+    }
+}
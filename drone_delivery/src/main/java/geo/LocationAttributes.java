@@ -0,0 +1,63 @@
+package geo;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes locations on DynamoDB items.
+ * <p>
+ * The numeric form is a pair of {@code N} attributes, {@code Lat} and {@code Lon}, which need no
+ * splitting to read and can be range-filtered server side. Rows written before that only carry
+ * the legacy {@code Location} string, so readers prefer the numeric pair and fall back to the
+ * string. Writers set both until every reader has moved over.
+ */
+public final class LocationAttributes {
+
+    public static final String LEGACY = "Location";
+    public static final String LAT = "Lat";
+    public static final String LON = "Lon";
+
+    private LocationAttributes() {
+    }
+
+    public static boolean hasLocation(Map<String, AttributeValue> item) {
+        return (item.containsKey(LAT) && item.containsKey(LON)) || item.containsKey(LEGACY);
+    }
+
+    public static double lat(Map<String, AttributeValue> item) {
+        AttributeValue lat = item.get(LAT);
+        if (lat != null && lat.n() != null) {
+            String value = lat.n();
+            return LocationCodec.parseCoordinate(value, 0, value.length());
+        }
+        return LocationCodec.latitude(item.get(LEGACY).s());
+    }
+
+    public static double lon(Map<String, AttributeValue> item) {
+        AttributeValue lon = item.get(LON);
+        if (lon != null && lon.n() != null) {
+            String value = lon.n();
+            return LocationCodec.parseCoordinate(value, 0, value.length());
+        }
+        return LocationCodec.longitude(item.get(LEGACY).s());
+    }
+
+    public static GeoPoint point(Map<String, AttributeValue> item) {
+        return new GeoPoint(lat(item), lon(item));
+    }
+
+    /**
+     * The attributes to write for a location: the numeric pair plus the legacy string.
+     */
+    public static Map<String, AttributeValue> toAttributes(double lat, double lon) {
+        StringBuilder text = new StringBuilder(24);
+        Map<String, AttributeValue> attributes = new HashMap<>();
+        attributes.put(LAT, AttributeValue.builder().n(LocationCodec.appendCoordinate(text, lat).toString()).build());
+        text.setLength(0);
+        attributes.put(LON, AttributeValue.builder().n(LocationCodec.appendCoordinate(text, lon).toString()).build());
+        attributes.put(LEGACY, AttributeValue.builder().s(LocationCodec.format(lat, lon)).build());
+        return attributes;
+    }
+}
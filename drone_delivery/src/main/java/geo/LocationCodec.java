@@ -0,0 +1,164 @@
+package geo;
+
+/**
+ * Allocation-free reading and writing of the legacy {@code "lat,lon"} location strings.
+ * <p>
+ * Parsing scans the characters in place instead of splitting and substringing. Numbers with at
+ * most 15 significant digits and a small decimal exponent (every location this system writes)
+ * take Clinger's fast path: the digits are collected into a {@code long} and scaled by one exact
+ * power of ten, which rounds correctly. Anything else (e.g. the 17-digit output of
+ * {@link Double#toString}) falls back to {@link Double#parseDouble}. Plain decimal and
+ * scientific numbers parse to the same value as before; Java's other spellings, such as
+ * {@code "1.5d"}, {@code "0x1p3"}, {@code "NaN"} and {@code "Infinity"}, are rejected, as no
+ * location holds them.
+ * <p>
+ * Formatting writes at most seven decimals (about a centimetre), which keeps formatted
+ * locations on the fast path when they are read back.
+ */
+public final class LocationCodec {
+
+    private static final int FORMAT_DECIMALS = 7;
+    private static final long FORMAT_SCALE = 10_000_000L;
+    // Largest integer a double holds exactly, and the powers of ten a double holds exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private LocationCodec() {
+    }
+
+    /**
+     * Latitude of a {@code "lat,lon"} string.
+     */
+    public static double latitude(CharSequence location) {
+        int comma = comma(location);
+        return parseCoordinate(location, 0, comma);
+    }
+
+    /**
+     * Longitude of a {@code "lat,lon"} string.
+     */
+    public static double longitude(CharSequence location) {
+        int comma = comma(location);
+        return parseCoordinate(location, comma + 1, location.length());
+    }
+
+    /**
+     * Parses the decimal number in {@code text[start, end)}, ignoring surrounding whitespace.
+     */
+    public static double parseCoordinate(CharSequence text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                anyDigits = true;
+                if (mantissa == 0 && c == '0') {
+                    // Leading zeros are not significant
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (significantDigits == 18) {
+                    return slowParse(text, start, end);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                significantDigits++;
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if ((c == 'e' || c == 'E') && anyDigits) {
+                return slowParse(text, start, end);
+            } else {
+                throw new NumberFormatException("Not a coordinate: " + text.subSequence(start, end));
+            }
+        }
+        if (!anyDigits) {
+            throw new NumberFormatException("Not a coordinate: " + text.subSequence(start, end));
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            value = exponent < 0 ? mantissa / EXACT_POWERS_OF_TEN[-exponent] : mantissa * EXACT_POWERS_OF_TEN[exponent];
+        } else {
+            return slowParse(text, start, end);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Formats a location in the legacy {@code "lat,lon"} form.
+     */
+    public static String format(double lat, double lon) {
+        return appendLocation(new StringBuilder(24), lat, lon).toString();
+    }
+
+    /**
+     * Appends a location in the legacy {@code "lat,lon"} form.
+     */
+    public static StringBuilder appendLocation(StringBuilder out, double lat, double lon) {
+        appendCoordinate(out, lat);
+        out.append(',');
+        appendCoordinate(out, lon);
+        return out;
+    }
+
+    /**
+     * Appends a coordinate rounded to seven decimals, without trailing zeros.
+     */
+    public static StringBuilder appendCoordinate(StringBuilder out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e11) {
+            throw new IllegalArgumentException("Not a coordinate: " + value);
+        }
+        long scaled = Math.round(Math.abs(value) * FORMAT_SCALE);
+        if (value < 0 && scaled != 0) {
+            out.append('-');
+        }
+        out.append(scaled / FORMAT_SCALE).append('.');
+        long fraction = scaled % FORMAT_SCALE;
+        int decimals = FORMAT_DECIMALS;
+        while (decimals > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            decimals--;
+        }
+        for (long pad = fraction == 0 ? 1 : fraction; pad < EXACT_POWERS_OF_TEN[decimals - 1]; pad *= 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+
+    private static int comma(CharSequence location) {
+        for (int i = 0; i < location.length(); i++) {
+            if (location.charAt(i) == ',') {
+                return i;
+            }
+        }
+        throw new NumberFormatException("Not a \"lat,lon\" location: " + location);
+    }
+
+    private static double slowParse(CharSequence text, int start, int end) {
+        return Double.parseDouble(text.subSequence(start, end).toString());
+    }
+}
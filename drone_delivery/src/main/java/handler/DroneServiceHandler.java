@@ -5,6 +5,7 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import geo.LocationAttributes;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
@@ -14,6 +15,7 @@ import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
 
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -71,13 +73,12 @@ public class DroneServiceHandler implements RequestHandler<APIGatewayProxyReques
         Map<String, String> droneData = objectMapper.readValue(event.getBody(), new TypeReference<Map<String, String>>() {});
 
         String uuid = UUID.randomUUID().toString();
+        Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(0, 0));
+        item.put("UUID", AttributeValue.builder().s(uuid).build());
+        item.put("Status", AttributeValue.builder().s("ACTIVE").build());
         PutItemRequest request = PutItemRequest.builder()
                 .tableName("Drones")
-                .item(Map.of(
-                        "UUID", AttributeValue.builder().s(uuid).build(),
-                        "Status", AttributeValue.builder().s("ACTIVE").build(),
-                        "Location", AttributeValue.builder().s("0,0").build()
-                ))
+                .item(item)
                 .build();
 
         dynamoDB.putItem(request);
@@ -195,7 +196,7 @@ public class DroneServiceHandler implements RequestHandler<APIGatewayProxyReques
         }
     }
 
-    private Map<String, String> convertAttributes(Map<String, AttributeValue> attributes) {
+    Map<String, String> convertAttributes(Map<String, AttributeValue> attributes) {
         return attributes.entrySet().stream()
                 .collect(Collectors.toMap(Map.Entry::getKey, e -> attributeValueToString(e.getValue())));
     }
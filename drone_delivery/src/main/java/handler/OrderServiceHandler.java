@@ -330,7 +330,7 @@ public class OrderServiceHandler implements RequestHandler<APIGatewayProxyReques
         return null; // or handle other types as necessary
     }
 
-    private Map<String, String> convertAttributes(Map<String, AttributeValue> attributes) {
+    Map<String, String> convertAttributes(Map<String, AttributeValue> attributes) {
         return attributes.entrySet().stream()
                 .collect(Collectors.toMap(Map.Entry::getKey, e -> attributeValueToString(e.getValue())));
     }
@@ -0,0 +1,187 @@
+package kinesis;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+import stream.DynamoDbStreamPoller;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which order each drone is assigned to, so the {@code AssignedTo-index} is queried once per
+ * assignment instead of once per location update.
+ * <p>
+ * Drones without an order are cached too, as an empty entry. Entries are kept current three
+ * ways: the processors write their own status transitions through, the change stream of the
+ * Orders table delivers assignments made by the Matcher, and every entry expires after the
+ * configured TTL in case a change was missed or there is no stream.
+ */
+public class AssignmentCache implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AssignmentCache.class);
+    private static final String ORDERS_TABLE = "Orders";
+
+    private final DynamoDbAsyncClient dynamoDbClient;
+    private final GeofenceEngine geofences;
+    private final ReadThroughCache<String, Optional<Map<String, AttributeValue>>> orders;
+    private final Counter feedEvents = new Counter();
+    private DynamoDbStreamPoller poller;
+
+    public AssignmentCache(DynamoDbAsyncClient dynamoDbClient, GeofenceEngine geofences, int maxSize, long ttlMillis) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.geofences = geofences;
+        this.orders = new ReadThroughCache<>(maxSize, ttlMillis);
+    }
+
+    public void registerMetrics(MetricsRegistry metrics) {
+        orders.registerMetrics(metrics);
+        metrics.gauge("feed.events", feedEvents::get);
+        metrics.gauge("feed.lagMillis", () -> poller == null ? -1 : System.currentTimeMillis() - poller.getLastPolledAt());
+    }
+
+    /**
+     * Tails the Orders table's change stream. The stream needs {@code NEW_AND_OLD_IMAGES} for a
+     * drone that is unassigned to be noticed before its entry expires.
+     */
+    public synchronized void startFeed(DynamoDbStreamsClient streamsClient, String streamArn, long pollIntervalMillis) {
+        if (poller != null) {
+            return;
+        }
+        poller = new DynamoDbStreamPoller(streamsClient, streamArn, pollIntervalMillis, this::onOrderChange);
+        poller.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (poller != null) {
+            poller.close();
+        }
+    }
+
+    /**
+     * The assigned order of each drone that has one. Drones not cached are looked up with one
+     * Query each, and concurrent lookups of one drone share a Query.
+     */
+    public CompletableFuture<Map<String, Map<String, AttributeValue>>> assignedOrders(Collection<String> droneIds) {
+        return orders.getAll(droneIds, this::loadAssignedOrders).thenApply(found -> {
+            Map<String, Map<String, AttributeValue>> assigned = new HashMap<>();
+            found.forEach((droneId, order) -> order.ifPresent(item -> assigned.put(droneId, item)));
+            return assigned;
+        });
+    }
+
+    /**
+     * Write-through of a status transition a processor made itself.
+     */
+    public void statusChanged(String droneId, String orderId, String status) {
+        if (GeofenceEngine.COMPLETED.equals(status)) {
+            orders.put(droneId, Optional.empty());
+            return;
+        }
+        Optional<Map<String, AttributeValue>> cached = orders.peek(droneId);
+        if (cached != null && cached.isPresent() && orderId.equals(cached.get().get("UUID").s())) {
+            Map<String, AttributeValue> order = new HashMap<>(cached.get());
+            order.put("Status", AttributeValue.builder().s(status).build());
+            orders.put(droneId, Optional.of(order));
+        } else {
+            orders.invalidate(droneId);
+        }
+    }
+
+    public void invalidate(String droneId) {
+        orders.invalidate(droneId);
+    }
+
+    /**
+     * Applies one change record from the Orders table stream, dropping any fence that no longer
+     * matches the order.
+     */
+    public void onOrderChange(Record record) {
+        feedEvents.increment();
+        StreamRecord change = record.dynamodb();
+        Map<String, AttributeValue> oldImage = change.hasOldImage() ? change.oldImage() : Map.of();
+        Map<String, AttributeValue> newImage = change.hasNewImage() && record.eventName() != OperationType.REMOVE
+                ? change.newImage() : Map.of();
+        String oldDrone = assignedDrone(oldImage);
+        String newDrone = assignedDrone(newImage);
+
+        if (oldDrone != null && !oldDrone.equals(newDrone)) {
+            orders.put(oldDrone, Optional.empty());
+            geofences.remove(oldDrone);
+        }
+        if (newDrone == null) {
+            return;
+        }
+        String orderId = newImage.get("UUID").s();
+        String status = newImage.containsKey("Status") ? newImage.get("Status").s() : null;
+        if (GeofenceEngine.COMPLETED.equals(status)) {
+            orders.put(newDrone, Optional.empty());
+        } else {
+            orders.put(newDrone, Optional.of(newImage));
+        }
+        GeofenceEngine.Fence fence = geofences.get(newDrone);
+        if (fence != null && (!fence.getOrderId().equals(orderId) || !fence.getStatus().equals(status))) {
+            geofences.remove(newDrone);
+        }
+    }
+
+    private static String assignedDrone(Map<String, AttributeValue> order) {
+        AttributeValue assignedTo = order.get("AssignedTo");
+        return assignedTo == null || assignedTo.s() == null ? null : assignedTo.s();
+    }
+
+    private CompletableFuture<Map<String, Optional<Map<String, AttributeValue>>>> loadAssignedOrders(Set<String> droneIds) {
+        Map<String, Optional<Map<String, AttributeValue>>> found = new ConcurrentHashMap<>();
+        CompletableFuture<?>[] queries = droneIds.stream()
+                .map(droneId -> findAssignedOrder(droneId).thenAccept(order -> found.put(droneId, Optional.ofNullable(order))))
+                .toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(queries).thenApply(done -> found);
+    }
+
+    private CompletableFuture<Map<String, AttributeValue>> findAssignedOrder(String droneUUID) {
+        log.info("Finding assigned order for droneID: {}", droneUUID);
+        return findAssignedOrder(droneUUID, null).thenApply(order -> {
+            if (order == null) {
+                log.info("No assigned order found for droneID: {}", droneUUID);
+            } else {
+                log.info("Assigned order found for droneID: {}", droneUUID);
+            }
+            return order;
+        });
+    }
+
+    /**
+     * Completed orders keep their AssignedTo, so they are filtered out. The filter applies after
+     * each page is read, so a page can come back empty with more of the drone's history to go.
+     */
+    private CompletableFuture<Map<String, AttributeValue>> findAssignedOrder(String droneUUID,
+                                                                             Map<String, AttributeValue> startKey) {
+        QueryRequest queryRequest = QueryRequest.builder()
+                .tableName(ORDERS_TABLE)
+                .indexName("AssignedTo-index")
+                .keyConditionExpression("AssignedTo = :droneUUID")
+                .filterExpression("attribute_not_exists(#status) OR #status <> :completed")
+                .expressionAttributeNames(Map.of("#status", "Status"))
+                .expressionAttributeValues(Map.of(
+                        ":droneUUID", AttributeValue.builder().s(droneUUID).build(),
+                        ":completed", AttributeValue.builder().s(GeofenceEngine.COMPLETED).build()))
+                .exclusiveStartKey(startKey)
+                .build();
+        return dynamoDbClient.query(queryRequest).thenCompose(response -> {
+            if (!response.items().isEmpty()) {
+                return CompletableFuture.completedFuture(response.items().get(0));
+            }
+            if (response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()) {
+                return findAssignedOrder(droneUUID, response.lastEvaluatedKey());
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+}
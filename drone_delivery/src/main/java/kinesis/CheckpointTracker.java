@@ -0,0 +1,256 @@
+package kinesis;
+
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Tracks the batches of one shard from delivery until their DynamoDB work is done, so the
+ * shard is only checkpointed past records whose effects have landed.
+ * <p>
+ * Batches complete in any order, but the checkpoint position is the last record of the
+ * longest run of completed batches at the head of the shard. A batch that failed stops the run:
+ * the shard is not checkpointed past it until {@link #retryFailed} gets it through, and a new
+ * lease owner processes it again if that never happens. A batch whose failure is not worth
+ * retrying, or that has used up its attempts, is skipped: it counts as completed so the shard
+ * can move on, and the skip listener hears about it.
+ */
+public class CheckpointTracker {
+
+    private final Deque<Batch> batches = new ArrayDeque<>();
+    private final int maxAttempts;
+    private final Predicate<Throwable> retryable;
+    private final BiConsumer<Batch, Throwable> onSkip;
+    private long pendingRecords;
+
+    /**
+     * @param maxAttempts how many times a batch runs before it is skipped
+     * @param retryable   whether a failure may go away on its own, such as throttling
+     * @param onSkip      called with each skipped batch and the failure that ended it
+     */
+    public CheckpointTracker(int maxAttempts, Predicate<Throwable> retryable, BiConsumer<Batch, Throwable> onSkip) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.retryable = retryable;
+        this.onSkip = onSkip;
+    }
+
+    /**
+     * Registers a batch in shard order. Returns null for a batch with nothing to checkpoint.
+     */
+    public synchronized Batch begin(List<KinesisClientRecord> records, long receivedNanos) {
+        if (records.isEmpty()) {
+            return null;
+        }
+        KinesisClientRecord last = records.get(records.size() - 1);
+        if (last.sequenceNumber() == null) {
+            return null;
+        }
+        Batch batch = new Batch(new ExtendedSequenceNumber(last.sequenceNumber(), last.subSequenceNumber()),
+                records.size(), receivedNanos);
+        batches.addLast(batch);
+        pendingRecords += batch.records;
+        return batch;
+    }
+
+    /**
+     * Starts the work of a batch; its outcome decides whether the batch counts as completed.
+     */
+    public void run(Batch batch, Supplier<? extends CompletableFuture<?>> work) {
+        batch.work = work;
+        start(batch);
+    }
+
+    /**
+     * Runs the work of every failed batch again. Returns how many were restarted.
+     */
+    public int retryFailed() {
+        List<Batch> failed = new ArrayList<>();
+        synchronized (this) {
+            for (Batch batch : batches) {
+                if (batch.state == State.FAILED) {
+                    failed.add(batch);
+                }
+            }
+        }
+        failed.forEach(this::start);
+        return failed.size();
+    }
+
+    private void start(Batch batch) {
+        synchronized (this) {
+            batch.state = State.RUNNING;
+            batch.attempts++;
+        }
+        CompletableFuture<?> done;
+        try {
+            done = batch.work.get();
+        } catch (RuntimeException e) {
+            done = CompletableFuture.failedFuture(e);
+        }
+        done.whenComplete((result, error) -> finish(batch, error));
+    }
+
+    private void finish(Batch batch, Throwable error) {
+        State state;
+        synchronized (this) {
+            if (error == null) {
+                state = State.DONE;
+            } else if (batch.attempts < maxAttempts && retryable.test(error)) {
+                state = State.FAILED;
+            } else {
+                state = State.SKIPPED;
+            }
+            batch.state = state;
+            notifyAll();
+        }
+        if (state == State.SKIPPED) {
+            onSkip.accept(batch, error);
+        }
+    }
+
+    /**
+     * The completed run at the head of the shard, or null if the oldest batch is still running
+     * or failed. Nothing is removed until {@link #checkpointed}.
+     */
+    public synchronized Checkpoint completed() {
+        Batch last = null;
+        long records = 0;
+        long oldestReceivedNanos = 0;
+        for (Batch batch : batches) {
+            if (batch.state != State.DONE && batch.state != State.SKIPPED) {
+                break;
+            }
+            if (last == null) {
+                oldestReceivedNanos = batch.receivedNanos;
+            }
+            last = batch;
+            records += batch.records;
+        }
+        return last == null ? null : new Checkpoint(last.sequenceNumber, records, oldestReceivedNanos);
+    }
+
+    /**
+     * Drops the batches covered by a checkpoint that has been written.
+     */
+    public synchronized void checkpointed(Checkpoint checkpoint) {
+        long records = 0;
+        while (records < checkpoint.records && !batches.isEmpty()) {
+            records += batches.removeFirst().records;
+        }
+        pendingRecords -= records;
+    }
+
+    /**
+     * Whether the oldest outstanding batch failed, which holds the checkpoint back until a retry
+     * gets it through or it is skipped.
+     */
+    public synchronized boolean isBlocked() {
+        Batch head = batches.peekFirst();
+        return head != null && head.state == State.FAILED;
+    }
+
+    /**
+     * Records delivered but not yet covered by a checkpoint.
+     */
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * Waits until no batch is running any more, or the timeout passes. Returns whether every
+     * batch finished.
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (isRunning()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    private boolean isRunning() {
+        for (Batch batch : batches) {
+            if (batch.state == State.RUNNING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum State {
+        RUNNING, DONE, FAILED, SKIPPED
+    }
+
+    public static final class Batch {
+        private final ExtendedSequenceNumber sequenceNumber;
+        private final int records;
+        private final long receivedNanos;
+        private State state = State.RUNNING;
+        private int attempts;
+        private Supplier<? extends CompletableFuture<?>> work;
+
+        private Batch(ExtendedSequenceNumber sequenceNumber, int records, long receivedNanos) {
+            this.sequenceNumber = sequenceNumber;
+            this.records = records;
+            this.receivedNanos = receivedNanos;
+        }
+
+        public ExtendedSequenceNumber getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    /**
+     * A position the shard can be checkpointed at.
+     */
+    public static final class Checkpoint {
+        private final ExtendedSequenceNumber sequenceNumber;
+        private final long records;
+        private final long oldestReceivedNanos;
+
+        private Checkpoint(ExtendedSequenceNumber sequenceNumber, long records, long oldestReceivedNanos) {
+            this.sequenceNumber = sequenceNumber;
+            this.records = records;
+            this.oldestReceivedNanos = oldestReceivedNanos;
+        }
+
+        public ExtendedSequenceNumber getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * When the oldest record this checkpoint covers was delivered, in {@link System#nanoTime()}.
+         */
+        public long getOldestReceivedNanos() {
+            return oldestReceivedNanos;
+        }
+    }
+}
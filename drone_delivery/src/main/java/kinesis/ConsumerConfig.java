@@ -0,0 +1,279 @@
+package kinesis;
+
+import java.util.Map;
+
+/**
+ * Tunables for the KCL consumer. Defaults suit a worker with a handful of shards;
+ * {@link #fromEnvironment()} lets a deployment override them with {@code CONSUMER_*} variables.
+ */
+public class ConsumerConfig {
+
+    private long checkpointEveryRecords = 1000;
+    private long checkpointEveryMillis = 60_000;
+    private long shutdownDrainMillis = 10_000;
+    private int maxBatchAttempts = 5;
+    private int maxInFlightPerProcessor = 250;
+    private int maxInFlightPerWorker = 1000;
+    private int lanesPerProcessor = 16;
+    private int assignmentCacheSize = 100_000;
+    private long assignmentCacheTtlMillis = 30_000;
+    private long ordersFeedPollIntervalMillis = 1000;
+    private long metricsReportIntervalMillis = 60_000;
+    private boolean metricsJson = false;
+    private long statusLingerMillis = 0;
+    private int statusBatchItems = 100;
+    private String trackStoreDirectory = null;
+    private int trackSegmentBytes = 64 * 1024 * 1024;
+    private long trackRollMillis = 60 * 60_000;
+    private long trackRetentionMillis = 7 * 24 * 60 * 60_000L;
+
+    public static ConsumerConfig fromEnvironment() {
+        Map<String, String> env = System.getenv();
+        ConsumerConfig config = new ConsumerConfig();
+        config.setCheckpointEveryRecords(Long.parseLong(env.getOrDefault("CONSUMER_CHECKPOINT_EVERY_RECORDS", "1000")));
+        config.setCheckpointEveryMillis(Long.parseLong(env.getOrDefault("CONSUMER_CHECKPOINT_EVERY_MILLIS", "60000")));
+        config.setShutdownDrainMillis(Long.parseLong(env.getOrDefault("CONSUMER_SHUTDOWN_DRAIN_MILLIS", "10000")));
+        config.setMaxBatchAttempts(Integer.parseInt(env.getOrDefault("CONSUMER_MAX_BATCH_ATTEMPTS", "5")));
+        config.setMaxInFlightPerProcessor(Integer.parseInt(env.getOrDefault("CONSUMER_MAX_IN_FLIGHT_PER_PROCESSOR", "250")));
+        config.setMaxInFlightPerWorker(Integer.parseInt(env.getOrDefault("CONSUMER_MAX_IN_FLIGHT_PER_WORKER", "1000")));
+        config.setLanesPerProcessor(Integer.parseInt(env.getOrDefault("CONSUMER_LANES_PER_PROCESSOR", "16")));
+        config.setAssignmentCacheSize(Integer.parseInt(env.getOrDefault("CONSUMER_ASSIGNMENT_CACHE_SIZE", "100000")));
+        config.setAssignmentCacheTtlMillis(Long.parseLong(env.getOrDefault("CONSUMER_ASSIGNMENT_CACHE_TTL_MILLIS", "30000")));
+        config.setOrdersFeedPollIntervalMillis(Long.parseLong(env.getOrDefault("CONSUMER_ORDERS_FEED_POLL_INTERVAL_MILLIS", "1000")));
+        config.setMetricsReportIntervalMillis(Long.parseLong(env.getOrDefault("CONSUMER_METRICS_REPORT_INTERVAL_MILLIS", "60000")));
+        config.setMetricsJson("json".equalsIgnoreCase(env.getOrDefault("CONSUMER_METRICS_FORMAT", "text")));
+        config.setStatusLingerMillis(Long.parseLong(env.getOrDefault("CONSUMER_STATUS_LINGER_MILLIS", "0")));
+        config.setStatusBatchItems(Integer.parseInt(env.getOrDefault("CONSUMER_STATUS_BATCH_ITEMS", "100")));
+        config.setTrackStoreDirectory(env.get("CONSUMER_TRACK_STORE_DIR"));
+        config.setTrackSegmentBytes(Integer.parseInt(env.getOrDefault("CONSUMER_TRACK_SEGMENT_BYTES", "67108864")));
+        config.setTrackRollMillis(Long.parseLong(env.getOrDefault("CONSUMER_TRACK_ROLL_MILLIS", "3600000")));
+        config.setTrackRetentionMillis(Long.parseLong(env.getOrDefault("CONSUMER_TRACK_RETENTION_MILLIS", "604800000")));
+        return config;
+    }
+
+    /**
+     * Checkpoint once this many records have completed since the last checkpoint; 0 turns the
+     * count trigger off.
+     */
+    public long getCheckpointEveryRecords() {
+        return checkpointEveryRecords;
+    }
+
+    public void setCheckpointEveryRecords(long checkpointEveryRecords) {
+        if (checkpointEveryRecords < 0) {
+            throw new IllegalArgumentException("checkpointEveryRecords must not be negative");
+        }
+        this.checkpointEveryRecords = checkpointEveryRecords;
+    }
+
+    /**
+     * Checkpoint once this long has passed since the last checkpoint; 0 turns the time trigger
+     * off. With both triggers off the shard is only checkpointed when it ends or shuts down.
+     */
+    public long getCheckpointEveryMillis() {
+        return checkpointEveryMillis;
+    }
+
+    public void setCheckpointEveryMillis(long checkpointEveryMillis) {
+        if (checkpointEveryMillis < 0) {
+            throw new IllegalArgumentException("checkpointEveryMillis must not be negative");
+        }
+        this.checkpointEveryMillis = checkpointEveryMillis;
+    }
+
+    /**
+     * How long a processor waits on shutdown for its in-flight DynamoDB work before taking its
+     * final checkpoint.
+     */
+    public long getShutdownDrainMillis() {
+        return shutdownDrainMillis;
+    }
+
+    public void setShutdownDrainMillis(long shutdownDrainMillis) {
+        this.shutdownDrainMillis = shutdownDrainMillis;
+    }
+
+    /**
+     * How many times a batch that failed on throttling or another transient error is run before
+     * the shard moves on without it. Other failures are never retried.
+     */
+    public int getMaxBatchAttempts() {
+        return maxBatchAttempts;
+    }
+
+    public void setMaxBatchAttempts(int maxBatchAttempts) {
+        if (maxBatchAttempts < 1) {
+            throw new IllegalArgumentException("maxBatchAttempts must be at least 1");
+        }
+        this.maxBatchAttempts = maxBatchAttempts;
+    }
+
+    /**
+     * Upper bound on drone positions one shard processor resolves at once. Each one is a Query
+     * and possibly status updates; once the window is full processRecords blocks, which in turn
+     * stops KCL from fetching more for that shard.
+     */
+    public int getMaxInFlightPerProcessor() {
+        return maxInFlightPerProcessor;
+    }
+
+    public void setMaxInFlightPerProcessor(int maxInFlightPerProcessor) {
+        if (maxInFlightPerProcessor < 1) {
+            throw new IllegalArgumentException("maxInFlightPerProcessor must be at least 1");
+        }
+        this.maxInFlightPerProcessor = maxInFlightPerProcessor;
+    }
+
+    /**
+     * Upper bound on drone positions resolved at once across all shards of the worker, which
+     * keeps a burst on many shards from exhausting the async client's connection pool.
+     */
+    public int getMaxInFlightPerWorker() {
+        return maxInFlightPerWorker;
+    }
+
+    public void setMaxInFlightPerWorker(int maxInFlightPerWorker) {
+        if (maxInFlightPerWorker < 1) {
+            throw new IllegalArgumentException("maxInFlightPerWorker must be at least 1");
+        }
+        this.maxInFlightPerWorker = maxInFlightPerWorker;
+    }
+
+    /**
+     * How many lanes a shard processor spreads its drones over. Each drone's positions are
+     * resolved one after another in its lane, and lanes run side by side.
+     */
+    public int getLanesPerProcessor() {
+        return lanesPerProcessor;
+    }
+
+    public void setLanesPerProcessor(int lanesPerProcessor) {
+        if (lanesPerProcessor < 1) {
+            throw new IllegalArgumentException("lanesPerProcessor must be at least 1");
+        }
+        this.lanesPerProcessor = lanesPerProcessor;
+    }
+
+    /**
+     * How many drones the assignment cache remembers, with or without an order.
+     */
+    public int getAssignmentCacheSize() {
+        return assignmentCacheSize;
+    }
+
+    public void setAssignmentCacheSize(int assignmentCacheSize) {
+        if (assignmentCacheSize < 1) {
+            throw new IllegalArgumentException("assignmentCacheSize must be at least 1");
+        }
+        this.assignmentCacheSize = assignmentCacheSize;
+    }
+
+    /**
+     * How long a drone's cached assignment, or lack of one, is trusted. Without the Orders
+     * change stream this is how long a new assignment can go unnoticed; with it, the TTL only
+     * bounds the damage of a missed change and can be much longer.
+     */
+    public long getAssignmentCacheTtlMillis() {
+        return assignmentCacheTtlMillis;
+    }
+
+    public void setAssignmentCacheTtlMillis(long assignmentCacheTtlMillis) {
+        this.assignmentCacheTtlMillis = assignmentCacheTtlMillis;
+    }
+
+    public long getOrdersFeedPollIntervalMillis() {
+        return ordersFeedPollIntervalMillis;
+    }
+
+    public void setOrdersFeedPollIntervalMillis(long ordersFeedPollIntervalMillis) {
+        this.ordersFeedPollIntervalMillis = ordersFeedPollIntervalMillis;
+    }
+
+    public long getMetricsReportIntervalMillis() {
+        return metricsReportIntervalMillis;
+    }
+
+    public void setMetricsReportIntervalMillis(long metricsReportIntervalMillis) {
+        this.metricsReportIntervalMillis = metricsReportIntervalMillis;
+    }
+
+    public boolean isMetricsJson() {
+        return metricsJson;
+    }
+
+    public void setMetricsJson(boolean metricsJson) {
+        this.metricsJson = metricsJson;
+    }
+
+    /**
+     * How long an order or drone status write waits for others to collapse into before it is
+     * sent. 0 sends at once, which still collapses writes that queue up behind one in flight.
+     */
+    public long getStatusLingerMillis() {
+        return statusLingerMillis;
+    }
+
+    public void setStatusLingerMillis(long statusLingerMillis) {
+        if (statusLingerMillis < 0) {
+            throw new IllegalArgumentException("statusLingerMillis must not be negative");
+        }
+        this.statusLingerMillis = statusLingerMillis;
+    }
+
+    /**
+     * Status items sent per call, up to the TransactWriteItems limit of 100.
+     */
+    public int getStatusBatchItems() {
+        return statusBatchItems;
+    }
+
+    public void setStatusBatchItems(int statusBatchItems) {
+        if (statusBatchItems < 1 || statusBatchItems > StatusWriter.MAX_TRANSACTION_ITEMS) {
+            throw new IllegalArgumentException("statusBatchItems must be between 1 and " + StatusWriter.MAX_TRANSACTION_ITEMS);
+        }
+        this.statusBatchItems = statusBatchItems;
+    }
+
+    /**
+     * Directory under which each shard keeps its track log, in a subdirectory named after the
+     * shard; null leaves tracks unrecorded.
+     */
+    public String getTrackStoreDirectory() {
+        return trackStoreDirectory;
+    }
+
+    public void setTrackStoreDirectory(String trackStoreDirectory) {
+        this.trackStoreDirectory = trackStoreDirectory;
+    }
+
+    /**
+     * Size each track segment file is preallocated to.
+     */
+    public int getTrackSegmentBytes() {
+        return trackSegmentBytes;
+    }
+
+    public void setTrackSegmentBytes(int trackSegmentBytes) {
+        this.trackSegmentBytes = trackSegmentBytes;
+    }
+
+    /**
+     * Age at which a track segment is sealed even if it has room left, so retention can drop
+     * old points at this granularity.
+     */
+    public long getTrackRollMillis() {
+        return trackRollMillis;
+    }
+
+    public void setTrackRollMillis(long trackRollMillis) {
+        this.trackRollMillis = trackRollMillis;
+    }
+
+    public long getTrackRetentionMillis() {
+        return trackRetentionMillis;
+    }
+
+    public void setTrackRetentionMillis(long trackRetentionMillis) {
+        this.trackRetentionMillis = trackRetentionMillis;
+    }
+}
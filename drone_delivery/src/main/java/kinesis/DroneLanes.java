@@ -0,0 +1,61 @@
+package kinesis;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the work of one shard processor in order per drone while different drones proceed in
+ * parallel.
+ * <p>
+ * Drones are spread over a fixed number of lanes by their id. Work submitted to a lane starts
+ * once the lane's previous work has completed, failed or not, so two positions of one drone can
+ * never apply their status transitions out of order. Lanes are chains of futures rather than
+ * threads: the work is asynchronous DynamoDB calls, so a lane occupies no thread while it waits,
+ * and how much runs at once is bounded by the processor's in-flight windows.
+ */
+public class DroneLanes {
+
+    private final CompletableFuture<?>[] tails;
+
+    public DroneLanes(int lanes) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("lanes must be at least 1");
+        }
+        tails = new CompletableFuture<?>[lanes];
+        for (int i = 0; i < lanes; i++) {
+            tails[i] = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    public int laneOf(String droneId) {
+        int hash = droneId.hashCode();
+        // Spread the high bits, as HashMap does, so similar ids do not share a lane
+        return Math.floorMod(hash ^ (hash >>> 16), tails.length);
+    }
+
+    /**
+     * Runs {@code work} after everything submitted to {@code lane} before it.
+     */
+    public synchronized <T> CompletableFuture<T> submit(int lane, Supplier<CompletableFuture<T>> work) {
+        CompletableFuture<T> next = tails[lane].handle((done, e) -> null).thenCompose(ignored -> work.get());
+        tails[lane] = next;
+        return next;
+    }
+
+    public int getLanes() {
+        return tails.length;
+    }
+
+    /**
+     * Lanes with work that has not completed yet.
+     */
+    public synchronized int getBusyLanes() {
+        int busy = 0;
+        for (CompletableFuture<?> tail : tails) {
+            if (!tail.isDone()) {
+                busy++;
+            }
+        }
+        return busy;
+    }
+}
@@ -1,199 +1,840 @@
 package kinesis;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import geo.GeoPoint;
+import geo.LocationAttributes;
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.LocalMetricsRegistry;
+import metrics.MetricsRegistry;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 import software.amazon.kinesis.exceptions.InvalidStateException;
+import software.amazon.kinesis.exceptions.KinesisClientLibDependencyException;
 import software.amazon.kinesis.exceptions.ShutdownException;
+import software.amazon.kinesis.exceptions.ThrottlingException;
 import software.amazon.kinesis.lifecycle.events.*;
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
 import software.amazon.kinesis.processor.ShardRecordProcessor;
 import software.amazon.kinesis.retrieval.KinesisClientRecord;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+import track.TrackStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DroneRecordProcessor implements ShardRecordProcessor {
 
     private static final Logger log = LoggerFactory.getLogger(DroneRecordProcessor.class);
     private static final String SHARD_ID_MDC_KEY = "ShardId";
-    private static final double EARTH_RADIUS = 6371e3; // Earth radius in meters
+    private static final double ARRIVAL_RADIUS_METERS = 5;
+    private static final String STORES_TABLE = "Stores";
+    private static final String USERS_TABLE = "Users";
+    private static final String ORDERS_TABLE = "Orders";
+    private static final String DRONES_TABLE = "Drones";
+    private static final int MAX_BATCH_GET_KEYS = 100;
+    private static final int MAX_BATCH_GET_ATTEMPTS = 5;
+    private static final String[] FENCE_ORDER_FIELDS = {"UUID", "Status", "StoreID", "UserID"};
+    private static final int LOCATION_CACHE_SIZE = 100_000;
+    private static final long LOCATION_CACHE_TTL_MILLIS = 10 * 60 * 1000;
 
     private final DynamoDbAsyncClient dynamoDbClient;
-    private final ObjectMapper objectMapper;
+    private final ConsumerConfig config;
+    private final ReadThroughCache<LocationKey, GeoPoint> locationCache;
+    private final GeofenceEngine geofences;
+    private final AssignmentCache assignments;
+    // Newest position accepted per drone, carried across batches
+    private final Map<String, DronePosition> watermarks = new HashMap<>();
+    // Newest position appended to the track log per drone, which unlike the watermark includes coalesced ones
+    private final Map<String, DronePosition> trackMarks = new HashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final CheckpointTracker checkpoints;
+    private final InFlightWindow processorWindow;
+    private final InFlightWindow workerWindow;
+    private final StatusWriter statusWriter;
+    private final DroneLanes lanes;
     private String shardId;
+    // The shard's track log, when one is configured
+    private TrackStore tracks;
+    private long lastCheckpointNanos;
+    // Records written before this processor took the lease are a replay of the previous owner's work
+    private boolean replaying;
+    private long leaseStartMillis;
+    private long replayStartNanos;
+    private long replayedRecords;
+
+    private final Counter checkpointCount;
+    private final Counter checkpointFailures;
+    private final Counter batchFailures;
+    private final Counter batchRetries;
+    private final Counter batchesSkipped;
+    private final Counter recordsReceived;
+    private final Counter recordsCheckpointed;
+    private final Counter recordsAbandoned;
+    private final Counter recordsReplayed;
+    private final LatencyHistogram checkpointLatency;
+    private final LatencyHistogram checkpointLag;
+    private final LatencyHistogram replayCatchUp;
+    private final LatencyHistogram inFlightWait;
+    private final Counter throttledBatches;
+    private final Counter fenceMisses;
+    private final Counter malformedItems;
+    private final Counter supersededPositions;
+    private final Counter trackPoints;
+    private final Counter trackFailures;
 
     public DroneRecordProcessor(DynamoDbAsyncClient dynamoDbClient) {
+        this(dynamoDbClient, new ConsumerConfig(), newGeofenceEngine(), new LocalMetricsRegistry());
+    }
+
+    private DroneRecordProcessor(DynamoDbAsyncClient dynamoDbClient, ConsumerConfig config, GeofenceEngine geofences,
+                                 MetricsRegistry metrics) {
+        this(dynamoDbClient, config, newLocationCache(), geofences,
+                new AssignmentCache(dynamoDbClient, geofences, config.getAssignmentCacheSize(), config.getAssignmentCacheTtlMillis()),
+                new InFlightWindow(config.getMaxInFlightPerWorker()), newStatusWriter(dynamoDbClient, config, metrics),
+                metrics);
+    }
+
+    /**
+     * The shared arguments are usually shared by every processor of the worker; see
+     * {@link DroneRecordProcessorFactory}.
+     *
+     * @param locationCache store and user locations
+     * @param geofences     the fences of active deliveries
+     * @param assignments   the assigned order of each drone, kept in step with {@code geofences}
+     * @param workerWindow  the in-flight window of the worker
+     * @param statusWriter  writes the status transitions of orders and drones
+     * @param metrics       where processors add up their counts
+     */
+    public DroneRecordProcessor(DynamoDbAsyncClient dynamoDbClient, ConsumerConfig config,
+                                ReadThroughCache<LocationKey, GeoPoint> locationCache, GeofenceEngine geofences,
+                                AssignmentCache assignments, InFlightWindow workerWindow, StatusWriter statusWriter,
+                                MetricsRegistry metrics) {
         this.dynamoDbClient = dynamoDbClient;
-        this.objectMapper = new ObjectMapper();
+        this.config = config;
+        this.locationCache = locationCache;
+        this.geofences = geofences;
+        this.assignments = assignments;
+        this.processorWindow = new InFlightWindow(config.getMaxInFlightPerProcessor());
+        this.workerWindow = workerWindow;
+        this.statusWriter = statusWriter;
+        this.lanes = new DroneLanes(config.getLanesPerProcessor());
+        checkpointCount = metrics.counter("checkpoint.count");
+        checkpointFailures = metrics.counter("checkpoint.failures");
+        batchFailures = metrics.counter("checkpoint.batchFailures");
+        batchRetries = metrics.counter("checkpoint.batchRetries");
+        batchesSkipped = metrics.counter("checkpoint.batchesSkipped");
+        recordsReceived = metrics.counter("records.received");
+        recordsCheckpointed = metrics.counter("records.checkpointed");
+        recordsAbandoned = metrics.counter("records.abandoned");
+        recordsReplayed = metrics.counter("replay.records");
+        checkpointLatency = metrics.histogram("checkpoint.call");
+        checkpointLag = metrics.histogram("checkpoint.lag");
+        replayCatchUp = metrics.histogram("replay.catchUp");
+        inFlightWait = metrics.histogram("inFlight.wait");
+        throttledBatches = metrics.counter("inFlight.throttledBatches");
+        fenceMisses = metrics.counter("geofence.misses");
+        malformedItems = metrics.counter("geofence.malformedItems");
+        supersededPositions = metrics.counter("lanes.superseded");
+        trackPoints = metrics.counter("tracks.points");
+        trackFailures = metrics.counter("tracks.failures");
+        checkpoints = new CheckpointTracker(config.getMaxBatchAttempts(), DroneRecordProcessor::isTransient,
+                (batch, e) -> {
+                    log.error("Giving up on {} record(s) of shard {} up to {} after {} attempt(s)", batch.getRecords(),
+                            shardId, batch.getSequenceNumber(), batch.getAttempts(), e);
+                    batchesSkipped.increment();
+                });
+    }
+
+    /**
+     * Exports what every processor sharing {@code metrics} and {@code workerWindow} adds up to:
+     * records delivered but not yet covered by a checkpoint, and the worker's in-flight window.
+     */
+    public static void registerMetrics(MetricsRegistry metrics, InFlightWindow workerWindow) {
+        Counter received = metrics.counter("records.received");
+        Counter checkpointed = metrics.counter("records.checkpointed");
+        Counter abandoned = metrics.counter("records.abandoned");
+        metrics.gauge("checkpoint.pendingRecords", () -> received.get() - checkpointed.get() - abandoned.get());
+        metrics.gauge("inFlight.positions", workerWindow::getInFlight);
+        metrics.gauge("inFlight.limit", workerWindow::getLimit);
+        metrics.gauge("inFlight.waitingProcessors", workerWindow::getWaiting);
+    }
+
+    /**
+     * A location cache sized for a worker: stores and users barely move while a delivery is under
+     * way, and a store or user that does move is picked up again after ten minutes.
+     */
+    public static ReadThroughCache<LocationKey, GeoPoint> newLocationCache() {
+        return new ReadThroughCache<>(LOCATION_CACHE_SIZE, LOCATION_CACHE_TTL_MILLIS);
+    }
+
+    /**
+     * A status writer with the configured linger and batch size, reporting to {@code metrics}.
+     */
+    public static StatusWriter newStatusWriter(DynamoDbAsyncClient dynamoDbClient, ConsumerConfig config,
+                                               MetricsRegistry metrics) {
+        return new StatusWriter(dynamoDbClient, config.getStatusBatchItems(), config.getStatusLingerMillis(), metrics);
+    }
+
+    /**
+     * A geofence engine using the arrival radius of the original distance checks.
+     */
+    public static GeofenceEngine newGeofenceEngine() {
+        return new GeofenceEngine(ARRIVAL_RADIUS_METERS);
     }
 
     @Override
     public void initialize(InitializationInput initializationInput) {
         shardId = initializationInput.shardId();
         log.info("Initializing @ Sequence: {}", initializationInput.extendedSequenceNumber());
+        lastCheckpointNanos = System.nanoTime();
+        ExtendedSequenceNumber start = initializationInput.extendedSequenceNumber();
+        // Without a checkpoint there was no earlier owner whose work could be replayed
+        replaying = start != null && !start.isSentinelCheckpoint();
+        leaseStartMillis = System.currentTimeMillis();
+        replayStartNanos = lastCheckpointNanos;
+        if (config.getTrackStoreDirectory() != null) {
+            try {
+                tracks = new TrackStore(Paths.get(config.getTrackStoreDirectory()).resolve(shardId),
+                        config.getTrackSegmentBytes(), config.getTrackRollMillis(), config.getTrackRetentionMillis());
+            } catch (IOException e) {
+                log.error("Could not open the track store of shard {}, not recording tracks", shardId, e);
+            }
+        }
     }
 
     @Override
     public void processRecords(ProcessRecordsInput processRecordsInput) {
-        log.info("Processing {} record(s)", processRecordsInput.records().size());
-        for (KinesisClientRecord record : processRecordsInput.records()) {
-            try {
-                String data = StandardCharsets.UTF_8.decode(record.data()).toString();
-                Map<String, String> recordData = objectMapper.readValue(data, Map.class);
-                String droneUUID = recordData.get("droneID");
-                String geoLocation = recordData.get("location");
-                double[] droneLocation = parseGeoLocation(geoLocation);
-
-                findAssignedOrder(droneUUID).thenAccept(assignedOrder -> {
-                    if (assignedOrder == null) {
-                        log.info("No assigned order found for droneID: {}", droneUUID);
-                        return; // No-op if no assigned order
+        List<KinesisClientRecord> records = processRecordsInput.records();
+        long receivedNanos = System.nanoTime();
+        int retried = checkpoints.retryFailed();
+        if (retried > 0) {
+            log.warn("Retrying {} failed batch(es) on shard {}", retried, shardId);
+            batchRetries.add(retried);
+        }
+        if (!records.isEmpty()) {
+            log.info("Processing {} record(s)", records.size());
+            recordsReceived.add(records.size());
+            trackReplay(records, processRecordsInput.millisBehindLatest(), receivedNanos);
+
+            Collection<DronePosition> positions = coalesce(records);
+            CheckpointTracker.Batch batch = checkpoints.begin(records, receivedNanos);
+            if (batch == null) {
+                process(positions).exceptionally(e -> {
+                    log.error("Error processing records", e);
+                    return null;
+                });
+            } else {
+                checkpoints.run(batch, () -> process(positions).whenComplete((done, e) -> {
+                    if (e != null) {
+                        log.error("Error processing records, holding the checkpoint of shard {} back", shardId, e);
+                        batchFailures.increment();
                     }
+                }));
+            }
+        }
+        if (processRecordsInput.checkpointer() != null && isCheckpointDue(receivedNanos)) {
+            checkpoint(processRecordsInput.checkpointer());
+        }
+    }
+
+    /**
+     * Resolves the positions once they fit in both the processor's and the worker's in-flight
+     * window, blocking the KCL thread until then. Throttling that outlasts the SDK's own retries
+     * narrows both windows.
+     */
+    private CompletableFuture<Void> process(Collection<DronePosition> batchPositions) {
+        Collection<DronePosition> positions = current(batchPositions);
+        if (positions.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int permits = Math.min(positions.size(), Math.min(processorWindow.getMaxPermits(), workerWindow.getMaxPermits()));
+        try {
+            long waitedNanos = processorWindow.acquire(permits);
+            try {
+                waitedNanos += workerWindow.acquire(permits);
+            } catch (InterruptedException e) {
+                processorWindow.release(permits, false);
+                throw e;
+            }
+            inFlightWait.recordNanos(waitedNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        log.info("Resolving {} drone position(s)", positions.size());
+        CompletableFuture<Void> resolved;
+        try {
+            resolved = resolve(positions);
+        } catch (RuntimeException e) {
+            resolved = CompletableFuture.failedFuture(e);
+        }
+        return resolved.whenComplete((done, e) -> {
+            boolean throttled = isThrottling(e);
+            if (throttled) {
+                log.warn("DynamoDB is throttling shard {}, narrowing the in-flight window", shardId);
+                throttledBatches.increment();
+            }
+            workerWindow.release(permits, throttled);
+            processorWindow.release(permits, throttled);
+        });
+    }
 
-                    String storeID = assignedOrder.get("StoreID").s();
-                    String userID = assignedOrder.get("UserID").s();
-                    CompletableFuture<Map<String, AttributeValue>> storeFuture = findLocation("Stores", storeID);
-                    CompletableFuture<Map<String, AttributeValue>> userFuture = findLocation("Users", userID);
+    /**
+     * Leaves out positions a later batch has superseded, which only happens when a failed batch
+     * is retried: its positions would otherwise be applied after newer ones.
+     */
+    private Collection<DronePosition> current(Collection<DronePosition> positions) {
+        List<DronePosition> current = new ArrayList<>(positions.size());
+        for (DronePosition position : positions) {
+            DronePosition newest = watermarks.get(position.droneId);
+            if (newest == null || newest == position || !newest.isAfter(position)) {
+                current.add(position);
+            } else {
+                supersededPositions.increment();
+            }
+        }
+        return current;
+    }
 
-                    storeFuture.thenCombine(userFuture, (store, user) -> {
-                        double[] storeLocation = parseGeoLocation(store.get("Location").s());
-                        double[] userLocation = parseGeoLocation(user.get("Location").s());
+    private static boolean isThrottling(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AwsServiceException && ((AwsServiceException) cause).isThrottlingException()) {
+                return true;
+            }
+            if (cause instanceof ProvisionedThroughputExceededException || cause instanceof RequestLimitExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                        double distanceToStore = calculateHaversineDistance(droneLocation, storeLocation);
-                        double distanceToUser = calculateHaversineDistance(droneLocation, userLocation);
+    // Failures that may clear up by themselves; anything else fails the same way every time
+    private static boolean isTransient(Throwable e) {
+        if (isThrottling(e)) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SdkClientException || cause instanceof TransactionCanceledException) {
+                return true;
+            }
+            if (cause instanceof AwsServiceException && ((AwsServiceException) cause).statusCode() >= 500) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                        updateOrderStatus(droneUUID, assignedOrder, distanceToStore, distanceToUser);
-                        return null;
-                    });
-                }).exceptionally(e -> {
-                    log.error("Error processing record", e);
-                    return null;
-                });
+    private boolean isCheckpointDue(long now) {
+        CheckpointTracker.Checkpoint completed = checkpoints.completed();
+        if (completed == null) {
+            return false;
+        }
+        long everyRecords = config.getCheckpointEveryRecords();
+        long everyMillis = config.getCheckpointEveryMillis();
+        return (everyRecords > 0 && completed.getRecords() >= everyRecords)
+                || (everyMillis > 0 && now - lastCheckpointNanos >= TimeUnit.MILLISECONDS.toNanos(everyMillis));
+    }
+
+    /**
+     * Checkpoints the shard at the end of the completed run of batches at its head, if any.
+     */
+    private void checkpoint(RecordProcessorCheckpointer checkpointer) {
+        CheckpointTracker.Checkpoint completed = checkpoints.completed();
+        if (completed == null) {
+            if (checkpoints.isBlocked()) {
+                log.warn("Checkpoint of shard {} is held back by a failed batch", shardId);
+            }
+            return;
+        }
+        ExtendedSequenceNumber position = completed.getSequenceNumber();
+        long startNanos = System.nanoTime();
+        try {
+            checkpointer.checkpoint(position.sequenceNumber(), position.subSequenceNumber());
+        } catch (ShutdownException e) {
+            log.info("Lease of shard {} is gone, not checkpointing", shardId);
+            return;
+        } catch (ThrottlingException | KinesisClientLibDependencyException e) {
+            log.warn("Checkpoint of shard {} failed, will retry: {}", shardId, e.toString());
+            checkpointFailures.increment();
+            return;
+        } catch (InvalidStateException e) {
+            log.error("Checkpoint of shard {} failed", shardId, e);
+            checkpointFailures.increment();
+            return;
+        }
+        long now = System.nanoTime();
+        checkpointLatency.recordNanos(now - startNanos);
+        checkpointLag.recordNanos(now - completed.getOldestReceivedNanos());
+        checkpoints.checkpointed(completed);
+        checkpointCount.increment();
+        recordsCheckpointed.add(completed.getRecords());
+        lastCheckpointNanos = now;
+        log.info("Checkpointed shard {} at {} ({} record(s))", shardId, position, completed.getRecords());
+    }
+
+    /**
+     * Counts records written before this processor took the lease, until it has caught up. It is
+     * an upper bound on the replay: the earlier owner may not have got to all of them.
+     */
+    private void trackReplay(List<KinesisClientRecord> records, Long millisBehindLatest, long receivedNanos) {
+        if (!replaying) {
+            return;
+        }
+        boolean caughtUp = millisBehindLatest != null && millisBehindLatest == 0;
+        for (KinesisClientRecord record : records) {
+            Instant arrival = record.approximateArrivalTimestamp();
+            if (arrival == null || arrival.toEpochMilli() >= leaseStartMillis) {
+                caughtUp = true;
+                break;
+            }
+            replayedRecords++;
+            recordsReplayed.increment();
+        }
+        if (caughtUp) {
+            replaying = false;
+            replayCatchUp.recordNanos(receivedNanos - replayStartNanos);
+            log.info("Shard {} caught up after replaying up to {} record(s)", shardId, replayedRecords);
+        }
+    }
+
+    /**
+     * Reduces a batch to the newest position of each drone, dropping positions at or behind
+     * the drone's watermark from earlier batches (a replay after a failover or a reshard).
+     */
+    Collection<DronePosition> coalesce(List<KinesisClientRecord> records) {
+        Map<String, DronePosition> newest = new LinkedHashMap<>();
+        for (KinesisClientRecord record : records) {
+            DronePosition position;
+            try {
+                position = decode(record);
             } catch (Exception e) {
-                log.error("Error processing record", e);
+                log.error("Error decoding record", e);
+                continue;
+            }
+            recordTrack(record, position);
+            DronePosition seen = newest.get(position.droneId);
+            if (seen != null && !position.isAfter(seen)) {
+                coalesced.incrementAndGet();
+                continue;
+            }
+            DronePosition watermark = watermarks.get(position.droneId);
+            if (watermark != null && !position.isAfter(watermark)) {
+                stale.incrementAndGet();
+                continue;
+            }
+            if (seen != null) {
+                coalesced.incrementAndGet();
+            }
+            newest.put(position.droneId, position);
+        }
+        watermarks.putAll(newest);
+        return newest.values();
+    }
+
+    /**
+     * Appends a position to the shard's track log, stamped with the time the producer sent it,
+     * or for legacy records without one, the time Kinesis received it.
+     * Every position is kept, including the ones coalescing drops, but a replayed position
+     * that is not newer than the last one recorded for the drone is not appended again. A failed
+     * append loses the point but never holds up the batch.
+     */
+    private void recordTrack(KinesisClientRecord record, DronePosition position) {
+        if (tracks == null) {
+            return;
+        }
+        DronePosition trackMark = trackMarks.get(position.droneId);
+        if (trackMark != null && !position.isAfter(trackMark)) {
+            return;
+        }
+        trackMarks.put(position.droneId, position);
+        long timeMillis = position.sentAtMillis;
+        if (timeMillis <= 0) {
+            Instant arrival = record.approximateArrivalTimestamp();
+            timeMillis = arrival == null ? System.currentTimeMillis() : arrival.toEpochMilli();
+        }
+        try {
+            tracks.append(timeMillis, position.droneId, position.lat, position.lon);
+            trackPoints.increment();
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Could not record the track of drone {}: {}", position.droneId, e.toString());
+            trackFailures.increment();
+        }
+    }
+
+    /**
+     * Positions dropped because a newer one for the same drone was in the same batch.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Positions dropped because they were not newer than the drone's watermark.
+     */
+    public long getStale() {
+        return stale.get();
+    }
+
+    // Producers may send either the binary or the legacy JSON form; see LocationUpdate
+    private DronePosition decode(KinesisClientRecord record) throws IOException {
+        LocationUpdate update = LocationUpdate.decode(record.data());
+        return new DronePosition(update.getDroneId(), update.getLat(), update.getLon(), update.getSentAtMillis(),
+                record.sequenceNumber(), record.subSequenceNumber());
+    }
+
+    /**
+     * Drones without a known fence get their assigned order from the assignment cache, then
+     * every store and user of the whole batch from the location cache, and their fences are
+     * registered. Each position is then checked against its drone's fence in the drone's lane,
+     * after the drone's earlier positions. Completes once every resulting status update has been
+     * written.
+     */
+    private CompletableFuture<Void> resolve(Collection<DronePosition> positions) {
+        List<DronePosition> unfenced = new ArrayList<>();
+        Map<Integer, List<DronePosition>> byLane = new HashMap<>();
+        for (DronePosition position : positions) {
+            if (geofences.get(position.droneId) == null) {
+                unfenced.add(position);
+            }
+            byLane.computeIfAbsent(lanes.laneOf(position.droneId), lane -> new ArrayList<>()).add(position);
+        }
+        CompletableFuture<Void> fenced = unfenced.isEmpty()
+                ? CompletableFuture.completedFuture(null) : lookUpFences(unfenced);
+        List<CompletableFuture<Void>> updates = new ArrayList<>(byLane.size());
+        byLane.forEach((lane, lanePositions) ->
+                updates.add(lanes.submit(lane, () -> fenced.thenCompose(done -> applyFences(lanePositions)))));
+        return CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private CompletableFuture<Void> applyFences(List<DronePosition> positions) {
+        List<CompletableFuture<Void>> updates = new ArrayList<>();
+        for (DronePosition position : positions) {
+            // Read now rather than at dispatch: the drone's earlier positions may have moved it on
+            GeofenceEngine.Fence fence = geofences.get(position.droneId);
+            if (fence != null) {
+                updates.add(applyFence(position, fence));
+            }
+        }
+        return CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private CompletableFuture<Void> lookUpFences(List<DronePosition> positions) {
+        fenceMisses.add(positions.size());
+        List<String> droneIds = new ArrayList<>(positions.size());
+        for (DronePosition position : positions) {
+            droneIds.add(position.droneId);
+        }
+        return assignments.assignedOrders(droneIds).thenCompose(orders -> {
+            Map<DronePosition, Map<String, AttributeValue>> assigned = new LinkedHashMap<>();
+            Set<LocationKey> places = new LinkedHashSet<>();
+            positions.forEach(position -> {
+                Map<String, AttributeValue> order = orders.get(position.droneId);
+                if (order == null) {
+                    return;
+                }
+                try {
+                    for (String field : FENCE_ORDER_FIELDS) {
+                        requireText(order, field);
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.warn("Skipping malformed order assigned to drone {}: {}", position.droneId, e.getMessage());
+                    malformedItems.increment();
+                    return;
+                }
+                assigned.put(position, order);
+                places.add(LocationKey.store(order));
+                places.add(LocationKey.user(order));
+            });
+            if (assigned.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
             }
+            return findLocations(places).thenAccept(locations -> {
+                assigned.forEach((position, order) -> {
+                    GeoPoint store = locations.get(LocationKey.store(order));
+                    GeoPoint user = locations.get(LocationKey.user(order));
+                    if (store == null || user == null) {
+                        log.warn("Store or user of order {} not found", order.get("UUID").s());
+                        return;
+                    }
+                    geofences.register(position.droneId, order.get("UUID").s(), order.get("Status").s(), store, user);
+                });
+            });
+        });
+    }
+
+    private CompletableFuture<Void> applyFence(DronePosition position, GeofenceEngine.Fence fence) {
+        String next = geofences.check(fence, position.lat, position.lon);
+        if (next == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        return updateOrderStatus(fence, next);
     }
 
     @Override
     public void leaseLost(LeaseLostInput leaseLostInput) {
         log.info("Lease lost for shard: {}", shardId);
+        // The new owner processes these again from the last checkpoint
+        recordsAbandoned.add(checkpoints.getPendingRecords());
+        closeTracks();
     }
 
     @Override
     public void shardEnded(ShardEndedInput shardEndedInput) {
         log.info("Shard ended: {}", shardId);
+        // Child shards are only handed out once this one is checkpointed at its end, so the
+        // in-flight work gets a chance to finish but does not hold the checkpoint back
+        drain();
+        long pending = checkpoints.getPendingRecords();
         try {
             shardEndedInput.checkpointer().checkpoint();
+            recordsCheckpointed.add(pending);
         } catch (ShutdownException | InvalidStateException e) {
             log.error("Exception while checkpointing at shard end. Giving up.", e);
+            recordsAbandoned.add(pending);
         }
+        closeTracks();
     }
 
     @Override
     public void shutdownRequested(ShutdownRequestedInput shutdownRequestedInput) {
         log.info("Scheduler is shutting down, checkpointing.");
+        drain();
+        checkpoint(shutdownRequestedInput.checkpointer());
+        recordsAbandoned.add(checkpoints.getPendingRecords());
+        closeTracks();
+    }
+
+    private void closeTracks() {
+        if (tracks != null) {
+            tracks.close();
+            tracks = null;
+        }
+    }
+
+    private void drain() {
         try {
-            shutdownRequestedInput.checkpointer().checkpoint();
-        } catch (ShutdownException | InvalidStateException e) {
-            log.error("Exception while checkpointing at requested shutdown. Giving up.", e);
+            if (!checkpoints.awaitIdle(config.getShutdownDrainMillis())) {
+                log.warn("Shard {} still has work in flight after {} ms", shardId, config.getShutdownDrainMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private double[] parseGeoLocation(String geoLocation) {
-        String[] parts = geoLocation.split(",");
-        return new double[]{Double.parseDouble(parts[0]), Double.parseDouble(parts[1])};
+    private CompletableFuture<Map<LocationKey, GeoPoint>> findLocations(Set<LocationKey> places) {
+        return locationCache.getAll(places, this::loadLocations);
+    }
+
+    /**
+     * Reads the given stores and users with as few BatchGetItem calls as possible. Keys
+     * DynamoDB leaves unprocessed are retried with backoff.
+     */
+    private CompletableFuture<Map<LocationKey, GeoPoint>> loadLocations(Set<LocationKey> places) {
+        log.info("Loading {} store and user location(s)", places.size());
+        Map<LocationKey, GeoPoint> locations = new ConcurrentHashMap<>();
+
+        List<Map<String, KeysAndAttributes>> requests = new ArrayList<>();
+        Map<String, List<Map<String, AttributeValue>>> pending = new LinkedHashMap<>();
+        int keys = 0;
+        for (LocationKey place : places) {
+            if (keys == MAX_BATCH_GET_KEYS) {
+                requests.add(keysAndAttributes(pending));
+                pending = new LinkedHashMap<>();
+                keys = 0;
+            }
+            pending.computeIfAbsent(place.table, name -> new ArrayList<>())
+                    .add(Map.of("UUID", AttributeValue.builder().s(place.id).build()));
+            keys++;
+        }
+        if (keys > 0) {
+            requests.add(keysAndAttributes(pending));
+        }
+
+        CompletableFuture<?>[] calls = requests.stream()
+                .map(request -> batchGet(request, locations, 0))
+                .toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(calls).thenApply(done -> locations);
     }
 
-    private CompletableFuture<Map<String, AttributeValue>> findAssignedOrder(String droneUUID) {
-        log.info("Finding assigned order for droneID: {}", droneUUID);
-        QueryRequest queryRequest = QueryRequest.builder()
-                .tableName("Orders")
-                .indexName("AssignedTo-index")
-                .keyConditionExpression("AssignedTo = :droneUUID")
-                .expressionAttributeValues(Map.of(":droneUUID", AttributeValue.builder().s(droneUUID).build()))
-                .build();
-        return dynamoDbClient.query(queryRequest).thenApply(QueryResponse::items)
-                .thenApply(items -> {
-                    if (items.isEmpty()) {
-                        log.info("No assigned order found for droneID: {}", droneUUID);
-                        return null;
+    private CompletableFuture<Void> batchGet(Map<String, KeysAndAttributes> request,
+                                             Map<LocationKey, GeoPoint> locations, int attempt) {
+        return dynamoDbClient.batchGetItem(BatchGetItemRequest.builder().requestItems(request).build())
+                .thenCompose(response -> {
+                    response.responses().forEach((table, items) -> items.forEach(item -> {
+                        try {
+                            requireText(item, "UUID");
+                            locations.put(new LocationKey(table, item.get("UUID").s()), LocationAttributes.point(item));
+                        } catch (RuntimeException e) {
+                            // Left out, so the fences that need it are not registered; the rest still are
+                            log.warn("Skipping malformed {} item {}: {}", table, item.get("UUID"), e.toString());
+                            malformedItems.increment();
+                        }
+                    }));
+                    Map<String, KeysAndAttributes> unprocessed = response.unprocessedKeys();
+                    if (unprocessed == null || unprocessed.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
                     }
-                    log.info("Assigned order found for droneID: {}", droneUUID);
-                    return items.get(0);
+                    if (attempt + 1 >= MAX_BATCH_GET_ATTEMPTS) {
+                        log.warn("Giving up on {} unprocessed location key(s)", unprocessed.values().stream()
+                                .mapToInt(keysAndAttributes -> keysAndAttributes.keys().size()).sum());
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    Executor delayed = CompletableFuture.delayedExecutor(50L << attempt, TimeUnit.MILLISECONDS);
+                    return CompletableFuture.supplyAsync(() -> unprocessed, delayed)
+                            .thenCompose(retry -> batchGet(retry, locations, attempt + 1));
                 });
     }
 
-    private CompletableFuture<Map<String, AttributeValue>> findLocation(String tableName, String id) {
-        log.info("Finding location for table: {}, ID: {}", tableName, id);
-        GetItemRequest getItemRequest = GetItemRequest.builder()
-                .tableName(tableName)
-                .key(Map.of("UUID", AttributeValue.builder().s(id).build()))
-                .build();
-        return dynamoDbClient.getItem(getItemRequest).thenApply(response -> {
-            log.info("Location found for table: {}, ID: {}", tableName, id);
-            return response.item();
-        });
+    private static void requireText(Map<String, AttributeValue> item, String field) {
+        AttributeValue value = item.get(field);
+        if (value == null || value.s() == null) {
+            throw new IllegalArgumentException(field + " is missing");
+        }
+    }
+
+    private static Map<String, KeysAndAttributes> keysAndAttributes(Map<String, List<Map<String, AttributeValue>>> keys) {
+        Map<String, KeysAndAttributes> request = new HashMap<>();
+        keys.forEach((table, tableKeys) -> request.put(table, KeysAndAttributes.builder()
+                .keys(tableKeys)
+                .projectionExpression("#id, #lat, #lon, #location")
+                .expressionAttributeNames(Map.of("#id", "UUID", "#lat", LocationAttributes.LAT,
+                        "#lon", LocationAttributes.LON, "#location", LocationAttributes.LEGACY))
+                .build()));
+        return request;
+    }
+
+    /**
+     * Moves the fence's order to {@code newStatus}, provided it still has the status the fence
+     * expects, together with the drone where the drone's status changes too. If the order has
+     * moved on without this processor the fence is dropped, and the drone is looked up again on
+     * its next update.
+     */
+    private CompletableFuture<Void> updateOrderStatus(GeofenceEngine.Fence fence, String newStatus) {
+        String droneUUID = fence.getDroneId();
+        log.info("Updating orderID: {} to new status: {}", fence.getOrderId(), newStatus);
+        StatusWriter.StatusWrite order = StatusWriter.StatusWrite.conditional(ORDERS_TABLE, fence.getOrderId(),
+                fence.getStatus(), newStatus);
+        CompletableFuture<Void> updated;
+        if (GeofenceEngine.PICKUP_COMPLETED.equals(newStatus)) {
+            updated = statusWriter.submit(order, StatusWriter.StatusWrite.of(DRONES_TABLE, droneUUID, "PickupCompleted"));
+        } else if (GeofenceEngine.COMPLETED.equals(newStatus)) {
+            updated = statusWriter.submit(order, StatusWriter.StatusWrite.of(DRONES_TABLE, droneUUID, "ACTIVE"));
+        } else {
+            updated = statusWriter.submit(order);
+        }
+        return updated.handle((done, e) -> {
+            if (e == null) {
+                geofences.advance(fence, newStatus);
+                assignments.statusChanged(droneUUID, fence.getOrderId(), newStatus);
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof ConditionalCheckFailedException) {
+                log.info("OrderID: {} is no longer {}, dropping the fence of droneID: {}",
+                        fence.getOrderId(), fence.getStatus(), droneUUID);
+                geofences.invalidate(fence);
+                assignments.invalidate(droneUUID);
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            return CompletableFuture.<Void>failedFuture(cause);
+        }).thenCompose(result -> result);
+    }
+
+    /**
+     * A drone's reported position and where it sits in the shard. KPL aggregation packs several
+     * user records into one Kinesis record, so the sub-sequence number breaks ties.
+     */
+    static final class DronePosition {
+        private final String droneId;
+        private final double lat;
+        private final double lon;
+        private final long sentAtMillis;
+        private final String sequenceNumber;
+        private final long subSequenceNumber;
+
+        DronePosition(String droneId, double lat, double lon, long sentAtMillis, String sequenceNumber,
+                      long subSequenceNumber) {
+            this.droneId = droneId;
+            this.lat = lat;
+            this.lon = lon;
+            this.sentAtMillis = sentAtMillis;
+            this.sequenceNumber = sequenceNumber;
+            this.subSequenceNumber = subSequenceNumber;
+        }
+
+        String getDroneId() {
+            return droneId;
+        }
+
+        // Records without a sequence number cannot be ordered, so they always count as newer
+        boolean isAfter(DronePosition other) {
+            if (sequenceNumber == null || other.sequenceNumber == null) {
+                return true;
+            }
+            int bySequence = compareSequenceNumbers(sequenceNumber, other.sequenceNumber);
+            return bySequence != 0 ? bySequence > 0 : subSequenceNumber > other.subSequenceNumber;
+        }
+
+        // Sequence numbers are decimal strings of up to 128 digits without leading zeros
+        private static int compareSequenceNumbers(String a, String b) {
+            return a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+        }
     }
 
-    private double calculateHaversineDistance(double[] start, double[] end) {
-        double lat1 = Math.toRadians(start[0]);
-        double lon1 = Math.toRadians(start[1]);
-        double lat2 = Math.toRadians(end[0]);
-        double lon2 = Math.toRadians(end[1]);
-
-        double dlat = lat2 - lat1;
-        double dlon = lon2 - lon1;
-
-        double a = Math.sin(dlat / 2) * Math.sin(dlat / 2)
-                + Math.cos(lat1) * Math.cos(lat2)
-                * Math.sin(dlon / 2) * Math.sin(dlon / 2);
-
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return EARTH_RADIUS * c;
-    }
-
-    private void updateOrderStatus(String droneUUID, Map<String, AttributeValue> assignedOrder, double distanceToStore, double distanceToUser) {
-        String orderStatus = assignedOrder.get("Status").s();
-        String orderId = assignedOrder.get("UUID").s();
-
-        log.info("Updating order status for orderID: {}", orderId);
-        if ("assigned".equals(orderStatus) && distanceToStore < 5) {
-            updateOrder(orderId, "PickupCompleted");
-            updateDroneStatus(droneUUID, "PickupCompleted");
-        } else if ("PickupCompleted".equals(orderStatus) && distanceToUser < 5) {
-            updateOrder(orderId, "DropoffCompleted");
-        } else if ("DropoffCompleted".equals(orderStatus)) {
-            updateOrder(orderId, "Completed");
-            updateDroneStatus(droneUUID, "ACTIVE");
-        }
-    }
-
-    private void updateOrder(String orderId, String newStatus) {
-        log.info("Updating orderID: {} to new status: {}", orderId, newStatus);
-        UpdateItemRequest updateRequest = UpdateItemRequest.builder()
-                .tableName("Orders")
-                .key(Map.of("UUID", AttributeValue.builder().s(orderId).build()))
-                .attributeUpdates(Map.of("Status", AttributeValueUpdate.builder()
-                        .value(AttributeValue.builder().s(newStatus).build())
-                        .action(AttributeAction.PUT).build()))
-                .build();
-        dynamoDbClient.updateItem(updateRequest).thenRun(() -> log.info("OrderID: {} updated to new status: {}", orderId, newStatus));
-    }
-
-    private void updateDroneStatus(String droneUUID, String newStatus) {
-        log.info("Updating droneID: {} to new status: {}", droneUUID, newStatus);
-        UpdateItemRequest updateRequest = UpdateItemRequest.builder()
-                .tableName("Drones")
-                .key(Map.of("UUID", AttributeValue.builder().s(droneUUID).build()))
-                .attributeUpdates(Map.of("Status", AttributeValueUpdate.builder()
-                        .value(AttributeValue.builder().s(newStatus).build())
-                        .action(AttributeAction.PUT).build()))
-                .build();
-        dynamoDbClient.updateItem(updateRequest).thenRun(() -> log.info("DroneID: {} updated to new status: {}", droneUUID, newStatus));
+    /**
+     * A row of the Stores or Users table, the key of the location cache.
+     */
+    public static final class LocationKey {
+        private final String table;
+        private final String id;
+
+        LocationKey(String table, String id) {
+            this.table = table;
+            this.id = id;
+        }
+
+        static LocationKey store(Map<String, AttributeValue> order) {
+            return new LocationKey(STORES_TABLE, order.get("StoreID").s());
+        }
+
+        static LocationKey user(Map<String, AttributeValue> order) {
+            return new LocationKey(USERS_TABLE, order.get("UserID").s());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LocationKey)) {
+                return false;
+            }
+            LocationKey other = (LocationKey) o;
+            return table.equals(other.table) && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return table + "/" + id;
+        }
     }
 }
@@ -1,5 +1,8 @@
 package kinesis;
 
+import geo.GeoPoint;
+import metrics.LocalMetricsRegistry;
+import metrics.MetricsRegistry;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.kinesis.processor.ShardRecordProcessor;
 import software.amazon.kinesis.processor.ShardRecordProcessorFactory;
@@ -7,13 +10,63 @@ import software.amazon.kinesis.processor.ShardRecordProcessorFactory;
 public class DroneRecordProcessorFactory implements ShardRecordProcessorFactory {
 
     private final DynamoDbAsyncClient dynamoDbClient;
+    private final ConsumerConfig config;
+    // Shared by every shard processor of this worker
+    private final ReadThroughCache<DroneRecordProcessor.LocationKey, GeoPoint> locationCache;
+    private final GeofenceEngine geofences = DroneRecordProcessor.newGeofenceEngine();
+    private final AssignmentCache assignments;
+    private final InFlightWindow workerWindow;
+    private final StatusWriter statusWriter;
+    private final MetricsRegistry metrics;
 
     public DroneRecordProcessorFactory(DynamoDbAsyncClient dynamoDbClient) {
+        this(dynamoDbClient, new ConsumerConfig(), DroneRecordProcessor.newLocationCache(), new LocalMetricsRegistry());
+    }
+
+    public DroneRecordProcessorFactory(DynamoDbAsyncClient dynamoDbClient, ConsumerConfig config,
+                                       ReadThroughCache<DroneRecordProcessor.LocationKey, GeoPoint> locationCache,
+                                       MetricsRegistry metrics) {
         this.dynamoDbClient = dynamoDbClient;
+        this.config = config;
+        this.locationCache = locationCache;
+        this.assignments = new AssignmentCache(dynamoDbClient, geofences, config.getAssignmentCacheSize(),
+                config.getAssignmentCacheTtlMillis());
+        this.workerWindow = new InFlightWindow(config.getMaxInFlightPerWorker());
+        this.statusWriter = DroneRecordProcessor.newStatusWriter(dynamoDbClient, config, metrics);
+        this.metrics = metrics;
+        locationCache.registerMetrics(metrics.withPrefix("locations."));
+        assignments.registerMetrics(metrics.withPrefix("assignments."));
+        geofences.registerMetrics(metrics);
+        DroneRecordProcessor.registerMetrics(metrics, workerWindow);
+    }
+
+    public ReadThroughCache<DroneRecordProcessor.LocationKey, GeoPoint> getLocationCache() {
+        return locationCache;
+    }
+
+    public GeofenceEngine getGeofences() {
+        return geofences;
+    }
+
+    public AssignmentCache getAssignments() {
+        return assignments;
+    }
+
+    public InFlightWindow getWorkerWindow() {
+        return workerWindow;
+    }
+
+    /**
+     * Shared by every processor; close it once the scheduler has shut down, to send what is
+     * still pending.
+     */
+    public StatusWriter getStatusWriter() {
+        return statusWriter;
     }
 
     @Override
     public ShardRecordProcessor shardRecordProcessor() {
-        return new DroneRecordProcessor(dynamoDbClient);
+        return new DroneRecordProcessor(dynamoDbClient, config, locationCache, geofences, assignments, workerWindow,
+                statusWriter, metrics);
     }
 }
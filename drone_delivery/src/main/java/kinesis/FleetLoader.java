@@ -0,0 +1,283 @@
+package kinesis;
+
+import geo.GeoPoint;
+import geo.LocationAttributes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+import stream.DynamoDbStreamPoller;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The producer's picture of the fleet: the status, and the stored location, of every drone in
+ * the Drones table.
+ * <p>
+ * {@link #start} subscribes to the table's change stream and then loads the whole table with a
+ * parallel Scan, each segment following {@code LastEvaluatedKey} to its end. From then on the
+ * stream keeps the picture current, and a slow single-segment rescan every reconcile interval
+ * catches anything the stream missed, including drones deleted while it was down. Without a
+ * stream the rescans are the only source of changes, so they run on the much shorter streamless
+ * interval and without pausing between pages. A drone changed on the stream after a scan
+ * started keeps the stream's version.
+ */
+public class FleetLoader implements AutoCloseable {
+
+    private static final String DRONES_TABLE = "Drones";
+    private static final int RECONCILE_PAGE_ITEMS = 100;
+    private static final String PROJECTION = "#id, #status, #lat, #lon, #location";
+    private static final Map<String, String> PROJECTION_NAMES = Map.of(
+            "#id", "UUID", "#status", "Status", "#lat", LocationAttributes.LAT, "#lon", LocationAttributes.LON,
+            "#location", LocationAttributes.LEGACY);
+
+    private final DynamoDbClient dynamoDB;
+    private final DynamoDbStreamsClient streamsClient;
+    private final int scanSegments;
+    private final long pollIntervalMillis;
+    private final long reconcileIntervalMillis;
+    private final long streamlessReconcileIntervalMillis;
+    private final long reconcilePageDelayMillis;
+    private final Map<String, Drone> drones = new ConcurrentHashMap<>();
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong scanPages = new AtomicLong();
+    private final AtomicLong feedEvents = new AtomicLong();
+    // Orders stream changes against scans; wall-clock millis cannot tell apart two in the same tick
+    private final AtomicLong sequence = new AtomicLong();
+    private DynamoDbStreamPoller poller;
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * @param streamsClient            client for the Drones table stream, or {@code null} to rely
+     *                                 on the reconciliation scans only
+     * @param scanSegments                      parallel segments of the startup scan
+     * @param streamlessReconcileIntervalMillis reconcile interval when the table has no stream
+     * @param reconcilePageDelayMillis          pause between the pages of a reconciliation scan
+     *                                          behind a stream, which keeps its read rate low
+     */
+    public FleetLoader(DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient, int scanSegments,
+                       long pollIntervalMillis, long reconcileIntervalMillis, long streamlessReconcileIntervalMillis,
+                       long reconcilePageDelayMillis) {
+        if (scanSegments < 1) {
+            throw new IllegalArgumentException("scanSegments must be at least 1");
+        }
+        this.dynamoDB = dynamoDB;
+        this.streamsClient = streamsClient;
+        this.scanSegments = scanSegments;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.reconcileIntervalMillis = reconcileIntervalMillis;
+        this.streamlessReconcileIntervalMillis = streamlessReconcileIntervalMillis;
+        this.reconcilePageDelayMillis = reconcilePageDelayMillis;
+    }
+
+    /**
+     * Subscribes to the change stream, loads the fleet and schedules the reconciliation scans.
+     * Subscribing first means no change made during the scan is lost.
+     */
+    public synchronized void start() {
+        if (reconciler != null) {
+            return;
+        }
+        String streamArn = streamsClient == null ? null : DynamoDbStreamPoller.latestStreamArn(dynamoDB, DRONES_TABLE);
+        if (streamArn != null) {
+            poller = new DynamoDbStreamPoller(streamsClient, streamArn, pollIntervalMillis, this::onDroneChange);
+            poller.start();
+        } else {
+            System.out.println("No stream on " + DRONES_TABLE + ", drone changes are picked up by reconciliation scans only.");
+        }
+        scan(scanSegments, 0, 0);
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kpl-fleet-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = poller != null ? reconcileIntervalMillis : streamlessReconcileIntervalMillis;
+        reconciler.scheduleWithFixedDelay(this::reconcileQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+        if (poller != null) {
+            poller.close();
+        }
+    }
+
+    /**
+     * Every known drone by id. The map is live and may change while it is iterated.
+     */
+    public Map<String, Drone> getDrones() {
+        return Collections.unmodifiableMap(drones);
+    }
+
+    public int size() {
+        return drones.size();
+    }
+
+    public long getScans() {
+        return scans.get();
+    }
+
+    public long getScanPages() {
+        return scanPages.get();
+    }
+
+    public long getFeedEvents() {
+        return feedEvents.get();
+    }
+
+    /**
+     * Applies one change record from the Drones table stream.
+     */
+    public void onDroneChange(Record record) {
+        feedEvents.incrementAndGet();
+        StreamRecord change = record.dynamodb();
+        long stamp = sequence.incrementAndGet();
+        if (record.eventName() == OperationType.REMOVE) {
+            drones.remove(change.keys().get("UUID").s());
+        } else if (change.hasNewImage()) {
+            Drone drone = Drone.of(change.newImage(), stamp, true);
+            if (drone != null) {
+                drones.put(change.newImage().get("UUID").s(), drone);
+            }
+        }
+    }
+
+    /**
+     * Rescans the whole table, one page at a time, and drops drones it no longer holds.
+     */
+    public void reconcile() {
+        scan(1, RECONCILE_PAGE_ITEMS, poller != null ? reconcilePageDelayMillis : 0);
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            System.err.println("Fleet reconciliation failed: " + e.getMessage());
+        }
+    }
+
+    private void scan(int segments, int pageItems, long pageDelayMillis) {
+        long startedAt = sequence.incrementAndGet();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        if (segments == 1) {
+            scanSegment(0, 1, pageItems, pageDelayMillis, startedAt, seen);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(segments, runnable -> {
+                Thread thread = new Thread(runnable, "kpl-fleet-scan");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> results = new ArrayList<>(segments);
+                for (int segment = 0; segment < segments; segment++) {
+                    int current = segment;
+                    results.add(executor.submit(() -> scanSegment(current, segments, pageItems, pageDelayMillis,
+                            startedAt, seen)));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning " + DRONES_TABLE, e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                        : new IllegalStateException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        // Gone from the table, unless the stream has added the drone since the scan started
+        drones.entrySet().removeIf(entry -> !seen.contains(entry.getKey()) && entry.getValue().updatedAt < startedAt);
+        scans.incrementAndGet();
+        System.out.println("Scanned " + DRONES_TABLE + " in " + segments + " segment(s): " + drones.size() + " drones.");
+    }
+
+    private void scanSegment(int segment, int segments, int pageItems, long pageDelayMillis, long startedAt,
+                             Set<String> seen) {
+        Map<String, AttributeValue> startKey = null;
+        do {
+            ScanRequest.Builder request = ScanRequest.builder()
+                    .tableName(DRONES_TABLE)
+                    .projectionExpression(PROJECTION)
+                    .expressionAttributeNames(PROJECTION_NAMES)
+                    .exclusiveStartKey(startKey);
+            if (segments > 1) {
+                request.segment(segment).totalSegments(segments);
+            }
+            if (pageItems > 0) {
+                request.limit(pageItems);
+            }
+            ScanResponse page = dynamoDB.scan(request.build());
+            scanPages.incrementAndGet();
+            long stamp = sequence.get();
+            for (Map<String, AttributeValue> item : page.items()) {
+                String droneId = item.get("UUID").s();
+                seen.add(droneId);
+                Drone scanned = Drone.of(item, stamp, false);
+                if (scanned != null) {
+                    // A stream change applied after the scan started is newer than this page
+                    drones.merge(droneId, scanned, (current, next) ->
+                            current.fromFeed && current.updatedAt > startedAt ? current : next);
+                }
+            }
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty() ? page.lastEvaluatedKey() : null;
+            if (startKey != null && pageDelayMillis > 0) {
+                try {
+                    Thread.sleep(pageDelayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while scanning " + DRONES_TABLE, e);
+                }
+            }
+        } while (startKey != null);
+    }
+
+    /**
+     * A drone's status, and its location as stored in the table if it has one.
+     */
+    public static final class Drone {
+        private final String status;
+        private final GeoPoint location;
+        private final long updatedAt;
+        private final boolean fromFeed;
+
+        private Drone(String status, GeoPoint location, long updatedAt, boolean fromFeed) {
+            this.status = status;
+            this.location = location;
+            this.updatedAt = updatedAt;
+            this.fromFeed = fromFeed;
+        }
+
+        // Null for items without a status, which the producer cannot move
+        private static Drone of(Map<String, AttributeValue> item, long updatedAt, boolean fromFeed) {
+            AttributeValue status = item.get("Status");
+            if (status == null || status.s() == null) {
+                return null;
+            }
+            GeoPoint location = null;
+            if (LocationAttributes.hasLocation(item)) {
+                try {
+                    location = LocationAttributes.point(item);
+                } catch (IllegalArgumentException e) {
+                    // Left for the producer to look up again
+                }
+            }
+            return new Drone(status.s(), location, updatedAt, fromFeed);
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public GeoPoint getLocation() {
+            return location;
+        }
+    }
+}
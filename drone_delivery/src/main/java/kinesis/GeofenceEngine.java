@@ -0,0 +1,159 @@
+package kinesis;
+
+import geo.GeoMath;
+import geo.GeoPoint;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pickup and dropoff fences of every drone with an active delivery, so a location update
+ * is checked against its target in memory and DynamoDB is only written when a drone crosses.
+ * <p>
+ * A fence follows the order through its statuses: while {@code assigned} the target is the
+ * store, after {@code PickupCompleted} it is the customer, and {@code DropoffCompleted} closes
+ * the delivery on the next update. Fences are registered when an order is seen assigned and
+ * removed when it completes; one that turns out stale is removed so the drone is looked up again.
+ */
+public class GeofenceEngine {
+
+    public static final String ASSIGNED = "assigned";
+    public static final String PICKUP_COMPLETED = "PickupCompleted";
+    public static final String DROPOFF_COMPLETED = "DropoffCompleted";
+    public static final String COMPLETED = "Completed";
+
+    private final double radiusMeters;
+    private final Map<String, Fence> fences = new ConcurrentHashMap<>();
+
+    private final Counter checks = new Counter();
+    private final Counter crossings = new Counter();
+    private final Counter staleFences = new Counter();
+
+    public GeofenceEngine(double radiusMeters) {
+        this.radiusMeters = radiusMeters;
+    }
+
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.gauge("geofence.size", fences::size);
+        metrics.gauge("geofence.checks", checks::get);
+        metrics.gauge("geofence.crossings", crossings::get);
+        metrics.gauge("geofence.staleFences", staleFences::get);
+    }
+
+    /**
+     * Sets up the fences of a drone's order, replacing whatever the drone had before.
+     * Returns the new fence, or null if the order is already completed.
+     */
+    public Fence register(String droneId, String orderId, String status, GeoPoint pickup, GeoPoint dropoff) {
+        if (COMPLETED.equals(status)) {
+            fences.remove(droneId);
+            return null;
+        }
+        Fence fence = new Fence(droneId, orderId, status, pickup, dropoff);
+        fences.put(droneId, fence);
+        return fence;
+    }
+
+    public Fence get(String droneId) {
+        return fences.get(droneId);
+    }
+
+    /**
+     * The status the drone's order moves to at this position, or null if no fence is crossed.
+     */
+    public String check(Fence fence, double lat, double lon) {
+        checks.increment();
+        String next;
+        switch (fence.status) {
+            case ASSIGNED:
+                next = isInside(fence.pickup, lat, lon) ? PICKUP_COMPLETED : null;
+                break;
+            case PICKUP_COMPLETED:
+                next = isInside(fence.dropoff, lat, lon) ? DROPOFF_COMPLETED : null;
+                break;
+            case DROPOFF_COMPLETED:
+                next = COMPLETED;
+                break;
+            default:
+                next = null;
+        }
+        if (next != null) {
+            crossings.increment();
+        }
+        return next;
+    }
+
+    /**
+     * Records that the order of {@code fence} was moved to {@code status}. A completed order
+     * takes its fences with it.
+     */
+    public void advance(Fence fence, String status) {
+        if (COMPLETED.equals(status)) {
+            fences.remove(fence.droneId, fence);
+        } else {
+            fences.replace(fence.droneId, fence, new Fence(fence.droneId, fence.orderId, status, fence.pickup, fence.dropoff));
+        }
+    }
+
+    /**
+     * Drops the fences of a drone, for example after an order was cancelled or reassigned.
+     */
+    public void remove(String droneId) {
+        fences.remove(droneId);
+    }
+
+    /**
+     * Drops a fence found to disagree with the table, unless it has been replaced already.
+     */
+    public void invalidate(Fence fence) {
+        if (fences.remove(fence.droneId, fence)) {
+            staleFences.increment();
+        }
+    }
+
+    public int size() {
+        return fences.size();
+    }
+
+    private boolean isInside(GeoPoint target, double lat, double lon) {
+        return GeoMath.isWithinMeters(lat, lon, target.getLat(), target.getLon(), radiusMeters);
+    }
+
+    public static final class Fence {
+        private final String droneId;
+        private final String orderId;
+        private final String status;
+        private final GeoPoint pickup;
+        private final GeoPoint dropoff;
+
+        private Fence(String droneId, String orderId, String status, GeoPoint pickup, GeoPoint dropoff) {
+            this.droneId = droneId;
+            this.orderId = orderId;
+            this.status = status;
+            this.pickup = pickup;
+            this.dropoff = dropoff;
+        }
+
+        public String getDroneId() {
+            return droneId;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public GeoPoint getPickup() {
+            return pickup;
+        }
+
+        public GeoPoint getDropoff() {
+            return dropoff;
+        }
+    }
+}
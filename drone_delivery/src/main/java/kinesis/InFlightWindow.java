@@ -0,0 +1,75 @@
+package kinesis;
+
+/**
+ * Caps how much asynchronous DynamoDB work is outstanding, blocking callers once the window is
+ * full.
+ * <p>
+ * The window adapts to throttling: a release that reports throttling halves the limit, and
+ * every other release grows it by one again, up to {@code maxPermits}. Work larger than the
+ * current limit is let through on its own once nothing else is in flight.
+ */
+public class InFlightWindow {
+
+    private final int maxPermits;
+    private final int minPermits;
+    // Guarded by this
+    private int limit;
+    private int inFlight;
+    private int waiting;
+
+    public InFlightWindow(int maxPermits) {
+        if (maxPermits < 1) {
+            throw new IllegalArgumentException("maxPermits must be at least 1");
+        }
+        this.maxPermits = maxPermits;
+        this.minPermits = Math.max(1, maxPermits / 16);
+        this.limit = maxPermits;
+    }
+
+    /**
+     * Blocks until {@code permits} fit in the window and takes them. Returns how long the caller
+     * waited, in nanoseconds.
+     */
+    public synchronized long acquire(int permits) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        waiting++;
+        try {
+            while (inFlight > 0 && inFlight + permits > limit) {
+                wait();
+            }
+        } finally {
+            waiting--;
+        }
+        inFlight += permits;
+        return System.nanoTime() - startNanos;
+    }
+
+    public synchronized void release(int permits, boolean throttled) {
+        inFlight -= permits;
+        if (throttled) {
+            limit = Math.max(minPermits, limit / 2);
+        } else if (limit < maxPermits) {
+            limit++;
+        }
+        notifyAll();
+    }
+
+    public int getMaxPermits() {
+        return maxPermits;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Callers blocked in {@link #acquire} right now.
+     */
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+}
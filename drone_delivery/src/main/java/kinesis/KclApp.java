@@ -1,5 +1,6 @@
 package kinesis;
 
+import metrics.LocalMetricsRegistry;
 import software.amazon.kinesis.common.ConfigsBuilder;
 import software.amazon.kinesis.common.KinesisClientUtil;
 import software.amazon.kinesis.coordinator.Scheduler;
@@ -9,10 +10,16 @@ import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import stream.DynamoDbStreamPoller;
 
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class KclApp {
 
@@ -20,6 +27,7 @@ public class KclApp {
     private static final String REGION = "us-east-1";
     private static final String APPLICATION_NAME = "DroneDeliveryApp";
     private static final String WORKER_ID = "worker-" + UUID.randomUUID().toString();
+    private static final long GRACEFUL_SHUTDOWN_SECONDS = 30;
 
     public static void main(String[] args) {
         System.out.println("Starting KCL application...");
@@ -36,7 +44,12 @@ public class KclApp {
                 .credentialsProvider(DefaultCredentialsProvider.create())
                 .build();
 
-        DroneRecordProcessorFactory recordProcessorFactory = new DroneRecordProcessorFactory(dynamoDbClient);
+        ConsumerConfig config = ConsumerConfig.fromEnvironment();
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        DroneRecordProcessorFactory recordProcessorFactory = new DroneRecordProcessorFactory(
+                dynamoDbClient, config, DroneRecordProcessor.newLocationCache(), metrics);
+        metrics.startReporting(config.getMetricsReportIntervalMillis(), config.isMetricsJson());
+        startOrdersFeed(recordProcessorFactory.getAssignments(), config);
 
         ConfigsBuilder configsBuilder = new ConfigsBuilder(
                 STREAM_NAME,
@@ -53,7 +66,8 @@ public class KclApp {
                 configsBuilder.leaseManagementConfig(),
                 configsBuilder.lifecycleConfig(),
                 configsBuilder.metricsConfig().metricsLevel(MetricsLevel.DETAILED),
-                configsBuilder.processorConfig(),
+                // Idle shards still get processRecords calls, so the time-based checkpoint fires
+                configsBuilder.processorConfig().callProcessRecordsEvenForEmptyRecordList(true),
                 configsBuilder.retrievalConfig().retrievalSpecificConfig(new PollingConfig(STREAM_NAME, kinesisClient))
         );
 
@@ -61,5 +75,35 @@ public class KclApp {
             System.out.println("Scheduler started.");
             scheduler.run();
         });
+
+        // Processors drain and checkpoint first, then whatever status writes are left go out
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                scheduler.startGracefulShutdown().get(GRACEFUL_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                System.out.println("Graceful shutdown did not complete: " + e);
+            }
+            recordProcessorFactory.getStatusWriter().close();
+        }, "kcl-shutdown"));
+    }
+
+    // Assignments made by the Matcher reach the assignment cache through the Orders stream
+    private static void startOrdersFeed(AssignmentCache assignments, ConsumerConfig config) {
+        DynamoDbClient dynamoDb = DynamoDbClient.builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+        String streamArn = DynamoDbStreamPoller.latestStreamArn(dynamoDb, "Orders");
+        if (streamArn == null) {
+            System.out.println("No stream on Orders, assignments are picked up when their cache entries expire.");
+            return;
+        }
+        DynamoDbStreamsClient streamsClient = DynamoDbStreamsClient.builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+        assignments.startFeed(streamsClient, streamArn, config.getOrdersFeedPollIntervalMillis());
     }
 }
@@ -4,12 +4,13 @@ import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import geo.GeoPoint;
+import geo.LocationAttributes;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -28,15 +29,43 @@ public class KplApp {
 
     private static final Random RANDOM = new Random();
     private static final double MOVEMENT_RANGE = 5; // Adjust this value for movement range
+    private static final int FLEET_SCAN_SEGMENTS = 4;
+    private static final long FLEET_FEED_POLL_MILLIS = 1000;
+    private static final long FLEET_RECONCILE_MILLIS = 10 * 60 * 1000;
+    // The original refresh tick, for tables without a stream
+    private static final long FLEET_STREAMLESS_RECONCILE_MILLIS = 5000;
+    private static final long FLEET_RECONCILE_PAGE_DELAY_MILLIS = 200;
 
     private final KinesisProducer producer;
     private final DynamoDbClient dynamoDB;
-    private final ObjectMapper objectMapper;
+    private final FleetLoader fleet;
+    // Binary records need every consumer to understand them; JSON until then
+    private final boolean binaryRecords;
 
     // Map to store the last known location of each drone
-    private final Map<String, String> droneLocations;
+    private final Map<String, GeoPoint> droneLocations;
 
     public KplApp() {
+        this(new KinesisProducer(producerConfiguration()), DynamoDbClient.builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build(), DynamoDbStreamsClient.builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build(), "binary".equalsIgnoreCase(System.getenv().getOrDefault("KPL_RECORD_FORMAT", "json")));
+    }
+
+    KplApp(KinesisProducer producer, DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient,
+           boolean binaryRecords) {
+        this.producer = producer;
+        this.dynamoDB = dynamoDB;
+        this.fleet = new FleetLoader(dynamoDB, streamsClient, FLEET_SCAN_SEGMENTS, FLEET_FEED_POLL_MILLIS,
+                FLEET_RECONCILE_MILLIS, FLEET_STREAMLESS_RECONCILE_MILLIS, FLEET_RECONCILE_PAGE_DELAY_MILLIS);
+        this.binaryRecords = binaryRecords;
+        droneLocations = new HashMap<>();
+    }
+
+    private static KinesisProducerConfiguration producerConfiguration() {
         KinesisProducerConfiguration config = new KinesisProducerConfiguration();
         config.setRegion(REGION);
         config.setMaxConnections(1);
@@ -45,16 +74,7 @@ public class KplApp {
 
         AWSCredentialsProvider credentialsProvider = DefaultAWSCredentialsProviderChain.getInstance();
         config.setCredentialsProvider(credentialsProvider);
-
-        producer = new KinesisProducer(config);
-
-        dynamoDB = DynamoDbClient.builder()
-                .region(Region.of(REGION))
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
-
-        objectMapper = new ObjectMapper();
-        droneLocations = new HashMap<>();
+        return config;
     }
 
     public static void main(String[] args) {
@@ -63,6 +83,7 @@ public class KplApp {
     }
 
     public void start() {
+        fleet.start();
         Timer timer = new Timer();
         timer.scheduleAtFixedRate(new TimerTask() {
             @Override
@@ -73,27 +94,16 @@ public class KplApp {
     }
 
     private void processDrones() {
-        // Scan the Drones table for all drones
-        ScanRequest scanRequest = ScanRequest.builder()
-                .tableName(DRONES_TABLE)
-                .build();
-
-        ScanResponse scanResponse = dynamoDB.scan(scanRequest);
-        List<Map<String, AttributeValue>> drones = scanResponse.items();
-
-        for (Map<String, AttributeValue> drone : drones) {
-            String droneID = drone.get("UUID").s();
-            String status = drone.get("Status").s();
-
-            updateDroneLocation(droneID, status);
-        }
+        // The fleet loader keeps every drone's status current without rescanning the table
+        fleet.getDrones().forEach(this::updateDroneLocation);
     }
 
-    private void updateDroneLocation(String droneID, String status) {
+    private void updateDroneLocation(String droneID, FleetLoader.Drone drone) {
         try {
-            String currentLocation = droneLocations.getOrDefault(droneID, null);
+            String status = drone.getStatus();
+            GeoPoint currentLocation = droneLocations.getOrDefault(droneID, drone.getLocation());
 
-            // If we don't have a last known location in the map, fetch it from DynamoDB
+            // If neither we nor the scan know where the drone is, fetch it from DynamoDB
             if (currentLocation == null) {
                 GetItemRequest getRequest = GetItemRequest.builder()
                         .tableName(DRONES_TABLE)
@@ -104,7 +114,7 @@ public class KplApp {
                 Map<String, AttributeValue> item = getResponse.item();
 
                 if (item != null && !item.isEmpty()) {
-                    currentLocation = item.get("Location").s();
+                    currentLocation = LocationAttributes.point(item);
                     droneLocations.put(droneID, currentLocation);
                 } else {
                     System.out.println("Drone not found: " + droneID);
@@ -112,7 +122,7 @@ public class KplApp {
                 }
             }
 
-            String newLocation = calculateNewLocation(currentLocation, status, droneID);
+            GeoPoint newLocation = calculateNewLocation(currentLocation, status, droneID);
             sendLocationUpdate(droneID, newLocation);
             droneLocations.put(droneID, newLocation);
         } catch (Exception e) {
@@ -120,31 +130,33 @@ public class KplApp {
         }
     }
 
-    private String calculateNewLocation(String currentLocation, String status, String droneID) {
-        String[] parts = currentLocation.split(",");
-        double lat = Double.parseDouble(parts[0]);
-        double lon = Double.parseDouble(parts[1]);
+    private GeoPoint calculateNewLocation(GeoPoint currentLocation, String status, String droneID) {
+        double lat = currentLocation.getLat();
+        double lon = currentLocation.getLon();
 
         if ("ACTIVE".equals(status)) {
             // Simulate random movement
             lat += (RANDOM.nextDouble() - 0.5) * MOVEMENT_RANGE;
             lon += (RANDOM.nextDouble() - 0.5) * MOVEMENT_RANGE;
         } else {
-            String targetLocation = getTargetLocation(status, droneID);
+            GeoPoint targetLocation = getTargetLocation(status, droneID);
             if (targetLocation != null) {
-                String[] targetParts = targetLocation.split(",");
-                double targetLat = Double.parseDouble(targetParts[0]);
-                double targetLon = Double.parseDouble(targetParts[1]);
-
-                lat = moveTowards(lat, targetLat);
-                lon = moveTowards(lon, targetLon);
+                lat = moveTowards(lat, targetLocation.getLat());
+                lon = moveTowards(lon, targetLocation.getLon());
             }
         }
 
-        return lat + "," + lon;
+        // Keep the random walk on the map: stop at the poles, wrap around the antimeridian
+        lat = Math.max(-90, Math.min(90, lat));
+        if (lon > 180) {
+            lon -= 360;
+        } else if (lon < -180) {
+            lon += 360;
+        }
+        return new GeoPoint(lat, lon);
     }
 
-    private String getTargetLocation(String status, String droneID) {
+    private GeoPoint getTargetLocation(String status, String droneID) {
         QueryRequest queryRequest = QueryRequest.builder()
                 .tableName(ORDERS_TABLE)
                 .indexName("AssignedTo-index")
@@ -172,7 +184,7 @@ public class KplApp {
         return null;
     }
 
-    private String getLocation(String tableName, String id) {
+    private GeoPoint getLocation(String tableName, String id) {
         GetItemRequest getRequest = GetItemRequest.builder()
                 .tableName(tableName)
                 .key(Map.of("UUID", AttributeValue.builder().s(id).build()))
@@ -182,7 +194,7 @@ public class KplApp {
         Map<String, AttributeValue> item = getResponse.item();
 
         if (item != null && !item.isEmpty()) {
-            return item.get("Location").s();
+            return LocationAttributes.point(item);
         }
 
         return null;
@@ -203,20 +215,15 @@ public class KplApp {
         return current;
     }
 
-    private void sendLocationUpdate(String droneID, String newLocation) {
+    private void sendLocationUpdate(String droneID, GeoPoint newLocation) {
         try {
-            ObjectNode locationUpdate = objectMapper.createObjectNode();
-            locationUpdate.put("droneID", droneID);
-            locationUpdate.put("location", newLocation);
-
-            String locationJson = objectMapper.writeValueAsString(locationUpdate);
-            ByteBuffer data = ByteBuffer.wrap(locationJson.getBytes());
+            ByteBuffer data = ByteBuffer.wrap(encodeLocationUpdate(droneID, newLocation));
 
             // Hash the partition key to distribute across shards
             String partitionKey = hashPartitionKey(droneID);
 
             // Add detailed logging to track partition key and data
-            System.out.println("Sending location update - Partition Key: " + partitionKey + ", Data: " + locationJson);
+            System.out.println("Sending location update - Partition Key: " + partitionKey + ", Bytes: " + data.remaining());
 
             // Use hashed partition key to ensure better distribution
             producer.addUserRecord(STREAM_NAME, partitionKey, data);
@@ -226,7 +233,13 @@ public class KplApp {
         }
     }
 
-    private String hashPartitionKey(String partitionKey) {
+    byte[] encodeLocationUpdate(String droneID, GeoPoint location) {
+        LocationUpdate update = new LocationUpdate(droneID, location.getLat(), location.getLon(),
+                System.currentTimeMillis());
+        return binaryRecords ? update.toBinary() : update.toJson().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String hashPartitionKey(String partitionKey) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
             byte[] hash = md.digest(partitionKey.getBytes(StandardCharsets.UTF_8));
@@ -236,7 +249,7 @@ public class KplApp {
         }
     }
 
-    private String bytesToHex(byte[] bytes) {
+    private static String bytesToHex(byte[] bytes) {
         StringBuilder hexString = new StringBuilder();
         for (byte b : bytes) {
             String hex = Integer.toHexString(0xff & b);
@@ -246,13 +259,3 @@ public class KplApp {
         return hexString.toString();
     }
 }
-
-
-
-
-
-
-
-
-
-
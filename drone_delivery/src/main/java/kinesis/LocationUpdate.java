@@ -0,0 +1,171 @@
+package kinesis;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import geo.LocationCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * One drone location update as it travels on the Kinesis stream, and its two wire forms.
+ * <p>
+ * The binary form is a fixed header followed by the drone id:
+ * <pre>
+ *  0  byte  magic, 0xB1
+ *  1  byte  version, 1
+ *  2  long  sent at, epoch milliseconds
+ * 10  int   latitude, 1e-7 degrees
+ * 14  int   longitude, 1e-7 degrees
+ * 18  byte  drone id format: 1 = UUID, 2 = UTF-8 text
+ * 19        the UUID's 16 bytes, or a length byte and up to 255 bytes of text
+ * </pre>
+ * A UUID drone comes to 35 bytes, against about 90 for the legacy JSON form
+ * {@code {"droneID":"...","location":"lat,lon"}}, which has no timestamp. {@link #decode}
+ * tells the two apart by the first byte, since JSON never starts with the magic byte.
+ */
+public final class LocationUpdate {
+
+    public static final int VERSION = 1;
+
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final int HEADER_SIZE = 19;
+    private static final byte UUID_ID = 1;
+    private static final byte TEXT_ID = 2;
+    private static final int MAX_TEXT_ID_BYTES = 255;
+    private static final double SCALE = 1e7;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String droneId;
+    private final double lat;
+    private final double lon;
+    private final long sentAtMillis;
+
+    /**
+     * @param sentAtMillis when the producer sent the update, or 0 if unknown
+     */
+    public LocationUpdate(String droneId, double lat, double lon, long sentAtMillis) {
+        this.droneId = droneId;
+        this.lat = lat;
+        this.lon = lon;
+        this.sentAtMillis = sentAtMillis;
+    }
+
+    /**
+     * The binary form. Coordinates are kept to seven decimals, the precision of the legacy
+     * {@code "lat,lon"} form.
+     */
+    public byte[] toBinary() {
+        UUID uuid = parseUuid(droneId);
+        byte[] text = uuid == null ? droneId.getBytes(StandardCharsets.UTF_8) : null;
+        if (text != null && text.length > MAX_TEXT_ID_BYTES) {
+            throw new IllegalArgumentException("Drone id is longer than " + MAX_TEXT_ID_BYTES + " bytes: " + droneId);
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + (uuid != null ? 16 : 1 + text.length));
+        out.put(MAGIC).put((byte) VERSION).putLong(sentAtMillis)
+                .putInt((int) Math.round(lat * SCALE)).putInt((int) Math.round(lon * SCALE));
+        if (uuid != null) {
+            out.put(UUID_ID).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        } else {
+            out.put(TEXT_ID).put((byte) text.length).put(text);
+        }
+        return out.array();
+    }
+
+    /**
+     * The legacy JSON form, for consumers that predate the binary one.
+     */
+    public String toJson() {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("droneID", droneId);
+        node.put("location", LocationCodec.format(lat, lon));
+        return node.toString();
+    }
+
+    /**
+     * Reads either form from the remaining bytes of {@code data}, consuming them.
+     */
+    public static LocationUpdate decode(ByteBuffer data) throws IOException {
+        if (data.hasRemaining() && data.get(data.position()) == MAGIC) {
+            return decodeBinary(data);
+        }
+        return decodeJson(data);
+    }
+
+    private static LocationUpdate decodeBinary(ByteBuffer data) throws IOException {
+        if (data.remaining() < HEADER_SIZE + 1) {
+            throw new IOException("Truncated location record of " + data.remaining() + " bytes");
+        }
+        data.get();
+        int version = data.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported location record version " + version);
+        }
+        long sentAtMillis = data.getLong();
+        double lat = data.getInt() / SCALE;
+        double lon = data.getInt() / SCALE;
+        byte idFormat = data.get();
+        String droneId;
+        if (idFormat == UUID_ID && data.remaining() >= 16) {
+            droneId = new UUID(data.getLong(), data.getLong()).toString();
+        } else if (idFormat == TEXT_ID && data.remaining() >= 1 && data.remaining() - 1 >= (data.get(data.position()) & 0xFF)) {
+            byte[] text = new byte[data.get() & 0xFF];
+            data.get(text);
+            droneId = new String(text, StandardCharsets.UTF_8);
+        } else {
+            throw new IOException("Bad drone id in location record");
+        }
+        return new LocationUpdate(droneId, lat, lon, sentAtMillis);
+    }
+
+    private static LocationUpdate decodeJson(ByteBuffer data) throws IOException {
+        JsonNode node;
+        if (data.hasArray()) {
+            node = OBJECT_MAPPER.readTree(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            node = OBJECT_MAPPER.readTree(bytes);
+        }
+        data.position(data.limit());
+        JsonNode droneId = node == null ? null : node.get("droneID");
+        JsonNode location = node == null ? null : node.get("location");
+        if (droneId == null || location == null) {
+            throw new IOException("Location update without droneID or location: " + node);
+        }
+        String text = location.asText();
+        return new LocationUpdate(droneId.asText(), LocationCodec.latitude(text), LocationCodec.longitude(text), 0);
+    }
+
+    // Only the canonical lower-case form round-trips through UUID.toString()
+    private static UUID parseUuid(String droneId) {
+        if (droneId.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(droneId);
+            return uuid.toString().equals(droneId) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public String getDroneId() {
+        return droneId;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public long getSentAtMillis() {
+        return sentAtMillis;
+    }
+}
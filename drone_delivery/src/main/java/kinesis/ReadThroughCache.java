@@ -0,0 +1,207 @@
+package kinesis;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache in front of an asynchronous batch loader, safe to share between shard
+ * processors.
+ * <p>
+ * Entries expire {@code ttlMillis} after they were loaded and the least recently used entry is
+ * evicted once there are more than {@code maxSize}. A key that is already being loaded is not
+ * requested again: later callers wait on the same future, so concurrent misses for one key cost
+ * one read. Keys the loader does not return, and failed loads, are not cached.
+ */
+public class ReadThroughCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    // Access order, so the eldest entry is the least recently used. Guarded by this.
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+    private final Counter coalescedMisses = new Counter();
+    private final Counter evictions = new Counter();
+    private final Counter loadFailures = new Counter();
+
+    public ReadThroughCache(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, System::nanoTime);
+    }
+
+    ReadThroughCache(int maxSize, long ttlMillis, LongSupplier nanoClock) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.nanoClock = nanoClock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > ReadThroughCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.gauge("cache.size", this::size);
+        metrics.gauge("cache.hits", hits::get);
+        metrics.gauge("cache.misses", misses::get);
+        metrics.gauge("cache.coalescedMisses", coalescedMisses::get);
+        metrics.gauge("cache.evictions", evictions::get);
+        metrics.gauge("cache.loadFailures", loadFailures::get);
+        metrics.gauge("cache.hitRatePercent", () -> Math.round(getHitRate() * 100));
+    }
+
+    /**
+     * Looks up every key, passing the ones that are neither cached nor already being loaded to
+     * {@code loader} in a single call. The result leaves out keys the loader did not find.
+     */
+    public CompletableFuture<Map<K, V>> getAll(Collection<K> keys, Function<Set<K>, CompletableFuture<Map<K, V>>> loader) {
+        Map<K, CompletableFuture<V>> lookups = new LinkedHashMap<>();
+        Map<K, CacheEntry<V>> loading = new LinkedHashMap<>();
+        long now = nanoClock.getAsLong();
+        synchronized (this) {
+            for (K key : keys) {
+                CacheEntry<V> entry = entries.get(key);
+                if (entry != null && !entry.isExpired(now, ttlNanos)) {
+                    if (entry.loaded) {
+                        hits.increment();
+                    } else {
+                        coalescedMisses.increment();
+                    }
+                } else {
+                    misses.increment();
+                    entry = new CacheEntry<>();
+                    entries.put(key, entry);
+                    loading.put(key, entry);
+                }
+                lookups.put(key, entry.value);
+            }
+        }
+        if (!loading.isEmpty()) {
+            load(loading, loader);
+        }
+        return CompletableFuture.allOf(lookups.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<K, V> found = new HashMap<>();
+            lookups.forEach((key, lookup) -> {
+                V value = lookup.join();
+                if (value != null) {
+                    found.put(key, value);
+                }
+            });
+            return found;
+        });
+    }
+
+    /**
+     * Stores a value known to be current, for example one just written through. A load of the
+     * key still in flight keeps its own waiters but no longer replaces this value.
+     */
+    public void put(K key, V value) {
+        CacheEntry<V> entry = new CacheEntry<>();
+        entry.loadedAt = nanoClock.getAsLong();
+        entry.loaded = true;
+        entry.value.complete(value);
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * The cached value of a key, or null if it is absent, expired or still loading. Does not
+     * count as a lookup.
+     */
+    public V peek(K key) {
+        CacheEntry<V> entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || !entry.loaded || entry.isExpired(nanoClock.getAsLong(), ttlNanos)) {
+            return null;
+        }
+        return entry.value.getNow(null);
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalescedMisses() {
+        return coalescedMisses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * The share of lookups answered without a read of their own, in-flight loads included.
+     */
+    public double getHitRate() {
+        long served = hits.get() + coalescedMisses.get();
+        long total = served + misses.get();
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    private void load(Map<K, CacheEntry<V>> loading, Function<Set<K>, CompletableFuture<Map<K, V>>> loader) {
+        CompletableFuture<Map<K, V>> loaded;
+        try {
+            loaded = loader.apply(Collections.unmodifiableSet(loading.keySet()));
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        loaded.whenComplete((values, error) -> {
+            long now = nanoClock.getAsLong();
+            loading.forEach((key, entry) -> {
+                V value = error == null ? values.get(key) : null;
+                if (value == null) {
+                    synchronized (this) {
+                        entries.remove(key, entry);
+                    }
+                } else {
+                    entry.loadedAt = now;
+                    entry.loaded = true;
+                }
+                if (error != null) {
+                    entry.value.completeExceptionally(error);
+                } else {
+                    entry.value.complete(value);
+                }
+            });
+            if (error != null) {
+                loadFailures.increment();
+            }
+        });
+    }
+
+    private static final class CacheEntry<V> {
+        private final CompletableFuture<V> value = new CompletableFuture<>();
+        private volatile long loadedAt;
+        private volatile boolean loaded;
+
+        boolean isExpired(long now, long ttlNanos) {
+            return loaded && now - loadedAt >= ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package kinesis;
+
+import metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the {@code Status} attribute of orders and drones behind the processors' backs,
+ * collapsing writes to the same item that pile up before they are sent.
+ * <p>
+ * Writes are submitted in groups that must commit together, such as an order and its drone.
+ * Pending writes are keyed by item: a write that repeats a pending one, or picks up where it
+ * leaves off (its expected status is the pending new status), is folded into it, and the groups
+ * involved become one. A write that could only apply after the pending one waits for it to land
+ * and is then submitted afresh. At most one write per item is in flight; writes arriving
+ * meanwhile collect behind it.
+ * <p>
+ * Pending groups are sent once the linger time has passed since the first of them, as soon as
+ * {@code maxBatchItems} items are waiting, or on {@link #close}. A linger of 0 sends every group
+ * right away, which still collapses the writes that queue up behind one in flight. A lone item
+ * is written with UpdateItem; anything larger with TransactWriteItems, several groups to a call.
+ * As in the Matcher's batches, one failed condition cancels the whole transaction, so the groups
+ * of a cancelled transaction are settled one by one.
+ */
+public class StatusWriter implements AutoCloseable {
+
+    public static final int MAX_TRANSACTION_ITEMS = 100;
+
+    private static final Logger log = LoggerFactory.getLogger(StatusWriter.class);
+    private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+
+    private final DynamoDbAsyncClient dynamoDbClient;
+    private final int maxBatchItems;
+    private final long lingerMillis;
+    private final ScheduledExecutorService scheduler;
+    // Guarded by this
+    private final Map<ItemKey, Group> pending = new HashMap<>();
+    private final Set<Group> pendingGroups = new LinkedHashSet<>();
+    private final Set<ItemKey> inFlight = new HashSet<>();
+    private boolean flushScheduled;
+    private boolean closed;
+    private final Set<CompletableFuture<Void>> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong updateCalls = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong cancelledTransactions = new AtomicLong();
+
+    /**
+     * @param maxBatchItems items per call, at most {@value #MAX_TRANSACTION_ITEMS}
+     * @param lingerMillis  how long a write may wait for others to join it
+     * @param metrics       receives the counters below as {@code status.*}
+     */
+    public StatusWriter(DynamoDbAsyncClient dynamoDbClient, int maxBatchItems, long lingerMillis,
+                        MetricsRegistry metrics) {
+        if (maxBatchItems < 1 || maxBatchItems > MAX_TRANSACTION_ITEMS) {
+            throw new IllegalArgumentException("maxBatchItems must be between 1 and " + MAX_TRANSACTION_ITEMS);
+        }
+        this.dynamoDbClient = dynamoDbClient;
+        this.maxBatchItems = maxBatchItems;
+        this.lingerMillis = lingerMillis;
+        this.scheduler = lingerMillis <= 0 ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "status-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.gauge("status.writesRequested", requested::get);
+        metrics.gauge("status.writesSent", sent::get);
+        metrics.gauge("status.writesCollapsed", collapsed::get);
+        metrics.gauge("status.writeAmplificationPercent", this::getWriteAmplificationPercent);
+        metrics.gauge("status.updateCalls", updateCalls::get);
+        metrics.gauge("status.transactions", transactions::get);
+        metrics.gauge("status.cancelledTransactions", cancelledTransactions::get);
+        metrics.gauge("status.pendingItems", this::getPendingItems);
+    }
+
+    /**
+     * Submits writes that must commit together, at most {@code maxBatchItems} of them and no
+     * two to the same item. The result fails with a {@link ConditionalCheckFailedException} if
+     * any expected status did not hold, in which case none of the writes took effect.
+     */
+    public CompletableFuture<Void> submit(StatusWrite... writes) {
+        if (writes.length > maxBatchItems) {
+            throw new IllegalArgumentException("More than " + maxBatchItems + " writes in one group");
+        }
+        CompletableFuture<Void> result;
+        boolean flushNow;
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Status writer is closed"));
+            }
+            Set<Group> joined = new LinkedHashSet<>();
+            Set<ItemKey> items = new HashSet<>();
+            for (StatusWrite write : writes) {
+                items.add(write.key);
+                Group group = pending.get(write.key);
+                if (group != null) {
+                    joined.add(group);
+                    if (!group.writes.get(write.key).canBeFollowedBy(write)) {
+                        return after(group, writes);
+                    }
+                }
+            }
+            joined.forEach(group -> items.addAll(group.writes.keySet()));
+            if (items.size() > maxBatchItems) {
+                return after(joined.iterator().next(), writes);
+            }
+
+            Group group = new Group();
+            for (Group earlier : joined) {
+                group.writes.putAll(earlier.writes);
+                pendingGroups.remove(earlier);
+                group.result.whenComplete((done, e) -> complete(earlier.result, e));
+            }
+            for (StatusWrite write : writes) {
+                StatusWrite earlier = group.writes.get(write.key);
+                if (earlier != null) {
+                    collapsed.incrementAndGet();
+                }
+                group.writes.put(write.key, earlier == null ? write : earlier.followedBy(write));
+            }
+            group.writes.keySet().forEach(key -> pending.put(key, group));
+            pendingGroups.add(group);
+            outstanding.add(group.result);
+            group.result.whenComplete((done, e) -> outstanding.remove(group.result));
+            requested.addAndGet(writes.length);
+            result = group.result;
+
+            flushNow = scheduler == null || pending.size() >= maxBatchItems;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+        return result;
+    }
+
+    /**
+     * Sends every pending group that is not waiting for a write in flight.
+     */
+    public void flush() {
+        List<Group> ready = new ArrayList<>();
+        synchronized (this) {
+            flushScheduled = false;
+            for (Iterator<Group> it = pendingGroups.iterator(); it.hasNext(); ) {
+                Group group = it.next();
+                if (!Collections.disjoint(group.writes.keySet(), inFlight)) {
+                    continue;
+                }
+                it.remove();
+                group.writes.keySet().forEach(key -> {
+                    pending.remove(key);
+                    inFlight.add(key);
+                });
+                ready.add(group);
+            }
+        }
+        List<Group> batch = new ArrayList<>();
+        int items = 0;
+        for (Group group : ready) {
+            if (items + group.writes.size() > maxBatchItems) {
+                send(batch);
+                batch = new ArrayList<>();
+                items = 0;
+            }
+            batch.add(group);
+            items += group.writes.size();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Sends what is pending and waits for every write to land. Later submissions fail.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        // Groups held back by a write in flight are sent as it completes
+        CompletableFuture.allOf(outstanding.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public long getWritesRequested() {
+        return requested.get();
+    }
+
+    public long getWritesSent() {
+        return sent.get();
+    }
+
+    public long getWritesCollapsed() {
+        return collapsed.get();
+    }
+
+    /**
+     * Items written per item write requested, in percent. Below 100 the writer is saving writes;
+     * above it, cancelled transactions are being retried.
+     */
+    public long getWriteAmplificationPercent() {
+        long requestedWrites = requested.get();
+        return requestedWrites == 0 ? 100 : Math.round(sent.get() * 100.0 / requestedWrites);
+    }
+
+    public synchronized int getPendingItems() {
+        return pending.size();
+    }
+
+    // Submits the writes again once the group they conflict with has landed
+    private CompletableFuture<Void> after(Group group, StatusWrite[] writes) {
+        return group.result.handle((done, e) -> null).thenCompose(ignored -> submit(writes));
+    }
+
+    private void send(List<Group> batch) {
+        List<StatusWrite> writes = new ArrayList<>();
+        batch.forEach(group -> writes.addAll(group.writes.values()));
+        sent.addAndGet(writes.size());
+        CompletableFuture<?> call;
+        if (writes.size() == 1) {
+            updateCalls.incrementAndGet();
+            call = dynamoDbClient.updateItem(writes.get(0).toUpdateItem());
+        } else {
+            transactions.incrementAndGet();
+            List<TransactWriteItem> items = new ArrayList<>(writes.size());
+            writes.forEach(write -> items.add(TransactWriteItem.builder().update(write.toUpdate()).build()));
+            call = dynamoDbClient.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(items).build());
+        }
+        call.whenComplete((done, e) -> {
+            if (e == null) {
+                batch.forEach(group -> finish(group, null));
+                return;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (!(cause instanceof TransactionCanceledException)) {
+                batch.forEach(group -> finish(group, cause));
+                return;
+            }
+            cancelledTransactions.incrementAndGet();
+            List<CancellationReason> reasons = ((TransactionCanceledException) cause).cancellationReasons();
+            int item = 0;
+            List<Group> retry = new ArrayList<>();
+            for (Group group : batch) {
+                boolean conditionFailed = false;
+                for (int i = item; i < item + group.writes.size(); i++) {
+                    conditionFailed |= i < reasons.size() && CONDITIONAL_CHECK_FAILED.equals(reasons.get(i).code());
+                }
+                item += group.writes.size();
+                if (conditionFailed) {
+                    finish(group, ConditionalCheckFailedException.builder()
+                            .message("The conditional request failed").cause(cause).build());
+                } else if (batch.size() > 1) {
+                    retry.add(group);
+                } else {
+                    finish(group, cause);
+                }
+            }
+            if (!retry.isEmpty()) {
+                log.info("Transaction of {} status group(s) cancelled, retrying {} on their own", batch.size(), retry.size());
+                retry.forEach(group -> send(List.of(group)));
+            }
+        });
+    }
+
+    private void finish(Group group, Throwable error) {
+        boolean waiting;
+        synchronized (this) {
+            inFlight.removeAll(group.writes.keySet());
+            waiting = !pendingGroups.isEmpty();
+        }
+        complete(group.result, error);
+        if (waiting && (scheduler == null || closed)) {
+            flush();
+        } else if (waiting) {
+            scheduleFlush();
+        }
+    }
+
+    private synchronized void scheduleFlush() {
+        if (!flushScheduled && !scheduler.isShutdown()) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void complete(CompletableFuture<Void> result, Throwable error) {
+        if (error == null) {
+            result.complete(null);
+        } else {
+            result.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * A new {@code Status} for one item, optionally conditional on its current status.
+     */
+    public static final class StatusWrite {
+        private final ItemKey key;
+        private final String status;
+        private final String expectedStatus;
+
+        private StatusWrite(ItemKey key, String status, String expectedStatus) {
+            this.key = key;
+            this.status = status;
+            this.expectedStatus = expectedStatus;
+        }
+
+        public static StatusWrite of(String table, String id, String status) {
+            return new StatusWrite(new ItemKey(table, id), status, null);
+        }
+
+        public static StatusWrite conditional(String table, String id, String expectedStatus, String status) {
+            return new StatusWrite(new ItemKey(table, id), status, expectedStatus);
+        }
+
+        // Whether this write and the next one to the same item can be sent as one
+        private boolean canBeFollowedBy(StatusWrite next) {
+            if (Objects.equals(expectedStatus, next.expectedStatus) && status.equals(next.status)) {
+                return true;
+            }
+            return next.expectedStatus == null ? expectedStatus == null : next.expectedStatus.equals(status);
+        }
+
+        private StatusWrite followedBy(StatusWrite next) {
+            return new StatusWrite(key, next.status, expectedStatus);
+        }
+
+        private UpdateItemRequest toUpdateItem() {
+            UpdateItemRequest.Builder request = UpdateItemRequest.builder()
+                    .tableName(key.table)
+                    .key(Map.of("UUID", AttributeValue.builder().s(key.id).build()))
+                    .attributeUpdates(Map.of("Status", AttributeValueUpdate.builder()
+                            .value(AttributeValue.builder().s(status).build())
+                            .action(AttributeAction.PUT).build()));
+            if (expectedStatus != null) {
+                request.expected(Map.of("Status", ExpectedAttributeValue.builder()
+                        .value(AttributeValue.builder().s(expectedStatus).build()).build()));
+            }
+            return request.build();
+        }
+
+        private Update toUpdate() {
+            Update.Builder update = Update.builder()
+                    .tableName(key.table)
+                    .key(Map.of("UUID", AttributeValue.builder().s(key.id).build()))
+                    .updateExpression("SET #status = :status")
+                    .expressionAttributeNames(Map.of("#status", "Status"));
+            if (expectedStatus == null) {
+                update.expressionAttributeValues(Map.of(":status", AttributeValue.builder().s(status).build()));
+            } else {
+                update.conditionExpression("#status = :expected")
+                        .expressionAttributeValues(Map.of(
+                                ":status", AttributeValue.builder().s(status).build(),
+                                ":expected", AttributeValue.builder().s(expectedStatus).build()));
+            }
+            return update.build();
+        }
+
+        @Override
+        public String toString() {
+            return key + (expectedStatus == null ? "" : " " + expectedStatus) + " -> " + status;
+        }
+    }
+
+    private static final class ItemKey {
+        private final String table;
+        private final String id;
+
+        private ItemKey(String table, String id) {
+            this.table = table;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ItemKey)) {
+                return false;
+            }
+            ItemKey other = (ItemKey) o;
+            return table.equals(other.table) && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return table + "/" + id;
+        }
+    }
+
+    // Writes that commit together, and the result everyone who submitted one of them waits on
+    private static final class Group {
+        private final Map<ItemKey, StatusWrite> writes = new LinkedHashMap<>();
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,308 @@
+package matcher;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.LocalMetricsRegistry;
+import metrics.MetricsRegistry;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acknowledges and keeps alive the SQS messages {@link Matcher} is working on.
+ * <p>
+ * Acknowledged receipt handles are buffered and deleted with {@code DeleteMessageBatch} once
+ * ten are waiting or the flush interval passes. Messages that are still being worked on get
+ * their visibility extended with {@code ChangeMessageVisibilityBatch} before it runs out, so a
+ * slow match is not redelivered to another worker halfway through. Messages that cannot be
+ * matched yet are handed back with a visibility delay that backs off with each redelivery.
+ */
+public class AckManager implements AutoCloseable {
+
+    private static final int MAX_BATCH_ENTRIES = 10;
+    // SQS refuses to keep a message invisible for longer than 12 hours after it was received
+    private static final long MAX_INVISIBLE_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    private final SqsClient sqsClient;
+    private final String queueUrl;
+    private final int visibilityTimeoutSeconds;
+    private final int maxRetryDelaySeconds;
+    private final List<String> pendingAcks = new ArrayList<>();
+    private final Map<String, InFlightMessage> inFlight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    private final Counter acks;
+    private final Counter ackCalls;
+    private final Counter failedAcks;
+    private final Counter extensions;
+    private final Counter extensionCalls;
+    private final Counter redeliveries;
+    private final Counter retries;
+    private final LatencyHistogram deleteLatency;
+    private final LatencyHistogram extendLatency;
+
+    public AckManager(SqsClient sqsClient, String queueUrl, long flushIntervalMillis,
+                      int visibilityTimeoutSeconds, int maxRetryDelaySeconds) {
+        this(sqsClient, queueUrl, flushIntervalMillis, visibilityTimeoutSeconds, maxRetryDelaySeconds,
+                new LocalMetricsRegistry());
+    }
+
+    /**
+     * @param metrics receives the SQS call latencies and the counters below as {@code sqs.*}
+     */
+    public AckManager(SqsClient sqsClient, String queueUrl, long flushIntervalMillis,
+                      int visibilityTimeoutSeconds, int maxRetryDelaySeconds, MetricsRegistry metrics) {
+        this.sqsClient = sqsClient;
+        this.queueUrl = queueUrl;
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.maxRetryDelaySeconds = maxRetryDelaySeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "matcher-ack-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        deleteLatency = metrics.histogram("sqs.deleteMessageBatch");
+        extendLatency = metrics.histogram("sqs.changeMessageVisibilityBatch");
+        acks = metrics.counter("sqs.acks");
+        ackCalls = metrics.counter("sqs.ackCalls");
+        failedAcks = metrics.counter("sqs.failedAcks");
+        extensions = metrics.counter("sqs.extensions");
+        extensionCalls = metrics.counter("sqs.extensionCalls");
+        redeliveries = metrics.counter("sqs.redeliveries");
+        retries = metrics.counter("sqs.retries");
+        metrics.gauge("sqs.inFlight", this::getInFlight);
+
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        // Checking a few times per timeout leaves room for a slow ChangeMessageVisibilityBatch call
+        long extendCheckMillis = Math.max(100, TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 4);
+        scheduler.scheduleWithFixedDelay(this::extendQuietly, extendCheckMillis, extendCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts keeping a freshly received message invisible until it is acknowledged, retried or
+     * released.
+     */
+    public void track(Message message) {
+        int receiveCount = receiveCount(message);
+        if (receiveCount > 1) {
+            redeliveries.increment();
+        }
+        long now = System.currentTimeMillis();
+        inFlight.put(message.receiptHandle(), new InFlightMessage(receiveCount, now,
+                now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds)));
+    }
+
+    /**
+     * Marks a message as done. It is deleted with the next batch flush.
+     */
+    public void ack(String receiptHandle) {
+        inFlight.remove(receiptHandle);
+        List<String> batch = null;
+        synchronized (pendingAcks) {
+            pendingAcks.add(receiptHandle);
+            if (pendingAcks.size() >= MAX_BATCH_ENTRIES) {
+                batch = new ArrayList<>(pendingAcks);
+                pendingAcks.clear();
+            }
+        }
+        if (batch != null) {
+            deleteBatch(batch);
+        }
+    }
+
+    /**
+     * Hands a message back to the queue to be retried later. The delay doubles with every
+     * delivery of the message, up to the configured maximum.
+     */
+    public void retryLater(String receiptHandle) {
+        InFlightMessage message = inFlight.remove(receiptHandle);
+        int receiveCount = message == null ? 1 : message.receiveCount;
+        int delaySeconds = (int) Math.min(maxRetryDelaySeconds, 1L << Math.min(20, receiveCount));
+        try {
+            sqsClient.changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                    .queueUrl(queueUrl)
+                    .receiptHandle(receiptHandle)
+                    .visibilityTimeout(delaySeconds)
+                    .build());
+            retries.increment();
+        } catch (SqsException e) {
+            System.err.println("Failed to schedule message retry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops extending a message without acknowledging it, so it reappears once its current
+     * visibility timeout runs out. Does nothing if the message was already acknowledged.
+     */
+    public void release(String receiptHandle) {
+        inFlight.remove(receiptHandle);
+    }
+
+    /**
+     * Deletes every acknowledged message that is still buffered.
+     */
+    public void flush() {
+        List<String> batch;
+        synchronized (pendingAcks) {
+            batch = new ArrayList<>(pendingAcks);
+            pendingAcks.clear();
+        }
+        for (int from = 0; from < batch.size(); from += MAX_BATCH_ENTRIES) {
+            deleteBatch(batch.subList(from, Math.min(batch.size(), from + MAX_BATCH_ENTRIES)));
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public long getAcks() {
+        return acks.get();
+    }
+
+    public long getAckCalls() {
+        return ackCalls.get();
+    }
+
+    public long getFailedAcks() {
+        return failedAcks.get();
+    }
+
+    public long getExtensions() {
+        return extensions.get();
+    }
+
+    public long getExtensionCalls() {
+        return extensionCalls.get();
+    }
+
+    public long getRedeliveries() {
+        return redeliveries.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private void deleteBatch(List<String> receiptHandles) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < receiptHandles.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .receiptHandle(receiptHandles.get(i))
+                    .build());
+        }
+        long start = System.nanoTime();
+        try {
+            DeleteMessageBatchResponse response = sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+            deleteLatency.recordSince(start);
+            ackCalls.increment();
+            acks.add(response.successful().size());
+            for (BatchResultErrorEntry failure : response.failed()) {
+                failedAcks.increment();
+                System.err.println("Failed to delete message: " + failure.code() + " " + failure.message());
+            }
+        } catch (SqsException e) {
+            // The messages simply become visible again and are matched (or rejected) once more
+            failedAcks.add(entries.size());
+            System.err.println("Failed to delete message batch: " + e.getMessage());
+        }
+    }
+
+    private void extendExpiring() {
+        long now = System.currentTimeMillis();
+        long visibilityMillis = TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+        List<String> expiring = new ArrayList<>();
+        for (Map.Entry<String, InFlightMessage> entry : inFlight.entrySet()) {
+            InFlightMessage message = entry.getValue();
+            if (now - message.receivedAt + visibilityMillis > MAX_INVISIBLE_MILLIS) {
+                inFlight.remove(entry.getKey());
+            } else if (message.visibleAt - now < visibilityMillis / 2) {
+                expiring.add(entry.getKey());
+            }
+        }
+
+        for (int from = 0; from < expiring.size(); from += MAX_BATCH_ENTRIES) {
+            List<String> receiptHandles = expiring.subList(from, Math.min(expiring.size(), from + MAX_BATCH_ENTRIES));
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < receiptHandles.size(); i++) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(receiptHandles.get(i))
+                        .visibilityTimeout(visibilityTimeoutSeconds)
+                        .build());
+            }
+            long start = System.nanoTime();
+            ChangeMessageVisibilityBatchResponse response = sqsClient.changeMessageVisibilityBatch(
+                    ChangeMessageVisibilityBatchRequest.builder()
+                            .queueUrl(queueUrl)
+                            .entries(entries)
+                            .build());
+            extendLatency.recordSince(start);
+            extensionCalls.increment();
+            for (ChangeMessageVisibilityBatchResultEntry success : response.successful()) {
+                InFlightMessage message = inFlight.get(receiptHandles.get(Integer.parseInt(success.id())));
+                if (message != null) {
+                    message.visibleAt = now + visibilityMillis;
+                    extensions.increment();
+                }
+            }
+            for (BatchResultErrorEntry failure : response.failed()) {
+                // Usually the message was acknowledged concurrently; either way stop tracking it
+                inFlight.remove(receiptHandles.get(Integer.parseInt(failure.id())));
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Error flushing acknowledgements: " + e.getMessage());
+        }
+    }
+
+    private void extendQuietly() {
+        try {
+            extendExpiring();
+        } catch (RuntimeException e) {
+            System.err.println("Error extending message visibility: " + e.getMessage());
+        }
+    }
+
+    private static int receiveCount(Message message) {
+        String receiveCount = message.attributes().get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT);
+        return receiveCount == null ? 1 : Integer.parseInt(receiveCount);
+    }
+
+    private static class InFlightMessage {
+        private final int receiveCount;
+        private final long receivedAt;
+        private volatile long visibleAt;
+
+        InFlightMessage(int receiveCount, long receivedAt, long visibleAt) {
+            this.receiveCount = receiveCount;
+            this.receivedAt = receivedAt;
+            this.visibleAt = visibleAt;
+        }
+    }
+}
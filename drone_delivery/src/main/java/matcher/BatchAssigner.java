@@ -0,0 +1,106 @@
+package matcher;
+
+import java.util.Arrays;
+
+/**
+ * Minimum-cost assignment of orders to drones (Hungarian algorithm with potentials).
+ * <p>
+ * Rows are orders and columns are candidate drones. Every row is assigned to a distinct column
+ * when there are at least as many columns as rows; otherwise only as many rows as there are
+ * columns are assigned and the rest are left for a later batch.
+ */
+public class BatchAssigner {
+
+    private BatchAssigner() {
+    }
+
+    /**
+     * Returns, for each row, the index of the column assigned to it or {@code -1}.
+     */
+    public static int[] assign(double[][] cost) {
+        int rows = cost.length;
+        int columns = rows == 0 ? 0 : cost[0].length;
+        if (rows == 0 || columns == 0) {
+            int[] none = new int[rows];
+            Arrays.fill(none, -1);
+            return none;
+        }
+        if (rows <= columns) {
+            return solve(cost, rows, columns);
+        }
+
+        // Solve the transpose so the smaller side is always the one being matched in full
+        double[][] transposed = new double[columns][rows];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                transposed[j][i] = cost[i][j];
+            }
+        }
+        int[] columnToRow = solve(transposed, columns, rows);
+        int[] rowToColumn = new int[rows];
+        Arrays.fill(rowToColumn, -1);
+        for (int j = 0; j < columns; j++) {
+            rowToColumn[columnToRow[j]] = j;
+        }
+        return rowToColumn;
+    }
+
+    // Classic O(n^2 m) formulation, 1-based with column 0 as the virtual start
+    private static int[] solve(double[][] cost, int n, int m) {
+        double[] u = new double[n + 1];
+        double[] v = new double[m + 1];
+        int[] rowOfColumn = new int[m + 1];
+        int[] way = new int[m + 1];
+        double[] minSlack = new double[m + 1];
+        boolean[] used = new boolean[m + 1];
+
+        for (int i = 1; i <= n; i++) {
+            rowOfColumn[0] = i;
+            int column = 0;
+            Arrays.fill(minSlack, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+            do {
+                used[column] = true;
+                int row = rowOfColumn[column];
+                double delta = Double.POSITIVE_INFINITY;
+                int next = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (!used[j]) {
+                        double slack = cost[row - 1][j - 1] - u[row] - v[j];
+                        if (slack < minSlack[j]) {
+                            minSlack[j] = slack;
+                            way[j] = column;
+                        }
+                        if (minSlack[j] < delta) {
+                            delta = minSlack[j];
+                            next = j;
+                        }
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[rowOfColumn[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minSlack[j] -= delta;
+                    }
+                }
+                column = next;
+            } while (rowOfColumn[column] != 0);
+
+            do {
+                int previous = way[column];
+                rowOfColumn[column] = rowOfColumn[previous];
+                column = previous;
+            } while (column != 0);
+        }
+
+        int[] assignment = new int[n];
+        for (int j = 1; j <= m; j++) {
+            if (rowOfColumn[j] != 0) {
+                assignment[rowOfColumn[j] - 1] = j - 1;
+            }
+        }
+        return assignment;
+    }
+}
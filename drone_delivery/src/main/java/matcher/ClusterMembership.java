@@ -0,0 +1,74 @@
+package matcher;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracks which matcher nodes are alive through heartbeat items in a DynamoDB table.
+ * <p>
+ * Each node keeps an item keyed by its node id whose {@code ExpiresAt} it pushes forward on
+ * every heartbeat. A node whose item has expired counts as gone, so a crashed node drops out of
+ * the cluster within one TTL; a node that shuts down cleanly deletes its item straight away.
+ * Enabling DynamoDB TTL on {@code ExpiresAt} keeps the table from collecting dead nodes.
+ */
+public class ClusterMembership {
+
+    private final DynamoDbClient dynamoDB;
+    private final String tableName;
+    private final String nodeId;
+    private final long ttlMillis;
+
+    public ClusterMembership(DynamoDbClient dynamoDB, String tableName, String nodeId, long ttlMillis) {
+        this.dynamoDB = dynamoDB;
+        this.tableName = tableName;
+        this.nodeId = nodeId;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Announces (or re-announces) this node as alive for another TTL.
+     */
+    public void heartbeat() {
+        dynamoDB.putItem(PutItemRequest.builder()
+                .tableName(tableName)
+                .item(Map.of(
+                        "UUID", AttributeValue.builder().s(nodeId).build(),
+                        "ExpiresAt", AttributeValue.builder().n(String.valueOf(System.currentTimeMillis() + ttlMillis)).build()))
+                .build());
+    }
+
+    /**
+     * Removes this node from the cluster so its regions move without waiting for the TTL.
+     */
+    public void leave() {
+        dynamoDB.deleteItem(DeleteItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("UUID", AttributeValue.builder().s(nodeId).build()))
+                .build());
+    }
+
+    /**
+     * Returns the ids of all nodes whose heartbeat has not expired, this node included.
+     */
+    public Set<String> liveMembers() {
+        long now = System.currentTimeMillis();
+        Set<String> members = new TreeSet<>();
+        for (Map<String, AttributeValue> item : dynamoDB.scanPaginator(ScanRequest.builder()
+                .tableName(tableName)
+                .consistentRead(true)
+                .build()).items()) {
+            if (Long.parseLong(item.get("ExpiresAt").n()) > now) {
+                members.add(item.get("UUID").s());
+            }
+        }
+        return members;
+    }
+}
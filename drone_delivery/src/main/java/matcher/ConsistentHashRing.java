@@ -0,0 +1,68 @@
+package matcher;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Consistent-hash ring that decides which matcher node owns which region.
+ * <p>
+ * Every member is placed on the ring at a number of virtual points and a key belongs to the
+ * first member point at or after the key's hash. When a member joins or leaves only the keys
+ * next to its points move, so a rebalance hands over roughly {@code 1/n} of the regions instead
+ * of reshuffling all of them. The ring depends only on the member set, so every node computes
+ * the same owners from the same membership view.
+ */
+public class ConsistentHashRing {
+
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> members;
+
+    public ConsistentHashRing(Collection<String> members) {
+        this(members, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1");
+        }
+        this.members = Collections.unmodifiableSet(new TreeSet<>(members));
+        // Sorted insertion keeps the winner of a (very unlikely) point collision the same everywhere
+        for (String member : this.members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * Returns the member that owns the key, or {@code null} if the ring is empty.
+     */
+    public String ownerOf(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package matcher;
+
+import geo.GeoMath;
+
+import java.util.*;
+
+/**
+ * In-process spatial index of the drones that are currently available for matching.
+ * <p>
+ * Drones are bucketed into a uniform grid over their position on the unit sphere. The
+ * straight-line (chord) distance between two grid cells is a lower bound on the great-circle
+ * distance of anything inside them, so a nearest query only visits the rings of cells around
+ * the store until no unvisited cell can hold a closer drone.
+ * <p>
+ * Distances are reported by {@link GeoMath#haversineKm}, and drones at
+ * exactly the same distance are returned in random order, so {@code nearest(lat, lon)} picks
+ * uniformly among ties just like the original linear search did. A query keeps only the best
+ * {@code k} drones seen so far in a bounded heap rather than sorting everything it visits.
+ */
+public class DroneIndex {
+
+    private static final double EARTH_RADIUS_KM = GeoMath.EARTH_RADIUS_KM;
+    static final double DEFAULT_CELL_KM = 1;
+    private static final double MIN_CELL_KM = 0.1;
+    // Slack on the ring stop condition so rounding can never cut off an equidistant drone
+    private static final double BOUND_EPSILON_KM = 1e-9;
+    private static final Comparator<Candidate> CLOSEST_FIRST = Comparator.comparingDouble(Candidate::getDistanceKm)
+            .thenComparingInt(candidate -> candidate.tieBreak);
+
+    private final double cellSize;
+    private final Map<Long, Bucket> cells = new HashMap<>();
+    private final Map<String, Long> cellOfDrone = new HashMap<>();
+    private final Random random = new Random();
+    private double[] distances = new double[16];
+
+    public DroneIndex() {
+        this(DEFAULT_CELL_KM);
+    }
+
+    public DroneIndex(double cellKm) {
+        if (cellKm < MIN_CELL_KM) {
+            throw new IllegalArgumentException("Cell size must be at least " + MIN_CELL_KM + " km: " + cellKm);
+        }
+        this.cellSize = 2 * Math.sin(Math.min(cellKm / EARTH_RADIUS_KM, Math.PI) / 2);
+    }
+
+    /**
+     * Inserts a drone, or moves it if it is already indexed.
+     */
+    public synchronized void upsert(String droneId, double lat, double lon) {
+        long key = cellKey(lat, lon);
+        Long currentKey = cellOfDrone.get(droneId);
+        if (currentKey != null) {
+            Bucket current = cells.get(currentKey);
+            if (currentKey == key) {
+                current.move(droneId, lat, lon);
+                return;
+            }
+            removeFromBucket(currentKey, current, droneId);
+        }
+        cells.computeIfAbsent(key, k -> new Bucket()).add(droneId, lat, lon);
+        cellOfDrone.put(droneId, key);
+    }
+
+    /**
+     * Removes a drone from the index. Returns {@code false} if it was not indexed, which lets
+     * callers use a successful removal as their claim on the drone.
+     */
+    public synchronized boolean remove(String droneId) {
+        Long key = cellOfDrone.remove(droneId);
+        if (key == null) {
+            return false;
+        }
+        removeFromBucket(key, cells.get(key), droneId);
+        return true;
+    }
+
+    public synchronized boolean contains(String droneId) {
+        return cellOfDrone.containsKey(droneId);
+    }
+
+    public synchronized int size() {
+        return cellOfDrone.size();
+    }
+
+    public synchronized void clear() {
+        cells.clear();
+        cellOfDrone.clear();
+    }
+
+    /**
+     * Atomically replaces the whole index with the given drone locations ({@code [lat, lon]}).
+     */
+    public synchronized void replaceAll(Map<String, double[]> locations) {
+        clear();
+        for (Map.Entry<String, double[]> entry : locations.entrySet()) {
+            upsert(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+
+    /**
+     * Returns the nearest indexed drone, choosing randomly among drones at the same distance,
+     * or {@code null} if the index is empty.
+     */
+    public Candidate nearest(double lat, double lon) {
+        List<Candidate> nearest = nearest(lat, lon, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * Finds the nearest drone and removes it in one step, so concurrent callers never get the
+     * same drone. Returns {@code null} if the index is empty.
+     */
+    public synchronized Candidate claimNearest(double lat, double lon) {
+        Candidate nearest = nearest(lat, lon);
+        if (nearest != null) {
+            remove(nearest.droneId);
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns up to {@code k} drones ordered by haversine distance from the given point.
+     */
+    public synchronized List<Candidate> nearest(double lat, double lon, int k) {
+        if (k <= 0 || cellOfDrone.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        int cx = cellCoordinate(Math.cos(phi) * Math.cos(lambda));
+        int cy = cellCoordinate(Math.cos(phi) * Math.sin(lambda));
+        int cz = cellCoordinate(Math.sin(phi));
+
+        // Farthest of the best k on top, so a closer drone replaces it in O(log k)
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Math.min(k, cellOfDrone.size()), CLOSEST_FIRST.reversed());
+        for (int ring = 0; ; ring++) {
+            long ringCells = ring == 0 ? 1 : cube(2L * ring + 1) - cube(2L * ring - 1);
+            if (ringCells > cells.size()) {
+                // Walking the ring would cost more than visiting every occupied cell
+                collectBeyond(cx, cy, cz, ring, lat, lon, k, best);
+                break;
+            }
+            collectRing(cx, cy, cz, ring, lat, lon, k, best);
+            if (best.size() == k && best.peek().distanceKm + BOUND_EPSILON_KM < lowerBoundKm(ring)) {
+                break;
+            }
+        }
+
+        List<Candidate> nearest = new ArrayList<>(best);
+        nearest.sort(CLOSEST_FIRST);
+        return nearest;
+    }
+
+    private void collectRing(int cx, int cy, int cz, int ring, double lat, double lon, int k,
+                             PriorityQueue<Candidate> best) {
+        for (int dx = -ring; dx <= ring; dx++) {
+            for (int dy = -ring; dy <= ring; dy++) {
+                boolean onFace = Math.abs(dx) == ring || Math.abs(dy) == ring;
+                int dzStep = onFace ? 1 : Math.max(1, 2 * ring);
+                for (int dz = -ring; dz <= ring; dz += dzStep) {
+                    Bucket bucket = cells.get(pack(cx + dx, cy + dy, cz + dz));
+                    if (bucket != null) {
+                        collect(bucket, lat, lon, k, best);
+                    }
+                }
+            }
+        }
+    }
+
+    private void collectBeyond(int cx, int cy, int cz, int fromRing, double lat, double lon, int k,
+                               PriorityQueue<Candidate> best) {
+        for (Map.Entry<Long, Bucket> entry : cells.entrySet()) {
+            long key = entry.getKey();
+            int distance = Math.max(Math.abs(unpackX(key) - cx),
+                    Math.max(Math.abs(unpackY(key) - cy), Math.abs(unpackZ(key) - cz)));
+            if (distance >= fromRing) {
+                collect(entry.getValue(), lat, lon, k, best);
+            }
+        }
+    }
+
+    private void collect(Bucket bucket, double lat, double lon, int k, PriorityQueue<Candidate> best) {
+        if (distances.length < bucket.size) {
+            distances = new double[Math.max(bucket.size, 2 * distances.length)];
+        }
+        GeoMath.distancesKm(lat, lon, bucket.lats, bucket.lons, bucket.size, distances);
+        for (int i = 0; i < bucket.size; i++) {
+            if (best.size() == k && distances[i] > best.peek().distanceKm) {
+                continue;
+            }
+            // The random tie-break makes every drone at the same distance equally likely to make the cut
+            Candidate candidate = new Candidate(bucket.ids[i], bucket.lats[i], bucket.lons[i], distances[i],
+                    random.nextInt());
+            if (best.size() < k) {
+                best.add(candidate);
+            } else if (CLOSEST_FIRST.compare(candidate, best.peek()) < 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+    }
+
+    // Anything outside rings 0..ring is at least ring cells away along one axis
+    private double lowerBoundKm(int ring) {
+        double chord = ring * cellSize;
+        if (chord >= 2) {
+            return Math.PI * EARTH_RADIUS_KM;
+        }
+        return 2 * EARTH_RADIUS_KM * Math.asin(chord / 2);
+    }
+
+    private void removeFromBucket(long key, Bucket bucket, String droneId) {
+        bucket.remove(droneId);
+        if (bucket.size == 0) {
+            cells.remove(key);
+        }
+    }
+
+    private long cellKey(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        return pack(cellCoordinate(Math.cos(phi) * Math.cos(lambda)),
+                cellCoordinate(Math.cos(phi) * Math.sin(lambda)),
+                cellCoordinate(Math.sin(phi)));
+    }
+
+    private int cellCoordinate(double unitCoordinate) {
+        return (int) Math.floor(unitCoordinate / cellSize);
+    }
+
+    private static long cube(long value) {
+        return value * value * value;
+    }
+
+    // 21 signed bits per axis cover the whole unit sphere at the minimum cell size
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+
+    private static int unpackX(long key) {
+        return signExtend((int) (key >>> 42));
+    }
+
+    private static int unpackY(long key) {
+        return signExtend((int) (key >>> 21));
+    }
+
+    private static int unpackZ(long key) {
+        return signExtend((int) key);
+    }
+
+    private static int signExtend(int value) {
+        return (value << 11) >> 11;
+    }
+
+    /**
+     * A drone returned by a nearest query together with its distance from the query point.
+     */
+    public static class Candidate {
+        private final String droneId;
+        private final double lat;
+        private final double lon;
+        private final double distanceKm;
+        private final int tieBreak;
+
+        Candidate(String droneId, double lat, double lon, double distanceKm, int tieBreak) {
+            this.droneId = droneId;
+            this.lat = lat;
+            this.lon = lon;
+            this.distanceKm = distanceKm;
+            this.tieBreak = tieBreak;
+        }
+
+        public String getDroneId() {
+            return droneId;
+        }
+
+        public double getLat() {
+            return lat;
+        }
+
+        public double getLon() {
+            return lon;
+        }
+
+        public double getDistanceKm() {
+            return distanceKm;
+        }
+    }
+
+    private static class Bucket {
+        private String[] ids = new String[4];
+        private double[] lats = new double[4];
+        private double[] lons = new double[4];
+        private int size;
+
+        void add(String droneId, double lat, double lon) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                lats = Arrays.copyOf(lats, size * 2);
+                lons = Arrays.copyOf(lons, size * 2);
+            }
+            ids[size] = droneId;
+            lats[size] = lat;
+            lons[size] = lon;
+            size++;
+        }
+
+        void move(String droneId, double lat, double lon) {
+            int i = indexOf(droneId);
+            lats[i] = lat;
+            lons[i] = lon;
+        }
+
+        void remove(String droneId) {
+            int i = indexOf(droneId);
+            size--;
+            ids[i] = ids[size];
+            lats[i] = lats[size];
+            lons[i] = lons[size];
+            ids[size] = null;
+        }
+
+        private int indexOf(String droneId) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i].equals(droneId)) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Drone not in its indexed cell: " + droneId);
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package matcher;
+
+import geo.LocationAttributes;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+import stream.DynamoDbStreamPoller;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Materialized view of the drone fleet that {@link Matcher} matches against.
+ * <p>
+ * The view is bootstrapped once with a paginated Scan of the Drones table and then kept current
+ * from the table's DynamoDB stream, so matching only reads local memory. Without a stream it
+ * falls back to rescanning the table periodically. Every drone carries the time the view last
+ * knew its state to be current; drones older than the configured staleness bound are
+ * re-read from the table before they are assigned.
+ * <p>
+ * A view can also be fed by another one instead of the table: a matcher node keeps one
+ * {@linkplain #feed feed} with the only stream poller, which holds no drones itself and passes
+ * every change on to the region views subscribed to it. Each region view keeps only the drones
+ * inside its region, so a node holds no more of the fleet than the regions it owns.
+ */
+public class FleetView implements AutoCloseable {
+
+    private static final String DRONES_TABLE = "Drones";
+    private static final String ACTIVE = "ACTIVE";
+    // Our own MATCHED write normally arrives on the stream well within this
+    private static final long CLAIM_GRACE_MILLIS = 60_000;
+
+    private final DynamoDbClient dynamoDB;
+    private final DynamoDbStreamsClient streamsClient;
+    private final long maxStalenessMillis;
+    private final long pollIntervalMillis;
+    private final long rescanIntervalMillis;
+    private final MatcherRegion region;
+    private final FleetView source;
+    private final List<FleetView> subscribers = new CopyOnWriteArrayList<>();
+    private final DroneIndex availableDrones;
+    private final Map<String, DroneState> drones;
+    private final Map<String, Long> claimedDrones = new ConcurrentHashMap<>();
+    private final AtomicLong eventsApplied = new AtomicLong();
+    private final AtomicLong malformedDrones = new AtomicLong();
+    private final AtomicLong rescans = new AtomicLong();
+    private final AtomicLong reverifications = new AtomicLong();
+    private final AtomicLong reverificationMisses = new AtomicLong();
+    private volatile Runnable availabilityListener = () -> { };
+    private volatile LatencyHistogram scanLatency = new LatencyHistogram();
+    private volatile LatencyHistogram verifyLatency = new LatencyHistogram();
+    private volatile DynamoDbStreamPoller poller;
+    private volatile long scannedAt;
+
+    public FleetView(DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient, long maxStalenessMillis,
+                     long pollIntervalMillis, long rescanIntervalMillis) {
+        this(dynamoDB, streamsClient, maxStalenessMillis, pollIntervalMillis, rescanIntervalMillis,
+                DroneIndex.DEFAULT_CELL_KM, null);
+    }
+
+    /**
+     * @param streamsClient client for the Drones table stream, or {@code null} to rely on
+     *                      periodic rescans only
+     * @param cellKm        cell size of the index of available drones
+     * @param region        region whose drones to keep, or {@code null} to keep the whole fleet
+     */
+    public FleetView(DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient, long maxStalenessMillis,
+                     long pollIntervalMillis, long rescanIntervalMillis, double cellKm, MatcherRegion region) {
+        this(dynamoDB, streamsClient, maxStalenessMillis, pollIntervalMillis, rescanIntervalMillis, cellKm, region,
+                null, true);
+    }
+
+    /**
+     * A view of one region fed by {@code source}, which does all the polling and is started
+     * along with this view. Closing this view leaves {@code source} running.
+     */
+    public FleetView(FleetView source, double cellKm, MatcherRegion region) {
+        this(source.dynamoDB, null, source.maxStalenessMillis, source.pollIntervalMillis, source.rescanIntervalMillis,
+                cellKm, region, source, true);
+    }
+
+    /**
+     * A feed for region views: it tails the stream and rescans the table like a view of the
+     * whole fleet, but keeps no drones and only passes each change on to its subscribers.
+     */
+    public static FleetView feed(DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient,
+                                 long maxStalenessMillis, long pollIntervalMillis, long rescanIntervalMillis) {
+        return new FleetView(dynamoDB, streamsClient, maxStalenessMillis, pollIntervalMillis, rescanIntervalMillis,
+                DroneIndex.DEFAULT_CELL_KM, null, null, false);
+    }
+
+    private FleetView(DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient, long maxStalenessMillis,
+                      long pollIntervalMillis, long rescanIntervalMillis, double cellKm, MatcherRegion region,
+                      FleetView source, boolean keepDrones) {
+        this.availableDrones = keepDrones ? new DroneIndex(cellKm) : null;
+        this.drones = keepDrones ? new ConcurrentHashMap<>() : null;
+        this.region = region;
+        this.source = source;
+        this.dynamoDB = dynamoDB;
+        this.streamsClient = streamsClient;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.rescanIntervalMillis = rescanIntervalMillis;
+    }
+
+    /**
+     * Subscribes to the change stream and then loads the whole fleet. Subscribing first means no
+     * change made during the scan is lost; at worst a drone briefly shows an older state until
+     * its stream record is applied. A view fed by another one is loaded by that view's first
+     * scan, or scans the table itself if it subscribes after that scan.
+     */
+    public void start() {
+        if (source != null) {
+            if (source.subscribe(this)) {
+                scan();
+            }
+            return;
+        }
+        synchronized (this) {
+            startFeed();
+        }
+    }
+
+    private void startFeed() {
+        if (scannedAt != 0) {
+            return;
+        }
+        String streamArn = streamsClient == null ? null : DynamoDbStreamPoller.latestStreamArn(dynamoDB, DRONES_TABLE);
+        if (streamArn != null) {
+            poller = new DynamoDbStreamPoller(streamsClient, streamArn, pollIntervalMillis, this::onStreamRecord);
+            poller.start();
+        } else {
+            System.out.println("No stream on " + DRONES_TABLE + ", falling back to periodic rescans.");
+        }
+        scan();
+    }
+
+    /**
+     * Rescans the table when there is no change stream and the last scan is too old.
+     */
+    public void refreshIfNeeded() {
+        if (source != null) {
+            source.refreshIfNeeded();
+            return;
+        }
+        if (poller == null && System.currentTimeMillis() - scannedAt >= rescanIntervalMillis) {
+            synchronized (this) {
+                if (System.currentTimeMillis() - scannedAt >= rescanIntervalMillis) {
+                    scan();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (source != null) {
+            source.subscribers.remove(this);
+            return;
+        }
+        synchronized (this) {
+            if (poller != null) {
+                poller.close();
+            }
+        }
+    }
+
+    // Returns whether the subscriber joined after the initial scan and has to load itself
+    private synchronized boolean subscribe(FleetView subscriber) {
+        if (subscribers.contains(subscriber)) {
+            return false;
+        }
+        subscribers.add(subscriber);
+        if (scannedAt == 0) {
+            startFeed();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Registers a callback run whenever a drone becomes available for matching. It is called
+     * while the view is locked, so it must only hand the work off.
+     */
+    public void setAvailabilityListener(Runnable availabilityListener) {
+        this.availabilityListener = availabilityListener;
+    }
+
+    /**
+     * Reports the scan and re-verification latencies and the view's counters as {@code fleet.*}.
+     * A feed only reports the scan latency and the counters of its feed.
+     */
+    public void registerMetrics(MetricsRegistry metrics) {
+        scanLatency = metrics.histogram("fleet.scan");
+        metrics.gauge("fleet.feedLagMillis", this::getFeedLagMillis);
+        metrics.gauge("fleet.eventsApplied", this::getEventsApplied);
+        metrics.gauge("fleet.rescans", this::getRescans);
+        metrics.gauge("fleet.malformedDrones", this::getMalformedDrones);
+        metrics.gauge("fleet.failedEvents", this::getFailedEvents);
+        if (drones == null) {
+            return;
+        }
+        verifyLatency = metrics.histogram("fleet.verify");
+        metrics.gauge("fleet.size", this::size);
+        metrics.gauge("fleet.available", this::getAvailable);
+        metrics.gauge("fleet.staleDrones", this::getStaleDrones);
+        metrics.gauge("fleet.maxStalenessMillis", this::getMaxStalenessMillis);
+        metrics.gauge("fleet.reverifications", this::getReverifications);
+        metrics.gauge("fleet.reverificationMisses", this::getReverificationMisses);
+    }
+
+    /**
+     * Applies one change record from the Drones table stream.
+     */
+    public void onStreamRecord(Record record) {
+        StreamRecord change = record.dynamodb();
+        if (record.eventName() == OperationType.REMOVE) {
+            remove(change.keys().get("UUID").s());
+        } else if (change.hasNewImage()) {
+            apply(change.newImage(), false);
+        }
+        eventsApplied.incrementAndGet();
+    }
+
+    /**
+     * Finds the nearest available drone and reserves it for the caller, or returns {@code null}.
+     */
+    public synchronized DroneIndex.Candidate claimNearest(double lat, double lon) {
+        DroneIndex.Candidate drone = availableDrones.claimNearest(lat, lon);
+        if (drone != null) {
+            claimedDrones.put(drone.getDroneId(), System.currentTimeMillis());
+        }
+        return drone;
+    }
+
+    /**
+     * Reserves a specific drone. Returns {@code false} if it is no longer available.
+     */
+    public synchronized boolean claim(DroneIndex.Candidate drone) {
+        if (!availableDrones.remove(drone.getDroneId())) {
+            return false;
+        }
+        claimedDrones.put(drone.getDroneId(), System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Returns a claimed drone to the pool after its assignment could not be written.
+     */
+    public synchronized void release(DroneIndex.Candidate drone) {
+        claimedDrones.remove(drone.getDroneId());
+        DroneState state = drones.get(drone.getDroneId());
+        if (state != null && ACTIVE.equals(state.status)) {
+            availableDrones.upsert(drone.getDroneId(), state.lat, state.lon);
+            availabilityListener.run();
+        }
+    }
+
+    /**
+     * Drops a claimed drone that turned out not to be ACTIVE any more. It comes back once the
+     * stream (or the next rescan) shows it ACTIVE again.
+     */
+    public synchronized void discard(String droneId) {
+        claimedDrones.remove(droneId);
+        availableDrones.remove(droneId);
+    }
+
+    public List<DroneIndex.Candidate> nearest(double lat, double lon, int k) {
+        return availableDrones.nearest(lat, lon, k);
+    }
+
+    /**
+     * Whether the view's knowledge of this drone is older than the staleness bound.
+     */
+    public boolean isStale(String droneId) {
+        DroneState state = drones.get(droneId);
+        return state == null || System.currentTimeMillis() - confirmedAt(state) > maxStalenessMillis;
+    }
+
+    /**
+     * Re-reads a drone with a consistent read and applies the result. Returns whether the drone
+     * is still ACTIVE.
+     */
+    public boolean verify(String droneId) {
+        reverifications.incrementAndGet();
+        long start = System.nanoTime();
+        Map<String, AttributeValue> item = dynamoDB.getItem(GetItemRequest.builder()
+                .tableName(DRONES_TABLE)
+                .key(Map.of("UUID", AttributeValue.builder().s(droneId).build()))
+                .consistentRead(true)
+                .build()).item();
+        verifyLatency.recordSince(start);
+        if (item == null || item.isEmpty()) {
+            remove(droneId);
+            reverificationMisses.incrementAndGet();
+            return false;
+        }
+        boolean active = apply(item, false) && ACTIVE.equals(item.get("Status").s());
+        if (!active) {
+            reverificationMisses.incrementAndGet();
+        }
+        return active;
+    }
+
+    public int size() {
+        return drones == null ? 0 : drones.size();
+    }
+
+    public int getAvailable() {
+        return availableDrones == null ? 0 : availableDrones.size();
+    }
+
+    /**
+     * How far behind the change feed (or, without one, the last rescan) currently is.
+     */
+    public long getFeedLagMillis() {
+        FleetView feed = source != null ? source : this;
+        long lastUpdate = feed.poller != null ? feed.poller.getLastPolledAt() : feed.scannedAt;
+        return System.currentTimeMillis() - lastUpdate;
+    }
+
+    /**
+     * Age of the least recently confirmed drone.
+     */
+    public long getMaxStalenessMillis() {
+        long now = System.currentTimeMillis();
+        long oldest = now;
+        for (DroneState state : drones.values()) {
+            oldest = Math.min(oldest, confirmedAt(state));
+        }
+        return now - oldest;
+    }
+
+    /**
+     * Number of drones that would be re-verified before assignment right now.
+     */
+    public int getStaleDrones() {
+        long now = System.currentTimeMillis();
+        int stale = 0;
+        for (DroneState state : drones.values()) {
+            if (now - confirmedAt(state) > maxStalenessMillis) {
+                stale++;
+            }
+        }
+        return stale;
+    }
+
+    public long getEventsApplied() {
+        return eventsApplied.get();
+    }
+
+    public long getRescans() {
+        return rescans.get();
+    }
+
+    /**
+     * Drone items skipped because they had no status or no readable location.
+     */
+    public long getMalformedDrones() {
+        return malformedDrones.get();
+    }
+
+    /**
+     * Stream records that could not be applied and were skipped.
+     */
+    public long getFailedEvents() {
+        DynamoDbStreamPoller feed = feedPoller();
+        return feed == null ? 0 : feed.getFailedRecords();
+    }
+
+    public long getReverifications() {
+        return reverifications.get();
+    }
+
+    public long getReverificationMisses() {
+        return reverificationMisses.get();
+    }
+
+    private void scan() {
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        for (Map<String, AttributeValue> drone : dynamoDB.scanPaginator(ScanRequest.builder()
+                .tableName(DRONES_TABLE)
+                .build()).items()) {
+            apply(drone, true);
+        }
+        if (feedPoller() == null) {
+            // Without a stream a rescan is the only way to notice deleted drones
+            removeUnseenSince(startedAt);
+        }
+        scannedAt = startedAt;
+        rescans.incrementAndGet();
+        scanLatency.recordSince(start);
+        if (drones == null) {
+            System.out.println("Scanned the fleet for " + subscribers.size() + " region views.");
+        } else {
+            System.out.println("Loaded " + drones.size() + " drones, " + availableDrones.size() + " available.");
+        }
+    }
+
+    // Returns whether the drone belongs to this view's region; false for items that cannot be read
+    private synchronized boolean apply(Map<String, AttributeValue> item, boolean fromScan) {
+        AttributeValue status = item.get("Status");
+        if (status == null || status.s() == null || !LocationAttributes.hasLocation(item)) {
+            malformedDrones.incrementAndGet();
+            return false;
+        }
+        double lat;
+        double lon;
+        try {
+            lat = LocationAttributes.lat(item);
+            lon = LocationAttributes.lon(item);
+        } catch (IllegalArgumentException e) {
+            malformedDrones.incrementAndGet();
+            return false;
+        }
+        return apply(item.get("UUID").s(), new DroneState(status.s(), lat, lon, System.currentTimeMillis(), fromScan));
+    }
+
+    // Returns whether the drone belongs to this view's region
+    private synchronized boolean apply(String droneId, DroneState state) {
+        subscribers.forEach(subscriber -> subscriber.apply(droneId, state));
+        if (drones == null) {
+            return true;
+        }
+        DroneState previous = drones.get(droneId);
+        if (state.fromScan && previous != null && !previous.fromScan && feedPoller() != null) {
+            // A stream record newer than our scan page already landed for this drone
+            return true;
+        }
+
+        if (region != null && !region.contains(state.lat, state.lon)) {
+            // Flew out of (or never was in) our region; another view holds it
+            if (drones.containsKey(droneId)) {
+                remove(droneId);
+            }
+            return false;
+        }
+        drones.put(droneId, state);
+
+        if (!ACTIVE.equals(state.status)) {
+            claimedDrones.remove(droneId);
+            availableDrones.remove(droneId);
+            return true;
+        }
+        Long claimedAt = claimedDrones.get(droneId);
+        if (claimedAt != null && System.currentTimeMillis() - claimedAt < CLAIM_GRACE_MILLIS) {
+            // Still the image from before our claim; the MATCHED write has not come through yet
+            return true;
+        }
+        claimedDrones.remove(droneId);
+        boolean wasAvailable = availableDrones.contains(droneId);
+        availableDrones.upsert(droneId, state.lat, state.lon);
+        if (!wasAvailable) {
+            availabilityListener.run();
+        }
+        return true;
+    }
+
+    private synchronized void remove(String droneId) {
+        subscribers.forEach(subscriber -> subscriber.remove(droneId));
+        if (drones == null) {
+            return;
+        }
+        drones.remove(droneId);
+        claimedDrones.remove(droneId);
+        availableDrones.remove(droneId);
+    }
+
+    // Every drone still in the table was applied by the scan that started at scanStartedAt
+    private synchronized void removeUnseenSince(long scanStartedAt) {
+        subscribers.forEach(subscriber -> subscriber.removeUnseenSince(scanStartedAt));
+        if (drones == null) {
+            return;
+        }
+        for (Map.Entry<String, DroneState> drone : new ArrayList<>(drones.entrySet())) {
+            if (drone.getValue().observedAt < scanStartedAt) {
+                remove(drone.getKey());
+            }
+        }
+    }
+
+    private DynamoDbStreamPoller feedPoller() {
+        return source != null ? source.poller : poller;
+    }
+
+    // With a healthy stream, silence means nothing changed since the last successful poll
+    private long confirmedAt(DroneState state) {
+        DynamoDbStreamPoller feed = feedPoller();
+        return feed == null ? state.observedAt : Math.max(state.observedAt, feed.getLastPolledAt());
+    }
+
+    private static class DroneState {
+        private final String status;
+        private final double lat;
+        private final double lon;
+        private final long observedAt;
+        private final boolean fromScan;
+
+        DroneState(String status, double lat, double lon, long observedAt, boolean fromScan) {
+            this.status = status;
+            this.lat = lat;
+            this.lon = lon;
+            this.observedAt = observedAt;
+            this.fromScan = fromScan;
+        }
+    }
+}
@@ -4,217 +4,794 @@ import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
 import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import geo.GeoMath;
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.LocalMetricsRegistry;
+import metrics.MetricsRegistry;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Matcher {
 
     private static final String DRONES_TABLE = "Drones";
     private static final String ORDERS_TABLE = "Orders";
-    private static final String SQS_QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/533266960984/Region1Queue";
+    private static final int MAX_TRANSACT_ITEMS = 100;
+    // Drones that turn out to be taken are skipped; after this many the order goes back to the queue
+    private static final int MAX_ASSIGNMENT_ATTEMPTS = 5;
+    private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+    // Safety net for wakeups that race with parking, and the cadence of the park time limit
+    private static final long BACKLOG_SWEEP_MILLIS = 1000;
+    // Longest long poll SQS allows
+    private static final int MAX_WAIT_SECONDS = 20;
+    private static final long EMPTY_POLL_PAUSE_MILLIS = 50;
+    // Pause after a failed receive, doubled on every further failure up to the cap
+    private static final long RECEIVE_BACKOFF_MILLIS = 100;
+    private static final long MAX_RECEIVE_BACKOFF_MILLIS = 10_000;
 
     private final DynamoDbClient dynamoDB;
     private final SqsClient sqsClient;
-    private final ObjectMapper objectMapper;
+    private final OrderEventDecoder orderDecoder;
+    private final MatcherConfig config;
+    private final AckManager acks;
+    private final FleetView fleet;
+    private final OrderBacklog<PendingOrder> backlog;
+    private final ScheduledExecutorService backlogExecutor;
+    private final AtomicBoolean backlogWakeScheduled = new AtomicBoolean();
+    private final AtomicInteger processing = new AtomicInteger();
+    private volatile boolean running;
+
+    // Per-stage latencies
+    private final LatencyHistogram receiveLatency;
+    private final Counter receiveErrors;
+    private final LatencyHistogram decodeLatency;
+    private final LatencyHistogram claimLatency;
+    private final LatencyHistogram batchSolveLatency;
+    private final LatencyHistogram commitLatency;
+    private final LatencyHistogram matchLatency;
+    // Order outcomes
+    private final Counter matched;
+    private final Counter versionMismatches;
+    private final Counter notFound;
+    private final Counter invalid;
+    private final Counter duplicates;
+    private final Counter noDrone;
+    private final Counter parkedBehindBacklog;
+    private final Counter dronesTaken;
 
     public Matcher() {
-        dynamoDB = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
-        sqsClient = SqsClient.builder()
-                .region(Region.US_EAST_1)
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
-        objectMapper = new ObjectMapper();
+        this(MatcherConfig.fromEnvironment());
+    }
+
+    public Matcher(MatcherConfig config) {
+        this(config, new LocalMetricsRegistry());
+    }
+
+    public Matcher(MatcherConfig config, MetricsRegistry metrics) {
+        this(DynamoDbClient.builder()
+                        .region(Region.US_EAST_1)
+                        .credentialsProvider(DefaultCredentialsProvider.create())
+                        .build(),
+                DynamoDbStreamsClient.builder()
+                        .region(Region.US_EAST_1)
+                        .credentialsProvider(DefaultCredentialsProvider.create())
+                        .build(),
+                SqsClient.builder()
+                        .region(Region.US_EAST_1)
+                        .credentialsProvider(DefaultCredentialsProvider.create())
+                        .build(),
+                config, metrics);
+    }
+
+    public Matcher(DynamoDbClient dynamoDB, SqsClient sqsClient, MatcherConfig config) {
+        this(dynamoDB, null, sqsClient, config);
+    }
+
+    /**
+     * @param streamsClient client for the Drones table stream, or {@code null} to keep the fleet
+     *                      view current with periodic rescans instead
+     */
+    public Matcher(DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient, SqsClient sqsClient, MatcherConfig config) {
+        this(dynamoDB, streamsClient, sqsClient, config, new LocalMetricsRegistry());
+    }
+
+    /**
+     * @param metrics receives the per-stage latencies, the order outcome counters and the
+     *                gauges of the ack manager, fleet view and backlog
+     */
+    public Matcher(DynamoDbClient dynamoDB, DynamoDbStreamsClient streamsClient, SqsClient sqsClient,
+                   MatcherConfig config, MetricsRegistry metrics) {
+        this(dynamoDB, sqsClient, config, metrics, new FleetView(dynamoDB, streamsClient,
+                config.getMaxDroneStalenessMillis(), config.getFleetPollIntervalMillis(),
+                config.getFleetRescanIntervalMillis(), config.getDroneIndexCellKm(), config.getRegion()));
+    }
+
+    /**
+     * A matcher working off a fleet view built by the caller, such as a region's view fed by the
+     * node-wide one. The matcher starts the view, and closes it once it stops.
+     */
+    public Matcher(DynamoDbClient dynamoDB, SqsClient sqsClient, MatcherConfig config, MetricsRegistry metrics,
+                   FleetView fleet) {
+        this.dynamoDB = dynamoDB;
+        this.sqsClient = sqsClient;
+        this.config = config;
+        this.fleet = fleet;
+        orderDecoder = new OrderEventDecoder();
+        acks = new AckManager(sqsClient, config.getQueueUrl(), config.getAckFlushIntervalMillis(),
+                config.getVisibilityTimeoutSeconds(), config.getMaxRetryDelaySeconds(), metrics);
+        backlog = new OrderBacklog<>(config.getMaxParkedOrders(), config.getMaxParkMillis());
+        backlogExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "matcher-backlog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fleet.setAvailabilityListener(this::wakeBacklog);
+
+        fleet.registerMetrics(metrics);
+        receiveLatency = metrics.histogram("sqs.receive");
+        receiveErrors = metrics.counter("sqs.receiveErrors");
+        decodeLatency = metrics.histogram("matcher.decode");
+        claimLatency = metrics.histogram("matcher.claim");
+        batchSolveLatency = metrics.histogram("matcher.batchSolve");
+        commitLatency = metrics.histogram("dynamo.assign");
+        matchLatency = metrics.histogram("order.sentToMatched");
+        matched = metrics.counter("order.matched");
+        versionMismatches = metrics.counter("order.versionMismatch");
+        notFound = metrics.counter("order.notFound");
+        invalid = metrics.counter("order.invalid");
+        duplicates = metrics.counter("order.duplicate");
+        noDrone = metrics.counter("order.noDrone");
+        parkedBehindBacklog = metrics.counter("order.parkedBehindBacklog");
+        dronesTaken = metrics.counter("order.droneTaken");
+        metrics.gauge("matcher.processing", processing::get);
+        metrics.gauge("backlog.depth", backlog::getDepth);
+        metrics.gauge("backlog.oldestWaitMillis", backlog::getOldestWaitMillis);
+        metrics.gauge("backlog.meanWaitMillis", backlog::getMeanWaitMillis);
+        metrics.gauge("backlog.parked", backlog::getParked);
+        metrics.gauge("backlog.unparked", backlog::getUnparked);
+        metrics.gauge("backlog.expired", backlog::getExpired);
     }
 
     public static void main(String[] args) {
-        Matcher matcher = new Matcher();
+        MatcherConfig config = MatcherConfig.fromEnvironment();
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        metrics.startReporting(config.getMetricsReportIntervalMillis(), config.isMetricsJson());
+        if (!config.getRegions().isEmpty()) {
+            MatcherNode node = MatcherNode.create(config, metrics);
+            Runtime.getRuntime().addShutdownHook(new Thread(node::close));
+            node.start();
+            return;
+        }
+        Matcher matcher = new Matcher(config, metrics);
         matcher.processMessages();
     }
 
     public void processMessages() {
         ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
-                .queueUrl(SQS_QUEUE_URL)
+                .queueUrl(config.getQueueUrl())
                 .maxNumberOfMessages(10)
                 .waitTimeSeconds(10)
+                .visibilityTimeout(config.getVisibilityTimeoutSeconds())
+                .messageSystemAttributeNames(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT,
+                        MessageSystemAttributeName.SENT_TIMESTAMP)
                 .build();
 
-        while (true) {
-            ReceiveMessageResponse receiveMessageResponse = sqsClient.receiveMessage(receiveMessageRequest);
-            List<Message> messages = receiveMessageResponse.messages();
+        fleet.start();
+        backlogExecutor.scheduleWithFixedDelay(this::drainBacklogQuietly, BACKLOG_SWEEP_MILLIS,
+                BACKLOG_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        ExecutorService workers = Executors.newFixedThreadPool(config.getParallelism());
+        Semaphore inFlight = new Semaphore(config.getMaxInFlight());
+        running = true;
+        long receiveBackoffMillis = 0;
+        try {
+            while (running) {
+                int slots = acquireSlots(inFlight);
+                if (slots == 0) {
+                    break;
+                }
 
-            for (Message message : messages) {
+                List<Message> messages;
+                long receiveStart = System.nanoTime();
                 try {
-                    Map<String, String> snsMessage = objectMapper.readValue(message.body(), Map.class);
-                    String orderInfoJson = snsMessage.get("Message");
-
-                    if (orderInfoJson != null) {
-                        Map<String, String> orderInfo = objectMapper.readValue(orderInfoJson, Map.class);
-                        handleOrderMessage(orderInfo, message.receiptHandle());
-                    } else {
-                        System.err.println("Order information is missing in the SNS message.");
-                        deleteMessage(message.receiptHandle());
+                    messages = receiveBatch(receiveMessageRequest, slots);
+                    receiveLatency.recordSince(receiveStart);
+                } catch (RuntimeException e) {
+                    inFlight.release(slots);
+                    receiveErrors.increment();
+                    receiveBackoffMillis = receiveBackoffMillis == 0 ? RECEIVE_BACKOFF_MILLIS
+                            : Math.min(MAX_RECEIVE_BACKOFF_MILLIS, receiveBackoffMillis * 2);
+                    System.err.println("Error receiving messages, retrying in " + receiveBackoffMillis + " ms: "
+                            + e.getMessage());
+                    if (!backOff(receiveBackoffMillis)) {
+                        break;
+                    }
+                    continue;
+                }
+                receiveBackoffMillis = 0;
+                inFlight.release(slots - messages.size());
+                messages.forEach(acks::track);
+
+                // Hand the batch to the workers and go straight back to long-polling
+                if (config.isBatchAssignment()) {
+                    if (!messages.isEmpty()) {
+                        workers.execute(() -> {
+                            processing.addAndGet(messages.size());
+                            try {
+                                processBatch(messages);
+                            } finally {
+                                processing.addAndGet(-messages.size());
+                                inFlight.release(messages.size());
+                            }
+                        });
                     }
-                } catch (Exception e) {
-                    System.err.println("Error processing message: " + e.getMessage());
-                    e.printStackTrace();
+                    continue;
+                }
+                for (Message message : messages) {
+                    workers.execute(() -> {
+                        processing.incrementAndGet();
+                        try {
+                            processMessage(message);
+                        } finally {
+                            processing.decrementAndGet();
+                            inFlight.release();
+                        }
+                    });
                 }
             }
+        } finally {
+            workers.shutdown();
+            backlogExecutor.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+                backlogExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Parked orders go back to the queue for whoever runs next
+            backlog.drainAll().forEach(order -> acks.release(order.receiptHandle));
+            acks.close();
+            fleet.close();
         }
     }
 
-    private void handleOrderMessage(Map<String, String> orderInfo, String receiptHandle) {
-        String orderId = orderInfo.get("UUID");
-        String storeId = orderInfo.get("StoreID");
-        String userId = orderInfo.get("UserID");
-        String version = orderInfo.get("Version");
-        String storeLocation = orderInfo.get("StoreLocation");
+    /**
+     * Stops the receive loop. Messages already received are finished before
+     * {@link #processMessages()} returns.
+     */
+    public void stop() {
+        running = false;
+    }
 
-        if (orderId == null || orderId.isEmpty() || storeId == null || storeId.isEmpty() || userId == null || userId.isEmpty() || version == null || version.isEmpty() || storeLocation == null || storeLocation.isEmpty()) {
-            System.out.println(orderInfo);
-            System.out.println("Invalid order data. Deleting message...");
-            deleteMessage(receiptHandle);
-            return;
+    public AckManager getAckManager() {
+        return acks;
+    }
+
+    public FleetView getFleetView() {
+        return fleet;
+    }
+
+    public OrderBacklog<?> getBacklog() {
+        return backlog;
+    }
+
+    // Blocks until at least one message may be taken in, then grabs as many slots as one receive can fill
+    private int acquireSlots(Semaphore inFlight) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
         }
+        int limit = config.getBatchWindowMillis() > 0 ? Math.max(10, config.getMaxBatchSize()) : 10;
+        int extra = inFlight.drainPermits();
+        int surplus = Math.max(0, 1 + extra - limit);
+        inFlight.release(surplus);
+        return 1 + extra - surplus;
+    }
 
-        GetItemRequest getOrderRequest = GetItemRequest.builder()
-                .tableName(ORDERS_TABLE)
-                .key(Map.of("UUID", AttributeValue.builder().s(orderId).build()))
-                .build();
+    // Waits out a backoff in short steps so stop() cuts it short; false if interrupted
+    private boolean backOff(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            for (long remaining = millis; running && remaining > 0; remaining = deadline - System.currentTimeMillis()) {
+                Thread.sleep(Math.min(remaining, EMPTY_POLL_PAUSE_MILLIS));
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-        GetItemResponse getOrderResponse = dynamoDB.getItem(getOrderRequest);
-        if (getOrderResponse.item() == null || getOrderResponse.item().isEmpty()) {
-            System.out.println("Order not found. Deleting message...");
-            deleteMessage(receiptHandle);
-            return;
+    private List<Message> receiveBatch(ReceiveMessageRequest receiveMessageRequest, int slots) {
+        ReceiveMessageResponse receiveMessageResponse = sqsClient.receiveMessage(receiveMessageRequest.toBuilder()
+                .maxNumberOfMessages(Math.min(10, slots))
+                .build());
+        List<Message> messages = receiveMessageResponse.messages();
+        if (config.getBatchWindowMillis() == 0 || messages.isEmpty()) {
+            return messages;
+        }
+
+        // Keep polling until the window closes so nearby orders get assigned together. Long polls
+        // cover the whole seconds left; the last fraction is short-polled with a pause after each
+        // empty receive rather than spinning on SQS. A failed poll closes the window early: the
+        // messages already received are in flight and must reach the caller.
+        int limit = Math.min(config.getMaxBatchSize(), slots);
+        List<Message> batch = new ArrayList<>(messages);
+        long deadline = System.currentTimeMillis() + config.getBatchWindowMillis();
+        while (batch.size() < limit) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            int waitSeconds = (int) Math.min(MAX_WAIT_SECONDS, remaining / 1000);
+            List<Message> received;
+            try {
+                received = sqsClient.receiveMessage(receiveMessageRequest.toBuilder()
+                        .maxNumberOfMessages(Math.min(10, limit - batch.size()))
+                        .waitTimeSeconds(waitSeconds)
+                        .build()).messages();
+            } catch (RuntimeException e) {
+                receiveErrors.increment();
+                System.err.println("Error receiving messages, closing the batch window at " + batch.size()
+                        + " message(s): " + e.getMessage());
+                break;
+            }
+            batch.addAll(received);
+            if (received.isEmpty() && waitSeconds == 0) {
+                try {
+                    Thread.sleep(Math.min(remaining, EMPTY_POLL_PAUSE_MILLIS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
         }
+        return batch;
+    }
 
-        String currentVersion = getOrderResponse.item().get("Version").n();
-        if (!currentVersion.equals(version)) {
-            System.out.println("Version mismatch. Deleting message...");
-            deleteMessage(receiptHandle);
+    private void processMessage(Message message) {
+        try {
+            OrderEvent order = decodeOrder(message);
+            if (order != null) {
+                handleOrderMessage(order, message);
+            }
+        } catch (Exception e) {
+            System.err.println("Error processing message: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            releaseUnlessParked(message.receiptHandle());
+        }
+    }
+
+    private OrderEvent decodeOrder(Message message) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return orderDecoder.decode(message.body());
+        } catch (IllegalArgumentException e) {
+            invalid.increment();
+            System.out.println("Invalid order data (" + e.getMessage() + "). Acknowledging message...");
+            acks.ack(message.receiptHandle());
+            return null;
+        } finally {
+            decodeLatency.recordSince(start);
+        }
+    }
+
+    private void processBatch(List<Message> messages) {
+        Map<String, PendingOrder> pendingOrders = new LinkedHashMap<>();
+        for (Message message : messages) {
+            try {
+                OrderEvent order = decodeOrder(message);
+                if (order == null) {
+                    continue;
+                }
+                String orderId = order.getOrderId();
+                if (pendingOrders.containsKey(orderId)) {
+                    duplicates.increment();
+                    System.out.println("Duplicate order in batch. Acknowledging message...");
+                    acks.ack(message.receiptHandle());
+                    continue;
+                }
+                pendingOrders.put(orderId, new PendingOrder(order, message));
+            } catch (Exception e) {
+                System.err.println("Error processing message: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        if (pendingOrders.isEmpty()) {
             return;
         }
-        Map<String, String> expressionAttributeNames = new HashMap<>();
-        expressionAttributeNames.put("#status", "Status");
 
-        ScanRequest scanRequest = ScanRequest.builder()
-                .tableName(DRONES_TABLE)
-                .filterExpression("#status = :active")
-                .expressionAttributeNames(expressionAttributeNames)
-                .expressionAttributeValues(Map.of(":active", AttributeValue.builder().s("ACTIVE").build()))
-                .build();
+        try {
+            // Stale or unknown orders are weeded out by the assignment's condition checks
+            assignBatch(new ArrayList<>(pendingOrders.values()));
+        } catch (Exception e) {
+            System.err.println("Error processing batch: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            messages.forEach(message -> releaseUnlessParked(message.receiptHandle()));
+        }
+    }
+
+    private void assignBatch(List<PendingOrder> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        if (backlog.getDepth() > 0) {
+            // Older orders are already waiting for drones; queue up behind them
+            orders.forEach(order -> parkOrRetry(order, parkedBehindBacklog));
+            wakeBacklog();
+            return;
+        }
 
-        ScanResponse scanResponse = dynamoDB.scan(scanRequest);
-        if (scanResponse.items().isEmpty()) {
+        fleet.refreshIfNeeded();
+        // Offering at least as many candidates as orders means a large enough fleet always covers the batch
+        int candidatesPerOrder = Math.max(config.getCandidatesPerOrder(), orders.size());
+        Map<String, DroneIndex.Candidate> candidates = new LinkedHashMap<>();
+        for (PendingOrder order : orders) {
+            for (DroneIndex.Candidate candidate : fleet.nearest(order.storeLat, order.storeLon, candidatesPerOrder)) {
+                candidates.putIfAbsent(candidate.getDroneId(), candidate);
+            }
+        }
+        if (candidates.isEmpty()) {
             System.out.println("No available drones found.");
+            orders.forEach(order -> parkOrRetry(order, noDrone));
             return;
         }
 
-        List<Map<String, AttributeValue>> activeDrones = scanResponse.items();
+        long solveStart = System.nanoTime();
+        List<DroneIndex.Candidate> drones = new ArrayList<>(candidates.values());
+        double[] droneLats = new double[drones.size()];
+        double[] droneLons = new double[drones.size()];
+        for (int j = 0; j < drones.size(); j++) {
+            droneLats[j] = drones.get(j).getLat();
+            droneLons[j] = drones.get(j).getLon();
+        }
+        double[][] cost = new double[orders.size()][drones.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            PendingOrder order = orders.get(i);
+            GeoMath.distancesKm(order.storeLat, order.storeLon, droneLats, droneLons, drones.size(), cost[i]);
+        }
+        int[] assignment = BatchAssigner.assign(cost);
+        batchSolveLatency.recordSince(solveStart);
+
+        List<PendingOrder> matchedOrders = new ArrayList<>();
+        List<DroneIndex.Candidate> matchedDrones = new ArrayList<>();
+        List<Update> matchedUpdates = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            PendingOrder order = orders.get(i);
+            DroneIndex.Candidate drone = assignment[i] < 0 ? null : drones.get(assignment[i]);
+            if (drone != null && !claimVerifiedDrone(drone)) {
+                // Another worker got there first, or the drone is gone; settle for the nearest one still free
+                drone = claimNearestVerifiedDrone(order.storeLat, order.storeLon);
+            }
+            if (drone == null) {
+                System.out.println("No available drone left for order in this batch: " + order.orderId);
+                parkOrRetry(order, noDrone);
+                continue;
+            }
+            Update update;
+            try {
+                update = orderAssignment(order, drone.getDroneId());
+            } catch (RuntimeException e) {
+                fleet.release(drone);
+                rejectInvalid(order, e);
+                continue;
+            }
+            matchedOrders.add(order);
+            matchedDrones.add(drone);
+            matchedUpdates.add(update);
+        }
 
-        Map<String, AttributeValue> nearestDrone = findNearestDrone(storeLocation, activeDrones);
-        String droneId = nearestDrone.get("UUID").s();
+        // Each assignment is an order update plus a drone update, committed atomically per chunk
+        int ordersPerTransaction = MAX_TRANSACT_ITEMS / 2;
+        for (int from = 0; from < matchedOrders.size(); from += ordersPerTransaction) {
+            int to = Math.min(matchedOrders.size(), from + ordersPerTransaction);
+            long commitStart = System.nanoTime();
+            try {
+                List<TransactWriteItem> writes = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    writes.add(TransactWriteItem.builder().update(matchedUpdates.get(i)).build());
+                    writes.add(TransactWriteItem.builder().update(droneMatched(matchedDrones.get(i).getDroneId())).build());
+                }
+                dynamoDB.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(writes).build());
+                commitLatency.recordSince(commitStart);
+            } catch (TransactionCanceledException e) {
+                commitLatency.recordSince(commitStart);
+                // One failed condition cancels the whole chunk; settle each order on its own
+                List<CancellationReason> reasons = e.cancellationReasons();
+                for (int i = from; i < to; i++) {
+                    PendingOrder order = matchedOrders.get(i);
+                    DroneIndex.Candidate drone = matchedDrones.get(i);
+                    if (conditionFailed(reasons, 2 * (i - from))) {
+                        fleet.release(drone);
+                        countStaleOrder(reasons.get(2 * (i - from)));
+                        System.out.println("Order " + order.orderId + " not found or version mismatch. Acknowledging message...");
+                        acks.ack(order.receiptHandle);
+                    } else if (conditionFailed(reasons, 2 * (i - from) + 1)) {
+                        dronesTaken.increment();
+                        fleet.discard(drone.getDroneId());
+                        assignOrder(order, null);
+                    } else {
+                        assignOrder(order, drone);
+                    }
+                }
+                continue;
+            } catch (RuntimeException e) {
+                // Nothing was written, so every drone claimed for this chunk goes back to the fleet
+                System.err.println("Failed to commit batch assignment: " + e.getMessage());
+                for (int i = from; i < to; i++) {
+                    fleet.release(matchedDrones.get(i));
+                }
+                continue;
+            }
+
+            for (int i = from; i < to; i++) {
+                System.out.println("Order " + matchedOrders.get(i).orderId + " matched to drone " + matchedDrones.get(i).getDroneId() + ". Acknowledging message...");
+                countMatch(matchedOrders.get(i));
+                acks.ack(matchedOrders.get(i).receiptHandle);
+            }
+        }
+    }
 
-        if (droneId == null || droneId.isEmpty()) {
-            System.out.println("Invalid drone data.");
+    private void handleOrderMessage(OrderEvent event, Message message) {
+        PendingOrder order = new PendingOrder(event, message);
+        if (backlog.getDepth() > 0) {
+            // Older orders are already waiting for drones; queue up behind them
+            parkOrRetry(order, parkedBehindBacklog);
+            wakeBacklog();
             return;
         }
+        fleet.refreshIfNeeded();
+        assignOrder(order, null);
+    }
 
-        updateOrder(orderId, String.valueOf(Integer.parseInt(version) + 1), droneId);
-        updateDrone(droneId);
+    /**
+     * @param reason counts why the order could not be assigned right away
+     */
+    private void parkOrRetry(PendingOrder order, Counter reason) {
+        reason.increment();
+        if (backlog.park(order.receiptHandle, order.sentAt, order)) {
+            System.out.println("Order " + order.orderId + " parked until a drone becomes available.");
+        } else {
+            acks.retryLater(order.receiptHandle);
+        }
+    }
 
-        System.out.println("Order updated and drone matched. Deleting message...");
-        deleteMessage(receiptHandle);
+    private void releaseUnlessParked(String receiptHandle) {
+        if (!backlog.contains(receiptHandle)) {
+            acks.release(receiptHandle);
+        }
     }
 
-    private Map<String, AttributeValue> findNearestDrone(String storeLocation, List<Map<String, AttributeValue>> drones) {
-        String[] storeLocationParts = storeLocation.split(",");
-        double storeLat = Double.parseDouble(storeLocationParts[0]);
-        double storeLon = Double.parseDouble(storeLocationParts[1]);
+    // Runs on whatever thread made a drone available, so only schedule the actual work
+    private void wakeBacklog() {
+        if (backlog.getDepth() > 0 && backlogWakeScheduled.compareAndSet(false, true)) {
+            try {
+                backlogExecutor.execute(() -> {
+                    backlogWakeScheduled.set(false);
+                    drainBacklogQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                backlogWakeScheduled.set(false);
+            }
+        }
+    }
+
+    private void drainBacklog() {
+        for (PendingOrder order : backlog.expire()) {
+            System.out.println("Order " + order.orderId + " parked too long, handing it back to the queue.");
+            acks.release(order.receiptHandle);
+        }
+
+        fleet.refreshIfNeeded();
+        PendingOrder order;
+        while ((order = backlog.oldest()) != null) {
+            DroneIndex.Candidate drone = claimNearestVerifiedDrone(order.storeLat, order.storeLon);
+            if (drone == null) {
+                return;
+            }
+            if (!backlog.unpark(order.receiptHandle)) {
+                fleet.release(drone);
+                continue;
+            }
+            try {
+                assignOrder(order, drone);
+            } catch (RuntimeException e) {
+                System.err.println("Error matching parked order " + order.orderId + ": " + e.getMessage());
+            } finally {
+                releaseUnlessParked(order.receiptHandle);
+            }
+        }
+    }
 
-        double minDistance = Double.MAX_VALUE;
-        List<Map<String, AttributeValue>> nearestDrones = new ArrayList<>();
+    private void drainBacklogQuietly() {
+        try {
+            drainBacklog();
+        } catch (RuntimeException e) {
+            System.err.println("Error draining order backlog: " + e.getMessage());
+        }
+    }
 
-        for (Map<String, AttributeValue> drone : drones) {
-            String[] droneLocationParts = drone.get("Location").s().split(",");
-            double droneLat = Double.parseDouble(droneLocationParts[0]);
-            double droneLon = Double.parseDouble(droneLocationParts[1]);
+    /**
+     * Commits an order and its drone in one conditional transaction: the order must still be at
+     * the version the message carries and the drone must still be ACTIVE. A drone that was taken
+     * in the meantime is dropped from the fleet view and the next-nearest one is tried instead.
+     *
+     * @param drone a drone already claimed for this order, or {@code null} to claim the nearest
+     */
+    private void assignOrder(PendingOrder order, DroneIndex.Candidate drone) {
+        for (int attempt = 1; ; attempt++) {
+            if (drone == null) {
+                drone = claimNearestVerifiedDrone(order.storeLat, order.storeLon);
+            }
+            if (drone == null) {
+                System.out.println("No available drones found.");
+                parkOrRetry(order, noDrone);
+                return;
+            }
 
-            double distance = calculateHaversineDistance(storeLat, storeLon, droneLat, droneLon);
+            TransactWriteItemsRequest request;
+            try {
+                request = TransactWriteItemsRequest.builder()
+                        .transactItems(
+                                TransactWriteItem.builder().update(orderAssignment(order, drone.getDroneId())).build(),
+                                TransactWriteItem.builder().update(droneMatched(drone.getDroneId())).build())
+                        .build();
+            } catch (RuntimeException e) {
+                fleet.release(drone);
+                rejectInvalid(order, e);
+                return;
+            }
 
-            if (distance < minDistance) {
-                minDistance = distance;
-                nearestDrones.clear();
-                nearestDrones.add(drone);
-            } else if (distance == minDistance) {
-                nearestDrones.add(drone);
+            long commitStart = System.nanoTime();
+            try {
+                dynamoDB.transactWriteItems(request);
+                commitLatency.recordSince(commitStart);
+            } catch (TransactionCanceledException e) {
+                commitLatency.recordSince(commitStart);
+                if (conditionFailed(e.cancellationReasons(), 0)) {
+                    fleet.release(drone);
+                    countStaleOrder(e.cancellationReasons().get(0));
+                    System.out.println("Order not found or version mismatch. Acknowledging message...");
+                    acks.ack(order.receiptHandle);
+                    return;
+                }
+                if (!conditionFailed(e.cancellationReasons(), 1)) {
+                    // Lost a race on one of the items; let the message come back and try again
+                    fleet.release(drone);
+                    throw e;
+                }
+                dronesTaken.increment();
+                System.out.println("Drone " + drone.getDroneId() + " is no longer available, trying the next nearest.");
+                fleet.discard(drone.getDroneId());
+                drone = null;
+                if (attempt == MAX_ASSIGNMENT_ATTEMPTS) {
+                    acks.retryLater(order.receiptHandle);
+                    return;
+                }
+                continue;
+            } catch (RuntimeException e) {
+                fleet.release(drone);
+                throw e;
             }
+
+            System.out.println("Order " + order.orderId + " matched to drone " + drone.getDroneId() + ". Acknowledging message...");
+            countMatch(order);
+            acks.ack(order.receiptHandle);
+            return;
         }
+    }
 
-        Random rand = new Random();
-        return nearestDrones.get(rand.nextInt(nearestDrones.size()));
+    private DroneIndex.Candidate claimNearestVerifiedDrone(double lat, double lon) {
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                DroneIndex.Candidate drone = fleet.claimNearest(lat, lon);
+                if (drone == null || !fleet.isStale(drone.getDroneId()) || fleet.verify(drone.getDroneId())) {
+                    return drone;
+                }
+            }
+        } finally {
+            claimLatency.recordSince(start);
+        }
     }
 
-    private double calculateHaversineDistance(double lat1, double lon1, double lat2, double lon2) {
-        final int R = 6371; // Radius of the Earth in kilometers
+    private boolean claimVerifiedDrone(DroneIndex.Candidate drone) {
+        long start = System.nanoTime();
+        try {
+            if (!fleet.claim(drone)) {
+                return false;
+            }
+            return !fleet.isStale(drone.getDroneId()) || fleet.verify(drone.getDroneId());
+        } finally {
+            claimLatency.recordSince(start);
+        }
+    }
 
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        double distance = R * c; // convert to kilometers
+    // An order whose fields cannot go into the assignment will never match; drop it like any other bad order
+    private void rejectInvalid(PendingOrder order, RuntimeException e) {
+        invalid.increment();
+        System.out.println("Invalid order data for " + order.orderId + " (" + e.getMessage() + "). Acknowledging message...");
+        acks.ack(order.receiptHandle);
+    }
 
-        return distance;
+    private void countMatch(PendingOrder order) {
+        matched.increment();
+        matchLatency.record(Math.max(0, System.currentTimeMillis() - order.sentAt), TimeUnit.MILLISECONDS);
     }
 
-    private void updateOrder(String orderId, String newVersion, String droneId) {
-        Map<String, AttributeValueUpdate> updates = new HashMap<>();
-        updates.put("Status", AttributeValueUpdate.builder().value(AttributeValue.builder().s("assigned").build()).action(AttributeAction.PUT).build());
-        updates.put("AssignedTo", AttributeValueUpdate.builder().value(AttributeValue.builder().s(droneId).build()).action(AttributeAction.PUT).build());
-        updates.put("Version", AttributeValueUpdate.builder().value(AttributeValue.builder().n(newVersion).build()).action(AttributeAction.PUT).build());
+    // The failed order condition returns the current item: none means the order is gone
+    private void countStaleOrder(CancellationReason reason) {
+        Map<String, AttributeValue> current = reason.item();
+        (current == null || current.isEmpty() ? notFound : versionMismatches).increment();
+    }
 
-        UpdateItemRequest updateRequest = UpdateItemRequest.builder()
+    private Update orderAssignment(PendingOrder order, String droneId) {
+        return Update.builder()
                 .tableName(ORDERS_TABLE)
-                .key(Map.of("UUID", AttributeValue.builder().s(orderId).build()))
-                .attributeUpdates(updates)
+                .key(Map.of("UUID", AttributeValue.builder().s(order.orderId).build()))
+                .updateExpression("SET #status = :status, AssignedTo = :droneId, #version = :version")
+                .conditionExpression("attribute_exists(#uuid) AND #version = :expectedVersion")
+                .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)
+                .expressionAttributeNames(Map.of("#uuid", "UUID", "#status", "Status", "#version", "Version"))
+                .expressionAttributeValues(Map.of(
+                        ":status", AttributeValue.builder().s("assigned").build(),
+                        ":droneId", AttributeValue.builder().s(droneId).build(),
+                        ":version", AttributeValue.builder().n(String.valueOf(order.version + 1)).build(),
+                        ":expectedVersion", AttributeValue.builder().n(String.valueOf(order.version)).build()))
                 .build();
-
-        dynamoDB.updateItem(updateRequest);
-        System.out.println("Order updated successfully: " + orderId);
     }
 
-    private void updateDrone(String droneId) {
-        Map<String, AttributeValueUpdate> updates = new HashMap<>();
-        updates.put("Status", AttributeValueUpdate.builder().value(AttributeValue.builder().s("MATCHED").build()).action(AttributeAction.PUT).build());
-
-        UpdateItemRequest updateRequest = UpdateItemRequest.builder()
+    private Update droneMatched(String droneId) {
+        return Update.builder()
                 .tableName(DRONES_TABLE)
                 .key(Map.of("UUID", AttributeValue.builder().s(droneId).build()))
-                .attributeUpdates(updates)
+                .updateExpression("SET #status = :status")
+                .conditionExpression("#status = :active")
+                .expressionAttributeNames(Map.of("#status", "Status"))
+                .expressionAttributeValues(Map.of(
+                        ":status", AttributeValue.builder().s("MATCHED").build(),
+                        ":active", AttributeValue.builder().s("ACTIVE").build()))
                 .build();
+    }
 
-        dynamoDB.updateItem(updateRequest);
-        System.out.println("Drone status updated successfully: " + droneId);
+    private static boolean conditionFailed(List<CancellationReason> reasons, int item) {
+        return item < reasons.size() && CONDITIONAL_CHECK_FAILED.equals(reasons.get(item).code());
     }
 
-    private void deleteMessage(String receiptHandle) {
-        DeleteMessageRequest deleteMessageRequest = DeleteMessageRequest.builder()
-                .queueUrl(SQS_QUEUE_URL)
-                .receiptHandle(receiptHandle)
-                .build();
-        sqsClient.deleteMessage(deleteMessageRequest);
-        System.out.println("Message deleted successfully from SQS.");
+    private static class PendingOrder {
+        private final String orderId;
+        private final long version;
+        private final double storeLat;
+        private final double storeLon;
+        private final String receiptHandle;
+        private final long sentAt;
+
+        PendingOrder(OrderEvent event, Message message) {
+            this.orderId = event.getOrderId();
+            this.version = event.getVersion();
+            this.storeLat = event.getStoreLocation().getLat();
+            this.storeLon = event.getStoreLocation().getLon();
+            this.receiptHandle = message.receiptHandle();
+            String sentTimestamp = message.attributes().get(MessageSystemAttributeName.SENT_TIMESTAMP);
+            this.sentAt = sentTimestamp == null ? System.currentTimeMillis() : Long.parseLong(sentTimestamp);
+        }
     }
 }
-
@@ -0,0 +1,427 @@
+package matcher;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunables for {@link Matcher}. Defaults reproduce the original one-order-at-a-time behaviour;
+ * {@link #fromEnvironment()} lets a deployment override them with {@code MATCHER_*} variables.
+ */
+public class MatcherConfig {
+
+    private String queueUrl = "https://sqs.us-east-1.amazonaws.com/533266960984/Region1Queue";
+    private int parallelism = 1;
+    private int maxInFlight = 10;
+    private boolean batchAssignment = false;
+    private int candidatesPerOrder = 10;
+    private double droneIndexCellKm = 1;
+    private long batchWindowMillis = 0;
+    private int maxBatchSize = 10;
+    private int visibilityTimeoutSeconds = 30;
+    private long ackFlushIntervalMillis = 1000;
+    private int maxRetryDelaySeconds = 300;
+    private long maxDroneStalenessMillis = 60_000;
+    private long fleetPollIntervalMillis = 1000;
+    private long fleetRescanIntervalMillis = 30_000;
+    private int maxParkedOrders = 1000;
+    private long maxParkMillis = 600_000;
+    private MatcherRegion region;
+    private List<MatcherRegion> regions = List.of();
+    private String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+    private String membershipTable = "MatcherNodes";
+    private long heartbeatIntervalMillis = 5000;
+    private long nodeTtlMillis = 15_000;
+    private long metricsReportIntervalMillis = 60_000;
+    private boolean metricsJson = false;
+
+    public MatcherConfig() {
+    }
+
+    /**
+     * A copy of {@code other}, such as the config of one region of a matcher node.
+     */
+    public MatcherConfig(MatcherConfig other) {
+        this.queueUrl = other.queueUrl;
+        this.parallelism = other.parallelism;
+        this.maxInFlight = other.maxInFlight;
+        this.batchAssignment = other.batchAssignment;
+        this.candidatesPerOrder = other.candidatesPerOrder;
+        this.droneIndexCellKm = other.droneIndexCellKm;
+        this.batchWindowMillis = other.batchWindowMillis;
+        this.maxBatchSize = other.maxBatchSize;
+        this.visibilityTimeoutSeconds = other.visibilityTimeoutSeconds;
+        this.ackFlushIntervalMillis = other.ackFlushIntervalMillis;
+        this.maxRetryDelaySeconds = other.maxRetryDelaySeconds;
+        this.maxDroneStalenessMillis = other.maxDroneStalenessMillis;
+        this.fleetPollIntervalMillis = other.fleetPollIntervalMillis;
+        this.fleetRescanIntervalMillis = other.fleetRescanIntervalMillis;
+        this.maxParkedOrders = other.maxParkedOrders;
+        this.maxParkMillis = other.maxParkMillis;
+        this.region = other.region;
+        this.regions = other.regions;
+        this.nodeId = other.nodeId;
+        this.membershipTable = other.membershipTable;
+        this.heartbeatIntervalMillis = other.heartbeatIntervalMillis;
+        this.nodeTtlMillis = other.nodeTtlMillis;
+        this.metricsReportIntervalMillis = other.metricsReportIntervalMillis;
+        this.metricsJson = other.metricsJson;
+    }
+
+    public static MatcherConfig fromEnvironment() {
+        Map<String, String> env = System.getenv();
+        MatcherConfig config = new MatcherConfig();
+        config.setQueueUrl(env.getOrDefault("MATCHER_QUEUE_URL", config.getQueueUrl()));
+        config.setParallelism(Integer.parseInt(env.getOrDefault("MATCHER_PARALLELISM", "1")));
+        config.setMaxInFlight(Integer.parseInt(env.getOrDefault("MATCHER_MAX_IN_FLIGHT", "10")));
+        config.setBatchAssignment(Boolean.parseBoolean(env.getOrDefault("MATCHER_BATCH_ASSIGNMENT", "false")));
+        config.setCandidatesPerOrder(Integer.parseInt(env.getOrDefault("MATCHER_CANDIDATES_PER_ORDER", "10")));
+        config.setDroneIndexCellKm(Double.parseDouble(env.getOrDefault("MATCHER_DRONE_INDEX_CELL_KM", "1")));
+        config.setBatchWindowMillis(Long.parseLong(env.getOrDefault("MATCHER_BATCH_WINDOW_MILLIS", "0")));
+        config.setMaxBatchSize(Integer.parseInt(env.getOrDefault("MATCHER_MAX_BATCH_SIZE", "10")));
+        config.setVisibilityTimeoutSeconds(Integer.parseInt(env.getOrDefault("MATCHER_VISIBILITY_TIMEOUT_SECONDS", "30")));
+        config.setAckFlushIntervalMillis(Long.parseLong(env.getOrDefault("MATCHER_ACK_FLUSH_INTERVAL_MILLIS", "1000")));
+        config.setMaxRetryDelaySeconds(Integer.parseInt(env.getOrDefault("MATCHER_MAX_RETRY_DELAY_SECONDS", "300")));
+        config.setMaxDroneStalenessMillis(Long.parseLong(env.getOrDefault("MATCHER_MAX_DRONE_STALENESS_MILLIS", "60000")));
+        config.setFleetPollIntervalMillis(Long.parseLong(env.getOrDefault("MATCHER_FLEET_POLL_INTERVAL_MILLIS", "1000")));
+        config.setFleetRescanIntervalMillis(Long.parseLong(env.getOrDefault("MATCHER_FLEET_RESCAN_INTERVAL_MILLIS", "30000")));
+        config.setMaxParkedOrders(Integer.parseInt(env.getOrDefault("MATCHER_MAX_PARKED_ORDERS", "1000")));
+        config.setMaxParkMillis(Long.parseLong(env.getOrDefault("MATCHER_MAX_PARK_MILLIS", "600000")));
+        config.setRegions(MatcherRegion.parseAll(env.getOrDefault("MATCHER_REGIONS", "")));
+        config.setNodeId(env.getOrDefault("MATCHER_NODE_ID", config.getNodeId()));
+        config.setMembershipTable(env.getOrDefault("MATCHER_MEMBERSHIP_TABLE", config.getMembershipTable()));
+        config.setHeartbeatIntervalMillis(Long.parseLong(env.getOrDefault("MATCHER_HEARTBEAT_INTERVAL_MILLIS", "5000")));
+        config.setNodeTtlMillis(Long.parseLong(env.getOrDefault("MATCHER_NODE_TTL_MILLIS", "15000")));
+        config.setMetricsReportIntervalMillis(Long.parseLong(env.getOrDefault("MATCHER_METRICS_REPORT_INTERVAL_MILLIS", "60000")));
+        config.setMetricsJson("json".equalsIgnoreCase(env.getOrDefault("MATCHER_METRICS_FORMAT", "text")));
+        return config;
+    }
+
+    public String getQueueUrl() {
+        return queueUrl;
+    }
+
+    public void setQueueUrl(String queueUrl) {
+        this.queueUrl = queueUrl;
+    }
+
+    /**
+     * Number of worker threads matching orders concurrently. The receive loop runs on its own
+     * thread, so the next long poll overlaps with matching of the current batch.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Upper bound on messages received but not yet finished. This is the throughput/latency
+     * knob: more in flight keeps the workers busy, fewer keeps messages from waiting in memory
+     * while their visibility timeout runs down.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Whether orders received together are assigned jointly at minimum total pickup distance
+     * instead of greedily one after another.
+     */
+    public boolean isBatchAssignment() {
+        return batchAssignment;
+    }
+
+    public void setBatchAssignment(boolean batchAssignment) {
+        this.batchAssignment = batchAssignment;
+    }
+
+    /**
+     * How many nearest drones per order are offered to the batch assignment.
+     */
+    public int getCandidatesPerOrder() {
+        return candidatesPerOrder;
+    }
+
+    public void setCandidatesPerOrder(int candidatesPerOrder) {
+        if (candidatesPerOrder < 1) {
+            throw new IllegalArgumentException("candidatesPerOrder must be at least 1");
+        }
+        this.candidatesPerOrder = candidatesPerOrder;
+    }
+
+    /**
+     * Edge length of the grid cells the available drones are indexed in. Cells around the size
+     * of a typical pickup distance keep nearest queries to a few small cells.
+     */
+    public double getDroneIndexCellKm() {
+        return droneIndexCellKm;
+    }
+
+    public void setDroneIndexCellKm(double droneIndexCellKm) {
+        if (droneIndexCellKm < 0.1) {
+            throw new IllegalArgumentException("droneIndexCellKm must be at least 0.1");
+        }
+        this.droneIndexCellKm = droneIndexCellKm;
+    }
+
+    /**
+     * How long to keep collecting orders for one batch after the first receive returns.
+     * Zero assigns each receive batch on its own.
+     */
+    public long getBatchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+    public void setBatchWindowMillis(long batchWindowMillis) {
+        if (batchWindowMillis < 0) {
+            throw new IllegalArgumentException("batchWindowMillis must not be negative");
+        }
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
+    /**
+     * Upper bound on orders collected into one batch within the batch window.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Visibility timeout requested on receive. Messages still being matched are extended by
+     * this much again before it runs out.
+     */
+    public int getVisibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    public void setVisibilityTimeoutSeconds(int visibilityTimeoutSeconds) {
+        if (visibilityTimeoutSeconds < 1) {
+            throw new IllegalArgumentException("visibilityTimeoutSeconds must be at least 1");
+        }
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+    }
+
+    /**
+     * Longest an acknowledged message waits in the buffer before its delete batch is sent.
+     */
+    public long getAckFlushIntervalMillis() {
+        return ackFlushIntervalMillis;
+    }
+
+    public void setAckFlushIntervalMillis(long ackFlushIntervalMillis) {
+        if (ackFlushIntervalMillis < 1) {
+            throw new IllegalArgumentException("ackFlushIntervalMillis must be at least 1");
+        }
+        this.ackFlushIntervalMillis = ackFlushIntervalMillis;
+    }
+
+    /**
+     * Cap on the backoff before an order that found no drone is delivered again.
+     */
+    public int getMaxRetryDelaySeconds() {
+        return maxRetryDelaySeconds;
+    }
+
+    public void setMaxRetryDelaySeconds(int maxRetryDelaySeconds) {
+        if (maxRetryDelaySeconds < 0) {
+            throw new IllegalArgumentException("maxRetryDelaySeconds must not be negative");
+        }
+        this.maxRetryDelaySeconds = maxRetryDelaySeconds;
+    }
+
+    /**
+     * How old the fleet view's knowledge of a drone may be before the drone is re-read from the
+     * table ahead of an assignment.
+     */
+    public long getMaxDroneStalenessMillis() {
+        return maxDroneStalenessMillis;
+    }
+
+    public void setMaxDroneStalenessMillis(long maxDroneStalenessMillis) {
+        if (maxDroneStalenessMillis < 0) {
+            throw new IllegalArgumentException("maxDroneStalenessMillis must not be negative");
+        }
+        this.maxDroneStalenessMillis = maxDroneStalenessMillis;
+    }
+
+    /**
+     * How often the Drones table stream is polled for changes.
+     */
+    public long getFleetPollIntervalMillis() {
+        return fleetPollIntervalMillis;
+    }
+
+    public void setFleetPollIntervalMillis(long fleetPollIntervalMillis) {
+        if (fleetPollIntervalMillis < 1) {
+            throw new IllegalArgumentException("fleetPollIntervalMillis must be at least 1");
+        }
+        this.fleetPollIntervalMillis = fleetPollIntervalMillis;
+    }
+
+    /**
+     * How often the whole Drones table is rescanned when it has no stream to follow.
+     */
+    public long getFleetRescanIntervalMillis() {
+        return fleetRescanIntervalMillis;
+    }
+
+    public void setFleetRescanIntervalMillis(long fleetRescanIntervalMillis) {
+        if (fleetRescanIntervalMillis < 1) {
+            throw new IllegalArgumentException("fleetRescanIntervalMillis must be at least 1");
+        }
+        this.fleetRescanIntervalMillis = fleetRescanIntervalMillis;
+    }
+
+    /**
+     * How many orders without a drone are held in memory waiting for one. Beyond that they are
+     * handed back to SQS with a backed-off visibility delay.
+     */
+    public int getMaxParkedOrders() {
+        return maxParkedOrders;
+    }
+
+    public void setMaxParkedOrders(int maxParkedOrders) {
+        if (maxParkedOrders < 0) {
+            throw new IllegalArgumentException("maxParkedOrders must not be negative");
+        }
+        this.maxParkedOrders = maxParkedOrders;
+    }
+
+    /**
+     * How long an order may stay parked before it is handed back to the queue. Must stay well
+     * below the 12 hours SQS lets a message stay in flight.
+     */
+    public long getMaxParkMillis() {
+        return maxParkMillis;
+    }
+
+    public void setMaxParkMillis(long maxParkMillis) {
+        if (maxParkMillis < 1 || maxParkMillis > TimeUnit.HOURS.toMillis(11)) {
+            throw new IllegalArgumentException("maxParkMillis must be between 1 ms and 11 hours");
+        }
+        this.maxParkMillis = maxParkMillis;
+    }
+
+    /**
+     * The single region this matcher serves, or {@code null} to match every drone against the
+     * configured queue. Setting a region also points the matcher at the region's queue.
+     */
+    public MatcherRegion getRegion() {
+        return region;
+    }
+
+    public void setRegion(MatcherRegion region) {
+        this.region = region;
+        if (region != null) {
+            this.queueUrl = region.getQueueUrl();
+        }
+    }
+
+    /**
+     * Regions shared out across the matcher cluster. Empty means a single stand-alone matcher.
+     */
+    public List<MatcherRegion> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(List<MatcherRegion> regions) {
+        this.regions = List.copyOf(regions);
+    }
+
+    /**
+     * Identity of this node in the matcher cluster. Must be unique across running nodes.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * DynamoDB table, keyed by {@code UUID}, that cluster nodes heartbeat into.
+     */
+    public String getMembershipTable() {
+        return membershipTable;
+    }
+
+    public void setMembershipTable(String membershipTable) {
+        this.membershipTable = membershipTable;
+    }
+
+    /**
+     * How often a node heartbeats and recomputes which regions it owns.
+     */
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+        if (heartbeatIntervalMillis < 1) {
+            throw new IllegalArgumentException("heartbeatIntervalMillis must be at least 1");
+        }
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    /**
+     * How long after its last heartbeat a node still counts as alive.
+     */
+    public long getNodeTtlMillis() {
+        return nodeTtlMillis;
+    }
+
+    public void setNodeTtlMillis(long nodeTtlMillis) {
+        if (nodeTtlMillis < 1) {
+            throw new IllegalArgumentException("nodeTtlMillis must be at least 1");
+        }
+        this.nodeTtlMillis = nodeTtlMillis;
+    }
+
+    /**
+     * How often {@link Matcher#main} prints the metrics to standard output. Zero turns the
+     * report off.
+     */
+    public long getMetricsReportIntervalMillis() {
+        return metricsReportIntervalMillis;
+    }
+
+    public void setMetricsReportIntervalMillis(long metricsReportIntervalMillis) {
+        if (metricsReportIntervalMillis < 0) {
+            throw new IllegalArgumentException("metricsReportIntervalMillis must not be negative");
+        }
+        this.metricsReportIntervalMillis = metricsReportIntervalMillis;
+    }
+
+    /**
+     * Whether the metrics report is one JSON document instead of one text line per metric.
+     */
+    public boolean isMetricsJson() {
+        return metricsJson;
+    }
+
+    public void setMetricsJson(boolean metricsJson) {
+        this.metricsJson = metricsJson;
+    }
+}
@@ -0,0 +1,206 @@
+package matcher;
+
+import metrics.LocalMetricsRegistry;
+import metrics.MetricsRegistry;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * One member of a region-sharded matcher cluster.
+ * <p>
+ * Regions are spread over the live nodes with a {@link ConsistentHashRing}. For every region it
+ * owns, a node runs a {@link Matcher} that consumes only that region's queue and keeps only the
+ * drones inside the region's bounds in its fleet view. The region views are all fed by one
+ * {@linkplain FleetView#feed feed} that holds no drones itself, so a node polls the Drones
+ * stream once however many regions it owns. Nodes heartbeat through {@link ClusterMembership} and recompute
+ * ownership on every heartbeat, so regions move when a node joins, leaves or stops heartbeating. During a handover the old and the new owner may
+ * briefly both consume a queue; the conditional assignment transaction keeps that safe.
+ */
+public class MatcherNode implements AutoCloseable {
+
+    private final ClusterMembership membership;
+    private final List<MatcherRegion> regions;
+    private final MatcherConfig config;
+    private final Function<MatcherConfig, Matcher> matcherFactory;
+    private final FleetView fleet;
+    private final Map<String, RegionMatcher> regionMatchers = new HashMap<>();
+    private final List<RegionMatcher> stopping = new ArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private boolean started;
+
+    /**
+     * @param matcherFactory builds the matcher for one region from a copy of {@code config}
+     *                       restricted to that region
+     */
+    public MatcherNode(ClusterMembership membership, List<MatcherRegion> regions, MatcherConfig config,
+                       Function<MatcherConfig, Matcher> matcherFactory) {
+        this(membership, regions, config, null, matcherFactory);
+    }
+
+    /**
+     * @param fleet the node-wide feed the region matchers' views are fed by, closed with the
+     *              node; {@code null} if each region matcher keeps its own
+     */
+    public MatcherNode(ClusterMembership membership, List<MatcherRegion> regions, MatcherConfig config,
+                       FleetView fleet, Function<MatcherConfig, Matcher> matcherFactory) {
+        this.membership = membership;
+        this.regions = new ArrayList<>(regions);
+        this.config = config;
+        this.fleet = fleet;
+        this.matcherFactory = matcherFactory;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+                new Thread(runnable, "matcher-node-" + membership.getNodeId()));
+    }
+
+    /**
+     * Builds a node talking to AWS, with one set of clients shared by all its region matchers.
+     */
+    public static MatcherNode create(MatcherConfig config) {
+        return create(config, new LocalMetricsRegistry());
+    }
+
+    /**
+     * Like {@link #create(MatcherConfig)}, with every region matcher reporting to
+     * {@code metrics} under its region's name.
+     */
+    public static MatcherNode create(MatcherConfig config, MetricsRegistry metrics) {
+        DynamoDbClient dynamoDB = DynamoDbClient.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+        DynamoDbStreamsClient streamsClient = DynamoDbStreamsClient.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+        SqsClient sqsClient = SqsClient.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+        ClusterMembership membership = new ClusterMembership(dynamoDB, config.getMembershipTable(),
+                config.getNodeId(), config.getNodeTtlMillis());
+        FleetView fleet = FleetView.feed(dynamoDB, streamsClient, config.getMaxDroneStalenessMillis(),
+                config.getFleetPollIntervalMillis(), config.getFleetRescanIntervalMillis());
+        fleet.registerMetrics(metrics);
+        return new MatcherNode(membership, config.getRegions(), config, fleet,
+                regionConfig -> new Matcher(dynamoDB, sqsClient, regionConfig,
+                        metrics.withPrefix(regionConfig.getRegion().getName() + "."),
+                        new FleetView(fleet, regionConfig.getDroneIndexCellKm(), regionConfig.getRegion())));
+    }
+
+    /**
+     * Joins the cluster, takes over the regions this node owns and keeps heartbeating.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        membership.heartbeat();
+        rebalance();
+        long interval = config.getHeartbeatIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::heartbeatQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Names of the regions this node currently runs a matcher for.
+     */
+    public synchronized Set<String> getOwnedRegions() {
+        return new TreeSet<>(regionMatchers.keySet());
+    }
+
+    public synchronized Matcher getMatcher(String region) {
+        RegionMatcher regionMatcher = regionMatchers.get(region);
+        return regionMatcher == null ? null : regionMatcher.matcher;
+    }
+
+    /**
+     * Stops every region matcher, waits for them to finish their in-flight messages and leaves
+     * the cluster.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        List<RegionMatcher> toJoin;
+        synchronized (this) {
+            regionMatchers.values().forEach(regionMatcher -> regionMatcher.matcher.stop());
+            stopping.addAll(regionMatchers.values());
+            regionMatchers.clear();
+            toJoin = new ArrayList<>(stopping);
+            stopping.clear();
+        }
+        for (RegionMatcher regionMatcher : toJoin) {
+            try {
+                regionMatcher.thread.join(TimeUnit.MINUTES.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (fleet != null) {
+            fleet.close();
+        }
+        try {
+            membership.leave();
+        } catch (RuntimeException e) {
+            System.err.println("Error leaving the matcher cluster: " + e.getMessage());
+        }
+    }
+
+    synchronized void rebalance() {
+        Set<String> members = new TreeSet<>(membership.liveMembers());
+        // Our own heartbeat may not be visible yet right after joining
+        members.add(membership.getNodeId());
+        ConsistentHashRing ring = new ConsistentHashRing(members);
+
+        for (MatcherRegion region : regions) {
+            boolean owned = membership.getNodeId().equals(ring.ownerOf(region.getName()));
+            RegionMatcher running = regionMatchers.get(region.getName());
+            if (owned && running == null) {
+                startRegion(region);
+            } else if (!owned && running != null) {
+                System.out.println("Handing over region " + region + " (" + members.size() + " nodes).");
+                running.matcher.stop();
+                regionMatchers.remove(region.getName());
+                stopping.add(running);
+            }
+        }
+        stopping.removeIf(regionMatcher -> !regionMatcher.thread.isAlive());
+    }
+
+    private void startRegion(MatcherRegion region) {
+        MatcherConfig regionConfig = new MatcherConfig(config);
+        regionConfig.setRegion(region);
+        Matcher matcher = matcherFactory.apply(regionConfig);
+        Thread thread = new Thread(matcher::processMessages, "matcher-" + region.getName());
+        regionMatchers.put(region.getName(), new RegionMatcher(matcher, thread));
+        thread.start();
+        System.out.println("Took over region " + region + ".");
+    }
+
+    private void heartbeatQuietly() {
+        try {
+            membership.heartbeat();
+            rebalance();
+        } catch (RuntimeException e) {
+            System.err.println("Error refreshing cluster membership: " + e.getMessage());
+        }
+    }
+
+    private static class RegionMatcher {
+        private final Matcher matcher;
+        private final Thread thread;
+
+        RegionMatcher(Matcher matcher, Thread thread) {
+            this.matcher = matcher;
+            this.thread = thread;
+        }
+    }
+}
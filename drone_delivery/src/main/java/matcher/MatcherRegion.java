@@ -0,0 +1,76 @@
+package matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A delivery region as the matcher cluster sees it: the SQS queue its orders arrive on (the
+ * queue subscribed to the order topic with a filter on the {@code Region} message attribute)
+ * and the latitude/longitude box its drones fly in.
+ */
+public class MatcherRegion {
+
+    private final String name;
+    private final String queueUrl;
+    private final double minLat;
+    private final double minLon;
+    private final double maxLat;
+    private final double maxLon;
+
+    public MatcherRegion(String name, String queueUrl, double minLat, double minLon, double maxLat, double maxLon) {
+        if (minLat > maxLat || minLon > maxLon) {
+            throw new IllegalArgumentException("Empty bounds for region " + name);
+        }
+        this.name = name;
+        this.queueUrl = queueUrl;
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * Parses {@code name|queueUrl|minLat,minLon,maxLat,maxLon} entries separated by {@code ;}.
+     * Leaving out the bounds makes a region cover the whole globe.
+     */
+    public static List<MatcherRegion> parseAll(String regions) {
+        List<MatcherRegion> parsed = new ArrayList<>();
+        for (String region : regions.split(";")) {
+            if (region.isBlank()) {
+                continue;
+            }
+            String[] parts = region.trim().split("\\|");
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("Expected name|queueUrl[|bounds]: " + region);
+            }
+            if (parts.length == 2) {
+                parsed.add(new MatcherRegion(parts[0], parts[1], -90, -180, 90, 180));
+                continue;
+            }
+            String[] bounds = parts[2].split(",");
+            if (bounds.length != 4) {
+                throw new IllegalArgumentException("Expected minLat,minLon,maxLat,maxLon: " + parts[2]);
+            }
+            parsed.add(new MatcherRegion(parts[0], parts[1], Double.parseDouble(bounds[0]),
+                    Double.parseDouble(bounds[1]), Double.parseDouble(bounds[2]), Double.parseDouble(bounds[3])));
+        }
+        return parsed;
+    }
+
+    public boolean contains(double lat, double lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getQueueUrl() {
+        return queueUrl;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,157 @@
+package matcher;
+
+import java.util.*;
+
+/**
+ * Orders that found no drone, parked in memory until one becomes available.
+ * <p>
+ * Parked orders are handed out oldest first by the time their message was sent, so a fleet
+ * shortage is worked off in order age rather than in whatever order SQS happens to redeliver.
+ * Their messages stay in flight (the {@link AckManager} keeps extending them) instead of being
+ * redelivered and re-matched over and over. An order parked for longer than the configured limit
+ * is handed back to the queue so it cannot sit in one process's memory forever.
+ *
+ * @param <T> the matcher's representation of a pending order
+ */
+public class OrderBacklog<T> {
+
+    private final int capacity;
+    private final long maxParkMillis;
+    private final PriorityQueue<Parked<T>> queue = new PriorityQueue<>(
+            Comparator.<Parked<T>>comparingLong(parked -> parked.sentAt).thenComparingLong(parked -> parked.sequence));
+    private final Map<String, Parked<T>> byReceiptHandle = new HashMap<>();
+    private long sequence;
+
+    private long parked;
+    private long unparked;
+    private long expired;
+    private long unparkedWaitMillis;
+
+    public OrderBacklog(int capacity, long maxParkMillis) {
+        this.capacity = capacity;
+        this.maxParkMillis = maxParkMillis;
+    }
+
+    /**
+     * Parks an order. Returns {@code false} if the backlog is full or the message is already
+     * parked.
+     */
+    public synchronized boolean park(String receiptHandle, long sentAt, T order) {
+        if (byReceiptHandle.size() >= capacity || byReceiptHandle.containsKey(receiptHandle)) {
+            return false;
+        }
+        Parked<T> entry = new Parked<>(receiptHandle, sentAt, System.currentTimeMillis(), sequence++, order);
+        queue.add(entry);
+        byReceiptHandle.put(receiptHandle, entry);
+        parked++;
+        return true;
+    }
+
+    /**
+     * Returns the oldest parked order without removing it, or {@code null} if none is parked.
+     */
+    public synchronized T oldest() {
+        Parked<T> entry = queue.peek();
+        return entry == null ? null : entry.order;
+    }
+
+    /**
+     * Takes an order out of the backlog because it is about to be matched. Returns {@code false}
+     * if it was not parked.
+     */
+    public synchronized boolean unpark(String receiptHandle) {
+        Parked<T> entry = byReceiptHandle.remove(receiptHandle);
+        if (entry == null) {
+            return false;
+        }
+        queue.remove(entry);
+        unparked++;
+        unparkedWaitMillis += System.currentTimeMillis() - entry.parkedAt;
+        return true;
+    }
+
+    /**
+     * Removes and returns the orders that have been parked for longer than the limit.
+     */
+    public synchronized List<T> expire() {
+        long cutoff = System.currentTimeMillis() - maxParkMillis;
+        List<T> expiredOrders = new ArrayList<>();
+        Iterator<Parked<T>> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Parked<T> entry = iterator.next();
+            if (entry.parkedAt < cutoff) {
+                iterator.remove();
+                byReceiptHandle.remove(entry.receiptHandle);
+                expiredOrders.add(entry.order);
+            }
+        }
+        expired += expiredOrders.size();
+        return expiredOrders;
+    }
+
+    /**
+     * Removes and returns every parked order, oldest first.
+     */
+    public synchronized List<T> drainAll() {
+        List<T> orders = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            orders.add(queue.poll().order);
+        }
+        byReceiptHandle.clear();
+        return orders;
+    }
+
+    public synchronized boolean contains(String receiptHandle) {
+        return byReceiptHandle.containsKey(receiptHandle);
+    }
+
+    public synchronized int getDepth() {
+        return byReceiptHandle.size();
+    }
+
+    /**
+     * How long the order that has been parked longest has been waiting.
+     */
+    public synchronized long getOldestWaitMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Parked<T> entry : byReceiptHandle.values()) {
+            oldest = Math.min(oldest, entry.parkedAt);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    /**
+     * Mean time an order spent parked before a drone was found for it.
+     */
+    public synchronized long getMeanWaitMillis() {
+        return unparked == 0 ? 0 : unparkedWaitMillis / unparked;
+    }
+
+    public synchronized long getParked() {
+        return parked;
+    }
+
+    public synchronized long getUnparked() {
+        return unparked;
+    }
+
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    private static class Parked<T> {
+        private final String receiptHandle;
+        private final long sentAt;
+        private final long parkedAt;
+        private final long sequence;
+        private final T order;
+
+        Parked(String receiptHandle, long sentAt, long parkedAt, long sequence, T order) {
+            this.receiptHandle = receiptHandle;
+            this.sentAt = sentAt;
+            this.parkedAt = parkedAt;
+            this.sequence = sequence;
+            this.order = order;
+        }
+    }
+}
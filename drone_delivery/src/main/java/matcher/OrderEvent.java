@@ -0,0 +1,52 @@
+package matcher;
+
+import geo.GeoPoint;
+
+/**
+ * An order as published to the order topic, decoded and validated.
+ */
+public final class OrderEvent {
+
+    private final String orderId;
+    private final String storeId;
+    private final String userId;
+    private final long version;
+    private final GeoPoint storeLocation;
+
+    public OrderEvent(String orderId, String storeId, String userId, long version, GeoPoint storeLocation) {
+        this.orderId = orderId;
+        this.storeId = storeId;
+        this.userId = userId;
+        this.version = version;
+        this.storeLocation = storeLocation;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public String getStoreId() {
+        return storeId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * The order's {@code Version} when it was published; assignment is conditional on it.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public GeoPoint getStoreLocation() {
+        return storeLocation;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderEvent{orderId=" + orderId + ", storeId=" + storeId + ", userId=" + userId
+                + ", version=" + version + ", storeLocation=" + storeLocation + "}";
+    }
+}
@@ -0,0 +1,151 @@
+package matcher;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import geo.GeoPoint;
+import geo.LocationCodec;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Decodes SQS message bodies into {@link OrderEvent}s with a single streaming pass.
+ * <p>
+ * Accepts both SNS delivery modes: the standard envelope, whose {@code Message} field holds
+ * the order as a JSON string, and raw message delivery, where the body is the order itself.
+ * Order fields are read straight off the parser without building an intermediate map, and
+ * the store location is parsed from the parser's character buffer.
+ * <p>
+ * Malformed JSON raises an {@link IOException}. A well-formed body that is not a usable
+ * order (a field missing or empty, a Version that is not a number, an unreadable location)
+ * raises an {@link IllegalArgumentException}: redelivering it will never help.
+ */
+public class OrderEventDecoder {
+
+    private final JsonFactory jsonFactory;
+
+    public OrderEventDecoder() {
+        this(new JsonFactory());
+    }
+
+    public OrderEventDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public OrderEvent decode(String body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            return decode(parser, true);
+        }
+    }
+
+    private OrderEvent decode(JsonParser parser, boolean allowEnvelope) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object");
+        }
+        String orderId = null;
+        String storeId = null;
+        String userId = null;
+        String version = null;
+        GeoPoint storeLocation = null;
+        OrderEvent wrapped = null;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            token = parser.nextToken();
+            switch (field) {
+                case "Message":
+                    if (allowEnvelope && token == JsonToken.VALUE_STRING) {
+                        try (JsonParser inner = jsonFactory.createParser(
+                                parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength())) {
+                            wrapped = decode(inner, false);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "UUID":
+                    orderId = text(parser, field);
+                    break;
+                case "StoreID":
+                    storeId = text(parser, field);
+                    break;
+                case "UserID":
+                    userId = text(parser, field);
+                    break;
+                case "Version":
+                    version = text(parser, field);
+                    break;
+                case "StoreLocation":
+                    storeLocation = location(parser, field);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Unterminated JSON object");
+        }
+
+        if (wrapped != null) {
+            return wrapped;
+        }
+        if (orderId == null && storeId == null && userId == null && version == null && storeLocation == null) {
+            throw new IllegalArgumentException(allowEnvelope
+                    ? "Order information is missing in the SNS message."
+                    : "Order information is empty.");
+        }
+        require(orderId, "UUID");
+        require(storeId, "StoreID");
+        require(userId, "UserID");
+        require(version, "Version");
+        if (storeLocation == null) {
+            throw new IllegalArgumentException("Order " + orderId + " has no StoreLocation");
+        }
+        return new OrderEvent(orderId, storeId, userId, version(version), storeLocation);
+    }
+
+    private static long version(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Order field Version is not a number: " + value);
+        }
+    }
+
+    // Strings and numbers both read as their text; anything else is not a usable value
+    private static String text(JsonParser parser, String field) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_STRING && token != JsonToken.VALUE_NUMBER_INT) {
+            throw new IllegalArgumentException("Order field " + field + " is not a string: " + token);
+        }
+        String value = parser.getText();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static GeoPoint location(JsonParser parser, String field) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            throw new IllegalArgumentException("Order field " + field + " is not a string: " + token);
+        }
+        if (parser.getTextLength() == 0) {
+            return null;
+        }
+        CharBuffer location = CharBuffer.wrap(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        return new GeoPoint(LocationCodec.latitude(location), LocationCodec.longitude(location));
+    }
+
+    private static void require(String value, String field) {
+        if (value == null) {
+            throw new IllegalArgumentException("Order field " + field + " is missing or empty");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package metrics;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps metrics in memory and renders them as aligned text for logs or as JSON for tools.
+ * Histograms are reported in milliseconds at the 50th, 90th, 99th and 99.9th percentiles.
+ */
+public class LocalMetricsRegistry implements MetricsRegistry, AutoCloseable {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ScheduledExecutorService reporter;
+
+    @Override
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    @Override
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Prints {@link #toText()} or {@link #toJson()} to standard output every
+     * {@code intervalMillis} until {@link #close()}.
+     */
+    public synchronized void startReporting(long intervalMillis, boolean json) {
+        if (reporter != null || intervalMillis <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(json ? toJson() : toText()),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            text.append(entry.getKey()).append(" count=").append(histogram.getCount())
+                    .append(" mean=").append(millis(histogram.getMeanNanos()));
+            for (double percentile : PERCENTILES) {
+                text.append(" p").append(label(percentile)).append('=')
+                        .append(millis(histogram.getValueAtPercentile(percentile)));
+            }
+            text.append(" max=").append(millis(histogram.getMaxNanos())).append(" ms\n");
+        }
+        counters.forEach((name, counter) -> text.append(name).append(' ').append(counter.get()).append('\n'));
+        gauges.forEach((name, gauge) -> text.append(name).append(' ').append(read(gauge)).append('\n'));
+        return text.toString();
+    }
+
+    public String toJson() {
+        Map<String, Object> histogramValues = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", histogram.getCount());
+            values.put("meanMillis", histogram.getMeanNanos() / NANOS_PER_MILLI);
+            for (double percentile : PERCENTILES) {
+                values.put("p" + label(percentile) + "Millis", histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI);
+            }
+            values.put("maxMillis", histogram.getMaxNanos() / NANOS_PER_MILLI);
+            histogramValues.put(entry.getKey(), values);
+        }
+        Map<String, Object> counterValues = new LinkedHashMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.get()));
+        Map<String, Object> gaugeValues = new LinkedHashMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, read(gauge)));
+
+        Map<String, Object> dump = new LinkedHashMap<>();
+        dump.put("histograms", histogramValues);
+        dump.put("counters", counterValues);
+        dump.put("gauges", gaugeValues);
+        try {
+            return objectMapper.writeValueAsString(dump);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot render metrics", e);
+        }
+    }
+
+    // A gauge whose source has gone away must not break the whole dump
+    private static long read(LongSupplier gauge) {
+        try {
+            return gauge.getAsLong();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String millis(double nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+
+    private static String label(double percentile) {
+        return percentile == Math.rint(percentile)
+                ? String.valueOf((long) percentile)
+                : String.valueOf(percentile).replace(".", "");
+    }
+}
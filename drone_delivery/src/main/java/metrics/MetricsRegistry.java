@@ -0,0 +1,43 @@
+package metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Where components register their metrics. Counters and histograms are created on first use
+ * and shared by name after that; registering a gauge under a name already taken replaces it.
+ * <p>
+ * {@link LocalMetricsRegistry} keeps everything in memory and can dump it as text or JSON;
+ * an exporter to a monitoring system plugs in by implementing this interface.
+ */
+public interface MetricsRegistry {
+
+    Counter counter(String name);
+
+    LatencyHistogram histogram(String name);
+
+    void gauge(String name, LongSupplier value);
+
+    /**
+     * A view of this registry that puts {@code prefix} in front of every name, for several
+     * instances of a component sharing one registry.
+     */
+    default MetricsRegistry withPrefix(String prefix) {
+        MetricsRegistry parent = this;
+        return new MetricsRegistry() {
+            @Override
+            public Counter counter(String name) {
+                return parent.counter(prefix + name);
+            }
+
+            @Override
+            public LatencyHistogram histogram(String name) {
+                return parent.histogram(prefix + name);
+            }
+
+            @Override
+            public void gauge(String name, LongSupplier value) {
+                parent.gauge(prefix + name, value);
+            }
+        };
+    }
+}
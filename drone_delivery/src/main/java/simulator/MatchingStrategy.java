@@ -0,0 +1,20 @@
+package simulator;
+
+/**
+ * The ways {@link ReplaySimulator} can pick a drone for an order.
+ */
+public enum MatchingStrategy {
+    /**
+     * Nearest available drone by a full scan of the fleet, as the matcher originally did.
+     */
+    LINEAR,
+    /**
+     * Nearest available drone from the cell index the matcher's fleet view uses.
+     */
+    INDEXED,
+    /**
+     * Orders arriving within the batch window are assigned together at minimum total pickup
+     * distance, the matcher's batch assignment mode.
+     */
+    BATCH
+}
@@ -0,0 +1,152 @@
+package simulator;
+
+import geo.GeoMath;
+import geo.GeoPoint;
+import geo.LocationCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sources of order streams and fleets for {@link ReplaySimulator}.
+ */
+public final class OrderStream {
+
+    private OrderStream() {
+    }
+
+    /**
+     * Reads a recorded stream, one order per line:
+     * {@code arrivalMillis,storeLat,storeLon[,destinationLat,destinationLon]}. Lines starting
+     * with {@code #} and a header line are skipped. Arrival times may be absolute; the stream is
+     * sorted and shifted to start at zero. Without a destination the order is delivered at the
+     * store.
+     */
+    public static List<SimulatedOrder> load(Path path) throws IOException {
+        List<SimulatedOrder> orders = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || (lineNumber == 1 && !startsNumeric(line))) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3 && fields.length != 5) {
+                    throw new IOException(path + ":" + lineNumber + ": expected 3 or 5 fields, got " + fields.length);
+                }
+                try {
+                    GeoPoint store = new GeoPoint(coordinate(fields[1]), coordinate(fields[2]));
+                    GeoPoint destination = fields.length == 5
+                            ? new GeoPoint(coordinate(fields[3]), coordinate(fields[4]))
+                            : store;
+                    orders.add(new SimulatedOrder("order-" + orders.size(), Long.parseLong(fields[0].trim()),
+                            store, destination));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        orders.sort(Comparator.comparingLong(SimulatedOrder::getArrivalMillis));
+        if (orders.isEmpty() || orders.get(0).getArrivalMillis() == 0) {
+            return orders;
+        }
+        long start = orders.get(0).getArrivalMillis();
+        List<SimulatedOrder> shifted = new ArrayList<>(orders.size());
+        for (SimulatedOrder order : orders) {
+            shifted.add(new SimulatedOrder(order.getOrderId(), order.getArrivalMillis() - start,
+                    order.getStore(), order.getDestination()));
+        }
+        return shifted;
+    }
+
+    /**
+     * A Poisson stream of {@code count} orders at {@code ordersPerSecond}, with stores spread
+     * uniformly over the bounds and destinations up to {@code maxDeliveryKm} from their store.
+     */
+    public static List<SimulatedOrder> synthetic(int count, double ordersPerSecond, Bounds bounds,
+                                                 double maxDeliveryKm, Random random) {
+        List<SimulatedOrder> orders = new ArrayList<>(count);
+        double arrival = 0;
+        for (int i = 0; i < count; i++) {
+            arrival += -Math.log(1 - random.nextDouble()) / ordersPerSecond * 1000;
+            GeoPoint store = bounds.randomPoint(random);
+            orders.add(new SimulatedOrder("order-" + i, (long) arrival, store,
+                    near(store, random.nextDouble() * maxDeliveryKm, random)));
+        }
+        return orders;
+    }
+
+    /**
+     * {@code count} drones spread uniformly over the bounds.
+     */
+    public static List<GeoPoint> fleet(int count, Bounds bounds, Random random) {
+        List<GeoPoint> fleet = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fleet.add(bounds.randomPoint(random));
+        }
+        return fleet;
+    }
+
+    private static GeoPoint near(GeoPoint origin, double km, Random random) {
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double lat = origin.getLat() + GeoMath.latDegrees(km) * Math.cos(bearing);
+        double lon = origin.getLon() + GeoMath.lonDegrees(origin.getLat(), km) * Math.sin(bearing);
+        return new GeoPoint(Math.max(-90, Math.min(90, lat)), Math.max(-180, Math.min(180, lon)));
+    }
+
+    private static double coordinate(String field) {
+        return LocationCodec.parseCoordinate(field, 0, field.length());
+    }
+
+    private static boolean startsNumeric(String line) {
+        char c = line.charAt(0);
+        return (c >= '0' && c <= '9') || c == '-' || c == '+';
+    }
+
+    /**
+     * A latitude/longitude rectangle.
+     */
+    public static final class Bounds {
+        private final double minLat;
+        private final double minLon;
+        private final double maxLat;
+        private final double maxLon;
+
+        public Bounds(double minLat, double minLon, double maxLat, double maxLon) {
+            if (!(minLat <= maxLat) || !(minLon <= maxLon)) {
+                throw new IllegalArgumentException("Empty bounds");
+            }
+            this.minLat = minLat;
+            this.minLon = minLon;
+            this.maxLat = maxLat;
+            this.maxLon = maxLon;
+        }
+
+        /**
+         * Parses {@code minLat,minLon,maxLat,maxLon}.
+         */
+        public static Bounds parse(String text) {
+            String[] parts = text.split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Expected minLat,minLon,maxLat,maxLon: " + text);
+            }
+            return new Bounds(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+                    Double.parseDouble(parts[2].trim()), Double.parseDouble(parts[3].trim()));
+        }
+
+        GeoPoint randomPoint(Random random) {
+            return new GeoPoint(minLat + random.nextDouble() * (maxLat - minLat),
+                    minLon + random.nextDouble() * (maxLon - minLon));
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package simulator;
+
+import geo.GeoMath;
+import geo.GeoPoint;
+import matcher.BatchAssigner;
+import matcher.DroneIndex;
+import metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays an order stream against a synthetic fleet with the matcher's assignment logic and no
+ * AWS calls, on a simulated clock that jumps from event to event, so a day of orders runs in
+ * seconds.
+ * <p>
+ * A drone assigned to an order flies to the store and on to the destination at a constant
+ * speed and becomes available again where it delivered. Orders that find no free drone wait
+ * and are served oldest first as drones free up, like the matcher's backlog; new orders queue
+ * behind them. The drone choice itself is exactly what {@link matcher.Matcher} does: the
+ * nearest drone from a {@link DroneIndex} or a full scan, or for batches a
+ * {@link BatchAssigner} solve over each order's nearest candidates.
+ */
+public class ReplaySimulator {
+
+    private final List<GeoPoint> fleet;
+    private final double speedKmh;
+    private final long batchWindowMillis;
+    private final int maxBatchSize;
+    private final int candidatesPerOrder;
+    private final double indexCellKm;
+
+    /**
+     * @param fleet              starting position of every drone
+     * @param batchWindowMillis  how long a batch collects orders after its first one (batch only)
+     * @param maxBatchSize       a batch is solved early once it holds this many orders
+     * @param candidatesPerOrder nearest drones offered per order to a batch solve; raised to the
+     *                           batch size, as the matcher does
+     * @param indexCellKm        cell size of the drone index (indexed and batch only)
+     */
+    public ReplaySimulator(List<GeoPoint> fleet, double speedKmh, long batchWindowMillis, int maxBatchSize,
+                           int candidatesPerOrder, double indexCellKm) {
+        if (speedKmh <= 0) {
+            throw new IllegalArgumentException("speedKmh must be positive");
+        }
+        this.fleet = List.copyOf(fleet);
+        this.speedKmh = speedKmh;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.candidatesPerOrder = Math.max(1, candidatesPerOrder);
+        this.indexCellKm = indexCellKm;
+    }
+
+    /**
+     * Runs the whole stream, which must be sorted by arrival time, with one strategy.
+     */
+    public SimulationResult run(List<SimulatedOrder> orders, MatchingStrategy strategy) {
+        return new Run(orders, strategy).execute();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        // Defaults: a city-sized area with the fleet comfortably ahead of demand
+        OrderStream.Bounds bounds = OrderStream.Bounds.parse(options.getOrDefault("bounds", "47.4,-122.5,47.8,-122.1"));
+        List<SimulatedOrder> orders = options.containsKey("orders")
+                ? OrderStream.load(Paths.get(options.get("orders")))
+                : OrderStream.synthetic(Integer.parseInt(options.getOrDefault("synthetic-orders", "100000")),
+                        Double.parseDouble(options.getOrDefault("rate", "0.5")), bounds,
+                        Double.parseDouble(options.getOrDefault("max-delivery-km", "5")), random);
+        List<GeoPoint> fleet = OrderStream.fleet(Integer.parseInt(options.getOrDefault("drones", "1000")), bounds, random);
+        ReplaySimulator simulator = new ReplaySimulator(fleet,
+                Double.parseDouble(options.getOrDefault("speed-kmh", "60")),
+                Long.parseLong(options.getOrDefault("window-millis", "500")),
+                Integer.parseInt(options.getOrDefault("max-batch", "50")),
+                Integer.parseInt(options.getOrDefault("candidates", "10")),
+                Double.parseDouble(options.getOrDefault("cell-km", "1")));
+
+        System.out.println("Replaying " + orders.size() + " orders against " + fleet.size() + " drones.");
+        for (String name : options.getOrDefault("strategies", "linear,indexed,batch").split(",")) {
+            MatchingStrategy strategy = MatchingStrategy.valueOf(name.trim().toUpperCase(Locale.ROOT));
+            System.out.println(simulator.run(orders, strategy));
+        }
+    }
+
+    // --name value pairs
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]
+                        + "\nOptions: --orders FILE | --synthetic-orders N --rate PER_SECOND --max-delivery-km KM,"
+                        + " --drones N, --bounds minLat,minLon,maxLat,maxLon, --speed-kmh KMH, --window-millis MS,"
+                        + " --max-batch N, --candidates N, --cell-km KM, --strategies linear,indexed,batch, --seed N");
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private class Run {
+        private final List<SimulatedOrder> orders;
+        private final MatchingStrategy strategy;
+        private final AvailableDrones available;
+        private final double[] droneLats = new double[fleet.size()];
+        private final double[] droneLons = new double[fleet.size()];
+        private final PriorityQueue<Trip> trips = new PriorityQueue<>(Comparator.comparingLong(trip -> trip.endsAt));
+        private final Deque<SimulatedOrder> waiting = new ArrayDeque<>();
+        private final List<SimulatedOrder> batch = new ArrayList<>();
+        private final LatencyHistogram assignmentLatency = new LatencyHistogram();
+        private final LatencyHistogram decisionLatency = new LatencyHistogram();
+        private long batchClosesAt;
+        private int matched;
+        private double totalPickupKm;
+        private long lastDeliveryAt;
+
+        Run(List<SimulatedOrder> orders, MatchingStrategy strategy) {
+            this.orders = orders;
+            this.strategy = strategy;
+            this.available = strategy == MatchingStrategy.LINEAR ? new ScannedDrones(fleet.size()) : new IndexedDrones(indexCellKm);
+            for (int drone = 0; drone < fleet.size(); drone++) {
+                droneLats[drone] = fleet.get(drone).getLat();
+                droneLons[drone] = fleet.get(drone).getLon();
+                available.add(drone, droneLats[drone], droneLons[drone]);
+            }
+        }
+
+        SimulationResult execute() {
+            long start = System.nanoTime();
+            int next = 0;
+            while (next < orders.size() || !trips.isEmpty() || !batch.isEmpty()) {
+                long arrival = next < orders.size() ? orders.get(next).getArrivalMillis() : Long.MAX_VALUE;
+                long freed = trips.isEmpty() ? Long.MAX_VALUE : trips.peek().endsAt;
+                long closes = batch.isEmpty() ? Long.MAX_VALUE : batchClosesAt;
+                // At equal times drones free up first and a batch closes last, so it sees every arrival
+                if (freed <= arrival && freed <= closes) {
+                    Trip trip = trips.poll();
+                    available.add(trip.drone, droneLats[trip.drone], droneLons[trip.drone]);
+                    serveWaiting(freed);
+                } else if (arrival <= closes) {
+                    arrive(orders.get(next++));
+                } else {
+                    solveBatch(closes);
+                }
+            }
+            return new SimulationResult(strategy, orders.size(), matched, System.nanoTime() - start,
+                    assignmentLatency, decisionLatency, totalPickupKm, lastDeliveryAt);
+        }
+
+        private void arrive(SimulatedOrder order) {
+            long now = order.getArrivalMillis();
+            if (!waiting.isEmpty()) {
+                // Older orders are already waiting for drones; queue up behind them
+                waiting.add(order);
+                return;
+            }
+            if (strategy != MatchingStrategy.BATCH) {
+                long decisionStart = System.nanoTime();
+                int drone = available.claimNearest(order.getStore().getLat(), order.getStore().getLon());
+                decisionLatency.recordSince(decisionStart);
+                if (drone < 0) {
+                    waiting.add(order);
+                } else {
+                    dispatch(drone, order, now);
+                }
+                return;
+            }
+            if (batch.isEmpty()) {
+                batchClosesAt = now + batchWindowMillis;
+            }
+            batch.add(order);
+            if (batch.size() >= maxBatchSize) {
+                solveBatch(now);
+            }
+        }
+
+        private void solveBatch(long now) {
+            long decisionStart = System.nanoTime();
+            int candidatesEach = Math.max(candidatesPerOrder, batch.size());
+            LinkedHashSet<Integer> candidateSet = new LinkedHashSet<>();
+            for (SimulatedOrder order : batch) {
+                candidateSet.addAll(available.nearest(order.getStore().getLat(), order.getStore().getLon(), candidatesEach));
+            }
+            int[] candidates = candidateSet.stream().mapToInt(Integer::intValue).toArray();
+            double[] lats = new double[candidates.length];
+            double[] lons = new double[candidates.length];
+            for (int j = 0; j < candidates.length; j++) {
+                lats[j] = droneLats[candidates[j]];
+                lons[j] = droneLons[candidates[j]];
+            }
+            double[][] cost = new double[batch.size()][candidates.length];
+            for (int i = 0; i < batch.size(); i++) {
+                GeoPoint store = batch.get(i).getStore();
+                GeoMath.distancesKm(store.getLat(), store.getLon(), lats, lons, candidates.length, cost[i]);
+            }
+            int[] assignment = candidates.length == 0 ? new int[batch.size()] : BatchAssigner.assign(cost);
+            if (candidates.length == 0) {
+                Arrays.fill(assignment, -1);
+            }
+            decisionLatency.recordSince(decisionStart);
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (assignment[i] < 0) {
+                    waiting.add(batch.get(i));
+                } else {
+                    int drone = candidates[assignment[i]];
+                    available.remove(drone);
+                    dispatch(drone, batch.get(i), now);
+                }
+            }
+            batch.clear();
+        }
+
+        private void serveWaiting(long now) {
+            while (!waiting.isEmpty()) {
+                SimulatedOrder order = waiting.peek();
+                long decisionStart = System.nanoTime();
+                int drone = available.claimNearest(order.getStore().getLat(), order.getStore().getLon());
+                decisionLatency.recordSince(decisionStart);
+                if (drone < 0) {
+                    return;
+                }
+                waiting.poll();
+                dispatch(drone, order, now);
+            }
+        }
+
+        private void dispatch(int drone, SimulatedOrder order, long now) {
+            GeoPoint store = order.getStore();
+            GeoPoint destination = order.getDestination();
+            double pickupKm = GeoMath.haversineKm(droneLats[drone], droneLons[drone], store.getLat(), store.getLon());
+            double tripKm = pickupKm + store.distanceKm(destination);
+            long endsAt = now + Math.max(1, Math.round(tripKm / speedKmh * TimeUnit.HOURS.toMillis(1)));
+
+            matched++;
+            totalPickupKm += pickupKm;
+            assignmentLatency.record(now - order.getArrivalMillis(), TimeUnit.MILLISECONDS);
+            lastDeliveryAt = Math.max(lastDeliveryAt, endsAt);
+            droneLats[drone] = destination.getLat();
+            droneLons[drone] = destination.getLon();
+            trips.add(new Trip(drone, endsAt));
+        }
+    }
+
+    private static class Trip {
+        private final int drone;
+        private final long endsAt;
+
+        Trip(int drone, long endsAt) {
+            this.drone = drone;
+            this.endsAt = endsAt;
+        }
+    }
+
+    private interface AvailableDrones {
+        void add(int drone, double lat, double lon);
+
+        void remove(int drone);
+
+        // -1 when no drone is available
+        int claimNearest(double lat, double lon);
+
+        List<Integer> nearest(double lat, double lon, int k);
+    }
+
+    // The cell index the fleet view matches against
+    private static class IndexedDrones implements AvailableDrones {
+        private final DroneIndex index;
+
+        IndexedDrones(double cellKm) {
+            index = new DroneIndex(cellKm);
+        }
+
+        @Override
+        public void add(int drone, double lat, double lon) {
+            index.upsert(Integer.toString(drone), lat, lon);
+        }
+
+        @Override
+        public void remove(int drone) {
+            index.remove(Integer.toString(drone));
+        }
+
+        @Override
+        public int claimNearest(double lat, double lon) {
+            DroneIndex.Candidate nearest = index.claimNearest(lat, lon);
+            return nearest == null ? -1 : Integer.parseInt(nearest.getDroneId());
+        }
+
+        @Override
+        public List<Integer> nearest(double lat, double lon, int k) {
+            List<Integer> drones = new ArrayList<>();
+            for (DroneIndex.Candidate candidate : index.nearest(lat, lon, k)) {
+                drones.add(Integer.parseInt(candidate.getDroneId()));
+            }
+            return drones;
+        }
+    }
+
+    // Packed arrays of the available drones, scanned in full for every lookup
+    private static class ScannedDrones implements AvailableDrones {
+        private final int[] drones;
+        private final int[] slots;
+        private final double[] lats;
+        private final double[] lons;
+        // Scratch space for the distances of one nearest-k lookup
+        private final double[] distances;
+        private int count;
+
+        ScannedDrones(int fleetSize) {
+            drones = new int[fleetSize];
+            slots = new int[fleetSize];
+            lats = new double[fleetSize];
+            lons = new double[fleetSize];
+            distances = new double[fleetSize];
+            Arrays.fill(slots, -1);
+        }
+
+        @Override
+        public void add(int drone, double lat, double lon) {
+            slots[drone] = count;
+            drones[count] = drone;
+            lats[count] = lat;
+            lons[count] = lon;
+            count++;
+        }
+
+        @Override
+        public void remove(int drone) {
+            int slot = slots[drone];
+            if (slot < 0) {
+                return;
+            }
+            count--;
+            drones[slot] = drones[count];
+            lats[slot] = lats[count];
+            lons[slot] = lons[count];
+            slots[drones[slot]] = slot;
+            slots[drone] = -1;
+        }
+
+        @Override
+        public int claimNearest(double lat, double lon) {
+            int slot = GeoMath.nearest(lat, lon, lats, lons, count);
+            if (slot < 0) {
+                return -1;
+            }
+            int drone = drones[slot];
+            remove(drone);
+            return drone;
+        }
+
+        @Override
+        public List<Integer> nearest(double lat, double lon, int k) {
+            if (k <= 0) {
+                return List.of();
+            }
+            GeoMath.distancesKm(lat, lon, lats, lons, count, distances);
+            // The k closest slots so far, farthest on top
+            PriorityQueue<Integer> closest = new PriorityQueue<>(k,
+                    (a, b) -> Double.compare(distances[b], distances[a]));
+            for (int slot = 0; slot < count; slot++) {
+                if (closest.size() < k) {
+                    closest.add(slot);
+                } else if (distances[slot] < distances[closest.peek()]) {
+                    closest.poll();
+                    closest.add(slot);
+                }
+            }
+            Integer[] nearest = new Integer[closest.size()];
+            for (int i = nearest.length - 1; i >= 0; i--) {
+                nearest[i] = drones[closest.poll()];
+            }
+            return Arrays.asList(nearest);
+        }
+    }
+}
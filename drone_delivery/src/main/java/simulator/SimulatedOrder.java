@@ -0,0 +1,40 @@
+package simulator;
+
+import geo.GeoPoint;
+
+/**
+ * One order in a replayed stream: when it arrives, where it is picked up and where it goes.
+ */
+public final class SimulatedOrder {
+
+    private final String orderId;
+    private final long arrivalMillis;
+    private final GeoPoint store;
+    private final GeoPoint destination;
+
+    public SimulatedOrder(String orderId, long arrivalMillis, GeoPoint store, GeoPoint destination) {
+        this.orderId = orderId;
+        this.arrivalMillis = arrivalMillis;
+        this.store = store;
+        this.destination = destination;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Arrival time in milliseconds since the start of the stream.
+     */
+    public long getArrivalMillis() {
+        return arrivalMillis;
+    }
+
+    public GeoPoint getStore() {
+        return store;
+    }
+
+    public GeoPoint getDestination() {
+        return destination;
+    }
+}
@@ -0,0 +1,95 @@
+package simulator;
+
+import metrics.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one {@link ReplaySimulator} run measured.
+ * <p>
+ * Throughput and decision latency are wall-clock: how fast this machine ran the matching
+ * logic. Assignment latency is simulated time from an order's arrival to its assignment,
+ * which includes any batch window and any wait for a drone to come free.
+ */
+public class SimulationResult {
+
+    private final MatchingStrategy strategy;
+    private final int orders;
+    private final int matched;
+    private final long wallNanos;
+    private final LatencyHistogram assignmentLatency;
+    private final LatencyHistogram decisionLatency;
+    private final double totalPickupKm;
+    private final long makespanMillis;
+
+    SimulationResult(MatchingStrategy strategy, int orders, int matched, long wallNanos,
+                     LatencyHistogram assignmentLatency, LatencyHistogram decisionLatency,
+                     double totalPickupKm, long makespanMillis) {
+        this.strategy = strategy;
+        this.orders = orders;
+        this.matched = matched;
+        this.wallNanos = wallNanos;
+        this.assignmentLatency = assignmentLatency;
+        this.decisionLatency = decisionLatency;
+        this.totalPickupKm = totalPickupKm;
+        this.makespanMillis = makespanMillis;
+    }
+
+    public MatchingStrategy getStrategy() {
+        return strategy;
+    }
+
+    public int getOrders() {
+        return orders;
+    }
+
+    public int getMatched() {
+        return matched;
+    }
+
+    public double getOrdersPerSecond() {
+        return wallNanos == 0 ? 0 : matched / (wallNanos / 1e9);
+    }
+
+    /**
+     * Simulated arrival-to-assignment times, recorded in nanoseconds.
+     */
+    public LatencyHistogram getAssignmentLatency() {
+        return assignmentLatency;
+    }
+
+    /**
+     * Wall-clock time spent choosing drones, per decision (one order, or one batch).
+     */
+    public LatencyHistogram getDecisionLatency() {
+        return decisionLatency;
+    }
+
+    public double getMeanPickupKm() {
+        return matched == 0 ? 0 : totalPickupKm / matched;
+    }
+
+    /**
+     * Simulated time until the last delivery finished.
+     */
+    public long getMakespanMillis() {
+        return makespanMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%-8s matched=%d/%d ordersPerSec=%.0f meanPickupKm=%.3f"
+                        + " assignMs{p50=%d p90=%d p99=%d max=%d} decisionUs{p50=%.1f p99=%.1f} makespanS=%.1f",
+                strategy, matched, orders, getOrdersPerSecond(), getMeanPickupKm(),
+                millis(assignmentLatency.getValueAtPercentile(50)), millis(assignmentLatency.getValueAtPercentile(90)),
+                millis(assignmentLatency.getValueAtPercentile(99)), millis(assignmentLatency.getMaxNanos()),
+                decisionLatency.getValueAtPercentile(50) / 1e3, decisionLatency.getValueAtPercentile(99) / 1e3,
+                makespanMillis / 1e3);
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,215 @@
+package stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Tails the DynamoDB stream of a table and hands every change record to a listener.
+ * <p>
+ * Shards that are open when the poller starts are read from {@code LATEST}; shards that appear
+ * later (after a split or a stream rollover) are read from {@code TRIM_HORIZON} so no change is
+ * skipped. Records of one shard are delivered in order on a single background thread, and a
+ * child shard is only read once its parent has been read to the end, so the changes to any one
+ * item stay in order across a split. A record the listener throws on is logged, counted and
+ * skipped, so it cannot hold its shard back. The table needs a stream with {@code NEW_IMAGE}
+ * or {@code NEW_AND_OLD_IMAGES}.
+ */
+public class DynamoDbStreamPoller implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DynamoDbStreamPoller.class);
+    private static final long SHARD_REFRESH_MILLIS = 30_000;
+    // Records per GetRecords call; a full page means the shard may have more waiting
+    private static final int PAGE_RECORDS = 1000;
+
+    private final DynamoDbStreamsClient streamsClient;
+    private final String streamArn;
+    private final long pollIntervalMillis;
+    private final Consumer<Record> listener;
+    private final Map<String, String> shardIterators = new LinkedHashMap<>();
+    private final Map<String, ShardIteratorType> startPositions = new HashMap<>();
+    private final Map<String, String> parentShards = new HashMap<>();
+    private final Map<String, String> lastSequenceNumbers = new HashMap<>();
+    private final Set<String> finishedShards = new HashSet<>();
+    private final AtomicLong failedRecords = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+    private long shardsRefreshedAt;
+    private volatile long lastPolledAt;
+
+    public DynamoDbStreamPoller(DynamoDbStreamsClient streamsClient, String streamArn, long pollIntervalMillis,
+                                Consumer<Record> listener) {
+        this.streamsClient = streamsClient;
+        this.streamArn = streamArn;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.listener = listener;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-poller-" + streamArn.substring(streamArn.lastIndexOf('/') + 1));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the ARN of the table's current stream, or {@code null} if streams are not enabled.
+     */
+    public static String latestStreamArn(DynamoDbClient dynamoDbClient, String tableName) {
+        TableDescription table = dynamoDbClient.describeTable(DescribeTableRequest.builder()
+                .tableName(tableName)
+                .build()).table();
+        StreamSpecification specification = table.streamSpecification();
+        if (specification == null || !Boolean.TRUE.equals(specification.streamEnabled())) {
+            return null;
+        }
+        return table.latestStreamArn();
+    }
+
+    /**
+     * Positions on the open shards at their latest record and starts polling. Anything written
+     * after this returns is guaranteed to reach the listener.
+     */
+    public void start() {
+        refreshShards(true);
+        lastPolledAt = System.currentTimeMillis();
+        scheduler.scheduleWithFixedDelay(this::pollQuietly, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wall-clock time at which the last poll that read every shard to its current end started.
+     * Every change made before then has reached the listener.
+     */
+    public long getLastPolledAt() {
+        return lastPolledAt;
+    }
+
+    /**
+     * Records the listener failed on and that were skipped.
+     */
+    public long getFailedRecords() {
+        return failedRecords.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            log.error("Error polling stream {}", streamArn, e);
+        }
+    }
+
+    private void poll() {
+        long startedAt = System.currentTimeMillis();
+        if (startedAt - shardsRefreshedAt >= SHARD_REFRESH_MILLIS) {
+            refreshShards(false);
+        }
+
+        boolean drained = true;
+        Iterator<Map.Entry<String, String>> iterator = shardIterators.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> shard = iterator.next();
+            if (shardIterators.containsKey(parentShards.get(shard.getKey()))) {
+                // The parent holds older changes to the same items; read it to the end first
+                drained = false;
+                continue;
+            }
+            GetRecordsResponse response;
+            try {
+                response = streamsClient.getRecords(GetRecordsRequest.builder()
+                        .shardIterator(shard.getValue())
+                        .limit(PAGE_RECORDS)
+                        .build());
+            } catch (ExpiredIteratorException e) {
+                shard.setValue(resumeIterator(shard.getKey()));
+                drained = false;
+                continue;
+            }
+
+            for (Record record : response.records()) {
+                try {
+                    listener.accept(record);
+                } catch (RuntimeException e) {
+                    failedRecords.incrementAndGet();
+                    log.warn("Skipping record {} of shard {} in stream {}", record.dynamodb().sequenceNumber(),
+                            shard.getKey(), streamArn, e);
+                }
+                lastSequenceNumbers.put(shard.getKey(), record.dynamodb().sequenceNumber());
+            }
+            if (response.records().size() >= PAGE_RECORDS) {
+                drained = false;
+            }
+            if (response.nextShardIterator() == null) {
+                finishedShards.add(shard.getKey());
+                iterator.remove();
+                // Its children carry on where it ended and may not be known yet
+                shardsRefreshedAt = 0;
+                drained = false;
+            } else {
+                shard.setValue(response.nextShardIterator());
+            }
+        }
+        if (drained) {
+            lastPolledAt = startedAt;
+        }
+    }
+
+    private void refreshShards(boolean initial) {
+        String exclusiveStartShardId = null;
+        do {
+            StreamDescription description = streamsClient.describeStream(DescribeStreamRequest.builder()
+                    .streamArn(streamArn)
+                    .exclusiveStartShardId(exclusiveStartShardId)
+                    .build()).streamDescription();
+            for (Shard shard : description.shards()) {
+                String shardId = shard.shardId();
+                if (shardIterators.containsKey(shardId) || finishedShards.contains(shardId)) {
+                    continue;
+                }
+                boolean open = shard.sequenceNumberRange().endingSequenceNumber() == null;
+                if (initial && !open) {
+                    // Closed before we started, so everything in it predates our snapshot
+                    finishedShards.add(shardId);
+                    continue;
+                }
+                if (shard.parentShardId() != null) {
+                    parentShards.put(shardId, shard.parentShardId());
+                }
+                ShardIteratorType startPosition = initial ? ShardIteratorType.LATEST : ShardIteratorType.TRIM_HORIZON;
+                startPositions.put(shardId, startPosition);
+                shardIterators.put(shardId, shardIterator(shardId, startPosition, null));
+            }
+            exclusiveStartShardId = description.lastEvaluatedShardId();
+        } while (exclusiveStartShardId != null);
+        shardsRefreshedAt = System.currentTimeMillis();
+    }
+
+    private String resumeIterator(String shardId) {
+        String sequenceNumber = lastSequenceNumbers.get(shardId);
+        if (sequenceNumber == null) {
+            return shardIterator(shardId, startPositions.get(shardId), null);
+        }
+        return shardIterator(shardId, ShardIteratorType.AFTER_SEQUENCE_NUMBER, sequenceNumber);
+    }
+
+    private String shardIterator(String shardId, ShardIteratorType type, String sequenceNumber) {
+        return streamsClient.getShardIterator(GetShardIteratorRequest.builder()
+                .streamArn(streamArn)
+                .shardId(shardId)
+                .shardIteratorType(type)
+                .sequenceNumber(sequenceNumber)
+                .build()).shardIterator();
+    }
+}
@@ -0,0 +1,101 @@
+package track;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Walks the points of a track store in append order, reading each field straight from the
+ * mapped segments; only {@link #droneId()} allocates.
+ * <pre>
+ * TrackCursor cursor = store.track(droneId, from, to);
+ * while (cursor.next()) {
+ *     plot(cursor.timeMillis(), cursor.lat(), cursor.lon());
+ * }
+ * </pre>
+ * A cursor sees the records that were written when it reached their segment.
+ */
+public final class TrackCursor {
+
+    private final List<TrackSegment> segments;
+    private final String droneId;
+    private final long fromMillis;
+    private final long toMillis;
+    private int segment = -1;
+    private ByteBuffer records;
+    private int[] droneRecords;
+    private int position;
+    private int limit;
+    private int offset = -1;
+
+    TrackCursor(List<TrackSegment> segments, String droneId, long fromMillis, long toMillis) {
+        this.segments = segments;
+        this.droneId = droneId;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+    }
+
+    /**
+     * Moves to the next point in the time range, returning false when there is none.
+     */
+    public boolean next() {
+        while (true) {
+            while (position < limit) {
+                int record = droneRecords == null ? position : droneRecords[position];
+                position++;
+                int candidate = TrackSegment.offset(record);
+                long time = TrackRecord.timeMillis(records, candidate);
+                if (time >= fromMillis && time < toMillis) {
+                    offset = candidate;
+                    return true;
+                }
+            }
+            if (!nextSegment()) {
+                offset = -1;
+                return false;
+            }
+        }
+    }
+
+    public long timeMillis() {
+        return TrackRecord.timeMillis(records, current());
+    }
+
+    public double lat() {
+        return TrackRecord.lat(records, current());
+    }
+
+    public double lon() {
+        return TrackRecord.lon(records, current());
+    }
+
+    public String droneId() {
+        return TrackRecord.droneId(records, current());
+    }
+
+    private int current() {
+        if (offset < 0) {
+            throw new IllegalStateException("No current point");
+        }
+        return offset;
+    }
+
+    private boolean nextSegment() {
+        while (++segment < segments.size()) {
+            TrackSegment candidate = segments.get(segment);
+            if (!candidate.overlaps(fromMillis, toMillis)) {
+                continue;
+            }
+            records = candidate.records();
+            position = 0;
+            if (droneId == null) {
+                droneRecords = null;
+                limit = candidate.getCount();
+            } else {
+                droneRecords = candidate.recordsOf(droneId);
+                limit = droneRecords.length;
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package track;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * The fixed-width binary layout of one track point, 40 bytes:
+ * <pre>
+ *  0  long  time, epoch milliseconds
+ *  8  int   latitude, 1e-7 degrees
+ * 12  int   longitude, 1e-7 degrees
+ * 16  byte  drone id format: 1 = UUID, 2 = ASCII text
+ * 17  byte  text length
+ * 18  22 bytes  the UUID's 16 bytes, or up to 22 bytes of text
+ * </pre>
+ * Coordinates are kept to seven decimals, the precision of the legacy {@code "lat,lon"} form.
+ */
+final class TrackRecord {
+
+    static final int SIZE = 40;
+    static final int MAX_TEXT_ID_LENGTH = 22;
+
+    private static final int TIME = 0;
+    private static final int LAT = 8;
+    private static final int LON = 12;
+    private static final int ID_FORMAT = 16;
+    private static final int ID_LENGTH = 17;
+    private static final int ID = 18;
+    private static final byte UUID_ID = 1;
+    private static final byte TEXT_ID = 2;
+    private static final double SCALE = 1e7;
+
+    private TrackRecord() {
+    }
+
+    /**
+     * Checks that a drone id fits a record, before anything is written.
+     */
+    static void checkDroneId(String droneId) {
+        if (parseUuid(droneId) == null && !isShortAscii(droneId)) {
+            throw new IllegalArgumentException("Drone id is neither a UUID nor up to "
+                    + MAX_TEXT_ID_LENGTH + " ASCII characters: " + droneId);
+        }
+    }
+
+    static void write(ByteBuffer buffer, int offset, long timeMillis, String droneId, double lat, double lon) {
+        buffer.putLong(offset + TIME, timeMillis);
+        buffer.putInt(offset + LAT, (int) Math.round(lat * SCALE));
+        buffer.putInt(offset + LON, (int) Math.round(lon * SCALE));
+        UUID uuid = parseUuid(droneId);
+        if (uuid != null) {
+            buffer.put(offset + ID_FORMAT, UUID_ID);
+            buffer.put(offset + ID_LENGTH, (byte) 16);
+            buffer.putLong(offset + ID, uuid.getMostSignificantBits());
+            buffer.putLong(offset + ID + 8, uuid.getLeastSignificantBits());
+        } else {
+            buffer.put(offset + ID_FORMAT, TEXT_ID);
+            buffer.put(offset + ID_LENGTH, (byte) droneId.length());
+            for (int i = 0; i < droneId.length(); i++) {
+                buffer.put(offset + ID + i, (byte) droneId.charAt(i));
+            }
+        }
+    }
+
+    static long timeMillis(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + TIME);
+    }
+
+    static double lat(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + LAT) / SCALE;
+    }
+
+    static double lon(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + LON) / SCALE;
+    }
+
+    static String droneId(ByteBuffer buffer, int offset) {
+        if (buffer.get(offset + ID_FORMAT) == UUID_ID) {
+            return new UUID(buffer.getLong(offset + ID), buffer.getLong(offset + ID + 8)).toString();
+        }
+        byte[] text = new byte[buffer.get(offset + ID_LENGTH)];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = buffer.get(offset + ID + i);
+        }
+        return new String(text, StandardCharsets.US_ASCII);
+    }
+
+    // Only the canonical 36-character form, so the id reads back exactly as it was written
+    private static UUID parseUuid(String droneId) {
+        if (droneId.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(droneId);
+            return uuid.toString().equals(droneId) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isShortAscii(String droneId) {
+        if (droneId.isEmpty() || droneId.length() > MAX_TEXT_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < droneId.length(); i++) {
+            if (droneId.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+package track;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One memory-mapped segment file of a track log: a 64-byte header followed by fixed-width
+ * records. The file is preallocated to its full size, so appending is a write to mapped memory.
+ * <p>
+ * There is one writer. Readers see records up to the published count, which is only raised
+ * after a record is written, and the per-segment drone index they read is guarded by the
+ * segment's lock.
+ */
+final class TrackSegment {
+
+    static final int HEADER_SIZE = 64;
+
+    private static final int MAGIC = 0x54524B31; // "TRK1"
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int CREATED_OFFSET = 16;
+    private static final int MIN_TIME_OFFSET = 24;
+    private static final int MAX_TIME_OFFSET = 32;
+
+    private final Path path;
+    private final long id;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long createdMillis;
+    private volatile int count;
+    private volatile long minTime;
+    private volatile long maxTime;
+    // Record numbers of each drone, in append order. Guarded by this.
+    private final Map<String, RecordList> droneIndex = new HashMap<>();
+
+    private TrackSegment(Path path, long id, MappedByteBuffer buffer, long createdMillis) {
+        this.path = path;
+        this.id = id;
+        this.buffer = buffer;
+        this.capacity = (buffer.capacity() - HEADER_SIZE) / TrackRecord.SIZE;
+        this.createdMillis = createdMillis;
+    }
+
+    static TrackSegment create(Path path, long id, int segmentBytes, long createdMillis) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(RECORD_SIZE_OFFSET, TrackRecord.SIZE);
+        buffer.putInt(COUNT_OFFSET, 0);
+        buffer.putLong(CREATED_OFFSET, createdMillis);
+        buffer.putLong(MIN_TIME_OFFSET, Long.MAX_VALUE);
+        buffer.putLong(MAX_TIME_OFFSET, Long.MIN_VALUE);
+        TrackSegment segment = new TrackSegment(path, id, buffer, createdMillis);
+        segment.minTime = Long.MAX_VALUE;
+        segment.maxTime = Long.MIN_VALUE;
+        return segment;
+    }
+
+    /**
+     * Maps an existing segment and rebuilds its drone index from the records.
+     */
+    static TrackSegment open(Path path, long id) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(RECORD_SIZE_OFFSET) != TrackRecord.SIZE) {
+            throw new IOException("Not a version " + VERSION + " track segment: " + path);
+        }
+        TrackSegment segment = new TrackSegment(path, id, buffer, buffer.getLong(CREATED_OFFSET));
+        int count = Math.min(buffer.getInt(COUNT_OFFSET), segment.capacity);
+        segment.minTime = buffer.getLong(MIN_TIME_OFFSET);
+        segment.maxTime = buffer.getLong(MAX_TIME_OFFSET);
+        for (int i = 0; i < count; i++) {
+            segment.index(TrackRecord.droneId(buffer, offset(i)), i);
+        }
+        segment.count = count;
+        return segment;
+    }
+
+    boolean isFull() {
+        return count == capacity;
+    }
+
+    /**
+     * Writes one record. The caller has checked the drone id and that the segment is not full.
+     */
+    void append(long timeMillis, String droneId, double lat, double lon) {
+        int record = count;
+        TrackRecord.write(buffer, offset(record), timeMillis, droneId, lat, lon);
+        if (timeMillis < minTime) {
+            minTime = timeMillis;
+            buffer.putLong(MIN_TIME_OFFSET, timeMillis);
+        }
+        if (timeMillis > maxTime) {
+            maxTime = timeMillis;
+            buffer.putLong(MAX_TIME_OFFSET, timeMillis);
+        }
+        index(droneId, record);
+        buffer.putInt(COUNT_OFFSET, record + 1);
+        count = record + 1;
+    }
+
+    /**
+     * Writes the mapped pages back to the file.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    boolean overlaps(long fromMillis, long toMillis) {
+        return count > 0 && minTime < toMillis && maxTime >= fromMillis;
+    }
+
+    /**
+     * A read-only view of the records; reading it copies nothing.
+     */
+    ByteBuffer records() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Record numbers of one drone, as of now.
+     */
+    synchronized int[] recordsOf(String droneId) {
+        RecordList records = droneIndex.get(droneId);
+        return records == null ? new int[0] : Arrays.copyOf(records.records, records.size);
+    }
+
+    static int offset(int record) {
+        return HEADER_SIZE + record * TrackRecord.SIZE;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    private synchronized void index(String droneId, int record) {
+        droneIndex.computeIfAbsent(droneId, id -> new RecordList()).add(record);
+    }
+
+    private static final class RecordList {
+        private int[] records = new int[4];
+        private int size;
+
+        void add(int record) {
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size * 2);
+            }
+            records[size++] = record;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package track;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An append-only log of drone positions, one per Kinesis shard, kept in memory-mapped segment
+ * files of fixed-width records (see {@link TrackRecord}).
+ * <p>
+ * A new segment is started when the current one is full or older than {@code rollMillis}.
+ * Sealed segments whose newest point is older than {@code retentionMillis} are deleted on
+ * every roll, or by {@link #deleteExpired}. Readers pick segments by their time range and find a
+ * drone's points through a per-segment index, so a drone's track is read without scanning
+ * everybody else's.
+ * <p>
+ * Appends come from one thread, the shard's processor; cursors may be used from any thread.
+ * Points survive a crash of the process as soon as they are appended, and a crash of the
+ * machine once {@link #flush} or {@link #close} has run.
+ */
+public class TrackStore implements AutoCloseable {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final String SUFFIX = ".trk";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long rollMillis;
+    private final long retentionMillis;
+    private final List<TrackSegment> segments = new CopyOnWriteArrayList<>();
+    private TrackSegment active;
+
+    public TrackStore(Path directory, int segmentBytes, long rollMillis, long retentionMillis) throws IOException {
+        if (segmentBytes < TrackSegment.HEADER_SIZE + TrackRecord.SIZE) {
+            throw new IllegalArgumentException("segmentBytes must hold at least one record");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.rollMillis = rollMillis;
+        this.retentionMillis = retentionMillis;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            segments.add(TrackSegment.open(file, Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        if (!segments.isEmpty()) {
+            active = segments.get(segments.size() - 1);
+        }
+    }
+
+    /**
+     * Appends one point. Drone ids must be UUIDs or short ASCII strings.
+     */
+    public synchronized void append(long timeMillis, String droneId, double lat, double lon) throws IOException {
+        TrackRecord.checkDroneId(droneId);
+        if (active == null || active.isFull() || timeMillis - active.getCreatedMillis() >= rollMillis) {
+            roll(timeMillis);
+        }
+        active.append(timeMillis, droneId, lat, lon);
+    }
+
+    /**
+     * Every point with {@code fromMillis <= time < toMillis}.
+     */
+    public TrackCursor scan(long fromMillis, long toMillis) {
+        return new TrackCursor(List.copyOf(segments), null, fromMillis, toMillis);
+    }
+
+    /**
+     * The points of one drone with {@code fromMillis <= time < toMillis}.
+     */
+    public TrackCursor track(String droneId, long fromMillis, long toMillis) {
+        return new TrackCursor(List.copyOf(segments), droneId, fromMillis, toMillis);
+    }
+
+    /**
+     * Deletes the sealed segments whose newest point is older than the retention period.
+     * Returns how many were deleted.
+     */
+    public synchronized int deleteExpired(long nowMillis) throws IOException {
+        int deleted = 0;
+        for (TrackSegment segment : segments) {
+            if (segment != active && segment.getMaxTime() < nowMillis - retentionMillis) {
+                // Cursors already holding the segment keep reading their mapping
+                segments.remove(segment);
+                Files.deleteIfExists(segment.getPath());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public synchronized void flush() {
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+
+    private void roll(long timeMillis) throws IOException {
+        if (active != null) {
+            active.force();
+        }
+        long id = active == null ? 0 : active.getId() + 1;
+        TrackSegment segment = TrackSegment.create(directory.resolve(String.format("%020d%s", id, SUFFIX)), id,
+                segmentBytes, timeMillis);
+        segments.add(segment);
+        active = segment;
+        deleteExpired(timeMillis);
+    }
+}
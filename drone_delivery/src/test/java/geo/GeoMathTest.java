@@ -0,0 +1,123 @@
+package geo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GeoMathTest {
+
+    @Test
+    public void testHaversineMatchesReferenceFormula() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            double lat1 = random.nextDouble() * 180 - 90;
+            double lon1 = random.nextDouble() * 360 - 180;
+            double lat2 = random.nextDouble() * 180 - 90;
+            double lon2 = random.nextDouble() * 360 - 180;
+            double expected = referenceKm(lat1, lon1, lat2, lon2);
+            assertEquals(expected, GeoMath.haversineKm(lat1, lon1, lat2, lon2), 1e-9 * Math.max(1, expected));
+            assertEquals(expected * 1000, GeoMath.haversineMeters(lat1, lon1, lat2, lon2), 1e-6 * Math.max(1, expected));
+        }
+    }
+
+    @Test
+    public void testKnownDistance() {
+        // Seattle to Portland, roughly 234 km
+        assertEquals(233.8, GeoMath.haversineKm(47.6062, -122.3321, 45.5152, -122.6784), 0.5);
+        assertEquals(0, GeoMath.haversineMeters(47.6, -122.3, 47.6, -122.3), 0);
+    }
+
+    @Test
+    public void testEquirectangularIsCloseForShortDistances() {
+        Random random = new Random(11);
+        for (int i = 0; i < 10_000; i++) {
+            double lat1 = random.nextDouble() * 140 - 70;
+            double lon1 = random.nextDouble() * 360 - 180;
+            double lat2 = lat1 + random.nextDouble() - 0.5;
+            double lon2 = lon1 + random.nextDouble() - 0.5;
+            double expected = referenceKm(lat1, lon1, lat2, lon2);
+            assertEquals(expected, GeoMath.equirectangularKm(lat1, lon1, lat2, lon2), 1e-3 * expected + 1e-9);
+        }
+    }
+
+    @Test
+    public void testBatchKernelsAgreeWithPointwiseHaversine() {
+        Random random = new Random(13);
+        int count = 5000;
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = random.nextDouble() * 180 - 90;
+            lons[i] = random.nextDouble() * 360 - 180;
+        }
+        double[] distances = new double[count];
+        for (int q = 0; q < 200; q++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            GeoMath.distancesKm(lat, lon, lats, lons, count, distances);
+
+            int expectedNearest = -1;
+            for (int i = 0; i < count; i++) {
+                assertEquals(GeoMath.haversineKm(lat, lon, lats[i], lons[i]), distances[i], 0);
+                if (expectedNearest < 0 || distances[i] < distances[expectedNearest]) {
+                    expectedNearest = i;
+                }
+            }
+            assertEquals(expectedNearest, GeoMath.nearest(lat, lon, lats, lons, count));
+        }
+        assertEquals(-1, GeoMath.nearest(0, 0, lats, lons, 0));
+    }
+
+    @Test
+    public void testIsWithinMetersAgreesWithHaversine() {
+        Random random = new Random(17);
+        for (int i = 0; i < 100_000; i++) {
+            double lat1 = random.nextDouble() * 170 - 85;
+            double lon1 = random.nextDouble() * 360 - 180;
+            // Mostly a few metres away, so both sides of the 5 m threshold are exercised
+            double lat2 = lat1 + (random.nextDouble() - 0.5) * 1e-4;
+            double lon2 = lon1 + (random.nextDouble() - 0.5) * 1e-4;
+            double meters = GeoMath.haversineMeters(lat1, lon1, lat2, lon2);
+            if (Math.abs(meters - 5) > 1e-6) {
+                assertEquals(meters < 5, GeoMath.isWithinMeters(lat1, lon1, lat2, lon2, 5));
+            }
+        }
+        assertFalse(GeoMath.isWithinMeters(0, 0, 1, 0, 5));
+    }
+
+    @Test
+    public void testBoundingBoxContainsCircle() {
+        Random random = new Random(19);
+        for (int i = 0; i < 10_000; i++) {
+            double lat = random.nextDouble() * 160 - 80;
+            double lon = random.nextDouble() * 360 - 180;
+            double km = random.nextDouble() * 200;
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double[] point = destination(lat, lon, bearing, km);
+            assertTrue(Math.abs(point[0] - lat) <= GeoMath.latDegrees(km) + 1e-9);
+            double dLon = Math.abs(((point[1] - lon) % 360 + 540) % 360 - 180);
+            assertTrue(dLon <= GeoMath.lonDegrees(lat, km) + 1e-9);
+        }
+    }
+
+    // The formula Matcher and DroneRecordProcessor used before they shared this class
+    private static double referenceKm(double lat1, double lon1, double lat2, double lon2) {
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+        return 6371 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static double[] destination(double lat, double lon, double bearing, double km) {
+        double angle = km / GeoMath.EARTH_RADIUS_KM;
+        double phi = Math.toRadians(lat);
+        double phi2 = Math.asin(Math.sin(phi) * Math.cos(angle) + Math.cos(phi) * Math.sin(angle) * Math.cos(bearing));
+        double lambda2 = Math.toRadians(lon) + Math.atan2(Math.sin(bearing) * Math.sin(angle) * Math.cos(phi),
+                Math.cos(angle) - Math.sin(phi) * Math.sin(phi2));
+        return new double[]{Math.toDegrees(phi2), Math.toDegrees(lambda2)};
+    }
+}
@@ -0,0 +1,76 @@
+package geo;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LocationCodecTest {
+
+    @Test
+    public void testParsesLikeDoubleParseDouble() {
+        String[] samples = {"0", "0.0", "-0.0", "47.6062", "-122.3321", "+12.5", "  1.25 ", "180", "-90",
+                "0.000001", "1.0E-5", "47.606209999999996", "-122.33209999999998", "123456789012345678901.5",
+                ".5", "5.", "00012.3400"};
+        for (String sample : samples) {
+            assertEquals(sample, Double.parseDouble(sample), LocationCodec.parseCoordinate(sample, 0, sample.length()), 0);
+        }
+        assertEquals(47.6062, LocationCodec.latitude("47.6062,-122.3321"), 0);
+        assertEquals(-122.3321, LocationCodec.longitude("47.6062,-122.3321"), 0);
+        assertEquals(0, LocationCodec.longitude("0,0"), 0);
+    }
+
+    @Test
+    public void testRandomCoordinatesRoundTripExactly() {
+        Random random = new Random(5);
+        for (int i = 0; i < 100_000; i++) {
+            // Both what Double.toString writes and what the formatter writes must read back unchanged
+            double value = random.nextDouble() * 360 - 180;
+            String text = Double.toString(value);
+            assertEquals(text, value, LocationCodec.parseCoordinate(text, 0, text.length()), 0);
+
+            String formatted = LocationCodec.appendCoordinate(new StringBuilder(), value).toString();
+            assertEquals(formatted, Double.parseDouble(formatted), LocationCodec.parseCoordinate(formatted, 0, formatted.length()), 0);
+            assertEquals(value, Double.parseDouble(formatted), 0.5e-7);
+        }
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("47.6062,-122.3321", LocationCodec.format(47.6062, -122.3321));
+        assertEquals("0.0,0.0", LocationCodec.format(0, -0.0));
+        assertEquals("0.0000001,-0.05", LocationCodec.format(0.0000001, -0.05));
+        assertEquals("12.3456789,180.0", LocationCodec.format(12.34567891, 180));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testRejectsGarbage() {
+        LocationCodec.latitude("north,-122");
+    }
+
+    @Test
+    public void testRejectsNonDecimalSpellings() {
+        for (String sample : new String[]{"1.5d", "2f", "0x1p3", "NaN", "-Infinity", ""}) {
+            try {
+                LocationCodec.parseCoordinate(sample, 0, sample.length());
+                fail("Accepted " + sample);
+            } catch (NumberFormatException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testAttributesPreferNumericPairAndFallBackToLegacyString() {
+        Map<String, AttributeValue> legacy = Map.of("Location", AttributeValue.builder().s("1.5,2.5").build());
+        assertEquals(new GeoPoint(1.5, 2.5), LocationAttributes.point(legacy));
+
+        Map<String, AttributeValue> written = LocationAttributes.toAttributes(47.6062, -122.3321);
+        assertEquals("47.6062", written.get("Lat").n());
+        assertEquals("-122.3321", written.get("Lon").n());
+        assertEquals("47.6062,-122.3321", written.get("Location").s());
+        assertEquals(new GeoPoint(47.6062, -122.3321), LocationAttributes.point(written));
+    }
+}
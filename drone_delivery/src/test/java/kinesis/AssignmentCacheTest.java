@@ -0,0 +1,139 @@
+package kinesis;
+
+import geo.LocationAttributes;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.OperationType;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.model.StreamRecord;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.processor.ShardRecordProcessor;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AssignmentCacheTest {
+
+    private LocalAsyncDynamoDb dynamoDb;
+    private DroneRecordProcessorFactory factory;
+    private ShardRecordProcessor processor;
+    private long sequenceNumber = 100;
+
+    @Before
+    public void setUp() {
+        dynamoDb = new LocalAsyncDynamoDb();
+        place("Stores", "store-1", 47.6, -122.3);
+        place("Users", "user-1", 47.7, -122.4);
+        factory = new DroneRecordProcessorFactory(dynamoDb);
+        processor = factory.shardRecordProcessor();
+    }
+
+    @Test
+    public void testIdleDroneIsQueriedOnce() {
+        move("drone-1", 47.5, -122.2);
+        move("drone-1", 47.51, -122.21);
+        move("drone-1", 47.52, -122.22);
+
+        assertEquals(1, dynamoDb.queries());
+        assertNull(factory.getGeofences().get("drone-1"));
+    }
+
+    @Test
+    public void testAssignmentFromTheChangeFeedReplacesTheIdleEntry() {
+        move("drone-1", 47.5, -122.2);
+        Map<String, AttributeValue> order = order("order-1", "drone-1", "assigned");
+        dynamoDb.put("Orders", order);
+        factory.getAssignments().onOrderChange(change(Map.of(), order));
+
+        move("drone-1", 47.6, -122.3);
+        assertEquals(1, dynamoDb.queries());
+        assertEquals("PickupCompleted", dynamoDb.get("Orders", "order-1").get("Status").s());
+
+        // Written through: the drone is known to be idle once its order completes
+        move("drone-1", 47.7, -122.4);
+        move("drone-1", 47.7, -122.4);
+        move("drone-1", 47.7, -122.4);
+        assertEquals("Completed", dynamoDb.get("Orders", "order-1").get("Status").s());
+        assertEquals(1, dynamoDb.queries());
+        assertEquals(0, factory.getGeofences().size());
+    }
+
+    @Test
+    public void testReassignmentDropsTheFenceOfTheFormerDrone() {
+        Map<String, AttributeValue> order = order("order-1", "drone-1", "assigned");
+        dynamoDb.put("Orders", order);
+        move("drone-1", 47.5, -122.2);
+        assertNotNull(factory.getGeofences().get("drone-1"));
+
+        Map<String, AttributeValue> reassigned = order("order-1", "drone-2", "assigned");
+        dynamoDb.put("Orders", reassigned);
+        factory.getAssignments().onOrderChange(change(order, reassigned));
+
+        assertNull(factory.getGeofences().get("drone-1"));
+        move("drone-1", 47.6, -122.3);
+        move("drone-2", 47.6, -122.3);
+        assertEquals(1, dynamoDb.queries());
+        assertEquals("PickupCompleted", dynamoDb.get("Orders", "order-1").get("Status").s());
+        assertEquals("PickupCompleted", dynamoDb.get("Drones", "drone-2").get("Status").s());
+        assertNull(dynamoDb.get("Drones", "drone-1"));
+    }
+
+    @Test
+    public void testActiveOrderBehindTheFirstPageIsFound() {
+        // Five deliveries done, each still AssignedTo the drone, read two to a page
+        for (int i = 0; i < 5; i++) {
+            dynamoDb.put("Orders", order("done-" + i, "drone-1", "Completed"));
+        }
+        dynamoDb.put("Orders", order("order-1", "drone-1", "assigned"));
+        dynamoDb.setQueryPageSize(2);
+
+        move("drone-1", 47.6, -122.3);
+        assertEquals(3, dynamoDb.queries());
+        assertEquals("order-1", factory.getGeofences().get("drone-1").getOrderId());
+        assertEquals("PickupCompleted", dynamoDb.get("Orders", "order-1").get("Status").s());
+    }
+
+    private static Record change(Map<String, AttributeValue> oldImage, Map<String, AttributeValue> newImage) {
+        StreamRecord.Builder change = StreamRecord.builder()
+                .keys(Map.of("UUID", newImage.get("UUID")))
+                .newImage(newImage);
+        if (!oldImage.isEmpty()) {
+            change.oldImage(oldImage);
+        }
+        return Record.builder()
+                .eventName(oldImage.isEmpty() ? OperationType.INSERT : OperationType.MODIFY)
+                .dynamodb(change.build())
+                .build();
+    }
+
+    private static Map<String, AttributeValue> order(String id, String droneId, String status) {
+        return Map.of(
+                "UUID", AttributeValue.builder().s(id).build(),
+                "AssignedTo", AttributeValue.builder().s(droneId).build(),
+                "StoreID", AttributeValue.builder().s("store-1").build(),
+                "UserID", AttributeValue.builder().s("user-1").build(),
+                "Status", AttributeValue.builder().s(status).build());
+    }
+
+    private void move(String droneId, double lat, double lon) {
+        String json = "{\"droneID\":\"" + droneId + "\",\"location\":\"" + lat + "," + lon + "\"}";
+        KinesisClientRecord record = KinesisClientRecord.builder()
+                .data(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)))
+                .sequenceNumber(String.valueOf(sequenceNumber++))
+                .build();
+        processor.processRecords(ProcessRecordsInput.builder().records(List.of(record)).build());
+    }
+
+    private void place(String table, String id, double lat, double lon) {
+        Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(lat, lon));
+        item.put("UUID", AttributeValue.builder().s(id).build());
+        dynamoDb.put(table, item);
+    }
+}
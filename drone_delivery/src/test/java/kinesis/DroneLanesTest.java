@@ -0,0 +1,114 @@
+package kinesis;
+
+import geo.LocationAttributes;
+import metrics.LocalMetricsRegistry;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class DroneLanesTest {
+
+    private static final int LANES = 16;
+
+    @Test
+    public void testLaneRunsItsWorkInOrder() {
+        DroneLanes lanes = new DroneLanes(2);
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        List<String> ran = new ArrayList<>();
+
+        lanes.submit(0, () -> first);
+        CompletableFuture<Void> second = lanes.submit(0, () -> {
+            ran.add("second");
+            return CompletableFuture.completedFuture(null);
+        });
+        lanes.submit(1, () -> {
+            ran.add("other lane");
+            return CompletableFuture.completedFuture(null);
+        });
+        assertEquals(List.of("other lane"), ran);
+        assertEquals(1, lanes.getBusyLanes());
+
+        // A failure does not stop the lane
+        first.completeExceptionally(new IllegalStateException());
+        assertEquals(List.of("other lane", "second"), ran);
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals(0, lanes.getBusyLanes());
+    }
+
+    @Test
+    public void testDronePositionsApplyInOrderAcrossBatches() {
+        DroneLanes lanes = new DroneLanes(LANES);
+        assertNotEquals(lanes.laneOf("drone-1"), lanes.laneOf("drone-2"));
+        LocalAsyncDynamoDb dynamoDb = new LocalAsyncDynamoDb();
+        delivery(dynamoDb, "1", 47.6, -122.3, 47.7, -122.4);
+        delivery(dynamoDb, "2", 40.7, -74.0, 40.8, -74.1);
+        ConsumerConfig config = new ConsumerConfig();
+        config.setLanesPerProcessor(LANES);
+        config.setCheckpointEveryRecords(1);
+        DroneRecordProcessor processor = (DroneRecordProcessor) new DroneRecordProcessorFactory(dynamoDb, config,
+                DroneRecordProcessor.newLocationCache(), new LocalMetricsRegistry()).shardRecordProcessor();
+        processor.initialize(InitializationInput.builder()
+                .shardId("shardId-000000000000")
+                .extendedSequenceNumber(ExtendedSequenceNumber.TRIM_HORIZON)
+                .build());
+        RecordingCheckpointer checkpointer = new RecordingCheckpointer();
+        dynamoDb.holdUpdates();
+
+        // drone-1's dropoff waits in its lane until the pickup has been written
+        processor.processRecords(batch(checkpointer, record("drone-1", 47.6, -122.3, "100")));
+        processor.processRecords(batch(checkpointer, record("drone-1", 47.7, -122.4, "101")));
+        assertEquals(1, dynamoDb.transactions());
+
+        // drone-2 is in another lane and goes ahead
+        processor.processRecords(batch(checkpointer, record("drone-2", 40.7, -74.0, "102")));
+        assertEquals(2, dynamoDb.transactions());
+        assertEquals(List.of(), checkpointer.checkpoints());
+
+        dynamoDb.releaseUpdates();
+        assertEquals("DropoffCompleted", dynamoDb.get("Orders", "order-1").get("Status").s());
+        assertEquals("PickupCompleted", dynamoDb.get("Orders", "order-2").get("Status").s());
+        processor.processRecords(batch(checkpointer));
+        assertEquals(new ExtendedSequenceNumber("102", 0L), checkpointer.last());
+    }
+
+    private static void delivery(LocalAsyncDynamoDb dynamoDb, String n, double storeLat, double storeLon,
+                                 double userLat, double userLon) {
+        place(dynamoDb, "Stores", "store-" + n, storeLat, storeLon);
+        place(dynamoDb, "Users", "user-" + n, userLat, userLon);
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s("order-" + n).build(),
+                "AssignedTo", AttributeValue.builder().s("drone-" + n).build(),
+                "StoreID", AttributeValue.builder().s("store-" + n).build(),
+                "UserID", AttributeValue.builder().s("user-" + n).build(),
+                "Status", AttributeValue.builder().s("assigned").build()));
+    }
+
+    private static void place(LocalAsyncDynamoDb dynamoDb, String table, String id, double lat, double lon) {
+        Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(lat, lon));
+        item.put("UUID", AttributeValue.builder().s(id).build());
+        dynamoDb.put(table, item);
+    }
+
+    private static KinesisClientRecord record(String droneId, double lat, double lon, String sequenceNumber) {
+        return KinesisClientRecord.builder()
+                .data(ByteBuffer.wrap(new LocationUpdate(droneId, lat, lon, 0).toBinary()))
+                .sequenceNumber(sequenceNumber)
+                .build();
+    }
+
+    private static ProcessRecordsInput batch(RecordingCheckpointer checkpointer, KinesisClientRecord... records) {
+        return ProcessRecordsInput.builder().records(List.of(records)).checkpointer(checkpointer).build();
+    }
+}
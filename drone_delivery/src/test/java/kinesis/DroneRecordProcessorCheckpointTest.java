@@ -0,0 +1,205 @@
+package kinesis;
+
+import geo.LocationAttributes;
+import metrics.LocalMetricsRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.lifecycle.events.ShutdownRequestedInput;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class DroneRecordProcessorCheckpointTest {
+
+    private LocalAsyncDynamoDb dynamoDb;
+    private LocalMetricsRegistry metrics;
+    private RecordingCheckpointer checkpointer;
+
+    @Before
+    public void setUp() {
+        dynamoDb = new LocalAsyncDynamoDb();
+        metrics = new LocalMetricsRegistry();
+        checkpointer = new RecordingCheckpointer();
+        place("Stores", "store-1", 47.6, -122.3);
+        place("Users", "user-1", 47.7, -122.4);
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s("order-1").build(),
+                "AssignedTo", AttributeValue.builder().s("drone-1").build(),
+                "StoreID", AttributeValue.builder().s("store-1").build(),
+                "UserID", AttributeValue.builder().s("user-1").build(),
+                "Status", AttributeValue.builder().s("assigned").build()));
+    }
+
+    @Test
+    public void testCheckpointWaitsForEarlierBatchesToComplete() {
+        DroneRecordProcessor processor = processor(2, 0);
+        dynamoDb.holdUpdates();
+
+        // drone-1 reaches the store, and its status update stays in flight
+        processor.processRecords(batch(record("drone-1", 47.6, -122.3, "100", Instant.now())));
+        processor.processRecords(batch(record("drone-2", 10.0, 10.0, "101", Instant.now())));
+        assertEquals(List.of(), checkpointer.checkpoints());
+
+        dynamoDb.releaseUpdates();
+        processor.processRecords(batch());
+        assertEquals(List.of(new ExtendedSequenceNumber("101", 0L)), checkpointer.checkpoints());
+        assertEquals(2, metrics.counter("records.checkpointed").get());
+
+        // Below the record count nothing is written
+        processor.processRecords(batch(record("drone-2", 10.0, 10.0, "102", Instant.now())));
+        assertEquals(1, checkpointer.checkpoints().size());
+    }
+
+    @Test
+    public void testTimeTriggerAndShutdownCheckpoint() throws InterruptedException {
+        DroneRecordProcessor timed = processor(0, 1);
+        timed.processRecords(batch(record("drone-2", 10.0, 10.0, "100", Instant.now())));
+        Thread.sleep(5);
+        timed.processRecords(batch());
+        assertEquals(new ExtendedSequenceNumber("100", 0L), checkpointer.last());
+
+        DroneRecordProcessor untimed = processor(0, 0);
+        untimed.processRecords(batch(record("drone-2", 10.0, 10.0, "200", Instant.now())));
+        Thread.sleep(5);
+        untimed.processRecords(batch());
+        assertEquals(1, checkpointer.checkpoints().size());
+
+        untimed.shutdownRequested(ShutdownRequestedInput.builder().checkpointer(checkpointer).build());
+        assertEquals(new ExtendedSequenceNumber("200", 0L), checkpointer.last());
+    }
+
+    @Test
+    public void testFailedBatchHoldsCheckpointUntilRetrySucceeds() {
+        DroneRecordProcessor processor = processor(1, 0);
+        dynamoDb.failQueries(1);
+
+        processor.processRecords(batch(record("drone-1", 47.6, -122.3, "100", Instant.now())));
+        assertEquals(List.of(), checkpointer.checkpoints());
+        assertEquals(1, metrics.counter("checkpoint.batchFailures").get());
+        assertEquals("assigned", dynamoDb.get("Orders", "order-1").get("Status").s());
+
+        // The next call runs the failed batch again before the new one, and this time it gets through
+        processor.processRecords(batch(record("drone-2", 10.0, 10.0, "101", Instant.now())));
+        assertEquals(List.of(new ExtendedSequenceNumber("101", 0L)), checkpointer.checkpoints());
+        assertEquals(1, metrics.counter("checkpoint.batchRetries").get());
+        assertEquals("PickupCompleted", dynamoDb.get("Orders", "order-1").get("Status").s());
+    }
+
+    @Test
+    public void testMalformedItemsAreSkippedWithoutHoldingTheCheckpoint() {
+        DroneRecordProcessor processor = processor(1, 0);
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s("order-2").build(),
+                "AssignedTo", AttributeValue.builder().s("drone-2").build(),
+                "UserID", AttributeValue.builder().s("user-1").build(),
+                "Status", AttributeValue.builder().s("assigned").build()));
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s("order-3").build(),
+                "AssignedTo", AttributeValue.builder().s("drone-3").build(),
+                "StoreID", AttributeValue.builder().s("store-3").build(),
+                "UserID", AttributeValue.builder().s("user-1").build(),
+                "Status", AttributeValue.builder().s("assigned").build()));
+        dynamoDb.put("Stores", Map.of(
+                "UUID", AttributeValue.builder().s("store-3").build(),
+                "Location", AttributeValue.builder().s("north").build()));
+
+        processor.processRecords(batch(
+                record("drone-1", 47.6, -122.3, "100", Instant.now()),
+                record("drone-2", 10.0, 10.0, "101", Instant.now()),
+                record("drone-3", 10.0, 10.0, "102", Instant.now())));
+        processor.processRecords(batch());
+
+        assertEquals(List.of(new ExtendedSequenceNumber("102", 0L)), checkpointer.checkpoints());
+        assertEquals(2, metrics.counter("geofence.malformedItems").get());
+        assertEquals("PickupCompleted", dynamoDb.get("Orders", "order-1").get("Status").s());
+    }
+
+    @Test
+    public void testBatchIsSkippedOnceItsAttemptsAreUsedUp() {
+        ConsumerConfig config = config(1, 0);
+        config.setMaxBatchAttempts(2);
+        DroneRecordProcessor processor = processor(config);
+        dynamoDb.failQueries(2);
+
+        processor.processRecords(batch(record("drone-1", 47.6, -122.3, "100", Instant.now())));
+        assertEquals(List.of(), checkpointer.checkpoints());
+        processor.processRecords(batch());
+
+        assertEquals(List.of(new ExtendedSequenceNumber("100", 0L)), checkpointer.checkpoints());
+        assertEquals(1, metrics.counter("checkpoint.batchRetries").get());
+        assertEquals(1, metrics.counter("checkpoint.batchesSkipped").get());
+    }
+
+    @Test
+    public void testRecordsWrittenBeforeTheLeaseCountAsReplay() {
+        DroneRecordProcessor processor = (DroneRecordProcessor) new DroneRecordProcessorFactory(dynamoDb,
+                config(1, 0), DroneRecordProcessor.newLocationCache(), metrics).shardRecordProcessor();
+        processor.initialize(InitializationInput.builder()
+                .shardId("shardId-000000000000")
+                .extendedSequenceNumber(new ExtendedSequenceNumber("50"))
+                .build());
+
+        Instant hourAgo = Instant.now().minusSeconds(3600);
+        processor.processRecords(batch(
+                record("drone-2", 10.0, 10.0, "100", hourAgo),
+                record("drone-2", 10.0, 10.1, "101", hourAgo)));
+        processor.processRecords(batch(record("drone-2", 10.0, 10.2, "102", Instant.now().plusSeconds(1))));
+
+        assertEquals(2, metrics.counter("replay.records").get());
+        assertEquals(1, metrics.histogram("replay.catchUp").getCount());
+    }
+
+    private DroneRecordProcessor processor(long everyRecords, long everyMillis) {
+        return processor(config(everyRecords, everyMillis));
+    }
+
+    private DroneRecordProcessor processor(ConsumerConfig config) {
+        DroneRecordProcessor processor = (DroneRecordProcessor) new DroneRecordProcessorFactory(dynamoDb,
+                config, DroneRecordProcessor.newLocationCache(), metrics).shardRecordProcessor();
+        processor.initialize(InitializationInput.builder()
+                .shardId("shardId-000000000000")
+                .extendedSequenceNumber(ExtendedSequenceNumber.TRIM_HORIZON)
+                .build());
+        return processor;
+    }
+
+    private static ConsumerConfig config(long everyRecords, long everyMillis) {
+        ConsumerConfig config = new ConsumerConfig();
+        config.setCheckpointEveryRecords(everyRecords);
+        config.setCheckpointEveryMillis(everyMillis);
+        config.setShutdownDrainMillis(1000);
+        return config;
+    }
+
+    private void place(String table, String id, double lat, double lon) {
+        Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(lat, lon));
+        item.put("UUID", AttributeValue.builder().s(id).build());
+        dynamoDb.put(table, item);
+    }
+
+    private static KinesisClientRecord record(String droneId, double lat, double lon, String sequenceNumber,
+                                              Instant arrival) {
+        String json = "{\"droneID\":\"" + droneId + "\",\"location\":\"" + lat + "," + lon + "\"}";
+        return KinesisClientRecord.builder()
+                .data(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)))
+                .sequenceNumber(sequenceNumber)
+                .approximateArrivalTimestamp(arrival)
+                .build();
+    }
+
+    private ProcessRecordsInput batch(KinesisClientRecord... records) {
+        return ProcessRecordsInput.builder()
+                .records(Arrays.asList(records))
+                .checkpointer(checkpointer)
+                .build();
+    }
+}
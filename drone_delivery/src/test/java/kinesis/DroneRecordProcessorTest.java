@@ -0,0 +1,194 @@
+package kinesis;
+
+import geo.LocationAttributes;
+import metrics.LocalMetricsRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class DroneRecordProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalAsyncDynamoDb dynamoDb;
+    private DroneRecordProcessor processor;
+
+    @Before
+    public void setUp() {
+        dynamoDb = new LocalAsyncDynamoDb();
+        processor = new DroneRecordProcessor(dynamoDb);
+        place("Stores", "store-1", 47.6, -122.3);
+        place("Users", "user-1", 47.7, -122.4);
+        place("Stores", "store-2", 40.7, -74.0);
+        place("Users", "user-2", 40.8, -74.1);
+        order("order-1", "drone-1", "store-1", "user-1", "assigned");
+        order("order-2", "drone-2", "store-2", "user-2", "PickupCompleted");
+    }
+
+    @Test
+    public void testBatchIsCoalescedToNewestPositionPerDrone() {
+        // drone-1 passes the store and moves on, drone-2 ends the batch at its user
+        processor.processRecords(batch(
+                record("drone-1", 47.6, -122.3, "100", 0),
+                record("drone-2", 40.0, -74.0, "101", 0),
+                record("drone-1", 47.65, -122.35, "102", 0),
+                record("drone-2", 40.8, -74.1, "103", 0)));
+
+        assertEquals(2, processor.getCoalesced());
+        assertEquals(2, dynamoDb.queries());
+        assertEquals(1, dynamoDb.batchGets());
+        assertEquals(0, dynamoDb.getItems());
+        assertEquals("assigned", status("order-1"));
+        assertEquals("DropoffCompleted", status("order-2"));
+    }
+
+    @Test
+    public void testBinaryAndJsonRecordsAreBothAccepted() {
+        byte[] binary = new LocationUpdate("drone-2", 40.8, -74.1, 1_700_000_000_000L).toBinary();
+        processor.processRecords(batch(
+                record("drone-1", 47.6, -122.3, "100", 0),
+                KinesisClientRecord.builder().data(ByteBuffer.wrap(binary)).sequenceNumber("101").build()));
+
+        assertEquals("PickupCompleted", status("order-1"));
+        assertEquals("DropoffCompleted", status("order-2"));
+    }
+
+    @Test
+    public void testSubSequenceNumberOrdersAggregatedRecords() {
+        processor.processRecords(batch(
+                record("drone-1", 47.6, -122.3, "100", 1),
+                record("drone-1", 10.0, 10.0, "100", 0)));
+
+        assertEquals(1, processor.getCoalesced());
+        assertEquals("PickupCompleted", status("order-1"));
+        assertEquals("PickupCompleted", dynamoDb.get("Drones", "drone-1").get("Status").s());
+    }
+
+    @Test
+    public void testRedeliveredRecordsBehindWatermarkAreDropped() {
+        processor.processRecords(batch(record("drone-1", 47.65, -122.35, "9000000000000000000000000000002", 0)));
+        int queries = dynamoDb.queries();
+
+        // A replay of older records, one of which would have reached the store
+        processor.processRecords(batch(
+                record("drone-1", 47.6, -122.3, "9000000000000000000000000000001", 0),
+                record("drone-1", 47.65, -122.35, "9000000000000000000000000000002", 0)));
+
+        assertEquals(2, processor.getStale());
+        assertEquals(queries, dynamoDb.queries());
+        assertEquals("assigned", status("order-1"));
+
+        // Longer sequence numbers are newer even though they sort lower as text
+        processor.processRecords(batch(record("drone-1", 47.6, -122.3, "10000000000000000000000000000000", 0)));
+        assertEquals("PickupCompleted", status("order-1"));
+    }
+
+    @Test
+    public void testReplayedRecordsAreNotAppendedToTheTrackAgain() throws Exception {
+        ConsumerConfig config = new ConsumerConfig();
+        config.setTrackStoreDirectory(folder.getRoot().getPath());
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        DroneRecordProcessor tracking = (DroneRecordProcessor) new DroneRecordProcessorFactory(dynamoDb, config,
+                DroneRecordProcessor.newLocationCache(), metrics).shardRecordProcessor();
+        tracking.initialize(InitializationInput.builder()
+                .shardId("shardId-000000000000")
+                .extendedSequenceNumber(ExtendedSequenceNumber.TRIM_HORIZON)
+                .build());
+        RecordingCheckpointer checkpointer = new RecordingCheckpointer();
+
+        // Coalesced positions are still recorded
+        tracking.processRecords(batch(checkpointer,
+                record("drone-1", 47.6, -122.3, "100", 0),
+                record("drone-1", 47.65, -122.35, "101", 0),
+                record("drone-2", 40.0, -74.0, "102", 0)));
+        assertEquals(3, metrics.counter("tracks.points").get());
+
+        // The same records delivered again, as after a failover, add nothing
+        tracking.processRecords(batch(checkpointer,
+                record("drone-1", 47.6, -122.3, "100", 0),
+                record("drone-1", 47.65, -122.35, "101", 0),
+                record("drone-2", 40.0, -74.0, "102", 0),
+                record("drone-2", 40.1, -74.0, "103", 0)));
+        assertEquals(4, metrics.counter("tracks.points").get());
+    }
+
+    @Test
+    public void testLocationsForManyOrdersAreChunked() {
+        List<KinesisClientRecord> records = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            order("bulk-" + i, "bulk-drone-" + i, "store-1", "bulk-user-" + i, "assigned");
+            place("Users", "bulk-user-" + i, 47.0, -122.0);
+            records.add(record("bulk-drone-" + i, 47.6, -122.3, String.valueOf(200 + i), 0));
+        }
+        processor.processRecords(batch(records.toArray(new KinesisClientRecord[0])));
+
+        // 1 store and 60 users fit in one request of up to 100 keys
+        assertEquals(1, dynamoDb.batchGets());
+        for (int i = 0; i < 60; i++) {
+            assertEquals("PickupCompleted", status("bulk-" + i));
+        }
+    }
+
+    @Test
+    public void testProcessorsShareTheLocationCache() {
+        order("order-3", "drone-3", "store-1", "user-1", "assigned");
+        DroneRecordProcessorFactory factory = new DroneRecordProcessorFactory(dynamoDb);
+        factory.shardRecordProcessor().processRecords(batch(record("drone-1", 47.65, -122.35, "100", 0)));
+        factory.shardRecordProcessor().processRecords(batch(record("drone-3", 47.6, -122.3, "101", 0)));
+
+        // The second shard's processor finds store-1 and user-1 cached
+        assertEquals(1, dynamoDb.batchGets());
+        assertEquals(2, factory.getLocationCache().getHits());
+        assertEquals("PickupCompleted", status("order-3"));
+    }
+
+    private String status(String orderId) {
+        return dynamoDb.get("Orders", orderId).get("Status").s();
+    }
+
+    private void place(String table, String id, double lat, double lon) {
+        Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(lat, lon));
+        item.put("UUID", AttributeValue.builder().s(id).build());
+        dynamoDb.put(table, item);
+    }
+
+    private void order(String id, String droneId, String storeId, String userId, String status) {
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s(id).build(),
+                "AssignedTo", AttributeValue.builder().s(droneId).build(),
+                "StoreID", AttributeValue.builder().s(storeId).build(),
+                "UserID", AttributeValue.builder().s(userId).build(),
+                "Status", AttributeValue.builder().s(status).build()));
+    }
+
+    private static KinesisClientRecord record(String droneId, double lat, double lon, String sequenceNumber,
+                                              long subSequenceNumber) {
+        String json = "{\"droneID\":\"" + droneId + "\",\"location\":\"" + lat + "," + lon + "\"}";
+        return KinesisClientRecord.builder()
+                .data(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)))
+                .sequenceNumber(sequenceNumber)
+                .subSequenceNumber(subSequenceNumber)
+                .build();
+    }
+
+    private static ProcessRecordsInput batch(KinesisClientRecord... records) {
+        return ProcessRecordsInput.builder().records(Arrays.asList(records)).build();
+    }
+
+    private static ProcessRecordsInput batch(RecordingCheckpointer checkpointer, KinesisClientRecord... records) {
+        return ProcessRecordsInput.builder().records(Arrays.asList(records)).checkpointer(checkpointer).build();
+    }
+}
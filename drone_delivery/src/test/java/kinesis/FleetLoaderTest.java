@@ -0,0 +1,144 @@
+package kinesis;
+
+import geo.LocationAttributes;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FleetLoaderTest {
+
+    @Test
+    public void testStartupScanReadsEveryPageOfEverySegment() {
+        PagedDronesTable table = new PagedDronesTable(10);
+        for (int i = 0; i < 250; i++) {
+            table.put("drone-" + i, "ACTIVE", 47.6, -122.3);
+        }
+        try (FleetLoader fleet = new FleetLoader(table, null, 4, 1000, 60_000, 60_000, 0)) {
+            fleet.start();
+
+            assertEquals(250, fleet.size());
+            assertEquals(Set.of(0, 1, 2, 3), table.segments);
+            assertTrue(table.scans.get() > 25);
+            FleetLoader.Drone drone = fleet.getDrones().get("drone-42");
+            assertEquals("ACTIVE", drone.getStatus());
+            assertEquals(47.6, drone.getLocation().getLat(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testChangesAndReconciliation() {
+        PagedDronesTable table = new PagedDronesTable(2);
+        table.put("drone-1", "ACTIVE", 47.6, -122.3);
+        table.put("drone-2", "ACTIVE", 40.7, -74.0);
+        table.put("drone-3", "ACTIVE", 40.8, -74.1);
+        try (FleetLoader fleet = new FleetLoader(table, null, 2, 1000, 60_000, 60_000, 0)) {
+            fleet.start();
+            int scans = table.scans.get();
+
+            fleet.onDroneChange(change(OperationType.MODIFY, table.put("drone-1", "MATCHED", 47.6, -122.3)));
+            fleet.onDroneChange(change(OperationType.REMOVE, table.remove("drone-2")));
+            assertEquals("MATCHED", fleet.getDrones().get("drone-1").getStatus());
+            assertEquals(2, fleet.size());
+            assertEquals(scans, table.scans.get());
+
+            // Missed on the feed, caught by the next reconciliation
+            table.put("drone-3", "PickupCompleted", 40.8, -74.1);
+            table.remove("drone-1");
+            fleet.reconcile();
+            assertEquals(Set.of("drone-3"), fleet.getDrones().keySet());
+            assertEquals("PickupCompleted", fleet.getDrones().get("drone-3").getStatus());
+        }
+    }
+
+    @Test
+    public void testWithoutAStreamReconciliationRunsOnTheShortInterval() throws InterruptedException {
+        PagedDronesTable table = new PagedDronesTable(10);
+        table.put("drone-1", "ACTIVE", 47.6, -122.3);
+        try (FleetLoader fleet = new FleetLoader(table, null, 1, 1000, 60_000, 10, 60_000)) {
+            fleet.start();
+            table.put("drone-1", "MATCHED", 47.6, -122.3);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!"MATCHED".equals(fleet.getDrones().get("drone-1").getStatus())) {
+                assertTrue("timed out", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static Record change(OperationType type, Map<String, AttributeValue> item) {
+        StreamRecord.Builder change = StreamRecord.builder().keys(Map.of("UUID", item.get("UUID")));
+        if (type != OperationType.REMOVE) {
+            change.newImage(item);
+        }
+        return Record.builder().eventName(type).dynamodb(change.build()).build();
+    }
+
+    /**
+     * A Drones table whose Scan returns at most {@code pageSize} items a page and splits the
+     * items over segments by id.
+     */
+    private static class PagedDronesTable implements DynamoDbClient {
+        private final Map<String, Map<String, AttributeValue>> items = new ConcurrentSkipListMap<>();
+        private final Set<Integer> segments = Collections.synchronizedSet(new HashSet<>());
+        private final AtomicInteger scans = new AtomicInteger();
+        private final int pageSize;
+
+        PagedDronesTable(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        Map<String, AttributeValue> put(String id, String status, double lat, double lon) {
+            Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(lat, lon));
+            item.put("UUID", AttributeValue.builder().s(id).build());
+            item.put("Status", AttributeValue.builder().s(status).build());
+            items.put(id, item);
+            return item;
+        }
+
+        Map<String, AttributeValue> remove(String id) {
+            return items.remove(id);
+        }
+
+        @Override
+        public ScanResponse scan(ScanRequest request) {
+            scans.incrementAndGet();
+            int segment = request.segment() == null ? 0 : request.segment();
+            int totalSegments = request.totalSegments() == null ? 1 : request.totalSegments();
+            segments.add(segment);
+            int limit = request.limit() == null ? pageSize : Math.min(pageSize, request.limit());
+            String after = request.hasExclusiveStartKey() ? request.exclusiveStartKey().get("UUID").s() : "";
+            List<Map<String, AttributeValue>> page = new ArrayList<>();
+            String last = null;
+            for (Map.Entry<String, Map<String, AttributeValue>> entry : items.entrySet()) {
+                String id = entry.getKey();
+                if (id.compareTo(after) <= 0 || Math.floorMod(id.hashCode(), totalSegments) != segment) {
+                    continue;
+                }
+                if (page.size() == limit) {
+                    return ScanResponse.builder().items(page)
+                            .lastEvaluatedKey(Map.of("UUID", AttributeValue.builder().s(last).build())).build();
+                }
+                page.add(new HashMap<>(entry.getValue()));
+                last = id;
+            }
+            return ScanResponse.builder().items(page).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package kinesis;
+
+import geo.LocationAttributes;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.processor.ShardRecordProcessor;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GeofenceEngineTest {
+
+    private LocalAsyncDynamoDb dynamoDb;
+    private DroneRecordProcessorFactory factory;
+    private ShardRecordProcessor processor;
+    private long sequenceNumber = 100;
+
+    @Before
+    public void setUp() {
+        dynamoDb = new LocalAsyncDynamoDb();
+        place("Stores", "store-1", 47.6, -122.3);
+        place("Users", "user-1", 47.7, -122.4);
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s("order-1").build(),
+                "AssignedTo", AttributeValue.builder().s("drone-1").build(),
+                "StoreID", AttributeValue.builder().s("store-1").build(),
+                "UserID", AttributeValue.builder().s("user-1").build(),
+                "Status", AttributeValue.builder().s("assigned").build()));
+        factory = new DroneRecordProcessorFactory(dynamoDb);
+        processor = factory.shardRecordProcessor();
+    }
+
+    @Test
+    public void testDeliveryIsTrackedInMemoryAndWrittenOnCrossings() {
+        move(47.5, -122.2);
+        assertEquals(1, dynamoDb.queries());
+        assertEquals(1, factory.getGeofences().size());
+
+        // Flying towards the store touches nothing
+        move(47.55, -122.25);
+        move(47.59, -122.29);
+        assertEquals(1, dynamoDb.queries());
+        assertEquals(1, dynamoDb.batchGets());
+        assertEquals(0, dynamoDb.updates());
+
+        move(47.6, -122.3);
+        assertEquals("PickupCompleted", orderStatus());
+        assertEquals("PickupCompleted", dynamoDb.get("Drones", "drone-1").get("Status").s());
+        assertEquals("PickupCompleted", factory.getGeofences().get("drone-1").getStatus());
+
+        move(47.65, -122.35);
+        move(47.7, -122.4);
+        assertEquals("DropoffCompleted", orderStatus());
+
+        move(47.7, -122.4);
+        assertEquals("Completed", orderStatus());
+        assertEquals("ACTIVE", dynamoDb.get("Drones", "drone-1").get("Status").s());
+        assertEquals(0, factory.getGeofences().size());
+        assertEquals(1, dynamoDb.queries());
+        assertEquals(5, dynamoDb.updates());
+    }
+
+    @Test
+    public void testFenceOfAnOrderChangedElsewhereIsDropped() {
+        move(47.5, -122.2);
+        Map<String, AttributeValue> cancelled = new HashMap<>(dynamoDb.get("Orders", "order-1"));
+        cancelled.put("Status", AttributeValue.builder().s("cancelled").build());
+        dynamoDb.put("Orders", cancelled);
+
+        move(47.6, -122.3);
+        assertEquals("cancelled", orderStatus());
+        assertNull(factory.getGeofences().get("drone-1"));
+        assertNull(dynamoDb.get("Drones", "drone-1"));
+
+        // Looked up again, and a cancelled order gets no fence transitions
+        move(47.6, -122.3);
+        assertEquals(2, dynamoDb.queries());
+        assertEquals("cancelled", orderStatus());
+    }
+
+    private String orderStatus() {
+        return dynamoDb.get("Orders", "order-1").get("Status").s();
+    }
+
+    private void move(double lat, double lon) {
+        String json = "{\"droneID\":\"drone-1\",\"location\":\"" + lat + "," + lon + "\"}";
+        KinesisClientRecord record = KinesisClientRecord.builder()
+                .data(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)))
+                .sequenceNumber(String.valueOf(sequenceNumber++))
+                .build();
+        processor.processRecords(ProcessRecordsInput.builder().records(List.of(record)).build());
+    }
+
+    private void place(String table, String id, double lat, double lon) {
+        Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(lat, lon));
+        item.put("UUID", AttributeValue.builder().s(id).build());
+        dynamoDb.put(table, item);
+    }
+}
@@ -0,0 +1,103 @@
+package kinesis;
+
+import geo.LocationAttributes;
+import metrics.LocalMetricsRegistry;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.processor.ShardRecordProcessor;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InFlightWindowTest {
+
+    @Test
+    public void testThrottlingNarrowsTheWindowAndSuccessWidensIt() throws InterruptedException {
+        InFlightWindow window = new InFlightWindow(32);
+
+        window.acquire(4);
+        window.release(4, true);
+        assertEquals(16, window.getLimit());
+        window.acquire(4);
+        window.release(4, true);
+        window.acquire(4);
+        window.release(4, true);
+        window.acquire(4);
+        window.release(4, true);
+        assertEquals(2, window.getLimit());
+
+        // Oversized work still runs alone
+        window.acquire(10);
+        assertEquals(10, window.getInFlight());
+        window.release(10, false);
+        assertEquals(3, window.getLimit());
+        assertEquals(0, window.getInFlight());
+    }
+
+    @Test
+    public void testFullWindowBlocksProcessRecordsUntilWorkCompletes() throws InterruptedException {
+        LocalAsyncDynamoDb dynamoDb = new LocalAsyncDynamoDb();
+        place(dynamoDb, "Stores", "store-1", 47.6, -122.3);
+        place(dynamoDb, "Users", "user-1", 47.7, -122.4);
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s("order-1").build(),
+                "AssignedTo", AttributeValue.builder().s("drone-1").build(),
+                "StoreID", AttributeValue.builder().s("store-1").build(),
+                "UserID", AttributeValue.builder().s("user-1").build(),
+                "Status", AttributeValue.builder().s("assigned").build()));
+        ConsumerConfig config = new ConsumerConfig();
+        config.setMaxInFlightPerProcessor(1);
+        DroneRecordProcessorFactory factory = new DroneRecordProcessorFactory(dynamoDb, config,
+                DroneRecordProcessor.newLocationCache(), new LocalMetricsRegistry());
+        InFlightWindow workerWindow = factory.getWorkerWindow();
+        ShardRecordProcessor processor = factory.shardRecordProcessor();
+        processor.initialize(InitializationInput.builder()
+                .shardId("shardId-000000000000")
+                .extendedSequenceNumber(ExtendedSequenceNumber.TRIM_HORIZON)
+                .build());
+        dynamoDb.holdUpdates();
+
+        // drone-1 reaches the store and its status updates stay in flight
+        processor.processRecords(batch(record("drone-1", 47.6, -122.3, "100")));
+        assertEquals(1, workerWindow.getInFlight());
+
+        Thread second = new Thread(() -> processor.processRecords(batch(record("drone-2", 10.0, 10.0, "101"))));
+        second.start();
+        second.join(200);
+        assertTrue(second.isAlive());
+        assertEquals(1, dynamoDb.queries());
+
+        dynamoDb.releaseUpdates();
+        second.join(5000);
+        assertFalse(second.isAlive());
+        assertEquals(2, dynamoDb.queries());
+        assertEquals(0, workerWindow.getInFlight());
+    }
+
+    private static void place(LocalAsyncDynamoDb dynamoDb, String table, String id, double lat, double lon) {
+        Map<String, AttributeValue> item = new HashMap<>(LocationAttributes.toAttributes(lat, lon));
+        item.put("UUID", AttributeValue.builder().s(id).build());
+        dynamoDb.put(table, item);
+    }
+
+    private static KinesisClientRecord record(String droneId, double lat, double lon, String sequenceNumber) {
+        String json = "{\"droneID\":\"" + droneId + "\",\"location\":\"" + lat + "," + lon + "\"}";
+        return KinesisClientRecord.builder()
+                .data(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)))
+                .sequenceNumber(sequenceNumber)
+                .build();
+    }
+
+    private static ProcessRecordsInput batch(KinesisClientRecord record) {
+        return ProcessRecordsInput.builder().records(List.of(record)).build();
+    }
+}
@@ -0,0 +1,229 @@
+package kinesis;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for the tables {@link DroneRecordProcessor} reads and writes. Items are
+ * keyed by their {@code UUID} attribute and every call completes immediately.
+ */
+class LocalAsyncDynamoDb implements DynamoDbAsyncClient {
+
+    private final Map<String, Map<String, Map<String, AttributeValue>>> tables = new ConcurrentHashMap<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicInteger getItems = new AtomicInteger();
+    private final AtomicInteger batchGets = new AtomicInteger();
+    private final AtomicInteger updates = new AtomicInteger();
+    private final AtomicInteger failingQueries = new AtomicInteger();
+    private final AtomicInteger transactions = new AtomicInteger();
+    private final List<Runnable> heldUpdates = new ArrayList<>();
+    private boolean holdingUpdates;
+    private volatile int queryPageSize = Integer.MAX_VALUE;
+
+    void put(String table, Map<String, AttributeValue> item) {
+        table(table).put(item.get("UUID").s(), new HashMap<>(item));
+    }
+
+    Map<String, AttributeValue> get(String table, String id) {
+        return table(table).get(id);
+    }
+
+    int queries() {
+        return queries.get();
+    }
+
+    int getItems() {
+        return getItems.get();
+    }
+
+    int batchGets() {
+        return batchGets.get();
+    }
+
+    /**
+     * Items written, whether by UpdateItem or within a transaction.
+     */
+    int updates() {
+        return updates.get();
+    }
+
+    int transactions() {
+        return transactions.get();
+    }
+
+    /**
+     * Limits the items each query page reads, before its filter is applied.
+     */
+    void setQueryPageSize(int queryPageSize) {
+        this.queryPageSize = queryPageSize;
+    }
+
+    /**
+     * Makes the next {@code count} queries fail as if DynamoDB had throttled them.
+     */
+    void failQueries(int count) {
+        failingQueries.set(count);
+    }
+
+    /**
+     * Applies updates right away but leaves their futures pending until {@link #releaseUpdates}.
+     */
+    synchronized void holdUpdates() {
+        holdingUpdates = true;
+    }
+
+    void releaseUpdates() {
+        List<Runnable> released;
+        synchronized (this) {
+            holdingUpdates = false;
+            released = new ArrayList<>(heldUpdates);
+            heldUpdates.clear();
+        }
+        released.forEach(Runnable::run);
+    }
+
+    @Override
+    public CompletableFuture<QueryResponse> query(QueryRequest request) {
+        queries.incrementAndGet();
+        if (failingQueries.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            return CompletableFuture.failedFuture(ProvisionedThroughputExceededException.builder()
+                    .message("Throughput exceeded").build());
+        }
+        // Only the AssignedTo-index query, filtering out one status, is supported
+        String droneId = request.expressionAttributeValues().get(":droneUUID").s();
+        AttributeValue excluded = request.expressionAttributeValues().get(":completed");
+        String startAfter = request.hasExclusiveStartKey() ? request.exclusiveStartKey().get("UUID").s() : null;
+        TreeMap<String, Map<String, AttributeValue>> matching = new TreeMap<>();
+        for (Map<String, AttributeValue> item : table(request.tableName()).values()) {
+            AttributeValue assignedTo = item.get("AssignedTo");
+            String id = item.get("UUID").s();
+            if (assignedTo != null && droneId.equals(assignedTo.s()) && (startAfter == null || id.compareTo(startAfter) > 0)) {
+                matching.put(id, item);
+            }
+        }
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        String lastEvaluated = null;
+        int read = 0;
+        for (Map<String, AttributeValue> item : matching.values()) {
+            if (read++ == queryPageSize) {
+                break;
+            }
+            lastEvaluated = item.get("UUID").s();
+            if (excluded == null || !excluded.equals(item.get("Status"))) {
+                items.add(new HashMap<>(item));
+            }
+        }
+        QueryResponse.Builder response = QueryResponse.builder().items(items).count(items.size());
+        if (read > queryPageSize) {
+            response.lastEvaluatedKey(Map.of("UUID", AttributeValue.builder().s(lastEvaluated).build()));
+        }
+        return CompletableFuture.completedFuture(response.build());
+    }
+
+    @Override
+    public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+        getItems.incrementAndGet();
+        Map<String, AttributeValue> item = table(request.tableName()).get(request.key().get("UUID").s());
+        return CompletableFuture.completedFuture(GetItemResponse.builder()
+                .item(item == null ? null : new HashMap<>(item)).build());
+    }
+
+    @Override
+    public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+        batchGets.incrementAndGet();
+        Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        request.requestItems().forEach((table, keys) -> {
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> key : keys.keys()) {
+                Map<String, AttributeValue> item = table(table).get(key.get("UUID").s());
+                if (item != null) {
+                    items.add(new HashMap<>(item));
+                }
+            }
+            responses.put(table, items);
+        });
+        return CompletableFuture.completedFuture(BatchGetItemResponse.builder().responses(responses).build());
+    }
+
+    @Override
+    public CompletableFuture<UpdateItemResponse> updateItem(UpdateItemRequest request) {
+        updates.incrementAndGet();
+        String id = request.key().get("UUID").s();
+        if (request.hasExpected()) {
+            Map<String, AttributeValue> current = table(request.tableName()).get(id);
+            for (Map.Entry<String, ExpectedAttributeValue> expected : request.expected().entrySet()) {
+                AttributeValue actual = current == null ? null : current.get(expected.getKey());
+                if (!expected.getValue().value().equals(actual)) {
+                    return CompletableFuture.failedFuture(ConditionalCheckFailedException.builder()
+                            .message("The conditional request failed").build());
+                }
+            }
+        }
+        Map<String, AttributeValue> item = table(request.tableName())
+                .computeIfAbsent(id, key -> new HashMap<>(request.key()));
+        request.attributeUpdates().forEach((name, update) -> item.put(name, update.value()));
+        return respond(UpdateItemResponse.builder().build());
+    }
+
+    /**
+     * Supports the {@code SET #status = :status} updates of {@link StatusWriter}, optionally
+     * conditional on {@code #status = :expected}.
+     */
+    @Override
+    public CompletableFuture<TransactWriteItemsResponse> transactWriteItems(TransactWriteItemsRequest request) {
+        transactions.incrementAndGet();
+        List<CancellationReason> reasons = new ArrayList<>();
+        boolean cancelled = false;
+        for (TransactWriteItem write : request.transactItems()) {
+            Update update = write.update();
+            Map<String, AttributeValue> current = table(update.tableName()).get(update.key().get("UUID").s());
+            String attribute = update.expressionAttributeNames().get("#status");
+            AttributeValue expected = update.expressionAttributeValues().get(":expected");
+            boolean failed = update.conditionExpression() != null
+                    && !expected.equals(current == null ? null : current.get(attribute));
+            cancelled |= failed;
+            reasons.add(CancellationReason.builder().code(failed ? "ConditionalCheckFailed" : "None").build());
+        }
+        if (cancelled) {
+            return CompletableFuture.failedFuture(TransactionCanceledException.builder()
+                    .message("Transaction cancelled").cancellationReasons(reasons).build());
+        }
+        for (TransactWriteItem write : request.transactItems()) {
+            Update update = write.update();
+            updates.incrementAndGet();
+            Map<String, AttributeValue> item = table(update.tableName())
+                    .computeIfAbsent(update.key().get("UUID").s(), key -> new HashMap<>(update.key()));
+            item.put(update.expressionAttributeNames().get("#status"), update.expressionAttributeValues().get(":status"));
+        }
+        return respond(TransactWriteItemsResponse.builder().build());
+    }
+
+    @Override
+    public String serviceName() {
+        return "dynamodb";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private <T> CompletableFuture<T> respond(T response) {
+        synchronized (this) {
+            if (holdingUpdates) {
+                CompletableFuture<T> held = new CompletableFuture<>();
+                heldUpdates.add(() -> held.complete(response));
+                return held;
+            }
+        }
+        return CompletableFuture.completedFuture(response);
+    }
+
+    private Map<String, Map<String, AttributeValue>> table(String name) {
+        return tables.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+    }
+}
@@ -0,0 +1,51 @@
+package kinesis;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class LocationUpdateTest {
+
+    private static final String DRONE = "3f2a6c1e-8d4b-4a7e-9c01-2b5d6e7f8a90";
+
+    @Test
+    public void testBinaryRoundTripIsSmallerThanJson() throws IOException {
+        LocationUpdate update = new LocationUpdate(DRONE, -33.8688197, 151.2092955, 1_700_000_000_123L);
+        byte[] binary = update.toBinary();
+
+        assertEquals(35, binary.length);
+        assertTrue(binary.length * 2 < update.toJson().getBytes(StandardCharsets.UTF_8).length);
+        LocationUpdate decoded = LocationUpdate.decode(ByteBuffer.wrap(binary));
+        assertEquals(DRONE, decoded.getDroneId());
+        assertEquals(-33.8688197, decoded.getLat(), 1e-9);
+        assertEquals(151.2092955, decoded.getLon(), 1e-9);
+        assertEquals(1_700_000_000_123L, decoded.getSentAtMillis());
+    }
+
+    @Test
+    public void testTextDroneIdsAndLegacyJsonDecode() throws IOException {
+        LocationUpdate update = new LocationUpdate("Drone-7", 47.6, -122.3, 0);
+
+        LocationUpdate binary = LocationUpdate.decode(ByteBuffer.wrap(update.toBinary()));
+        assertEquals("Drone-7", binary.getDroneId());
+        assertEquals(47.6, binary.getLat(), 1e-9);
+
+        ByteBuffer json = ByteBuffer.wrap(update.toJson().getBytes(StandardCharsets.UTF_8));
+        LocationUpdate legacy = LocationUpdate.decode(json);
+        assertEquals("Drone-7", legacy.getDroneId());
+        assertEquals(-122.3, legacy.getLon(), 1e-9);
+        assertEquals(0, legacy.getSentAtMillis());
+        assertFalse(json.hasRemaining());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownVersionIsRejected() throws IOException {
+        byte[] binary = new LocationUpdate(DRONE, 0, 0, 0).toBinary();
+        binary[1] = 2;
+        LocationUpdate.decode(ByteBuffer.wrap(binary));
+    }
+}
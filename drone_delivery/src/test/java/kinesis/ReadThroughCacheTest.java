@@ -0,0 +1,96 @@
+package kinesis;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ReadThroughCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<Set<String>> loads = new ArrayList<>();
+
+    private CompletableFuture<Map<String, Integer>> lengths(Set<String> keys) {
+        loads.add(new HashSet<>(keys));
+        Map<String, Integer> values = new HashMap<>();
+        for (String key : keys) {
+            if (!key.startsWith("missing")) {
+                values.put(key, key.length());
+            }
+        }
+        return CompletableFuture.completedFuture(values);
+    }
+
+    @Test
+    public void testOnlyMissesAreLoadedAndEntriesExpire() {
+        ReadThroughCache<String, Integer> cache = new ReadThroughCache<>(10, 1000, clock::get);
+
+        assertEquals(Map.of("a", 1, "bb", 2), cache.getAll(List.of("a", "bb", "missing"), this::lengths).join());
+        assertEquals(Map.of("a", 1, "ccc", 3), cache.getAll(List.of("a", "ccc"), this::lengths).join());
+        assertEquals(List.of(Set.of("a", "bb", "missing"), Set.of("ccc")), loads);
+
+        // Absent keys are not cached
+        cache.getAll(List.of("missing"), this::lengths).join();
+        assertEquals(Set.of("missing"), loads.get(2));
+
+        clock.addAndGet(1_000_000_000L);
+        cache.getAll(List.of("a", "bb"), this::lengths).join();
+        assertEquals(Set.of("a", "bb"), loads.get(3));
+        assertEquals(1, cache.getHits());
+        assertEquals(7, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        ReadThroughCache<String, Integer> cache = new ReadThroughCache<>(2, 1000, clock::get);
+
+        cache.getAll(List.of("a", "bb"), this::lengths).join();
+        cache.getAll(List.of("a"), this::lengths).join();
+        cache.getAll(List.of("ccc"), this::lengths).join();
+        cache.getAll(List.of("a", "bb"), this::lengths).join();
+
+        assertEquals(Set.of("bb"), loads.get(2));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() {
+        ReadThroughCache<String, Integer> cache = new ReadThroughCache<>(10, 1000, clock::get);
+        AtomicInteger loaderCalls = new AtomicInteger();
+        CompletableFuture<Map<String, Integer>> pending = new CompletableFuture<>();
+
+        CompletableFuture<Map<String, Integer>> first = cache.getAll(List.of("a"), keys -> {
+            loaderCalls.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<Map<String, Integer>> second = cache.getAll(List.of("a"), keys -> {
+            loaderCalls.incrementAndGet();
+            return pending;
+        });
+        assertFalse(second.isDone());
+
+        pending.complete(Map.of("a", 1));
+        assertEquals(Map.of("a", 1), first.join());
+        assertEquals(Map.of("a", 1), second.join());
+        assertEquals(1, loaderCalls.get());
+        assertEquals(1, cache.getCoalescedMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() {
+        ReadThroughCache<String, Integer> cache = new ReadThroughCache<>(10, 1000, clock::get);
+
+        CompletableFuture<Map<String, Integer>> failed = cache.getAll(List.of("a"),
+                keys -> CompletableFuture.failedFuture(new IllegalStateException("throttled")));
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, cache.size());
+
+        assertEquals(Map.of("a", 1), cache.getAll(List.of("a"), this::lengths).join());
+    }
+}
@@ -0,0 +1,91 @@
+package kinesis;
+
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.kinesis.processor.Checkpointer;
+import software.amazon.kinesis.processor.PreparedCheckpointer;
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
+import software.amazon.kinesis.retrieval.kpl.ExtendedSequenceNumber;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers the positions a processor checkpoints at. Only plain checkpoints are supported.
+ */
+class RecordingCheckpointer implements RecordProcessorCheckpointer {
+
+    private final List<ExtendedSequenceNumber> checkpoints = new ArrayList<>();
+
+    List<ExtendedSequenceNumber> checkpoints() {
+        return checkpoints;
+    }
+
+    ExtendedSequenceNumber last() {
+        return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    @Override
+    public void checkpoint() {
+        checkpoints.add(ExtendedSequenceNumber.SHARD_END);
+    }
+
+    @Override
+    public void checkpoint(String sequenceNumber) {
+        checkpoint(sequenceNumber, 0);
+    }
+
+    @Override
+    public void checkpoint(String sequenceNumber, long subSequenceNumber) {
+        checkpoints.add(new ExtendedSequenceNumber(sequenceNumber, subSequenceNumber));
+    }
+
+    @Override
+    public void checkpoint(Record record) {
+        checkpoint(record.sequenceNumber());
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint(byte[] applicationState) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint(Record record) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint(Record record, byte[] applicationState) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint(String sequenceNumber) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint(String sequenceNumber, byte[] applicationState) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint(String sequenceNumber, long subSequenceNumber) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PreparedCheckpointer prepareCheckpoint(String sequenceNumber, long subSequenceNumber, byte[] applicationState) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Checkpointer checkpointer() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,111 @@
+package kinesis;
+
+import kinesis.StatusWriter.StatusWrite;
+import metrics.LocalMetricsRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+public class StatusWriterTest {
+
+    // Long enough that only an explicit flush sends anything
+    private static final long LINGER_MILLIS = 60_000;
+
+    private LocalAsyncDynamoDb dynamoDb;
+
+    @Before
+    public void setUp() {
+        dynamoDb = new LocalAsyncDynamoDb();
+        order("order-1", "assigned");
+        order("order-2", "assigned");
+    }
+
+    @Test
+    public void testRepeatedAndChainedWritesCollapse() {
+        StatusWriter writer = new StatusWriter(dynamoDb, 100, LINGER_MILLIS, new LocalMetricsRegistry());
+        CompletableFuture<Void> pickup = writer.submit(
+                StatusWrite.conditional("Orders", "order-1", "assigned", "PickupCompleted"),
+                StatusWrite.of("Drones", "drone-1", "PickupCompleted"));
+        CompletableFuture<Void> replayed = writer.submit(
+                StatusWrite.conditional("Orders", "order-1", "assigned", "PickupCompleted"),
+                StatusWrite.of("Drones", "drone-1", "PickupCompleted"));
+        CompletableFuture<Void> dropoff = writer.submit(
+                StatusWrite.conditional("Orders", "order-1", "PickupCompleted", "DropoffCompleted"));
+        assertEquals(2, writer.getPendingItems());
+        assertFalse(pickup.isDone());
+
+        writer.flush();
+        assertTrue(pickup.isDone() && replayed.isDone() && dropoff.isDone());
+        assertEquals(1, dynamoDb.transactions());
+        assertEquals("DropoffCompleted", status("Orders", "order-1"));
+        assertEquals("PickupCompleted", status("Drones", "drone-1"));
+        assertEquals(5, writer.getWritesRequested());
+        assertEquals(2, writer.getWritesSent());
+        assertEquals(40, writer.getWriteAmplificationPercent());
+        writer.close();
+    }
+
+    @Test
+    public void testWritesQueueBehindTheOneInFlight() {
+        StatusWriter writer = new StatusWriter(dynamoDb, 100, 0, new LocalMetricsRegistry());
+        dynamoDb.holdUpdates();
+        CompletableFuture<Void> first = writer.submit(StatusWrite.of("Drones", "drone-1", "PickupCompleted"));
+        CompletableFuture<Void> second = writer.submit(StatusWrite.of("Drones", "drone-1", "MATCHED"));
+        CompletableFuture<Void> third = writer.submit(StatusWrite.of("Drones", "drone-1", "ACTIVE"));
+        assertEquals(1, dynamoDb.updates());
+        assertEquals(1, writer.getPendingItems());
+
+        dynamoDb.releaseUpdates();
+        assertTrue(first.isDone() && second.isDone() && third.isDone());
+        assertEquals(2, dynamoDb.updates());
+        assertEquals("ACTIVE", status("Drones", "drone-1"));
+        writer.close();
+    }
+
+    @Test
+    public void testGroupsOfACancelledTransactionAreSettledAlone() {
+        StatusWriter writer = new StatusWriter(dynamoDb, 100, LINGER_MILLIS, new LocalMetricsRegistry());
+        CompletableFuture<Void> stale = writer.submit(
+                StatusWrite.conditional("Orders", "order-1", "PickupCompleted", "DropoffCompleted"));
+        CompletableFuture<Void> pickup = writer.submit(
+                StatusWrite.conditional("Orders", "order-2", "assigned", "PickupCompleted"),
+                StatusWrite.of("Drones", "drone-2", "PickupCompleted"));
+
+        writer.flush();
+        CompletionException e = assertThrows(CompletionException.class, stale::join);
+        assertTrue(e.getCause() instanceof ConditionalCheckFailedException);
+        pickup.join();
+        assertEquals(2, dynamoDb.transactions());
+        assertEquals("assigned", status("Orders", "order-1"));
+        assertEquals("PickupCompleted", status("Orders", "order-2"));
+        writer.close();
+    }
+
+    @Test
+    public void testCloseSendsWhatIsPending() {
+        StatusWriter writer = new StatusWriter(dynamoDb, 100, LINGER_MILLIS, new LocalMetricsRegistry());
+        CompletableFuture<Void> write = writer.submit(StatusWrite.of("Drones", "drone-1", "ACTIVE"));
+
+        writer.close();
+        assertTrue(write.isDone());
+        assertEquals("ACTIVE", status("Drones", "drone-1"));
+        assertTrue(writer.submit(StatusWrite.of("Drones", "drone-1", "MATCHED")).isCompletedExceptionally());
+    }
+
+    private void order(String id, String status) {
+        dynamoDb.put("Orders", Map.of(
+                "UUID", AttributeValue.builder().s(id).build(),
+                "Status", AttributeValue.builder().s(status).build()));
+    }
+
+    private String status(String table, String id) {
+        return dynamoDb.get(table, id).get("Status").s();
+    }
+}
@@ -0,0 +1,71 @@
+package matcher;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AckManagerTest {
+
+    @Test
+    public void testAcksAreDeletedInBatches() {
+        LocalSqs sqs = new LocalSqs(0);
+        for (int i = 0; i < 25; i++) {
+            sqs.send("order-" + i);
+        }
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.addAll(sqs.receiveMessage(r -> r.maxNumberOfMessages(10)).messages());
+        }
+
+        try (AckManager acks = new AckManager(sqs, "local", 60_000, 30, 300)) {
+            messages.forEach(acks::track);
+            messages.forEach(message -> acks.ack(message.receiptHandle()));
+            // Two full batches went out straight away, the last five wait for a flush
+            assertEquals(2, acks.getAckCalls());
+            assertEquals(5, sqs.pending());
+            acks.flush();
+            assertEquals(3, acks.getAckCalls());
+            assertEquals(25, acks.getAcks());
+            assertEquals(0, sqs.pending());
+            assertEquals(0, acks.getInFlight());
+        }
+    }
+
+    @Test
+    public void testInFlightMessagesAreExtendedUntilAcked() throws Exception {
+        LocalSqs sqs = new LocalSqs(0);
+        sqs.send("slow order");
+        Message message = sqs.receiveMessage(r -> r.maxNumberOfMessages(1)).messages().get(0);
+
+        try (AckManager acks = new AckManager(sqs, "local", 60_000, 1, 300)) {
+            acks.track(message);
+            Thread.sleep(1500);
+            assertTrue(acks.getExtensions() >= 1);
+
+            acks.ack(message.receiptHandle());
+            long extensions = acks.getExtensions();
+            Thread.sleep(1000);
+            assertEquals(extensions, acks.getExtensions());
+        }
+    }
+
+    @Test
+    public void testRedeliveriesAreCounted() {
+        LocalSqs sqs = new LocalSqs(0);
+        sqs.send("order");
+        try (AckManager acks = new AckManager(sqs, "local", 60_000, 30, 300)) {
+            acks.track(sqs.receiveMessage(r -> r.maxNumberOfMessages(1)).messages().get(0));
+            sqs.expireVisibility();
+            Message redelivered = sqs.receiveMessage(r -> r.maxNumberOfMessages(1)).messages().get(0);
+            acks.track(redelivered);
+            assertEquals(1, acks.getRedeliveries());
+
+            acks.retryLater(redelivered.receiptHandle());
+            assertEquals(1, acks.getRetries());
+        }
+    }
+}
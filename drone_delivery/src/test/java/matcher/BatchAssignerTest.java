@@ -0,0 +1,74 @@
+package matcher;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BatchAssignerTest {
+
+    @Test
+    public void testBeatsGreedyAssignment() {
+        // Greedy takes column 0 for row 0 and leaves row 1 with the expensive column
+        double[][] cost = {
+                {1, 2},
+                {1, 100}
+        };
+        assertArrayEquals(new int[]{1, 0}, BatchAssigner.assign(cost));
+    }
+
+    @Test
+    public void testMatchesBruteForceOptimum() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            int rows = 1 + random.nextInt(5);
+            int columns = 1 + random.nextInt(6);
+            double[][] cost = new double[rows][columns];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    cost[i][j] = random.nextInt(50);
+                }
+            }
+
+            int[] assignment = BatchAssigner.assign(cost);
+            boolean[] taken = new boolean[columns];
+            int assigned = 0;
+            double total = 0;
+            for (int i = 0; i < rows; i++) {
+                if (assignment[i] >= 0) {
+                    assertFalse(taken[assignment[i]]);
+                    taken[assignment[i]] = true;
+                    total += cost[i][assignment[i]];
+                    assigned++;
+                }
+            }
+            assertEquals(Math.min(rows, columns), assigned);
+            assertEquals(bruteForce(cost, 0, new boolean[columns], Math.min(rows, columns)), total, 1e-9);
+        }
+    }
+
+    @Test
+    public void testEmptyCandidates() {
+        assertArrayEquals(new int[]{-1, -1}, BatchAssigner.assign(new double[2][0]));
+    }
+
+    // Cheapest way to assign `remaining` more rows, each to a distinct column or skipped
+    private static double bruteForce(double[][] cost, int row, boolean[] taken, int remaining) {
+        if (remaining == 0) {
+            return 0;
+        }
+        if (cost.length - row < remaining) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double best = bruteForce(cost, row + 1, taken, remaining);
+        for (int j = 0; j < taken.length; j++) {
+            if (!taken[j]) {
+                taken[j] = true;
+                best = Math.min(best, cost[row][j] + bruteForce(cost, row + 1, taken, remaining - 1));
+                taken[j] = false;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,40 @@
+package matcher;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashRingTest {
+
+    @Test
+    public void testKeysAreSpreadOverMembers() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node-a", "node-b", "node-c", "node-d"));
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            owned.merge(ring.ownerOf("Region" + i), 1, Integer::sum);
+        }
+        assertEquals(4, owned.size());
+        for (int count : owned.values()) {
+            assertTrue("unbalanced: " + owned, count > 1500 && count < 3500);
+        }
+    }
+
+    @Test
+    public void testOnlyTheLeavingMembersKeysMove() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("node-a", "node-b", "node-c"));
+        ConsistentHashRing after = new ConsistentHashRing(List.of("node-c", "node-a"));
+        for (int i = 0; i < 1000; i++) {
+            String key = "Region" + i;
+            if (!before.ownerOf(key).equals("node-b")) {
+                assertEquals(before.ownerOf(key), after.ownerOf(key));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyRingHasNoOwner() {
+        assertNull(new ConsistentHashRing(List.of()).ownerOf("Region1"));
+    }
+}
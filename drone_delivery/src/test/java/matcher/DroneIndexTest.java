@@ -0,0 +1,83 @@
+package matcher;
+
+import geo.GeoMath;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class DroneIndexTest {
+
+    @Test
+    public void testNearestMatchesLinearSearch() {
+        Random random = new Random(42);
+        DroneIndex index = new DroneIndex(25);
+        Map<String, double[]> drones = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            double[] location = {random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10};
+            drones.put("drone-" + i, location);
+            index.upsert("drone-" + i, location[0], location[1]);
+        }
+
+        for (int q = 0; q < 200; q++) {
+            double lat = random.nextDouble() * 24 - 12;
+            double lon = random.nextDouble() * 24 - 12;
+            List<DroneIndex.Candidate> nearest = index.nearest(lat, lon, 5);
+
+            List<Double> expected = new ArrayList<>();
+            for (double[] location : drones.values()) {
+                expected.add(GeoMath.haversineKm(lat, lon, location[0], location[1]));
+            }
+            Collections.sort(expected);
+
+            assertEquals(5, nearest.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(expected.get(i), nearest.get(i).getDistanceKm(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testTiesArePickedRandomly() {
+        DroneIndex index = new DroneIndex();
+        index.upsert("a", 1, 1);
+        index.upsert("b", 1, 1);
+        index.upsert("c", 2, 2);
+
+        Set<String> picked = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            picked.add(index.nearest(1, 1).getDroneId());
+        }
+        assertEquals(Set.of("a", "b"), picked);
+    }
+
+    @Test
+    public void testMoveAndRemove() {
+        DroneIndex index = new DroneIndex();
+        index.upsert("a", 0, 0);
+        index.upsert("b", 40, 40);
+        assertEquals("a", index.nearest(1, 1).getDroneId());
+
+        index.upsert("a", 60, 60);
+        assertEquals("b", index.nearest(1, 1).getDroneId());
+
+        assertTrue(index.remove("b"));
+        assertFalse(index.remove("b"));
+        assertEquals("a", index.nearest(1, 1).getDroneId());
+        assertEquals(1, index.size());
+
+        assertTrue(index.remove("a"));
+        assertNull(index.nearest(1, 1));
+    }
+
+    @Test
+    public void testFewerDronesThanRequested() {
+        DroneIndex index = new DroneIndex(1);
+        index.upsert("a", -80, 170);
+        index.upsert("b", 80, -170);
+
+        List<DroneIndex.Candidate> nearest = index.nearest(0, 0, 10);
+        assertEquals(2, nearest.size());
+    }
+}
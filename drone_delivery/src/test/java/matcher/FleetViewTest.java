@@ -0,0 +1,141 @@
+package matcher;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.OperationType;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.model.StreamRecord;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FleetViewTest {
+
+    @Test
+    public void testStreamRecordsKeepTheViewCurrent() {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        dynamoDb.put("Drones", drone("drone-1", "ACTIVE", "47.60,-122.33"));
+        try (FleetView fleet = new FleetView(dynamoDb, null, 60_000, 1000, 60_000)) {
+            fleet.start();
+            assertEquals(1, fleet.getAvailable());
+
+            fleet.onStreamRecord(change(OperationType.INSERT, drone("drone-2", "ACTIVE", "47.61,-122.33")));
+            fleet.onStreamRecord(change(OperationType.MODIFY, drone("drone-1", "MATCHED", "47.60,-122.33")));
+            assertEquals(1, fleet.getAvailable());
+            assertEquals("drone-2", fleet.nearest(47.60, -122.33, 5).get(0).getDroneId());
+
+            fleet.onStreamRecord(change(OperationType.REMOVE, drone("drone-2", "ACTIVE", "47.61,-122.33")));
+            assertEquals(0, fleet.getAvailable());
+            assertEquals(1, fleet.size());
+            assertEquals(3, fleet.getEventsApplied());
+        }
+    }
+
+    @Test
+    public void testClaimedDroneIsNotReturnedByAnOlderImage() {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        dynamoDb.put("Drones", drone("drone-1", "ACTIVE", "47.60,-122.33"));
+        try (FleetView fleet = new FleetView(dynamoDb, null, 60_000, 1000, 60_000)) {
+            fleet.start();
+            DroneIndex.Candidate claimed = fleet.claimNearest(47.60, -122.33);
+            assertEquals("drone-1", claimed.getDroneId());
+
+            // A location update written before our MATCHED write still says ACTIVE
+            fleet.onStreamRecord(change(OperationType.MODIFY, drone("drone-1", "ACTIVE", "47.62,-122.33")));
+            assertNull(fleet.claimNearest(47.60, -122.33));
+
+            fleet.onStreamRecord(change(OperationType.MODIFY, drone("drone-1", "MATCHED", "47.62,-122.33")));
+            fleet.onStreamRecord(change(OperationType.MODIFY, drone("drone-1", "ACTIVE", "47.62,-122.33")));
+            assertEquals("drone-1", fleet.claimNearest(47.60, -122.33).getDroneId());
+        }
+    }
+
+    @Test
+    public void testRegionViewsAreFedByOneSharedView() {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        dynamoDb.put("Drones", drone("west-1", "ACTIVE", "5,1"));
+        dynamoDb.put("Drones", drone("east-1", "ACTIVE", "5,11"));
+        MatcherRegion west = new MatcherRegion("West", "local://West", 0, 0, 10, 9.99);
+        MatcherRegion east = new MatcherRegion("East", "local://East", 0, 10, 10, 19.99);
+        try (FleetView fleet = FleetView.feed(dynamoDb, null, 60_000, 1000, 60_000);
+             FleetView westView = new FleetView(fleet, 1, west);
+             FleetView eastView = new FleetView(fleet, 1, east)) {
+            westView.start();
+            assertEquals(1, fleet.getRescans());
+            assertEquals(0, westView.getRescans());
+            assertEquals(0, fleet.size());
+            // Subscribing after the feed's first scan, the view loads itself
+            eastView.start();
+            assertEquals(1, eastView.getRescans());
+            assertEquals(1, westView.size());
+            assertEquals("west-1", westView.claimNearest(5, 5).getDroneId());
+            assertEquals("east-1", eastView.nearest(5, 5, 5).get(0).getDroneId());
+
+            // A drone flying across the border moves from one region's view to the other's
+            fleet.onStreamRecord(change(OperationType.MODIFY, drone("east-1", "ACTIVE", "5,2")));
+            assertEquals(0, eastView.size());
+            assertEquals("east-1", westView.claimNearest(5, 5).getDroneId());
+
+            fleet.onStreamRecord(change(OperationType.REMOVE, drone("west-1", "ACTIVE", "5,1")));
+            assertEquals(1, westView.size());
+        }
+    }
+
+    @Test
+    public void testMalformedDronesAreSkipped() {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        dynamoDb.put("Drones", drone("drone-1", "ACTIVE", "47.60,-122.33"));
+        dynamoDb.put("Drones", Map.of(
+                "UUID", AttributeValue.builder().s("no-status").build(),
+                "Location", AttributeValue.builder().s("47.60,-122.33").build()));
+        dynamoDb.put("Drones", drone("drone-2", "ACTIVE", "47.61,-122.33"));
+        try (FleetView fleet = new FleetView(dynamoDb, null, 60_000, 1000, 60_000)) {
+            fleet.start();
+            assertEquals(2, fleet.size());
+            assertEquals(1, fleet.getMalformedDrones());
+
+            fleet.onStreamRecord(change(OperationType.MODIFY, Map.of(
+                    "UUID", AttributeValue.builder().s("drone-3").build(),
+                    "Status", AttributeValue.builder().s("ACTIVE").build())));
+            fleet.onStreamRecord(change(OperationType.MODIFY, drone("drone-4", "ACTIVE", "north,west")));
+            assertEquals(2, fleet.size());
+            assertEquals(3, fleet.getMalformedDrones());
+        }
+    }
+
+    @Test
+    public void testStaleDronesAreReverified() throws Exception {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        dynamoDb.put("Drones", drone("drone-1", "ACTIVE", "47.60,-122.33"));
+        try (FleetView fleet = new FleetView(dynamoDb, null, 0, 1000, 60_000)) {
+            fleet.start();
+            dynamoDb.put("Drones", drone("drone-1", "MATCHED", "47.60,-122.33"));
+            Thread.sleep(5);
+
+            DroneIndex.Candidate claimed = fleet.claimNearest(47.60, -122.33);
+            assertTrue(fleet.isStale(claimed.getDroneId()));
+            assertFalse(fleet.verify(claimed.getDroneId()));
+            assertEquals(1, fleet.getReverificationMisses());
+
+            fleet.release(claimed);
+            assertEquals(0, fleet.getAvailable());
+        }
+    }
+
+    private static Map<String, AttributeValue> drone(String id, String status, String location) {
+        return Map.of(
+                "UUID", AttributeValue.builder().s(id).build(),
+                "Status", AttributeValue.builder().s(status).build(),
+                "Location", AttributeValue.builder().s(location).build());
+    }
+
+    private static Record change(OperationType type, Map<String, AttributeValue> image) {
+        StreamRecord.Builder change = StreamRecord.builder()
+                .keys(Map.of("UUID", image.get("UUID")));
+        if (type != OperationType.REMOVE) {
+            change.newImage(image);
+        }
+        return Record.builder().eventName(type).dynamodb(change.build()).build();
+    }
+}
@@ -0,0 +1,207 @@
+package matcher;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory stand-in for the Orders and Drones tables, covering just the calls {@link Matcher}
+ * makes. Items are keyed by their {@code UUID} attribute.
+ */
+class LocalDynamoDb implements DynamoDbClient {
+
+    private final Map<String, Map<String, Map<String, AttributeValue>>> tables = new ConcurrentHashMap<>();
+    private final List<String> matchedDrones = new CopyOnWriteArrayList<>();
+    private final long latencyMillis;
+
+    LocalDynamoDb(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    void put(String table, Map<String, AttributeValue> item) {
+        table(table).put(item.get("UUID").s(), new HashMap<>(item));
+    }
+
+    Map<String, AttributeValue> get(String table, String id) {
+        return table(table).get(id);
+    }
+
+    /**
+     * Every drone id that was ever written with status MATCHED, in write order.
+     */
+    List<String> matchedDrones() {
+        return matchedDrones;
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        call();
+        Map<String, AttributeValue> item = table(request.tableName()).get(request.key().get("UUID").s());
+        return GetItemResponse.builder().item(item == null ? null : new HashMap<>(item)).build();
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest request) {
+        call();
+        put(request.tableName(), request.item());
+        return PutItemResponse.builder().build();
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest request) {
+        call();
+        table(request.tableName()).remove(request.key().get("UUID").s());
+        return DeleteItemResponse.builder().build();
+    }
+
+    @Override
+    public BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+        call();
+        Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        request.requestItems().forEach((table, keys) -> {
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> key : keys.keys()) {
+                Map<String, AttributeValue> item = table(table).get(key.get("UUID").s());
+                if (item != null) {
+                    items.add(new HashMap<>(item));
+                }
+            }
+            responses.put(table, items);
+        });
+        return BatchGetItemResponse.builder().responses(responses).build();
+    }
+
+    @Override
+    public ScanResponse scan(ScanRequest request) {
+        call();
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        AttributeValue status = request.expressionAttributeValues().get(":active");
+        for (Map<String, AttributeValue> item : table(request.tableName()).values()) {
+            synchronized (item) {
+                if (status == null || status.equals(item.get("Status"))) {
+                    items.add(new HashMap<>(item));
+                }
+            }
+        }
+        return ScanResponse.builder().items(items).build();
+    }
+
+    @Override
+    public UpdateItemResponse updateItem(UpdateItemRequest request) {
+        call();
+        Map<String, AttributeValue> item = table(request.tableName())
+                .computeIfAbsent(request.key().get("UUID").s(), id -> new HashMap<>(request.key()));
+        synchronized (item) {
+            request.attributeUpdates().forEach((name, update) -> item.put(name, update.value()));
+            recordMatch(request.tableName(), item);
+        }
+        return UpdateItemResponse.builder().build();
+    }
+
+    @Override
+    public synchronized TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+        call();
+        List<CancellationReason> reasons = new ArrayList<>();
+        boolean cancelled = false;
+        for (TransactWriteItem write : request.transactItems()) {
+            Update update = write.update();
+            Map<String, AttributeValue> item = table(update.tableName()).get(update.key().get("UUID").s());
+            boolean passed = update.conditionExpression() == null || conditionHolds(update, item);
+            CancellationReason.Builder reason = CancellationReason.builder().code(passed ? "None" : "ConditionalCheckFailed");
+            if (!passed && item != null && update.returnValuesOnConditionCheckFailure() == ReturnValuesOnConditionCheckFailure.ALL_OLD) {
+                synchronized (item) {
+                    reason.item(new HashMap<>(item));
+                }
+            }
+            reasons.add(reason.build());
+            cancelled |= !passed;
+        }
+        if (cancelled) {
+            throw TransactionCanceledException.builder()
+                    .message("Transaction cancelled")
+                    .cancellationReasons(reasons)
+                    .build();
+        }
+
+        for (TransactWriteItem write : request.transactItems()) {
+            Update update = write.update();
+            Map<String, AttributeValue> item = table(update.tableName())
+                    .computeIfAbsent(update.key().get("UUID").s(), id -> new HashMap<>(update.key()));
+            synchronized (item) {
+                applySet(update, item);
+                recordMatch(update.tableName(), item);
+            }
+        }
+        return TransactWriteItemsResponse.builder().build();
+    }
+
+    // Understands "attribute_exists(#a) AND #b = :x" style conditions
+    private static boolean conditionHolds(Update update, Map<String, AttributeValue> item) {
+        if (item == null) {
+            return false;
+        }
+        synchronized (item) {
+            for (String term : update.conditionExpression().split(" AND ")) {
+                term = term.trim();
+                if (term.startsWith("attribute_exists(")) {
+                    String name = attributeName(update, term.substring("attribute_exists(".length(), term.length() - 1));
+                    if (!item.containsKey(name)) {
+                        return false;
+                    }
+                } else {
+                    String[] sides = term.split("=");
+                    AttributeValue expected = update.expressionAttributeValues().get(sides[1].trim());
+                    if (!expected.equals(item.get(attributeName(update, sides[0].trim())))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String attributeName(Update update, String name) {
+        return name.startsWith("#") ? update.expressionAttributeNames().get(name) : name;
+    }
+
+    // Understands the "SET a = :x, #b = :y" expressions the matcher writes
+    private static void applySet(Update update, Map<String, AttributeValue> item) {
+        String assignments = update.updateExpression().trim().substring("SET ".length());
+        for (String assignment : assignments.split(",")) {
+            String[] sides = assignment.split("=");
+            item.put(attributeName(update, sides[0].trim()), update.expressionAttributeValues().get(sides[1].trim()));
+        }
+    }
+
+    private void recordMatch(String table, Map<String, AttributeValue> item) {
+        if ("Drones".equals(table) && "MATCHED".equals(item.get("Status").s())) {
+            matchedDrones.add(item.get("UUID").s());
+        }
+    }
+
+    private Map<String, Map<String, AttributeValue>> table(String name) {
+        return tables.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+    }
+
+    private void call() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,159 @@
+package matcher;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for a single SQS queue, with an optional per-call latency.
+ */
+class LocalSqs implements SqsClient {
+
+    private final BlockingDeque<Message> visible = new LinkedBlockingDeque<>();
+    private final Map<String, Message> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong receiptCounter = new AtomicLong();
+    private final Map<String, Integer> receiveCounts = new ConcurrentHashMap<>();
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong visibilityChanges = new AtomicLong();
+    private final AtomicLong receivesBeforeFailing = new AtomicLong();
+    private final AtomicLong failingReceives = new AtomicLong();
+    private final long latencyMillis;
+
+    LocalSqs(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    void send(String body) {
+        visible.add(Message.builder().messageId(UUID.randomUUID().toString()).body(body).build());
+    }
+
+    int pending() {
+        return visible.size() + inFlight.size();
+    }
+
+    long apiCalls() {
+        return apiCalls.get();
+    }
+
+    long visibilityChanges() {
+        return visibilityChanges.get();
+    }
+
+    /**
+     * Lets the next {@code after} receives through, then makes {@code count} fail as if SQS had
+     * refused them.
+     */
+    void failReceives(long after, long count) {
+        receivesBeforeFailing.set(after);
+        failingReceives.set(count);
+    }
+
+    @Override
+    public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+        call();
+        if (receivesBeforeFailing.getAndUpdate(n -> Math.max(0, n - 1)) == 0
+                && failingReceives.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw SqsException.builder().message("Access to the queue is denied").statusCode(403).build();
+        }
+        List<Message> messages = new ArrayList<>();
+        try {
+            Message first = visible.poll(request.waitTimeSeconds() == null || request.waitTimeSeconds() == 0 ? 0 : 50, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                messages.add(first);
+                visible.drainTo(messages, request.maxNumberOfMessages() - 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Message> received = new ArrayList<>();
+        for (Message message : messages) {
+            String receiptHandle = "rh-" + receiptCounter.incrementAndGet();
+            int receiveCount = receiveCounts.merge(message.messageId(), 1, Integer::sum);
+            Message delivered = message.toBuilder()
+                    .receiptHandle(receiptHandle)
+                    .attributes(Map.of(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, String.valueOf(receiveCount)))
+                    .build();
+            inFlight.put(receiptHandle, delivered);
+            received.add(delivered);
+        }
+        return ReceiveMessageResponse.builder().messages(received).build();
+    }
+
+    @Override
+    public DeleteMessageResponse deleteMessage(DeleteMessageRequest request) {
+        call();
+        inFlight.remove(request.receiptHandle());
+        return DeleteMessageResponse.builder().build();
+    }
+
+    @Override
+    public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest request) {
+        call();
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+        for (DeleteMessageBatchRequestEntry entry : request.entries()) {
+            inFlight.remove(entry.receiptHandle());
+            successful.add(DeleteMessageBatchResultEntry.builder().id(entry.id()).build());
+        }
+        return DeleteMessageBatchResponse.builder().successful(successful).build();
+    }
+
+    // Changed visibility is not simulated: the message stays in flight until expireVisibility()
+    @Override
+    public ChangeMessageVisibilityResponse changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+        call();
+        visibilityChanges.incrementAndGet();
+        return ChangeMessageVisibilityResponse.builder().build();
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+        call();
+        List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (ChangeMessageVisibilityBatchRequestEntry entry : request.entries()) {
+            if (inFlight.containsKey(entry.receiptHandle())) {
+                visibilityChanges.incrementAndGet();
+                successful.add(ChangeMessageVisibilityBatchResultEntry.builder().id(entry.id()).build());
+            } else {
+                failed.add(BatchResultErrorEntry.builder().id(entry.id()).code("ReceiptHandleIsInvalid").build());
+            }
+        }
+        return ChangeMessageVisibilityBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    /**
+     * Makes everything received but not deleted visible again, as an expired visibility timeout would.
+     */
+    void expireVisibility() {
+        for (String receiptHandle : new ArrayList<>(inFlight.keySet())) {
+            Message message = inFlight.remove(receiptHandle);
+            if (message != null) {
+                visible.add(message.toBuilder().receiptHandle(null).build());
+            }
+        }
+    }
+
+    private void call() {
+        apiCalls.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
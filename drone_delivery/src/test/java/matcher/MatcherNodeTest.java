@@ -0,0 +1,153 @@
+package matcher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import metrics.LocalMetricsRegistry;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class MatcherNodeTest {
+
+    private static final int REGIONS = 6;
+    private static final int ORDERS_PER_REGION = 5;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+    private final Map<String, LocalSqs> queues = new HashMap<>();
+    private final List<MatcherRegion> regions = new ArrayList<>();
+    private final Map<MatcherNode, FleetView> feeds = new HashMap<>();
+
+    @Test
+    public void testRegionsAreSplitAndRebalancedAcrossNodes() throws Exception {
+        addRegions();
+        List<MatcherNode> nodes = new ArrayList<>();
+        for (int n = 0; n < 3; n++) {
+            nodes.add(node("node-" + n));
+        }
+        try {
+            nodes.forEach(MatcherNode::start);
+            waitFor(() -> ownership(nodes).size() == REGIONS && ownerCount(nodes) == REGIONS);
+            for (MatcherNode node : nodes) {
+                assertFalse(node.getOwnedRegions().isEmpty());
+            }
+
+            for (int r = 0; r < REGIONS; r++) {
+                for (int i = 0; i < ORDERS_PER_REGION; i++) {
+                    sendOrder("Region" + r, "Region" + r + "-order-" + i, "5," + (r * 10 + 5));
+                }
+            }
+            waitFor(() -> queues.values().stream().allMatch(queue -> queue.pending() == 0));
+            for (int r = 0; r < REGIONS; r++) {
+                for (int i = 0; i < ORDERS_PER_REGION; i++) {
+                    String droneId = dynamoDb.get("Orders", "Region" + r + "-order-" + i).get("AssignedTo").s();
+                    assertTrue(droneId, droneId.startsWith("Region" + r + "-"));
+                }
+            }
+
+            // A leaving node's regions are picked up by the others
+            nodes.remove(0).close();
+            waitFor(() -> ownership(nodes).size() == REGIONS && ownerCount(nodes) == REGIONS);
+        } finally {
+            nodes.forEach(MatcherNode::close);
+        }
+    }
+
+    @Test
+    public void testNodeHoldsOnlyTheDronesOfItsRegions() throws Exception {
+        addRegions();
+        List<MatcherNode> nodes = List.of(node("node-0"), node("node-1"), node("node-2"));
+        try {
+            nodes.forEach(MatcherNode::start);
+            waitFor(() -> ownership(nodes).size() == REGIONS && ownerCount(nodes) == REGIONS);
+            waitFor(() -> nodes.stream().allMatch(node ->
+                    fleetSize(node) == ORDERS_PER_REGION * node.getOwnedRegions().size()));
+            for (MatcherNode node : nodes) {
+                assertTrue(fleetSize(node) < ORDERS_PER_REGION * REGIONS);
+            }
+        } finally {
+            nodes.forEach(MatcherNode::close);
+        }
+    }
+
+    private void addRegions() {
+        for (int r = 0; r < REGIONS; r++) {
+            // Side by side 10-degree boxes, each with its own queue and drones
+            String name = "Region" + r;
+            regions.add(new MatcherRegion(name, "local://" + name, 0, r * 10, 10, r * 10 + 9.99));
+            queues.put("local://" + name, new LocalSqs(0));
+            for (int i = 0; i < ORDERS_PER_REGION; i++) {
+                dynamoDb.put("Drones", Map.of(
+                        "UUID", s(name + "-drone-" + i),
+                        "Status", s("ACTIVE"),
+                        "Location", s("5," + (r * 10 + 1 + i))));
+            }
+        }
+    }
+
+    // Drones held in memory by the node's feed and all its region views
+    private int fleetSize(MatcherNode node) {
+        int size = feeds.get(node).size();
+        for (String region : node.getOwnedRegions()) {
+            Matcher matcher = node.getMatcher(region);
+            if (matcher != null) {
+                size += matcher.getFleetView().size();
+            }
+        }
+        return size;
+    }
+
+    private MatcherNode node(String nodeId) {
+        MatcherConfig config = new MatcherConfig();
+        config.setNodeId(nodeId);
+        config.setHeartbeatIntervalMillis(50);
+        config.setNodeTtlMillis(500);
+        ClusterMembership membership = new ClusterMembership(dynamoDb, config.getMembershipTable(), nodeId,
+                config.getNodeTtlMillis());
+        FleetView fleet = FleetView.feed(dynamoDb, null, config.getMaxDroneStalenessMillis(),
+                config.getFleetPollIntervalMillis(), config.getFleetRescanIntervalMillis());
+        MatcherNode node = new MatcherNode(membership, regions, config, fleet,
+                regionConfig -> new Matcher(dynamoDb, queues.get(regionConfig.getQueueUrl()), regionConfig,
+                        new LocalMetricsRegistry(),
+                        new FleetView(fleet, regionConfig.getDroneIndexCellKm(), regionConfig.getRegion())));
+        feeds.put(node, fleet);
+        return node;
+    }
+
+    private void sendOrder(String region, String orderId, String storeLocation) throws Exception {
+        dynamoDb.put("Orders", Map.of(
+                "UUID", s(orderId),
+                "Version", AttributeValue.builder().n("1").build(),
+                "Status", s("created")));
+        Map<String, String> orderInfo = Map.of(
+                "UUID", orderId, "StoreID", "store", "UserID", "user",
+                "Version", "1", "StoreLocation", storeLocation);
+        queues.get("local://" + region).send(objectMapper.writeValueAsString(
+                Map.of("Message", objectMapper.writeValueAsString(orderInfo))));
+    }
+
+    private static Set<String> ownership(List<MatcherNode> nodes) {
+        Set<String> owned = new HashSet<>();
+        nodes.forEach(node -> owned.addAll(node.getOwnedRegions()));
+        return owned;
+    }
+
+    private static int ownerCount(List<MatcherNode> nodes) {
+        return nodes.stream().mapToInt(node -> node.getOwnedRegions().size()).sum();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+}
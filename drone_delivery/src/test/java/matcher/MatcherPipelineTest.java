@@ -0,0 +1,258 @@
+package matcher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import metrics.LocalMetricsRegistry;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.OperationType;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.model.StreamRecord;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MatcherPipelineTest {
+
+    private static final int ORDERS = 200;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testConcurrentGreedyMatchingNeverDoubleAssigns() throws Exception {
+        MatcherConfig config = new MatcherConfig();
+        config.setParallelism(8);
+        config.setMaxInFlight(40);
+        runAndCheck(config, ORDERS);
+    }
+
+    @Test
+    public void testConcurrentBatchMatchingNeverDoubleAssigns() throws Exception {
+        MatcherConfig config = new MatcherConfig();
+        config.setParallelism(4);
+        config.setMaxInFlight(40);
+        config.setBatchAssignment(true);
+        runAndCheck(config, ORDERS);
+    }
+
+    @Test
+    public void testFleetShortageLeavesOrdersQueued() throws Exception {
+        MatcherConfig config = new MatcherConfig();
+        config.setParallelism(8);
+        config.setMaxInFlight(40);
+        runAndCheck(config, ORDERS / 2);
+    }
+
+    @Test
+    public void testTakenDroneFallsBackToNextNearestAndStaleOrdersAreDropped() throws Exception {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        LocalSqs sqs = new LocalSqs(0);
+        dynamoDb.put("Drones", Map.of("UUID", s("drone-near"), "Status", s("ACTIVE"), "Location", s("1.0,1.0")));
+        dynamoDb.put("Drones", Map.of("UUID", s("drone-far"), "Status", s("ACTIVE"), "Location", s("1.5,1.5")));
+        dynamoDb.put("Orders", Map.of("UUID", s("order-new"), "Version", n("1"), "Status", s("created")));
+        dynamoDb.put("Orders", Map.of("UUID", s("order-old"), "Version", n("2"), "Status", s("created")));
+
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        Matcher matcher = new Matcher(dynamoDb, null, sqs, new MatcherConfig(), metrics);
+        matcher.getFleetView().start();
+        // Taken by someone else after the fleet view was loaded
+        dynamoDb.put("Drones", Map.of("UUID", s("drone-near"), "Status", s("MATCHED"), "Location", s("1.0,1.0")));
+        sendOrder(sqs, "order-gone", "1", "1.0,1.0");
+        sqs.send(objectMapper.writeValueAsString(Map.of("Message", "{\"UUID\":\"order-bad\"}")));
+        sendOrder(sqs, "order-old", "1", "1.0,1.0");
+        sendOrder(sqs, "order-new", "1", "1.0,1.0");
+
+        Thread loop = new Thread(matcher::processMessages);
+        loop.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sqs.pending() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        matcher.stop();
+        loop.join(30_000);
+
+        assertEquals(0, sqs.pending());
+        assertEquals("drone-far", dynamoDb.get("Orders", "order-new").get("AssignedTo").s());
+        assertEquals("2", dynamoDb.get("Orders", "order-new").get("Version").n());
+        assertEquals("created", dynamoDb.get("Orders", "order-old").get("Status").s());
+        assertEquals(List.of("drone-far"), dynamoDb.matchedDrones());
+
+        assertEquals(1, metrics.counter("order.matched").get());
+        assertEquals(1, metrics.counter("order.notFound").get());
+        assertEquals(1, metrics.counter("order.versionMismatch").get());
+        assertEquals(1, metrics.counter("order.invalid").get());
+        assertEquals(1, metrics.counter("order.droneTaken").get());
+        assertEquals(1, metrics.histogram("order.sentToMatched").getCount());
+        assertEquals(4, metrics.histogram("dynamo.assign").getCount());
+        assertEquals(4, metrics.histogram("matcher.decode").getCount());
+        assertTrue(metrics.toText().contains("sqs.acks 4\n"));
+    }
+
+    @Test
+    public void testParkedOrdersAreWokenOldestFirstWhenADroneFreesUp() throws Exception {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        LocalSqs sqs = new LocalSqs(0);
+        dynamoDb.put("Drones", Map.of("UUID", s("drone-1"), "Status", s("ACTIVE"), "Location", s("1.0,1.0")));
+        for (int i = 1; i <= 3; i++) {
+            dynamoDb.put("Orders", Map.of("UUID", s("order-" + i), "Version", n("1"), "Status", s("created")));
+            sendOrder(sqs, "order-" + i, "1", "1.0,1.0");
+        }
+
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        Matcher matcher = new Matcher(dynamoDb, null, sqs, new MatcherConfig(), metrics);
+        Thread loop = new Thread(matcher::processMessages);
+        loop.start();
+        OrderBacklog<?> backlog = matcher.getBacklog();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (backlog.getDepth() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, backlog.getDepth());
+        assertEquals("drone-1", dynamoDb.get("Orders", "order-1").get("AssignedTo").s());
+
+        // The drone finishes its delivery: MATCHED comes through the stream, then ACTIVE again
+        FleetView fleet = matcher.getFleetView();
+        fleet.onStreamRecord(droneChange("drone-1", "MATCHED"));
+        dynamoDb.put("Drones", Map.of("UUID", s("drone-1"), "Status", s("ACTIVE"), "Location", s("1.0,1.0")));
+        fleet.onStreamRecord(droneChange("drone-1", "ACTIVE"));
+        while (backlog.getDepth() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        matcher.stop();
+        loop.join(30_000);
+
+        assertEquals("drone-1", dynamoDb.get("Orders", "order-2").get("AssignedTo").s());
+        assertEquals("created", dynamoDb.get("Orders", "order-3").get("Status").s());
+        assertEquals(1, backlog.getUnparked());
+        assertEquals(0, backlog.getDepth());
+        assertEquals(1, sqs.pending());
+        // Only order-2 found no drone; order-3 queued behind it
+        assertEquals(1, metrics.counter("order.noDrone").get());
+        assertEquals(1, metrics.counter("order.parkedBehindBacklog").get());
+    }
+
+    private void runAndCheck(MatcherConfig config, int drones) throws Exception {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(1);
+        LocalSqs sqs = new LocalSqs(1);
+        Random random = new Random(3);
+        for (int i = 0; i < drones; i++) {
+            dynamoDb.put("Drones", Map.of(
+                    "UUID", s("drone-" + i),
+                    "Status", s("ACTIVE"),
+                    "Location", s((random.nextDouble() * 10) + "," + (random.nextDouble() * 10))));
+        }
+        for (int i = 0; i < ORDERS; i++) {
+            String orderId = "order-" + i;
+            String storeLocation = (random.nextDouble() * 10) + "," + (random.nextDouble() * 10);
+            dynamoDb.put("Orders", Map.of(
+                    "UUID", s(orderId),
+                    "Version", n("1"),
+                    "Status", s("created")));
+            sendOrder(sqs, orderId, "1", storeLocation);
+        }
+
+        Matcher matcher = new Matcher(dynamoDb, sqs, config);
+        Thread loop = new Thread(matcher::processMessages);
+        loop.start();
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (sqs.pending() > ORDERS - Math.min(drones, ORDERS) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        matcher.stop();
+        loop.join(30_000);
+
+        List<String> matched = dynamoDb.matchedDrones();
+        assertEquals(Math.min(drones, ORDERS), matched.size());
+        assertEquals(matched.size(), new HashSet<>(matched).size());
+        assertEquals(ORDERS - matched.size(), sqs.pending());
+    }
+
+    @Test
+    public void testFailedReceivesBackOffUntilStopped() throws Exception {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        LocalSqs sqs = new LocalSqs(0);
+        dynamoDb.put("Drones", Map.of("UUID", s("drone-1"), "Status", s("ACTIVE"), "Location", s("1.0,1.0")));
+        dynamoDb.put("Orders", Map.of("UUID", s("order-1"), "Version", n("1"), "Status", s("created")));
+        sendOrder(sqs, "order-1", "1", "1.0,1.0");
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        Matcher matcher = new Matcher(dynamoDb, null, sqs, new MatcherConfig(), metrics);
+
+        // Three failures back off 100, 200 and 400 ms, then the next receive gets the order
+        sqs.failReceives(0, 3);
+        Thread loop = new Thread(matcher::processMessages);
+        long start = System.currentTimeMillis();
+        loop.start();
+        long deadline = start + 10_000;
+        while (dynamoDb.matchedDrones().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("drone-1"), dynamoDb.matchedDrones());
+        assertTrue(System.currentTimeMillis() - start >= 700);
+        assertEquals(3, metrics.counter("sqs.receiveErrors").get());
+
+        // A lasting failure is retried a handful of times a second, and stop() ends the wait
+        sqs.failReceives(0, Long.MAX_VALUE);
+        long calls = sqs.apiCalls();
+        Thread.sleep(1000);
+        assertTrue(sqs.apiCalls() - calls < 20);
+        long stopping = System.currentTimeMillis();
+        matcher.stop();
+        loop.join(5000);
+        assertFalse(loop.isAlive());
+        assertTrue(System.currentTimeMillis() - stopping < 2000);
+    }
+
+    @Test
+    public void testFailedReceiveInTheBatchWindowKeepsTheMessagesReceived() throws Exception {
+        LocalDynamoDb dynamoDb = new LocalDynamoDb(0);
+        LocalSqs sqs = new LocalSqs(0);
+        for (int i = 0; i < 2; i++) {
+            dynamoDb.put("Drones", Map.of("UUID", s("drone-" + i), "Status", s("ACTIVE"), "Location", s("1.0,1." + i)));
+            dynamoDb.put("Orders", Map.of("UUID", s("order-" + i), "Version", n("1"), "Status", s("created")));
+            sendOrder(sqs, "order-" + i, "1", "1.0,1." + i);
+        }
+        MatcherConfig config = new MatcherConfig();
+        config.setBatchAssignment(true);
+        config.setBatchWindowMillis(5000);
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        Matcher matcher = new Matcher(dynamoDb, null, sqs, config, metrics);
+
+        // The first receive gets both orders, the next poll of the window fails
+        sqs.failReceives(1, 1);
+        Thread loop = new Thread(matcher::processMessages);
+        loop.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sqs.pending() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        matcher.stop();
+        loop.join(30_000);
+
+        assertEquals(0, sqs.pending());
+        assertEquals(2, dynamoDb.matchedDrones().size());
+        assertEquals(1, metrics.counter("sqs.receiveErrors").get());
+    }
+
+    private void sendOrder(LocalSqs sqs, String orderId, String version, String storeLocation) throws Exception {
+        Map<String, String> orderInfo = Map.of(
+                "UUID", orderId, "StoreID", "store", "UserID", "user",
+                "Version", version, "StoreLocation", storeLocation);
+        sqs.send(objectMapper.writeValueAsString(Map.of("Message", objectMapper.writeValueAsString(orderInfo))));
+    }
+
+    private static Record droneChange(String droneId, String status) {
+        Map<String, AttributeValue> image = Map.of("UUID", s(droneId), "Status", s(status), "Location", s("1.0,1.0"));
+        return Record.builder()
+                .eventName(OperationType.MODIFY)
+                .dynamodb(StreamRecord.builder().keys(Map.of("UUID", s(droneId))).newImage(image).build())
+                .build();
+    }
+
+    private static AttributeValue n(String value) {
+        return AttributeValue.builder().n(value).build();
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+}
@@ -0,0 +1,96 @@
+package matcher;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OrderEventDecoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OrderEventDecoder decoder = new OrderEventDecoder();
+
+    @Test
+    public void testDecodesSnsEnvelope() throws Exception {
+        Map<String, Object> envelope = new LinkedHashMap<>();
+        envelope.put("Type", "Notification");
+        envelope.put("MessageId", "m-1");
+        envelope.put("Message", objectMapper.writeValueAsString(order()));
+        envelope.put("MessageAttributes", Map.of("Region", Map.of("Type", "String", "Value", "west")));
+        envelope.put("Timestamp", "2024-05-01T12:00:00.000Z");
+
+        assertOrder(decoder.decode(objectMapper.writeValueAsString(envelope)));
+    }
+
+    @Test
+    public void testDecodesRawDelivery() throws Exception {
+        assertOrder(decoder.decode(objectMapper.writeValueAsString(order())));
+
+        // Numeric versions and unknown nested fields are tolerated
+        OrderEvent event = decoder.decode("{\"Extra\":{\"a\":[1,{\"b\":2}]},\"UUID\":\"o\",\"StoreID\":\"s\","
+                + "\"UserID\":\"u\",\"Version\":3,\"StoreLocation\":\" -1.5 , 2.25 \"}");
+        assertEquals(3, event.getVersion());
+        assertEquals(-1.5, event.getStoreLocation().getLat(), 0);
+        assertEquals(2.25, event.getStoreLocation().getLon(), 0);
+    }
+
+    @Test
+    public void testRejectsUnusableOrders() throws Exception {
+        assertInvalid("{\"Type\":\"Notification\"}");
+        assertInvalid(objectMapper.writeValueAsString(Map.of("Message", "{}")));
+        for (String field : new String[]{"UUID", "StoreID", "UserID", "Version", "StoreLocation"}) {
+            Map<String, String> missing = order();
+            missing.remove(field);
+            assertInvalid(objectMapper.writeValueAsString(missing));
+            Map<String, String> empty = order();
+            empty.put(field, "");
+            assertInvalid(objectMapper.writeValueAsString(Map.of("Message", objectMapper.writeValueAsString(empty))));
+        }
+        Map<String, String> badLocation = order();
+        badLocation.put("StoreLocation", "north");
+        assertInvalid(objectMapper.writeValueAsString(badLocation));
+        badLocation.put("StoreLocation", "91,0");
+        assertInvalid(objectMapper.writeValueAsString(badLocation));
+        Map<String, String> badVersion = order();
+        badVersion.put("Version", "v2");
+        assertInvalid(objectMapper.writeValueAsString(badVersion));
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testMalformedJsonIsAParseError() throws Exception {
+        decoder.decode("{\"Message\":\"{\\\"UUID\\\":");
+    }
+
+    private void assertInvalid(String body) throws Exception {
+        try {
+            decoder.decode(body);
+            fail("Accepted " + body);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertOrder(OrderEvent event) {
+        assertEquals("order-1", event.getOrderId());
+        assertEquals("store-1", event.getStoreId());
+        assertEquals("user-1", event.getUserId());
+        assertEquals(1, event.getVersion());
+        assertEquals(47.6062, event.getStoreLocation().getLat(), 0);
+        assertEquals(-122.3321, event.getStoreLocation().getLon(), 0);
+    }
+
+    private static Map<String, String> order() {
+        Map<String, String> order = new LinkedHashMap<>();
+        order.put("UUID", "order-1");
+        order.put("StoreID", "store-1");
+        order.put("UserID", "user-1");
+        order.put("StoreLocation", "47.6062,-122.3321");
+        order.put("Status", "created");
+        order.put("AssignedTo", "");
+        order.put("Version", "1");
+        return order;
+    }
+}
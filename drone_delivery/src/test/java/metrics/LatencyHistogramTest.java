@@ -0,0 +1,74 @@
+package metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValueInOrder() {
+        long previousHighest = -1;
+        int previousBucket = -1;
+        for (long value : new long[]{0, 1, 127, 128, 129, 255, 256, 1_000, 1_000_000, 1L << 40, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket >= previousBucket);
+            assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.highestValueOf(bucket - 1));
+            }
+            previousBucket = bucket;
+            previousHighest = LatencyHistogram.highestValueOf(bucket);
+        }
+        assertEquals(Long.MAX_VALUE, previousHighest);
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketPrecision() {
+        Random random = new Random(3);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform from 1 us to 10 s
+            values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 7);
+            histogram.recordNanos(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{0, 50, 90, 99, 99.9, 100}) {
+            long expected = values[Math.max(0, (int) Math.ceil(percentile / 100 * values.length) - 1)];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual + " vs " + expected,
+                    actual >= expected && actual <= expected * 1.016 + 1);
+        }
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMaxNanos());
+        assertEquals(Arrays.stream(values).average().orElse(0), histogram.getMeanNanos(), 1);
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testRegistryDumps() {
+        LocalMetricsRegistry metrics = new LocalMetricsRegistry();
+        MetricsRegistry west = metrics.withPrefix("west.");
+        west.counter("order.matched").add(3);
+        west.histogram("dynamo.assign").recordNanos(2_500_000);
+        west.gauge("backlog.depth", () -> 7);
+        metrics.gauge("broken", () -> {
+            throw new IllegalStateException();
+        });
+
+        assertSame(metrics.counter("west.order.matched"), west.counter("order.matched"));
+        String text = metrics.toText();
+        assertTrue(text, text.contains("west.dynamo.assign count=1 mean=2.500 p50="));
+        assertTrue(text, text.contains("west.order.matched 3\n"));
+        assertTrue(text, text.contains("west.backlog.depth 7\n"));
+        assertTrue(text, text.contains("broken -1\n"));
+        String json = metrics.toJson();
+        assertTrue(json, json.contains("\"west.order.matched\":3"));
+        assertTrue(json, json.contains("\"west.dynamo.assign\":{\"count\":1,\"meanMillis\":2.5,"));
+        assertTrue(json, json.contains("\"p999Millis\""));
+    }
+}
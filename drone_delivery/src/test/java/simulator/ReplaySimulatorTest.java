@@ -0,0 +1,105 @@
+package simulator;
+
+import geo.GeoPoint;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplaySimulatorTest {
+
+    private static final OrderStream.Bounds CITY = new OrderStream.Bounds(47.4, -122.5, 47.8, -122.1);
+
+    @Test
+    public void testEveryStrategyMatchesTheWholeStream() {
+        Random random = new Random(5);
+        List<SimulatedOrder> orders = OrderStream.synthetic(2000, 0.2, CITY, 5, random);
+        ReplaySimulator simulator = new ReplaySimulator(OrderStream.fleet(200, CITY, random), 60, 500, 50, 10, 2);
+
+        SimulationResult linear = simulator.run(orders, MatchingStrategy.LINEAR);
+        SimulationResult indexed = simulator.run(orders, MatchingStrategy.INDEXED);
+        SimulationResult batch = simulator.run(orders, MatchingStrategy.BATCH);
+        for (SimulationResult result : List.of(linear, indexed, batch)) {
+            assertEquals(2000, result.getMatched());
+            assertEquals(2000, result.getAssignmentLatency().getCount());
+            assertTrue(result.getOrdersPerSecond() > 0);
+            assertTrue(result.getMeanPickupKm() > 0);
+        }
+        // Both greedy strategies pick the same nearest drone every time
+        assertEquals(linear.getMeanPickupKm(), indexed.getMeanPickupKm(), 1e-9);
+        assertEquals(linear.getMakespanMillis(), indexed.getMakespanMillis());
+        // With drones to spare, greedy assigns on arrival and a batch within its window
+        assertEquals(0, linear.getAssignmentLatency().getMaxNanos());
+        assertTrue(batch.getAssignmentLatency().getValueAtPercentile(50) > 0);
+        assertTrue(batch.getAssignmentLatency().getMaxNanos() <= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void testBatchBeatsGreedyWhenTheNearestDroneIsBetterSpentElsewhere() {
+        List<GeoPoint> fleet = List.of(new GeoPoint(0, 0), new GeoPoint(0, 0.02));
+        List<SimulatedOrder> orders = List.of(
+                order(0, 0, 0.009),
+                order(0, 0, -0.005));
+        ReplaySimulator simulator = new ReplaySimulator(fleet, 60, 100, 10, 10, 50);
+
+        SimulationResult greedy = simulator.run(orders, MatchingStrategy.INDEXED);
+        SimulationResult batch = simulator.run(orders, MatchingStrategy.BATCH);
+        assertEquals(2, greedy.getMatched());
+        assertEquals(2, batch.getMatched());
+        // Greedy sends the first drone to the first order and the second one all the way across
+        assertEquals((0.009 + 0.025) / 2, degrees(greedy.getMeanPickupKm()), 1e-6);
+        assertEquals((0.011 + 0.005) / 2, degrees(batch.getMeanPickupKm()), 1e-6);
+    }
+
+    @Test
+    public void testOrdersWaitForBusyDronesOldestFirst() {
+        List<GeoPoint> fleet = List.of(new GeoPoint(0, 0));
+        // Each delivery is about 1.1 km there and back at 66.7 km/h, roughly a minute
+        List<SimulatedOrder> orders = List.of(
+                new SimulatedOrder("a", 0, new GeoPoint(0, 0), new GeoPoint(0, 0.01)),
+                new SimulatedOrder("b", 10, new GeoPoint(0, 0.01), new GeoPoint(0, 0)),
+                new SimulatedOrder("c", 20, new GeoPoint(0, 0), new GeoPoint(0, 0)));
+        SimulationResult result = new ReplaySimulator(fleet, 66.7, 0, 10, 10, 50)
+                .run(orders, MatchingStrategy.LINEAR);
+
+        assertEquals(3, result.getMatched());
+        // b waits for a's trip, c for both
+        assertTrue(result.getAssignmentLatency().getMaxNanos() > TimeUnit.SECONDS.toNanos(100));
+        assertEquals(0, result.getMeanPickupKm(), 1e-9);
+    }
+
+    @Test
+    public void testLoadsRecordedStream() throws Exception {
+        Path file = Files.createTempFile("orders", ".csv");
+        try {
+            Files.write(file, List.of(
+                    "arrivalMillis,storeLat,storeLon,destinationLat,destinationLon",
+                    "# recorded 2024-05-01",
+                    "1714564805000,47.61,-122.33,47.62,-122.34",
+                    "1714564800000,47.60,-122.32"), StandardCharsets.UTF_8);
+            List<SimulatedOrder> orders = OrderStream.load(file);
+            assertEquals(2, orders.size());
+            assertEquals(0, orders.get(0).getArrivalMillis());
+            assertEquals(orders.get(0).getStore(), orders.get(0).getDestination());
+            assertEquals(5000, orders.get(1).getArrivalMillis());
+            assertEquals(new GeoPoint(47.62, -122.34), orders.get(1).getDestination());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static SimulatedOrder order(long arrivalMillis, double lat, double lon) {
+        GeoPoint store = new GeoPoint(lat, lon);
+        return new SimulatedOrder("order-" + lon, arrivalMillis, store, store);
+    }
+
+    private static double degrees(double km) {
+        return Math.toDegrees(km / geo.GeoMath.EARTH_RADIUS_KM);
+    }
+}
@@ -0,0 +1,195 @@
+package stream;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class DynamoDbStreamPollerTest {
+
+    private static final String STREAM_ARN = "arn:aws:dynamodb:us-east-1:0:table/Drones/stream/now";
+
+    @Test
+    public void testChildShardWaitsForItsParent() throws InterruptedException {
+        LocalStream stream = new LocalStream();
+        stream.addShard("shard-0", null);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        try (DynamoDbStreamPoller poller = new DynamoDbStreamPoller(stream, STREAM_ARN, 10,
+                record -> delivered.add(record.dynamodb().sequenceNumber()))) {
+            poller.start();
+
+            // A split listed child first: the child must not overtake the parent's older changes
+            stream.add("shard-0", "1");
+            stream.addShard("shard-2", "shard-1");
+            stream.add("shard-2", "4");
+            stream.add("shard-2", "5");
+            stream.addShard("shard-1", "shard-0");
+            stream.add("shard-1", "2");
+            stream.add("shard-1", "3");
+            stream.close("shard-1");
+            stream.close("shard-0");
+
+            waitFor(() -> delivered.size() == 5);
+            assertEquals(List.of("1", "2", "3", "4", "5"), delivered);
+        }
+    }
+
+    @Test
+    public void testLastPolledAtOnlyMovesWhenEveryShardIsDrained() throws InterruptedException {
+        LocalStream stream = new LocalStream();
+        stream.addShard("shard-0", null);
+        try (DynamoDbStreamPoller poller = new DynamoDbStreamPoller(stream, STREAM_ARN, 10, record -> { })) {
+            poller.start();
+            long startedAt = poller.getLastPolledAt();
+            waitFor(() -> poller.getLastPolledAt() > startedAt);
+
+            // A backlog of more than one page holds the time back until it has been read
+            stream.hold(true);
+            for (int i = 0; i < 2500; i++) {
+                stream.add("shard-0", String.valueOf(i));
+            }
+            Thread.sleep(50);
+            long held = poller.getLastPolledAt();
+            Thread.sleep(50);
+            assertEquals(held, poller.getLastPolledAt());
+
+            stream.hold(false);
+            waitFor(() -> poller.getLastPolledAt() > held);
+            assertEquals(2500, stream.position("shard-0"));
+        }
+    }
+
+    @Test
+    public void testRecordTheListenerFailsOnIsSkipped() throws InterruptedException {
+        LocalStream stream = new LocalStream();
+        stream.addShard("shard-0", null);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        try (DynamoDbStreamPoller poller = new DynamoDbStreamPoller(stream, STREAM_ARN, 10, record -> {
+            if (record.dynamodb().sequenceNumber().equals("2")) {
+                throw new IllegalArgumentException("poison");
+            }
+            delivered.add(record.dynamodb().sequenceNumber());
+        })) {
+            poller.start();
+            stream.add("shard-0", "1");
+            stream.add("shard-0", "2");
+            stream.add("shard-0", "3");
+
+            waitFor(() -> delivered.size() == 2);
+            assertEquals(List.of("1", "3"), delivered);
+            assertEquals(1, poller.getFailedRecords());
+            long polledAt = poller.getLastPolledAt();
+            waitFor(() -> poller.getLastPolledAt() > polledAt);
+            assertEquals(List.of("1", "3"), delivered);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * An in-memory stream whose iterators are {@code shardId:position}. While held, every read
+     * returns one full page from the start of the shard and never gets any further.
+     */
+    private static class LocalStream implements DynamoDbStreamsClient {
+        private final Map<String, List<String>> records = new LinkedHashMap<>();
+        private final Map<String, String> parents = new HashMap<>();
+        private final Set<String> closed = new HashSet<>();
+        private final Map<String, Integer> positions = new HashMap<>();
+        private boolean held;
+
+        synchronized void addShard(String shardId, String parentShardId) {
+            records.put(shardId, new ArrayList<>());
+            parents.put(shardId, parentShardId);
+        }
+
+        synchronized void add(String shardId, String sequenceNumber) {
+            records.get(shardId).add(sequenceNumber);
+        }
+
+        synchronized void close(String shardId) {
+            closed.add(shardId);
+        }
+
+        synchronized void hold(boolean held) {
+            this.held = held;
+        }
+
+        synchronized int position(String shardId) {
+            return positions.getOrDefault(shardId, 0);
+        }
+
+        @Override
+        public synchronized DescribeStreamResponse describeStream(DescribeStreamRequest request) {
+            List<Shard> shards = new ArrayList<>();
+            records.forEach((shardId, shardRecords) -> shards.add(Shard.builder()
+                    .shardId(shardId)
+                    .parentShardId(parents.get(shardId))
+                    .sequenceNumberRange(SequenceNumberRange.builder()
+                            .endingSequenceNumber(closed.contains(shardId) ? "end" : null)
+                            .build())
+                    .build()));
+            return DescribeStreamResponse.builder()
+                    .streamDescription(StreamDescription.builder().streamArn(STREAM_ARN).shards(shards).build())
+                    .build();
+        }
+
+        @Override
+        public synchronized GetShardIteratorResponse getShardIterator(GetShardIteratorRequest request) {
+            List<String> shardRecords = records.get(request.shardId());
+            int position;
+            if (request.shardIteratorType() == ShardIteratorType.LATEST) {
+                position = shardRecords.size();
+            } else if (request.shardIteratorType() == ShardIteratorType.AFTER_SEQUENCE_NUMBER) {
+                position = shardRecords.indexOf(request.sequenceNumber()) + 1;
+            } else {
+                position = 0;
+            }
+            return GetShardIteratorResponse.builder().shardIterator(request.shardId() + ":" + position).build();
+        }
+
+        @Override
+        public synchronized GetRecordsResponse getRecords(GetRecordsRequest request) {
+            String[] iterator = request.shardIterator().split(":");
+            String shardId = iterator[0];
+            List<String> shardRecords = records.get(shardId);
+            int from = held ? 0 : Integer.parseInt(iterator[1]);
+            int to = Math.min(shardRecords.size(), from + request.limit());
+            List<Record> page = new ArrayList<>();
+            for (String sequenceNumber : shardRecords.subList(from, to)) {
+                page.add(Record.builder()
+                        .eventName(OperationType.MODIFY)
+                        .dynamodb(StreamRecord.builder().sequenceNumber(sequenceNumber).build())
+                        .build());
+            }
+            if (held) {
+                return GetRecordsResponse.builder().records(page).nextShardIterator(shardId + ":0").build();
+            }
+            positions.put(shardId, to);
+            boolean ended = closed.contains(shardId) && to == shardRecords.size();
+            return GetRecordsResponse.builder()
+                    .records(page)
+                    .nextShardIterator(ended ? null : shardId + ":" + to)
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackStoreTest {
+
+    private static final String DRONE_1 = "3f2a6c1e-8d4b-4a7e-9c01-2b5d6e7f8a90";
+    private static final String DRONE_2 = "drone-2";
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    // Room for three records per segment
+    private static final int SMALL_SEGMENT = TrackSegment.HEADER_SIZE + 3 * TrackRecord.SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScanReturnsPointsInTheTimeRange() throws Exception {
+        try (TrackStore store = new TrackStore(folder.getRoot().toPath(), 1 << 20, HOUR, DAY)) {
+            store.append(1000, DRONE_1, 47.6, -122.3);
+            store.append(2000, DRONE_2, -33.8688197, 151.2092955);
+            store.append(3000, DRONE_1, 47.61, -122.31);
+
+            TrackCursor cursor = store.scan(1500, 3500);
+            assertTrue(cursor.next());
+            assertEquals(2000, cursor.timeMillis());
+            assertEquals(DRONE_2, cursor.droneId());
+            assertEquals(-33.8688197, cursor.lat(), 1e-7);
+            assertEquals(151.2092955, cursor.lon(), 1e-7);
+            assertTrue(cursor.next());
+            assertEquals(3000, cursor.timeMillis());
+            assertEquals(DRONE_1, cursor.droneId());
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void testTrackReadsOneDroneAcrossSegments() throws Exception {
+        try (TrackStore store = new TrackStore(folder.getRoot().toPath(), SMALL_SEGMENT, HOUR, DAY)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(1000 + i, i % 2 == 0 ? DRONE_1 : DRONE_2, i, -i);
+            }
+            assertEquals(4, store.getSegmentCount());
+
+            assertEquals(List.of(1000L, 1002L, 1004L, 1006L, 1008L), times(store.track(DRONE_1, 0, Long.MAX_VALUE)));
+            assertEquals(List.of(1003L, 1005L), times(store.track(DRONE_2, 1002, 1007)));
+            assertTrue(times(store.track("drone-3", 0, Long.MAX_VALUE)).isEmpty());
+        }
+    }
+
+    @Test
+    public void testReopenRecoversPointsAndIndex() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (TrackStore store = new TrackStore(directory, SMALL_SEGMENT, HOUR, DAY)) {
+            for (int i = 0; i < 5; i++) {
+                store.append(1000 + i, i % 2 == 0 ? DRONE_1 : DRONE_2, i, i);
+            }
+        }
+        try (TrackStore store = new TrackStore(directory, SMALL_SEGMENT, HOUR, DAY)) {
+            assertEquals(2, store.getSegmentCount());
+            store.append(1005, DRONE_2, 5, 5);
+            assertEquals(2, store.getSegmentCount());
+
+            assertEquals(List.of(1001L, 1003L, 1005L), times(store.track(DRONE_2, 0, Long.MAX_VALUE)));
+            assertEquals(6, times(store.scan(0, Long.MAX_VALUE)).size());
+        }
+    }
+
+    @Test
+    public void testOldSegmentsRollAndExpire() throws Exception {
+        try (TrackStore store = new TrackStore(folder.getRoot().toPath(), 1 << 20, HOUR, DAY)) {
+            store.append(0, DRONE_1, 1, 1);
+            store.append(HOUR / 2, DRONE_1, 2, 2);
+            store.append(HOUR, DRONE_1, 3, 3);
+            assertEquals(2, store.getSegmentCount());
+
+            // Rolling past the retention period drops the first segment
+            store.append(DAY + HOUR, DRONE_1, 4, 4);
+            assertEquals(2, store.getSegmentCount());
+            assertEquals(List.of(HOUR, DAY + HOUR), times(store.track(DRONE_1, 0, Long.MAX_VALUE)));
+
+            // The active segment is never deleted
+            assertEquals(1, store.deleteExpired(10 * DAY));
+            assertEquals(List.of(DAY + HOUR), times(store.scan(0, Long.MAX_VALUE)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLongNonUuidDroneIdsAreRejected() throws Exception {
+        try (TrackStore store = new TrackStore(folder.getRoot().toPath(), 1 << 20, HOUR, DAY)) {
+            store.append(1000, "a-drone-id-that-does-not-fit", 0, 0);
+        }
+    }
+
+    private static List<Long> times(TrackCursor cursor) {
+        List<Long> times = new ArrayList<>();
+        while (cursor.next()) {
+            times.add(cursor.timeMillis());
+        }
+        return times;
+    }
+}